@@ -61,6 +61,16 @@ class Accessor {
         this.field = null;
     }
 
+    @Nullable
+    Method getMethod() {
+        return method;
+    }
+
+    @Nullable
+    Field getField() {
+        return field;
+    }
+
     Class<?> getValueType() {
         switch (accessorType) {
             case METHOD:
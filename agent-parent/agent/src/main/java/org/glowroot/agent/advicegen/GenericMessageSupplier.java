@@ -31,36 +31,40 @@ import org.glowroot.common.util.UsedByGeneratedBytecode;
 public class GenericMessageSupplier extends MessageSupplier {
 
     private final MessageTemplate template;
-    private final String[] resolvedReceiverPathParts;
-    private final String[] resolvedArgPathParts;
-    private volatile String /*@MonotonicNonNull*/[] resolvedReturnValuePathParts;
+    // the resolved path parts are either already rendered strings or immutable values whose
+    // rendering is deferred until the message is rendered (see
+    // ValuePathPart.evaluatePartForDeferredRendering())
+    private final Object[] resolvedReceiverPathParts;
+    private final Object[] resolvedArgPathParts;
+    private volatile Object /*@MonotonicNonNull*/[] resolvedReturnValuePathParts;
     private final String methodName;
 
     @UsedByGeneratedBytecode
     public static GenericMessageSupplier create(MessageTemplate template, Object receiver,
             String methodName, @Nullable Object... args) {
-        // render paths to strings immediately in case the objects are mutable
-        String[] resolvedReceiverPathParts = new String[template.getThisPathParts().size()];
+        // evaluate paths immediately in case the objects are mutable
+        Object[] resolvedReceiverPathParts = new Object[template.getThisPathParts().size()];
         int i = 0;
         for (ValuePathPart part : template.getThisPathParts()) {
-            resolvedReceiverPathParts[i++] = part.evaluatePart(receiver);
+            resolvedReceiverPathParts[i++] = part.evaluatePartForDeferredRendering(receiver);
         }
-        String[] resolvedArgPathParts = new String[template.getArgPathParts().size()];
+        Object[] resolvedArgPathParts = new Object[template.getArgPathParts().size()];
         i = 0;
         for (ArgPathPart part : template.getArgPathParts()) {
             if (part.getArgNumber() >= args.length) {
                 resolvedArgPathParts[i++] =
                         "<requested arg index out of bounds: " + part.getArgNumber() + ">";
             } else {
-                resolvedArgPathParts[i++] = part.evaluatePart(args[part.getArgNumber()]);
+                resolvedArgPathParts[i++] =
+                        part.evaluatePartForDeferredRendering(args[part.getArgNumber()]);
             }
         }
         return new GenericMessageSupplier(template, resolvedReceiverPathParts, resolvedArgPathParts,
                 methodName);
     }
 
-    private GenericMessageSupplier(MessageTemplate template, String[] resolvedReceiverPathParts,
-            String[] resolvedArgPathParts, String methodName) {
+    private GenericMessageSupplier(MessageTemplate template, Object[] resolvedReceiverPathParts,
+            Object[] resolvedArgPathParts, String methodName) {
         this.template = template;
         this.resolvedReceiverPathParts = resolvedReceiverPathParts;
         this.resolvedArgPathParts = resolvedArgPathParts;
@@ -68,11 +72,11 @@ public class GenericMessageSupplier extends MessageSupplier {
     }
 
     public void setReturnValue(@Nullable Object returnValue) {
-        // render the return value to strings immediately in case it is mutable
-        String[] parts = new String[template.getReturnPathParts().size()];
+        // evaluate the return value paths immediately in case it is mutable
+        Object[] parts = new Object[template.getReturnPathParts().size()];
         int i = 0;
         for (ValuePathPart part : template.getReturnPathParts()) {
-            parts[i++] = part.evaluatePart(returnValue);
+            parts[i++] = part.evaluatePartForDeferredRendering(returnValue);
         }
         this.resolvedReturnValuePathParts = parts;
     }
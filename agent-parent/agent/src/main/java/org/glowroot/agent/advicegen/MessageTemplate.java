@@ -170,13 +170,20 @@ public class MessageTemplate {
             this.pathEvaluator = new PathEvaluator(valueClass, propertyPath);
         }
 
-        String evaluatePart(@Nullable Object base) {
+        // the path is evaluated immediately in case the objects along the path are mutable (or
+        // are reused after the method returns), but the conversion to string is deferred until the
+        // message is rendered if the value is immutable
+        Object evaluatePartForDeferredRendering(@Nullable Object base) {
             if (base == null) {
                 // this is same as String.valueOf((Object) null);
                 return "null";
             }
             try {
-                return valueOf(pathEvaluator.evaluateOnBase(base));
+                Object value = pathEvaluator.evaluateOnBase(base);
+                if (isImmutable(value)) {
+                    return value;
+                }
+                return valueOf(value);
             } catch (InvocationTargetException e) {
                 logger.debug(e.getMessage(), e);
                 // InvocationTargetException has the problem of obscuring the original message
@@ -191,6 +198,18 @@ public class MessageTemplate {
             }
         }
 
+        private static boolean isImmutable(@Nullable Object value) {
+            if (value == null) {
+                return false;
+            }
+            Class<?> valueClass = value.getClass();
+            return valueClass == String.class || valueClass == Integer.class
+                    || valueClass == Long.class || valueClass == Boolean.class
+                    || valueClass == Double.class || valueClass == Float.class
+                    || valueClass == Short.class || valueClass == Byte.class
+                    || valueClass == Character.class || value instanceof Enum;
+        }
+
         private String valueOf(@Nullable Object value) {
             if (value == null || !value.getClass().isArray()) {
                 // shortcut the common case
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.advicegen;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.weaving.ClassLoaders;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.IFNONNULL;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_5;
+
+// compiles the accessor chain of a PathEvaluator into a generated class that calls the getters and
+// reads the fields directly, instead of going through Method.invoke() / Field.get() for every
+// captured trace entry
+//
+// the generated class is defined in the class loader of the path's base class, so it can only
+// compile accessors to public members of public classes that are visible from that class loader,
+// in all other cases (or if defining the class fails) the path is evaluated using reflection
+class PathCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PathCompiler.class);
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private PathCompiler() {}
+
+    static @Nullable CompiledPath compile(Class<?> baseClass, List<Accessor> accessors) {
+        if (accessors.isEmpty()) {
+            return null;
+        }
+        List<Member> members = Lists.newArrayList();
+        List<Class<?>> referencedClasses = Lists.newArrayList();
+        referencedClasses.add(CompiledPath.class);
+        Class<?> currClass = baseClass;
+        for (Accessor accessor : accessors) {
+            if (isPossiblyArray(currClass)) {
+                // Accessor.evaluate() maps over arrays at runtime
+                return null;
+            }
+            Member member = accessor.getMethod();
+            if (member == null) {
+                member = accessor.getField();
+            }
+            if (member == null || !isCompilable(member)) {
+                return null;
+            }
+            members.add(member);
+            referencedClasses.add(member.getDeclaringClass());
+            currClass = accessor.getValueType();
+        }
+        ClassLoader loader = baseClass.getClassLoader();
+        if (loader == null) {
+            loader = ClassLoader.getSystemClassLoader();
+        }
+        if (loader == null || !isVisible(referencedClasses, loader)) {
+            return null;
+        }
+        String internalName =
+                "org/glowroot/agent/advicegen/GeneratedPath" + counter.incrementAndGet();
+        try {
+            Class<?> compiledClass = ClassLoaders.defineClass(internalName.replace('/', '.'),
+                    generate(internalName, members), loader);
+            return (CompiledPath) compiledClass.newInstance();
+        } catch (Throwable t) {
+            logger.debug("unable to compile path for class {}: {}", baseClass.getName(),
+                    t.getMessage(), t);
+            return null;
+        }
+    }
+
+    private static byte[] generate(String internalName, List<Member> members) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, internalName, null, "java/lang/Object",
+                new String[] {Type.getInternalName(CompiledPath.class)});
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(ACC_PUBLIC, "evaluate", "(Ljava/lang/Object;)Ljava/lang/Object;",
+                null, new String[] {"java/lang/Exception"});
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 1);
+        for (int i = 0; i < members.size(); i++) {
+            if (i > 0) {
+                // return null if any value along the path is null
+                Label notNullLabel = new Label();
+                mv.visitInsn(DUP);
+                mv.visitJumpInsn(IFNONNULL, notNullLabel);
+                mv.visitInsn(POP);
+                mv.visitInsn(ACONST_NULL);
+                mv.visitInsn(ARETURN);
+                mv.visitLabel(notNullLabel);
+            }
+            Member member = members.get(i);
+            String owner = Type.getInternalName(member.getDeclaringClass());
+            mv.visitTypeInsn(CHECKCAST, owner);
+            Class<?> valueType;
+            if (member instanceof Method) {
+                Method method = (Method) member;
+                boolean itf = method.getDeclaringClass().isInterface();
+                mv.visitMethodInsn(itf ? INVOKEINTERFACE : INVOKEVIRTUAL, owner, method.getName(),
+                        Type.getMethodDescriptor(method), itf);
+                valueType = method.getReturnType();
+            } else {
+                Field field = (Field) member;
+                mv.visitFieldInsn(GETFIELD, owner, field.getName(),
+                        Type.getDescriptor(field.getType()));
+                valueType = field.getType();
+            }
+            if (valueType.isPrimitive()) {
+                // primitive values are always at the end of the compiled path since there are no
+                // accessors on primitive types
+                box(mv, valueType);
+            }
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void box(MethodVisitor mv, Class<?> primitiveType) {
+        if (primitiveType == void.class) {
+            mv.visitInsn(ACONST_NULL);
+            return;
+        }
+        Type type = Type.getType(primitiveType);
+        String boxedInternalName;
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                boxedInternalName = "java/lang/Boolean";
+                break;
+            case Type.CHAR:
+                boxedInternalName = "java/lang/Character";
+                break;
+            case Type.BYTE:
+                boxedInternalName = "java/lang/Byte";
+                break;
+            case Type.SHORT:
+                boxedInternalName = "java/lang/Short";
+                break;
+            case Type.INT:
+                boxedInternalName = "java/lang/Integer";
+                break;
+            case Type.FLOAT:
+                boxedInternalName = "java/lang/Float";
+                break;
+            case Type.LONG:
+                boxedInternalName = "java/lang/Long";
+                break;
+            case Type.DOUBLE:
+                boxedInternalName = "java/lang/Double";
+                break;
+            default:
+                throw new AssertionError("Unexpected primitive type: " + primitiveType);
+        }
+        mv.visitMethodInsn(INVOKESTATIC, boxedInternalName, "valueOf",
+                "(" + type.getDescriptor() + ")L" + boxedInternalName + ";", false);
+    }
+
+    private static boolean isPossiblyArray(Class<?> clazz) {
+        return clazz.isArray() || clazz == Object.class || clazz == Cloneable.class
+                || clazz == Serializable.class;
+    }
+
+    private static boolean isCompilable(Member member) {
+        int modifiers = member.getModifiers();
+        return Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers)
+                && Modifier.isPublic(member.getDeclaringClass().getModifiers());
+    }
+
+    private static boolean isVisible(List<Class<?>> classes, ClassLoader loader) {
+        for (Class<?> clazz : classes) {
+            try {
+                if (Class.forName(clazz.getName(), false, loader) != clazz) {
+                    return false;
+                }
+            } catch (ClassNotFoundException e) {
+                logger.debug(e.getMessage(), e);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -15,20 +15,29 @@
  */
 package org.glowroot.agent.advicegen;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import javax.annotation.Nullable;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 class PathEvaluator {
 
+    private static final Logger logger = LoggerFactory.getLogger(PathEvaluator.class);
+
     private static final Splitter splitter = Splitter.on('.').omitEmptyStrings();
 
     private final Accessor[] accessors;
     private final String /*@Nullable*/[] remainingPath;
 
+    // null if the accessors could not be compiled, or if the compiled path failed to link
+    private volatile @Nullable CompiledPath compiledPath;
+
     PathEvaluator(Class<?> baseClass, String path) {
         List<String> parts = Lists.newArrayList(splitter.split(path));
         List<Accessor> accessors = Lists.newArrayList();
@@ -49,10 +58,40 @@ class PathEvaluator {
         } else {
             remainingPath = parts.toArray(new String[parts.size()]);
         }
+        compiledPath = PathCompiler.compile(baseClass, accessors);
     }
 
     @Nullable
     Object evaluateOnBase(Object base) throws Exception {
+        Object curr = evaluateAccessors(base);
+        if (curr == null) {
+            return null;
+        }
+        if (remainingPath != null) {
+            // too bad, revert to slow Beans
+            return Beans.value(curr, remainingPath);
+        }
+        return curr;
+    }
+
+    @VisibleForTesting
+    boolean isCompiled() {
+        return compiledPath != null;
+    }
+
+    private @Nullable Object evaluateAccessors(Object base) throws Exception {
+        CompiledPath compiledPath = this.compiledPath;
+        if (compiledPath != null) {
+            try {
+                return compiledPath.evaluate(base);
+            } catch (LinkageError e) {
+                logger.debug(e.getMessage(), e);
+                this.compiledPath = null;
+            } catch (Exception e) {
+                // wrap the same as reflection does, so that it is reported the same way
+                throw new InvocationTargetException(e);
+            }
+        }
         Object curr = base;
         for (Accessor accessor : accessors) {
             curr = accessor.evaluate(curr);
@@ -60,10 +99,6 @@ class PathEvaluator {
                 return null;
             }
         }
-        if (remainingPath != null) {
-            // too bad, revert to slow Beans
-            return Beans.value(curr, remainingPath);
-        }
         return curr;
     }
 }
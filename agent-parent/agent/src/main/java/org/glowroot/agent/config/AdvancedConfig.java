@@ -32,6 +32,9 @@ public abstract class AdvancedConfig {
     public static final int OVERALL_AGGREGATE_SERVICE_CALLS_HARD_LIMIT_MULTIPLIER = 10;
     public static final int TRANSACTION_AGGREGATE_SERVICE_CALLS_HARD_LIMIT_MULTIPLIER = 2;
 
+    public static final int OVERALL_AGGREGATE_ERROR_MESSAGES_HARD_LIMIT_MULTIPLIER = 10;
+    public static final int TRANSACTION_AGGREGATE_ERROR_MESSAGES_HARD_LIMIT_MULTIPLIER = 2;
+
     @Value.Default
     @JsonInclude(value = Include.NON_EMPTY)
     public boolean weavingTimer() {
@@ -19,9 +19,9 @@ import java.io.File;
 import java.util.List;
 
 import org.glowroot.agent.fat.storage.AgentDao;
+import org.glowroot.agent.fat.storage.TraceDao;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.GaugeValueRepository;
-import org.glowroot.storage.repo.TraceRepository;
 import org.glowroot.storage.repo.helper.AlertingService;
 import org.glowroot.wire.api.Collector;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
@@ -29,7 +29,6 @@ import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.SystemInfo;
-import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 class CollectorImpl implements Collector {
 
@@ -37,16 +36,16 @@ class CollectorImpl implements Collector {
 
     private final AgentDao agentDao;
     private final AggregateRepository aggregateRepository;
-    private final TraceRepository traceRepository;
+    private final TraceDao traceDao;
     private final GaugeValueRepository gaugeValueRepository;
     private final AlertingService alertingService;
 
     CollectorImpl(AgentDao agentDao, AggregateRepository aggregateRepository,
-            TraceRepository traceRepository, GaugeValueRepository gaugeValueRepository,
+            TraceDao traceDao, GaugeValueRepository gaugeValueRepository,
             AlertingService alertingService) {
         this.agentDao = agentDao;
         this.aggregateRepository = aggregateRepository;
-        this.traceRepository = traceRepository;
+        this.traceDao = traceDao;
         this.gaugeValueRepository = gaugeValueRepository;
         this.alertingService = alertingService;
     }
@@ -61,7 +60,7 @@ class CollectorImpl implements Collector {
     public void collectAggregates(long captureTime, List<AggregatesByType> aggregatesByType)
             throws Exception {
         aggregateRepository.store(AGENT_ID, captureTime, aggregatesByType);
-        alertingService.checkTransactionAlerts(captureTime);
+        alertingService.checkTransactionAlerts(AGENT_ID, captureTime, aggregatesByType);
     }
 
     @Override
@@ -70,8 +69,8 @@ class CollectorImpl implements Collector {
     }
 
     @Override
-    public void collectTrace(Trace trace) throws Exception {
-        traceRepository.collect(AGENT_ID, trace);
+    public void collectTrace(TraceReader traceReader) throws Exception {
+        traceDao.collect(traceReader);
     }
 
     @Override
@@ -133,7 +133,7 @@ class FatAgentModule {
             CollectorImpl collectorImpl =
                     new CollectorImpl(simpleRepoModule.getAgentDao(),
                             simpleRepoModule.getAggregateRepository(),
-                            simpleRepoModule.getTraceRepository(),
+                            simpleRepoModule.getTraceDao(),
                             simpleRepoModule.getGaugeValueRepository(),
                             simpleRepoModule.getAlertingService());
             collectorProxy.setInstance(collectorImpl);
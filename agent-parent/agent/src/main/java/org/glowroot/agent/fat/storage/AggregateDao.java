@@ -42,6 +42,7 @@ import org.glowroot.agent.fat.storage.util.DataSource.JdbcRowQuery;
 import org.glowroot.agent.fat.storage.util.DataSource.JdbcUpdate;
 import org.glowroot.agent.fat.storage.util.ImmutableColumn;
 import org.glowroot.agent.fat.storage.util.ImmutableIndex;
+import org.glowroot.agent.fat.storage.util.PartitionedTable;
 import org.glowroot.agent.fat.storage.util.RowMappers;
 import org.glowroot.agent.fat.storage.util.Schemas.Column;
 import org.glowroot.agent.fat.storage.util.Schemas.ColumnType;
@@ -54,6 +55,7 @@ import org.glowroot.storage.config.ConfigDefaults;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.ConfigRepository.RollupConfig;
+import org.glowroot.storage.repo.ErrorMessageResultCollector;
 import org.glowroot.storage.repo.ImmutableOverallErrorSummary;
 import org.glowroot.storage.repo.ImmutableOverallSummary;
 import org.glowroot.storage.repo.ImmutableOverviewAggregate;
@@ -63,6 +65,7 @@ import org.glowroot.storage.repo.MutableAggregate;
 import org.glowroot.storage.repo.ProfileCollector;
 import org.glowroot.storage.repo.TransactionErrorSummaryCollector;
 import org.glowroot.storage.repo.TransactionSummaryCollector;
+import org.glowroot.storage.repo.Utils;
 import org.glowroot.storage.repo.helper.RollupLevelService;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -90,6 +93,7 @@ public class AggregateDao implements AggregateRepository {
                     ImmutableColumn.of("async_transactions", ColumnType.BOOLEAN),
                     ImmutableColumn.of("queries_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("service_calls_capped_id", ColumnType.BIGINT),
+                    ImmutableColumn.of("error_messages_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("main_thread_profile_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("async_thread_profile_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("main_thread_root_timers", ColumnType.VARBINARY), // protobuf
@@ -110,6 +114,7 @@ public class AggregateDao implements AggregateRepository {
                     ImmutableColumn.of("async_transactions", ColumnType.BOOLEAN),
                     ImmutableColumn.of("queries_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("service_calls_capped_id", ColumnType.BIGINT),
+                    ImmutableColumn.of("error_messages_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("main_thread_profile_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("async_thread_profile_capped_id", ColumnType.BIGINT),
                     ImmutableColumn.of("main_thread_root_timers", ColumnType.VARBINARY), // protobuf
@@ -137,30 +142,42 @@ public class AggregateDao implements AggregateRepository {
     private final List<CappedDatabase> rollupCappedDatabases;
     private final ConfigRepository configRepository;
     private final TransactionTypeDao transactionTypeDao;
+    private final ParallelMerger parallelMerger;
+
+    // indexed by rollup level
+    private final ImmutableList<PartitionedTable> overallTables;
+    private final ImmutableList<PartitionedTable> transactionTables;
 
     private final AtomicLongArray lastRollupTimes;
 
     private final Object rollupLock = new Object();
 
     AggregateDao(DataSource dataSource, List<CappedDatabase> rollupCappedDatabases,
-            ConfigRepository configRepository, TransactionTypeDao transactionTypeDao)
-                    throws Exception {
+            ConfigRepository configRepository, TransactionTypeDao transactionTypeDao,
+            ParallelMerger parallelMerger) throws Exception {
         this.dataSource = dataSource;
         this.rollupCappedDatabases = rollupCappedDatabases;
         this.configRepository = configRepository;
         this.transactionTypeDao = transactionTypeDao;
+        this.parallelMerger = parallelMerger;
 
         List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        List<PartitionedTable> overallTables = Lists.newArrayList();
+        List<PartitionedTable> transactionTables = Lists.newArrayList();
         for (int i = 0; i < rollupConfigs.size(); i++) {
             String overallTableName = "aggregate_tt_rollup_" + castUntainted(i);
-            dataSource.syncTable(overallTableName, overallAggregatePointColumns);
-            dataSource.syncIndexes(overallTableName, ImmutableList.<Index>of(
-                    ImmutableIndex.of(overallTableName + "_idx", overallAggregateIndexColumns)));
+            overallTables.add(new PartitionedTable(dataSource, overallTableName,
+                    overallAggregatePointColumns, ImmutableList.<Index>of(ImmutableIndex
+                            .of(overallTableName + "_idx", overallAggregateIndexColumns)),
+                    ExpirationHours.rollup(configRepository, i)));
             String transactionTableName = "aggregate_tn_rollup_" + castUntainted(i);
-            dataSource.syncTable(transactionTableName, transactionAggregateColumns);
-            dataSource.syncIndexes(transactionTableName, ImmutableList.<Index>of(ImmutableIndex
-                    .of(transactionTableName + "_idx", transactionAggregateIndexColumns)));
+            transactionTables.add(new PartitionedTable(dataSource, transactionTableName,
+                    transactionAggregateColumns, ImmutableList.<Index>of(ImmutableIndex
+                            .of(transactionTableName + "_idx", transactionAggregateIndexColumns)),
+                    ExpirationHours.rollup(configRepository, i)));
         }
+        this.overallTables = ImmutableList.copyOf(overallTables);
+        this.transactionTables = ImmutableList.copyOf(transactionTables);
 
         // don't need last_rollup_times table like in GaugePointDao since there is already index
         // on capture_time so these queries are relatively fast
@@ -264,16 +281,8 @@ public class AggregateDao implements AggregateRepository {
         // then do the expensive part of reading and constructing the protobuf messages outside of
         // the data source lock
         List<CappedId> cappedIds = dataSource.query(new CappedIdQuery("queries_capped_id", query));
-        long captureTime = Long.MIN_VALUE;
-        for (CappedId cappedId : cappedIds) {
-            captureTime = Math.max(captureTime, cappedId.captureTime());
-            List<Aggregate.QueriesByType> queries = rollupCappedDatabases.get(query.rollupLevel())
-                    .readMessages(cappedId.cappedId(), Aggregate.QueriesByType.parser());
-            if (queries != null) {
-                collector.mergeQueries(queries);
-                collector.updateLastCaptureTime(captureTime);
-            }
-        }
+        parallelMerger.merge(cappedIds, collector,
+                new QueryMerger(rollupCappedDatabases.get(query.rollupLevel())));
     }
 
     // query.from() is non-inclusive
@@ -285,15 +294,25 @@ public class AggregateDao implements AggregateRepository {
         // the data source lock
         List<CappedId> cappedIds =
                 dataSource.query(new CappedIdQuery("service_calls_capped_id", query));
-        long captureTime = Long.MIN_VALUE;
+        parallelMerger.merge(cappedIds, collector,
+                new ServiceCallMerger(rollupCappedDatabases.get(query.rollupLevel())));
+    }
+
+    // query.from() is non-inclusive
+    @Override
+    public void mergeInErrorMessages(ErrorMessageResultCollector collector,
+            TransactionQuery query) throws Exception {
+        // get list of capped ids first since that is done under the data source lock
+        // then do the expensive part of reading and constructing the protobuf messages outside of
+        // the data source lock
+        List<CappedId> cappedIds =
+                dataSource.query(new CappedIdQuery("error_messages_capped_id", query));
         for (CappedId cappedId : cappedIds) {
-            captureTime = Math.max(captureTime, cappedId.captureTime());
-            List<Aggregate.ServiceCallsByType> queries =
+            List<Aggregate.ErrorMessage> errorMessages =
                     rollupCappedDatabases.get(query.rollupLevel()).readMessages(cappedId.cappedId(),
-                            Aggregate.ServiceCallsByType.parser());
-            if (queries != null) {
-                collector.mergeServiceCalls(queries);
-                collector.updateLastCaptureTime(captureTime);
+                            Aggregate.ErrorMessage.parser());
+            if (errorMessages != null) {
+                collector.mergeErrorMessages(cappedId.captureTime(), errorMessages);
             }
         }
     }
@@ -347,15 +366,15 @@ public class AggregateDao implements AggregateRepository {
 
     @Override
     public void deleteAll(String agentRollup) throws Exception {
-        for (int i = 0; i < configRepository.getRollupConfigs().size(); i++) {
-            dataSource.execute("truncate table aggregate_tt_rollup_" + castUntainted(i));
-            dataSource.execute("truncate table aggregate_tn_rollup_" + castUntainted(i));
+        for (int i = 0; i < overallTables.size(); i++) {
+            overallTables.get(i).truncate();
+            transactionTables.get(i).truncate();
         }
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws Exception {
-        dataSource.deleteBefore("aggregate_tt_rollup_" + castUntainted(rollupLevel), captureTime);
-        dataSource.deleteBefore("aggregate_tn_rollup_" + castUntainted(rollupLevel), captureTime);
+        overallTables.get(rollupLevel).dropBefore(captureTime);
+        transactionTables.get(rollupLevel).dropBefore(captureTime);
     }
 
     private void rollup(long lastRollupTime, long curentRollupTime, long fixedIntervalMillis,
@@ -376,16 +395,8 @@ public class AggregateDao implements AggregateRepository {
         // then do the expensive part of reading and constructing the protobuf messages outside of
         // the data source lock
         List<CappedId> cappedIds = dataSource.query(new CappedIdQuery(cappedIdColumnName, query));
-        long captureTime = Long.MIN_VALUE;
-        for (CappedId cappedId : cappedIds) {
-            captureTime = Math.max(captureTime, cappedId.captureTime());
-            Profile profile = rollupCappedDatabases.get(query.rollupLevel())
-                    .readMessage(cappedId.cappedId(), Profile.parser());
-            if (profile != null) {
-                collector.mergeProfile(profile);
-                collector.updateLastCaptureTime(captureTime);
-            }
-        }
+        parallelMerger.merge(cappedIds, collector,
+                new ProfileMerger(rollupCappedDatabases.get(query.rollupLevel())));
     }
 
     private void merge(MutableAggregate mergedAggregate, ResultSet resultSet, int startColumnIndex,
@@ -397,6 +408,7 @@ public class AggregateDao implements AggregateRepository {
         boolean asyncTransactions = resultSet.getBoolean(i++);
         Long queriesCappedId = RowMappers.getLong(resultSet, i++);
         Long serviceCallsCappedId = RowMappers.getLong(resultSet, i++);
+        Long errorMessagesCappedId = RowMappers.getLong(resultSet, i++);
         Long mainThreadProfileCappedId = RowMappers.getLong(resultSet, i++);
         Long auxThreadProfileCappedId = RowMappers.getLong(resultSet, i++);
         byte[] mainThreadRootTimers = resultSet.getBytes(i++);
@@ -449,6 +461,14 @@ public class AggregateDao implements AggregateRepository {
                 mergedAggregate.mergeServiceCalls(serviceCalls);
             }
         }
+        if (errorMessagesCappedId != null) {
+            List<Aggregate.ErrorMessage> errorMessages =
+                    rollupCappedDatabases.get(fromRollupLevel).readMessages(errorMessagesCappedId,
+                            Aggregate.ErrorMessage.parser());
+            if (errorMessages != null) {
+                mergedAggregate.mergeErrorMessages(errorMessages);
+            }
+        }
         if (mainThreadProfileCappedId != null) {
             Profile mainThreadProfile = rollupCappedDatabases.get(fromRollupLevel)
                     .readMessage(mainThreadProfileCappedId, Profile.parser());
@@ -531,6 +551,7 @@ public class AggregateDao implements AggregateRepository {
         private final Aggregate aggregate;
         private final @Nullable Long queriesCappedId;
         private final @Nullable Long serviceCallsCappedId;
+        private final @Nullable Long errorMessagesCappedId;
         private final @Nullable Long mainThreadProfileCappedId;
         private final @Nullable Long auxThreadProfileCappedId;
         private final byte /*@Nullable*/[] mainThreadRootTimers;
@@ -541,9 +562,11 @@ public class AggregateDao implements AggregateRepository {
         private final byte[] durationNanosHistogramBytes;
 
         private final int rollupLevel;
+        private final @Untainted String partitionName;
 
         private AggregateInsert(String transactionType, @Nullable String transactionName,
-                long captureTime, Aggregate aggregate, int rollupLevel) throws IOException {
+                long captureTime, Aggregate aggregate, int rollupLevel)
+                throws IOException, SQLException {
             this.transactionType = transactionType;
             this.transactionName = transactionName;
             this.captureTime = captureTime;
@@ -564,6 +587,13 @@ public class AggregateDao implements AggregateRepository {
                 serviceCallsCappedId = rollupCappedDatabases.get(rollupLevel).writeMessages(
                         serviceCalls, RollupCappedDatabaseStats.AGGREGATE_SERVICE_CALLS);
             }
+            List<Aggregate.ErrorMessage> errorMessages = aggregate.getErrorMessageList();
+            if (errorMessages.isEmpty()) {
+                errorMessagesCappedId = null;
+            } else {
+                errorMessagesCappedId = rollupCappedDatabases.get(rollupLevel).writeMessages(
+                        errorMessages, RollupCappedDatabaseStats.AGGREGATE_ERROR_MESSAGES);
+            }
             if (aggregate.hasMainThreadProfile()) {
                 mainThreadProfileCappedId = rollupCappedDatabases.get(rollupLevel).writeMessage(
                         aggregate.getMainThreadProfile(),
@@ -619,29 +649,31 @@ public class AggregateDao implements AggregateRepository {
                 this.auxThreadStats = null;
             }
             durationNanosHistogramBytes = aggregate.getDurationNanosHistogram().toByteArray();
+            if (transactionName == null) {
+                partitionName =
+                        overallTables.get(rollupLevel).getPartitionForInsert(captureTime);
+            } else {
+                partitionName =
+                        transactionTables.get(rollupLevel).getPartitionForInsert(captureTime);
+            }
         }
 
         @Override
         public @Untainted String getSql() {
             StringBuilder sb = new StringBuilder();
-            sb.append("insert into aggregate_");
-            if (transactionName != null) {
-                sb.append("tn_");
-            } else {
-                sb.append("tt_");
-            }
-            sb.append("rollup_");
-            sb.append(castUntainted(rollupLevel));
+            sb.append("insert into ");
+            sb.append(partitionName);
             sb.append(" (transaction_type,");
             if (transactionName != null) {
                 sb.append(" transaction_name,");
             }
             sb.append(" capture_time, total_duration_nanos, transaction_count, error_count,"
                     + " async_transactions, queries_capped_id, service_calls_capped_id,"
-                    + " main_thread_profile_capped_id, async_thread_profile_capped_id,"
-                    + " main_thread_root_timers, aux_thread_root_timers, async_root_timers,"
-                    + " main_thread_stats, aux_thread_stats, duration_nanos_histogram) values"
-                    + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?");
+                    + " error_messages_capped_id, main_thread_profile_capped_id,"
+                    + " async_thread_profile_capped_id, main_thread_root_timers,"
+                    + " aux_thread_root_timers, async_root_timers, main_thread_stats,"
+                    + " aux_thread_stats, duration_nanos_histogram) values"
+                    + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?");
             if (transactionName != null) {
                 sb.append(", ?");
             }
@@ -664,6 +696,7 @@ public class AggregateDao implements AggregateRepository {
             preparedStatement.setBoolean(i++, aggregate.getAsyncTransactions());
             RowMappers.setLong(preparedStatement, i++, queriesCappedId);
             RowMappers.setLong(preparedStatement, i++, serviceCallsCappedId);
+            RowMappers.setLong(preparedStatement, i++, errorMessagesCappedId);
             RowMappers.setLong(preparedStatement, i++, mainThreadProfileCappedId);
             RowMappers.setLong(preparedStatement, i++, auxThreadProfileCappedId);
             if (mainThreadRootTimers == null) {
@@ -1069,9 +1102,10 @@ public class AggregateDao implements AggregateRepository {
         public @Untainted String getSql() {
             return "select transaction_type, total_duration_nanos, transaction_count, error_count,"
                     + " async_transactions, queries_capped_id, service_calls_capped_id,"
-                    + " main_thread_profile_capped_id, async_thread_profile_capped_id,"
-                    + " main_thread_root_timers, aux_thread_root_timers, async_root_timers,"
-                    + " main_thread_stats, aux_thread_stats, duration_nanos_histogram"
+                    + " error_messages_capped_id, main_thread_profile_capped_id,"
+                    + " async_thread_profile_capped_id, main_thread_root_timers,"
+                    + " aux_thread_root_timers, async_root_timers, main_thread_stats,"
+                    + " aux_thread_stats, duration_nanos_histogram"
                     + " from aggregate_tt_rollup_" + castUntainted(fromRollupLevel)
                     + " where capture_time > ? and capture_time <= ? order by transaction_type";
         }
@@ -1086,13 +1120,16 @@ public class AggregateDao implements AggregateRepository {
         public @Nullable Void processResultSet(ResultSet resultSet) throws Exception {
             int maxAggregateQueriesPerType = getMaxAggregateQueriesPerType();
             int maxAggregateServiceCallsPerType = getMaxAggregateServiceCallsPerType();
+            List<Double> precomputedPercentiles =
+                    Utils.getPrecomputedPercentiles(configRepository, AGENT_ID);
             MutableOverallAggregate curr = null;
             while (resultSet.next()) {
                 String transactionType = checkNotNull(resultSet.getString(1));
                 if (curr == null || !transactionType.equals(curr.transactionType())) {
                     if (curr != null) {
                         dataSource.update(new AggregateInsert(curr.transactionType(), null,
-                                rollupCaptureTime, curr.aggregate().toAggregate(scratchBuffer),
+                                rollupCaptureTime,
+                                curr.aggregate().toAggregate(scratchBuffer, precomputedPercentiles),
                                 toRollupLevel));
                     }
                     curr = ImmutableMutableOverallAggregate.of(transactionType,
@@ -1104,7 +1141,8 @@ public class AggregateDao implements AggregateRepository {
             if (curr != null) {
                 dataSource
                         .update(new AggregateInsert(curr.transactionType(), null, rollupCaptureTime,
-                                curr.aggregate().toAggregate(scratchBuffer), toRollupLevel));
+                                curr.aggregate().toAggregate(scratchBuffer, precomputedPercentiles),
+                                toRollupLevel));
             }
             return null;
         }
@@ -1135,10 +1173,11 @@ public class AggregateDao implements AggregateRepository {
         public @Untainted String getSql() {
             return "select transaction_type, transaction_name, total_duration_nanos,"
                     + " transaction_count, error_count, async_transactions, queries_capped_id,"
-                    + " service_calls_capped_id, main_thread_profile_capped_id,"
-                    + " async_thread_profile_capped_id, main_thread_root_timers,"
-                    + " aux_thread_root_timers, async_root_timers, main_thread_stats,"
-                    + " aux_thread_stats, duration_nanos_histogram from aggregate_tn_rollup_"
+                    + " service_calls_capped_id, error_messages_capped_id,"
+                    + " main_thread_profile_capped_id, async_thread_profile_capped_id,"
+                    + " main_thread_root_timers, aux_thread_root_timers, async_root_timers,"
+                    + " main_thread_stats, aux_thread_stats, duration_nanos_histogram"
+                    + " from aggregate_tn_rollup_"
                     + castUntainted(fromRollupLevel) + " where capture_time > ?"
                     + " and capture_time <= ? order by transaction_type, transaction_name";
         }
@@ -1153,6 +1192,8 @@ public class AggregateDao implements AggregateRepository {
         public @Nullable Void processResultSet(ResultSet resultSet) throws Exception {
             int maxAggregateQueriesPerType = getMaxAggregateQueriesPerType();
             int maxAggregateServiceCallsPerType = getMaxAggregateServiceCallsPerType();
+            List<Double> precomputedPercentiles =
+                    Utils.getPrecomputedPercentiles(configRepository, AGENT_ID);
             MutableTransactionAggregate curr = null;
             while (resultSet.next()) {
                 String transactionType = checkNotNull(resultSet.getString(1));
@@ -1162,7 +1203,8 @@ public class AggregateDao implements AggregateRepository {
                     if (curr != null) {
                         dataSource.update(new AggregateInsert(curr.transactionType(),
                                 curr.transactionName(), rollupCaptureTime,
-                                curr.aggregate().toAggregate(scratchBuffer), toRollupLevel));
+                                curr.aggregate().toAggregate(scratchBuffer, precomputedPercentiles),
+                                toRollupLevel));
                     }
                     curr = ImmutableMutableTransactionAggregate.of(transactionType, transactionName,
                             new MutableAggregate(maxAggregateQueriesPerType,
@@ -1173,7 +1215,8 @@ public class AggregateDao implements AggregateRepository {
             if (curr != null) {
                 dataSource.update(new AggregateInsert(curr.transactionType(),
                         curr.transactionName(), rollupCaptureTime,
-                        curr.aggregate().toAggregate(scratchBuffer), toRollupLevel));
+                        curr.aggregate().toAggregate(scratchBuffer, precomputedPercentiles),
+                        toRollupLevel));
             }
             return null;
         }
@@ -1314,6 +1357,101 @@ public class AggregateDao implements AggregateRepository {
         long cappedId();
     }
 
+    private static class QueryMerger implements ParallelMerger.Merger<CappedId, QueryCollector> {
+
+        private final CappedDatabase cappedDatabase;
+
+        private QueryMerger(CappedDatabase cappedDatabase) {
+            this.cappedDatabase = cappedDatabase;
+        }
+
+        @Override
+        public QueryCollector newPartialCollector() {
+            // partial collectors are not truncated, truncation is done by the final collector
+            return new QueryCollector(Integer.MAX_VALUE, 0);
+        }
+
+        @Override
+        public void merge(QueryCollector collector, CappedId cappedId) throws Exception {
+            List<Aggregate.QueriesByType> queries = cappedDatabase
+                    .readMessages(cappedId.cappedId(), Aggregate.QueriesByType.parser());
+            if (queries != null) {
+                collector.mergeQueries(queries);
+                collector.updateLastCaptureTime(cappedId.captureTime());
+            }
+        }
+
+        @Override
+        public void combine(QueryCollector collector, QueryCollector partialCollector)
+                throws Exception {
+            collector.mergeQueries(partialCollector.toProto());
+            collector.updateLastCaptureTime(partialCollector.getLastCaptureTime());
+        }
+    }
+
+    private static class ServiceCallMerger
+            implements ParallelMerger.Merger<CappedId, ServiceCallCollector> {
+
+        private final CappedDatabase cappedDatabase;
+
+        private ServiceCallMerger(CappedDatabase cappedDatabase) {
+            this.cappedDatabase = cappedDatabase;
+        }
+
+        @Override
+        public ServiceCallCollector newPartialCollector() {
+            // partial collectors are not truncated, truncation is done by the final collector
+            return new ServiceCallCollector(Integer.MAX_VALUE, 0);
+        }
+
+        @Override
+        public void merge(ServiceCallCollector collector, CappedId cappedId) throws Exception {
+            List<Aggregate.ServiceCallsByType> serviceCalls = cappedDatabase
+                    .readMessages(cappedId.cappedId(), Aggregate.ServiceCallsByType.parser());
+            if (serviceCalls != null) {
+                collector.mergeServiceCalls(serviceCalls);
+                collector.updateLastCaptureTime(cappedId.captureTime());
+            }
+        }
+
+        @Override
+        public void combine(ServiceCallCollector collector,
+                ServiceCallCollector partialCollector) throws Exception {
+            collector.mergeServiceCalls(partialCollector.toProto());
+            collector.updateLastCaptureTime(partialCollector.getLastCaptureTime());
+        }
+    }
+
+    private static class ProfileMerger
+            implements ParallelMerger.Merger<CappedId, ProfileCollector> {
+
+        private final CappedDatabase cappedDatabase;
+
+        private ProfileMerger(CappedDatabase cappedDatabase) {
+            this.cappedDatabase = cappedDatabase;
+        }
+
+        @Override
+        public ProfileCollector newPartialCollector() {
+            return new ProfileCollector();
+        }
+
+        @Override
+        public void merge(ProfileCollector collector, CappedId cappedId) throws Exception {
+            Profile profile = cappedDatabase.readMessage(cappedId.cappedId(), Profile.parser());
+            if (profile != null) {
+                collector.mergeProfile(profile);
+                collector.updateLastCaptureTime(cappedId.captureTime());
+            }
+        }
+
+        @Override
+        public void combine(ProfileCollector collector, ProfileCollector partialCollector) {
+            collector.mergeProfile(partialCollector.getProfile().toProto());
+            collector.updateLastCaptureTime(partialCollector.getLastCaptureTime());
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface MutableOverallAggregate {
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.util.List;
+
+import com.google.common.base.Supplier;
+
+import org.glowroot.storage.repo.ConfigRepository;
+
+// suppliers for the expiration of the partitioned tables, the storage config is read each time
+// since it can be changed at runtime (see ReaperRunnable for the matching expirations)
+class ExpirationHours {
+
+    private ExpirationHours() {}
+
+    static Supplier<Integer> rollup(final ConfigRepository configRepository,
+            final int rollupLevel) {
+        return new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                List<Integer> rollupExpirationHours =
+                        configRepository.getStorageConfig().rollupExpirationHours();
+                return rollupExpirationHours
+                        .get(Math.min(rollupLevel, rollupExpirationHours.size() - 1));
+            }
+        };
+    }
+
+    static Supplier<Integer> trace(final ConfigRepository configRepository) {
+        return new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return configRepository.getStorageConfig().traceExpirationHours();
+            }
+        };
+    }
+}
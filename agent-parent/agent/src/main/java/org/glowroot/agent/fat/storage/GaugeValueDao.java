@@ -37,6 +37,7 @@ import org.glowroot.agent.fat.storage.util.DataSource.JdbcRowQuery;
 import org.glowroot.agent.fat.storage.util.DataSource.JdbcUpdate;
 import org.glowroot.agent.fat.storage.util.ImmutableColumn;
 import org.glowroot.agent.fat.storage.util.ImmutableIndex;
+import org.glowroot.agent.fat.storage.util.PartitionedTable;
 import org.glowroot.agent.fat.storage.util.Schemas.Column;
 import org.glowroot.agent.fat.storage.util.Schemas.ColumnType;
 import org.glowroot.agent.fat.storage.util.Schemas.Index;
@@ -63,10 +64,12 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private final GaugeDao gaugeMetaDao;
     private final DataSource dataSource;
-    private final ConfigRepository configRepository;
     private final Clock clock;
     private final ImmutableList<RollupConfig> rollupConfigs;
 
+    // indexed by rollup level
+    private final ImmutableList<PartitionedTable> tables;
+
     // AtomicLongArray used for visibility
     private final AtomicLongArray lastRollupTimes;
 
@@ -76,17 +79,20 @@ public class GaugeValueDao implements GaugeValueRepository {
             Clock clock) throws Exception {
         this.dataSource = dataSource;
         this.gaugeMetaDao = gaugeMetaDao;
-        this.configRepository = configRepository;
         this.clock = clock;
         this.rollupConfigs = ImmutableList.copyOf(RollupConfig.buildRollupConfigs());
 
+        List<PartitionedTable> tables = Lists.newArrayList();
         for (int i = 0; i <= rollupConfigs.size(); i++) {
-            dataSource.syncTable("gauge_value_rollup_" + castUntainted(i), columns);
-            dataSource.syncIndexes("gauge_value_rollup_" + castUntainted(i),
-                    ImmutableList.<Index>of(ImmutableIndex.of(
+            tables.add(new PartitionedTable(dataSource, "gauge_value_rollup_" + castUntainted(i),
+                    columns, ImmutableList.<Index>of(ImmutableIndex.of(
                             "gauge_value_rollup_" + castUntainted(i) + "_idx",
-                            ImmutableList.of("gauge_id", "capture_time", "value", "weight"))));
+                            ImmutableList.of("gauge_id", "capture_time", "value", "weight"))),
+                    // raw gauge values (level 0) expire along with aggregate rollup level 0, and
+                    // then gauge value rollup level i + 1 expires along with aggregate level i
+                    ExpirationHours.rollup(configRepository, Math.max(0, i - 1))));
         }
+        this.tables = ImmutableList.copyOf(tables);
         List<Column> columns = Lists.newArrayList();
         for (int i = 1; i <= rollupConfigs.size(); i++) {
             columns.add(ImmutableColumn.of("last_rollup_" + i + "_time", ColumnType.BIGINT));
@@ -140,7 +146,12 @@ public class GaugeValueDao implements GaugeValueRepository {
             }
             gaugeValueIdMap.put(gaugeValue, gaugeId);
         }
-        dataSource.batchUpdate(new GaugeValuesBinder(gaugeValueIdMap));
+        long maxCaptureTime = 0;
+        for (GaugeValue gaugeValue : gaugeValues) {
+            maxCaptureTime = Math.max(maxCaptureTime, gaugeValue.getCaptureTime());
+        }
+        dataSource.batchUpdate(new GaugeValuesBinder(tables.get(0).getPartitionForInsert(
+                maxCaptureTime), gaugeValueIdMap));
         synchronized (rollupLock) {
             // clock can never go backwards and future gauge captures will wait until this method
             // completes since ScheduledExecutorService.scheduleAtFixedRate() guarantees that future
@@ -181,15 +192,14 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     @Override
     public void deleteAll(String agentRollup) throws Exception {
-        dataSource.execute("truncate table gauge_value_rollup_0");
-        for (int i = 1; i <= configRepository.getRollupConfigs().size(); i++) {
-            dataSource.execute("truncate table gauge_value_rollup_" + castUntainted(i));
+        for (PartitionedTable table : tables) {
+            table.truncate();
         }
         gaugeMetaDao.deleteAll();
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws Exception {
-        dataSource.deleteBefore("gauge_value_rollup_" + castUntainted(rollupLevel), captureTime);
+        tables.get(rollupLevel).dropBefore(captureTime);
     }
 
     private void rollup(long lastRollupTime, long safeRollupTime, long fixedIntervalMillis,
@@ -204,9 +214,11 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private void rollup(long lastRollupTime, long safeRollupTime, @Untainted String captureTimeSql,
             int toRollupLevel, int fromRollupLevel) throws Exception {
-        dataSource.update("insert into gauge_value_rollup_" + castUntainted(toRollupLevel)
-                + " (gauge_id, capture_time, value, weight) select gauge_id, " + captureTimeSql
-                + " ceil_capture_time, sum(value * weight) / sum(weight), sum(weight)"
+        // the rolled up capture times are all less than or equal to safeRollupTime
+        String partitionName = tables.get(toRollupLevel).getPartitionForInsert(safeRollupTime);
+        dataSource.update("insert into " + partitionName + " (gauge_id, capture_time, value,"
+                + " weight) select gauge_id, " + captureTimeSql + " ceil_capture_time,"
+                + " sum(value * weight) / sum(weight), sum(weight)"
                 + " from gauge_value_rollup_" + castUntainted(fromRollupLevel)
                 + " gp where gp.capture_time > ? and gp.capture_time <= ?"
                 + " group by gp.gauge_id, ceil_capture_time", lastRollupTime, safeRollupTime);
@@ -214,15 +226,18 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private class GaugeValuesBinder implements JdbcUpdate {
 
+        private final @Untainted String partitionName;
         private final Map<GaugeValue, Long> gaugeValueIdMap;
 
-        private GaugeValuesBinder(Map<GaugeValue, Long> gaugeValueIdMap) {
+        private GaugeValuesBinder(@Untainted String partitionName,
+                Map<GaugeValue, Long> gaugeValueIdMap) {
+            this.partitionName = partitionName;
             this.gaugeValueIdMap = gaugeValueIdMap;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "insert into gauge_value_rollup_0 (gauge_id, capture_time, value, weight)"
+            return "insert into " + partitionName + " (gauge_id, capture_time, value, weight)"
                     + " values (?, ?, ?, ?)";
         }
 
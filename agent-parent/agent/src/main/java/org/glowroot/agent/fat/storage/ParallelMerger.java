@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.math.IntMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static java.math.RoundingMode.CEILING;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// reads and merges capped database messages (e.g. profiles and queries) in parallel
+//
+// reading from the capped database only holds its lock while copying raw bytes, so decompressing,
+// parsing and merging the messages can proceed in parallel, each task merging into its own
+// partial collector, and the partial collectors are then merged together at the end
+//
+// the embedded repository shares the jvm with the monitored application, so the pool is small
+// (see getDefaultParallelism()) and its threads are only kept around while merges are happening
+class ParallelMerger {
+
+    private static final int MIN_ITEMS_PER_TASK =
+            Integer.getInteger("glowroot.internal.merge.minItemsPerTask", 16);
+
+    private static final int MAX_DEFAULT_PARALLELISM = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final int parallelism;
+    private final @Nullable ExecutorService executor;
+
+    ParallelMerger(int parallelism) {
+        this.parallelism = parallelism;
+        if (parallelism > 1) {
+            // the calling thread merges one of the partitions itself
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism - 1,
+                    parallelism - 1, KEEP_ALIVE_SECONDS, SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("Glowroot-Merge-%d")
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            this.executor = executor;
+        } else {
+            executor = null;
+        }
+    }
+
+    <T, C> void merge(List<T> items, C collector, Merger<T, C> merger) throws Exception {
+        int numTasks = Math.min(parallelism, items.size() / MIN_ITEMS_PER_TASK);
+        if (executor == null || numTasks <= 1) {
+            for (T item : items) {
+                merger.merge(collector, item);
+            }
+            return;
+        }
+        List<Future<C>> futures = Lists.newArrayList();
+        int partitionSize = IntMath.divide(items.size(), numTasks, CEILING);
+        List<List<T>> partitions = Lists.partition(items, partitionSize);
+        for (List<T> partition : partitions.subList(1, partitions.size())) {
+            futures.add(executor.submit(new MergeTask<T, C>(partition, merger)));
+        }
+        for (T item : partitions.get(0)) {
+            merger.merge(collector, item);
+        }
+        for (Future<C> future : futures) {
+            C partialCollector;
+            try {
+                partialCollector = future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Throwables.propagateIfPossible(cause, Exception.class);
+                throw e;
+            }
+            merger.combine(collector, partialCollector);
+        }
+    }
+
+    // half of the available processors, up to MAX_DEFAULT_PARALLELISM
+    static int getDefaultParallelism() {
+        Integer parallelism = Integer.getInteger("glowroot.internal.merge.parallelism");
+        if (parallelism != null) {
+            return Math.max(parallelism, 1);
+        }
+        return Math.max(Math.min(Runtime.getRuntime().availableProcessors() / 2,
+                MAX_DEFAULT_PARALLELISM), 1);
+    }
+
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    interface Merger<T, C> {
+        C newPartialCollector();
+        void merge(C collector, T item) throws Exception;
+        void combine(C collector, C partialCollector) throws Exception;
+    }
+
+    private static class MergeTask<T, C> implements Callable<C> {
+
+        private final List<T> items;
+        private final Merger<T, C> merger;
+
+        private MergeTask(List<T> items, Merger<T, C> merger) {
+            this.items = items;
+            this.merger = merger;
+        }
+
+        @Override
+        public C call() throws Exception {
+            C partialCollector = merger.newPartialCollector();
+            for (T item : items) {
+                merger.merge(partialCollector, item);
+            }
+            return partialCollector;
+        }
+    }
+}
@@ -21,5 +21,6 @@ public interface RollupCappedDatabaseStatsMXBean {
 
     CappedDatabaseStats getAggregateQueries();
     CappedDatabaseStats getAggregateServiceCalls();
+    CappedDatabaseStats getAggregateErrorMessages();
     CappedDatabaseStats getAggregateProfiles();
 }
@@ -46,11 +46,13 @@ import org.glowroot.storage.repo.GaugeValueRepository;
 import org.glowroot.storage.repo.RepoAdmin;
 import org.glowroot.storage.repo.TraceRepository;
 import org.glowroot.storage.repo.TransactionTypeRepository;
+import org.glowroot.storage.repo.helper.AlertCheckRunnable;
 import org.glowroot.storage.repo.helper.AlertingService;
 import org.glowroot.storage.repo.helper.RollupLevelService;
 import org.glowroot.storage.util.MailService;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class SimpleRepoModule {
@@ -62,6 +64,7 @@ public class SimpleRepoModule {
     private final DataSource dataSource;
     private final ImmutableList<CappedDatabase> rollupCappedDatabases;
     private final CappedDatabase traceCappedDatabase;
+    private final ParallelMerger parallelMerger;
     private final AgentDao agentDao;
     private final TransactionTypeDao transactionTypeDao;
     private final AggregateDao aggregateDao;
@@ -71,6 +74,7 @@ public class SimpleRepoModule {
     private final RepoAdmin repoAdmin;
     private final RollupLevelService rollupLevelService;
     private final AlertingService alertingService;
+    private final @Nullable AlertCheckRunnable alertCheckRunnable;
     private final @Nullable ReaperRunnable reaperRunnable;
 
     @OnlyUsedByTests
@@ -98,9 +102,11 @@ public class SimpleRepoModule {
         agentDao = new AgentDao(dataSource);
         transactionTypeDao = new TransactionTypeDao(dataSource);
         rollupLevelService = new RollupLevelService(configRepository, clock);
+        parallelMerger = new ParallelMerger(ParallelMerger.getDefaultParallelism());
         aggregateDao = new AggregateDao(dataSource, this.rollupCappedDatabases, configRepository,
-                transactionTypeDao);
-        traceDao = new TraceDao(dataSource, traceCappedDatabase, transactionTypeDao);
+                transactionTypeDao, parallelMerger);
+        traceDao = new TraceDao(dataSource, traceCappedDatabase, transactionTypeDao,
+                configRepository);
         GaugeDao gaugeMetaDao = new GaugeDao(dataSource);
         gaugeValueDao = new GaugeValueDao(dataSource, gaugeMetaDao, configRepository, clock);
 
@@ -110,6 +116,15 @@ public class SimpleRepoModule {
         TriggeredAlertDao triggeredAlertDao = new TriggeredAlertDao(dataSource);
         alertingService = new AlertingService(configRepository, agentDao, triggeredAlertDao,
                 aggregateDao, gaugeValueDao, rollupLevelService, new MailService());
+        if (scheduledExecutor == null) {
+            alertCheckRunnable = null;
+        } else {
+            long alertCheckIntervalMillis =
+                    configRepository.getRollupConfigs().get(0).intervalMillis();
+            alertCheckRunnable = new AlertCheckRunnable(alertingService, configRepository, clock);
+            alertCheckRunnable.scheduleWithFixedDelay(scheduledExecutor, alertCheckIntervalMillis,
+                    alertCheckIntervalMillis, MILLISECONDS);
+        }
         if (reaperDisabled) {
             reaperRunnable = null;
         } else {
@@ -176,6 +191,10 @@ public class SimpleRepoModule {
         return traceDao;
     }
 
+    public TraceDao getTraceDao() {
+        return traceDao;
+    }
+
     public GaugeValueRepository getGaugeValueRepository() {
         return gaugeValueDao;
     }
@@ -207,6 +226,9 @@ public class SimpleRepoModule {
             mbeanServer.unregisterMBean(new ObjectName("org.glowroot:type=TraceCappedDatabase"));
             mbeanServer.unregisterMBean(new ObjectName("org.glowroot:type=H2Database"));
         }
+        if (alertCheckRunnable != null) {
+            alertCheckRunnable.cancel();
+        }
         if (reaperRunnable != null) {
             reaperRunnable.cancel();
         }
@@ -214,6 +236,7 @@ public class SimpleRepoModule {
             cappedDatabase.close();
         }
         traceCappedDatabase.close();
+        parallelMerger.close();
         dataSource.close();
     }
 }
@@ -16,26 +16,31 @@
 package org.glowroot.agent.fat.storage;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.List;
-import java.util.Locale;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.tainting.qual.Untainted;
 
 import org.glowroot.agent.fat.storage.TracePointQueryBuilder.ParameterizedSql;
 import org.glowroot.agent.fat.storage.util.CappedDatabase;
+import org.glowroot.agent.fat.storage.util.CappedDatabase.MessageSource;
 import org.glowroot.agent.fat.storage.util.DataSource;
 import org.glowroot.agent.fat.storage.util.DataSource.JdbcRowQuery;
 import org.glowroot.agent.fat.storage.util.DataSource.JdbcUpdate;
 import org.glowroot.agent.fat.storage.util.ImmutableColumn;
 import org.glowroot.agent.fat.storage.util.ImmutableIndex;
+import org.glowroot.agent.fat.storage.util.PartitionedTable;
 import org.glowroot.agent.fat.storage.util.RowMappers;
 import org.glowroot.agent.fat.storage.util.Schemas.Column;
 import org.glowroot.agent.fat.storage.util.Schemas.ColumnType;
@@ -45,12 +50,12 @@ import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.live.LiveTraceRepository.TraceKind;
 import org.glowroot.common.live.LiveTraceRepository.TracePoint;
 import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
-import org.glowroot.storage.repo.ImmutableErrorMessageCount;
-import org.glowroot.storage.repo.ImmutableErrorMessagePoint;
-import org.glowroot.storage.repo.ImmutableErrorMessageResult;
+import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.ImmutableHeaderPlus;
 import org.glowroot.storage.repo.Result;
 import org.glowroot.storage.repo.TraceRepository;
+import org.glowroot.wire.api.Collector.TraceReader;
+import org.glowroot.wire.api.Collector.TraceVisitor;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
@@ -117,36 +122,121 @@ public class TraceDao implements TraceRepository {
     private final TraceAttributeNameDao traceAttributeNameDao;
     private final TransactionTypeDao transactionTypeDao;
 
+    private final PartitionedTable traceTable;
+    private final PartitionedTable traceAttributeTable;
+
+    // ids of traces that have been stored as partial traces and not yet stored as complete traces,
+    // so that the existing rows only need to be looked up and deleted for these traces
+    private final Set<String> partiallyStoredTraceIds = Sets.newConcurrentHashSet();
+
     TraceDao(DataSource dataSource, CappedDatabase traceCappedDatabase,
-            TransactionTypeDao transactionTypeDao) throws Exception {
+            TransactionTypeDao transactionTypeDao, ConfigRepository configRepository)
+            throws Exception {
         this.dataSource = dataSource;
         this.traceCappedDatabase = traceCappedDatabase;
         traceAttributeNameDao = new TraceAttributeNameDao(dataSource);
         this.transactionTypeDao = transactionTypeDao;
-        dataSource.syncTable("trace", traceColumns);
-        dataSource.syncIndexes("trace", traceIndexes);
-        dataSource.syncTable("trace_attribute", traceAttributeColumns);
-        dataSource.syncIndexes("trace_attribute", traceAttributeIndexes);
+        traceTable = new PartitionedTable(dataSource, "trace", traceColumns, traceIndexes,
+                ExpirationHours.trace(configRepository));
+        traceAttributeTable = new PartitionedTable(dataSource, "trace_attribute",
+                traceAttributeColumns, traceAttributeIndexes,
+                ExpirationHours.trace(configRepository));
     }
 
     @Override
-    public void collect(final String agentId, final Trace trace) throws Exception {
-        final Trace.Header header = trace.getHeader();
-        boolean exists =
-                dataSource.queryForExists("select 1 from trace where id = ?", trace.getId());
-        dataSource.update(new TraceUpsert(trace, exists));
-        if (header.getAttributeCount() > 0) {
-            if (exists) {
-                dataSource.update("delete from trace_attribute where trace_id = ?", trace.getId());
+    public void collect(String agentId, Trace trace) throws Exception {
+        List<Trace.Entry> entries = trace.getEntryList();
+        Long entriesId = null;
+        if (!entries.isEmpty()) {
+            entriesId = traceCappedDatabase.writeMessages(entries,
+                    TraceCappedDatabaseStats.TRACE_ENTRIES);
+        }
+        Long mainThreadProfileId = null;
+        if (trace.hasMainThreadProfile()) {
+            mainThreadProfileId = traceCappedDatabase.writeMessage(trace.getMainThreadProfile(),
+                    TraceCappedDatabaseStats.TRACE_PROFILES);
+        }
+        Long auxThreadProfileId = null;
+        if (trace.hasAuxThreadProfile()) {
+            auxThreadProfileId = traceCappedDatabase.writeMessage(trace.getAuxThreadProfile(),
+                    TraceCappedDatabaseStats.TRACE_PROFILES);
+        }
+        store(trace.getId(), trace.getHeader(), entriesId, mainThreadProfileId,
+                auxThreadProfileId);
+    }
+
+    // entries are written to the capped database as they are read, so that the full trace never
+    // needs to be held in memory at the same time
+    public void collect(TraceReader traceReader) throws Exception {
+        StreamingTraceWriter streamingTraceWriter = new StreamingTraceWriter(traceReader);
+        long entriesId = traceCappedDatabase.writeDelimitedMessages(streamingTraceWriter,
+                TraceCappedDatabaseStats.TRACE_ENTRIES);
+        Trace.Header header = streamingTraceWriter.header;
+        checkNotNull(header, "Trace reader did not visit header");
+        Long mainThreadProfileId = null;
+        if (streamingTraceWriter.mainThreadProfile != null) {
+            mainThreadProfileId = traceCappedDatabase.writeMessage(
+                    streamingTraceWriter.mainThreadProfile,
+                    TraceCappedDatabaseStats.TRACE_PROFILES);
+        }
+        Long auxThreadProfileId = null;
+        if (streamingTraceWriter.auxThreadProfile != null) {
+            auxThreadProfileId = traceCappedDatabase.writeMessage(
+                    streamingTraceWriter.auxThreadProfile,
+                    TraceCappedDatabaseStats.TRACE_PROFILES);
+        }
+        store(traceReader.traceId(), header, entriesId == -1 ? null : entriesId,
+                mainThreadProfileId, auxThreadProfileId);
+    }
+
+    private void store(String traceId, Trace.Header header, @Nullable Long entriesId,
+            @Nullable Long mainThreadProfileId, @Nullable Long auxThreadProfileId)
+            throws Exception {
+        boolean previouslyStored;
+        if (header.getPartial()) {
+            previouslyStored = !partiallyStoredTraceIds.add(traceId);
+        } else {
+            previouslyStored = partiallyStoredTraceIds.remove(traceId);
+        }
+        // holding the data source lock so that the partitions cannot be dropped between looking
+        // them up and deleting from them, and so that the trace is never missing in between the
+        // delete and the re-insert
+        synchronized (dataSource.getLock()) {
+            if (previouslyStored) {
+                // rows cannot be updated through the partitioned view, and the updated trace may
+                // also belong in a later partition, so the existing rows are deleted and then
+                // re-inserted
+                deleteExisting(traceId);
             }
-            dataSource.batchUpdate(new TraceAttributeInsert(trace));
-            for (Trace.Attribute attribute : header.getAttributeList()) {
-                traceAttributeNameDao.updateLastCaptureTime(header.getTransactionType(),
-                        attribute.getName(), header.getCaptureTime());
+            dataSource.update(new TraceInsert(
+                    traceTable.getPartitionForInsert(header.getCaptureTime()), traceId, header,
+                    entriesId, mainThreadProfileId, auxThreadProfileId));
+            if (header.getAttributeCount() > 0) {
+                dataSource.batchUpdate(new TraceAttributeInsert(
+                        traceAttributeTable.getPartitionForInsert(header.getCaptureTime()),
+                        traceId, header));
             }
         }
-        transactionTypeDao.updateLastCaptureTime(trace.getHeader().getTransactionType(),
-                trace.getHeader().getCaptureTime());
+        for (Trace.Attribute attribute : header.getAttributeList()) {
+            traceAttributeNameDao.updateLastCaptureTime(header.getTransactionType(),
+                    attribute.getName(), header.getCaptureTime());
+        }
+        transactionTypeDao.updateLastCaptureTime(header.getTransactionType(),
+                header.getCaptureTime());
+    }
+
+    // must be called while holding the data source lock
+    private void deleteExisting(String traceId) throws SQLException {
+        String existingPartitionName = traceTable.getPartitionName("id = ?", traceId);
+        if (existingPartitionName != null) {
+            dataSource.update("delete from " + existingPartitionName + " where id = ?", traceId);
+        }
+        String existingAttributePartitionName =
+                traceAttributeTable.getPartitionName("trace_id = ?", traceId);
+        if (existingAttributePartitionName != null) {
+            dataSource.update("delete from " + existingAttributePartitionName
+                    + " where trace_id = ?", traceId);
+        }
     }
 
     @Override
@@ -199,20 +289,6 @@ public class TraceDao implements TraceRepository {
         }
     }
 
-    @Override
-    public ErrorMessageResult readErrorMessages(TraceQuery query, ErrorMessageFilter filter,
-            long resolutionMillis, int limit) throws Exception {
-        List<ErrorMessagePoint> points =
-                dataSource.query(new ErrorPointQuery(query, filter, resolutionMillis));
-        List<ErrorMessageCount> counts =
-                dataSource.query(new ErrorMessageCountQuery(query, filter, limit + 1));
-        // one extra record over the limit is fetched above to identify if the limit was hit
-        return ImmutableErrorMessageResult.builder()
-                .addAllPoints(points)
-                .counts(Result.from(counts, limit))
-                .build();
-    }
-
     @Override
     public @Nullable HeaderPlus readHeaderPlus(String agentId, String traceId) throws Exception {
         return dataSource.queryAtMostOne(new TraceHeaderQuery(traceId));
@@ -256,14 +332,14 @@ public class TraceDao implements TraceRepository {
     @Override
     public void deleteAll(String agentRollup) throws Exception {
         traceAttributeNameDao.deleteAll();
-        dataSource.execute("truncate table trace");
-        dataSource.execute("truncate table trace_attribute");
+        traceTable.truncate();
+        traceAttributeTable.truncate();
     }
 
     void deleteBefore(long captureTime) throws Exception {
         traceAttributeNameDao.deleteBefore(captureTime);
-        dataSource.deleteBefore("trace", captureTime);
-        dataSource.deleteBefore("trace_attribute", captureTime);
+        traceTable.dropBefore(captureTime);
+        traceAttributeTable.dropBefore(captureTime);
     }
 
     private Result<TracePoint> readPoints(TraceKind traceKind, TraceQuery query,
@@ -275,91 +351,33 @@ public class TraceDao implements TraceRepository {
         return Result.from(points, limit);
     }
 
-    private static void appendQueryAndFilter(StringBuilder sql, TraceQuery query,
-            ErrorMessageFilter filter) {
-        sql.append(" and transaction_type = ?");
-        String transactionName = query.transactionName();
-        if (transactionName != null) {
-            sql.append(" and transaction_name = ?");
-        }
-        sql.append(" and capture_time > ? and capture_time <= ?");
-        for (int i = 0; i < filter.includes().size(); i++) {
-            sql.append(" and upper(error_message) like ?");
-        }
-        for (int i = 0; i < filter.excludes().size(); i++) {
-            sql.append(" and upper(error_message) not like ?");
-        }
-    }
-
-    private static int bindQueryAndFilter(PreparedStatement preparedStatement, int startIndex,
-            TraceQuery query, ErrorMessageFilter filter) throws SQLException {
-        int i = startIndex;
-        preparedStatement.setString(i++, query.transactionType());
-        String transactionName = query.transactionName();
-        if (transactionName != null) {
-            preparedStatement.setString(i++, transactionName);
-        }
-        preparedStatement.setLong(i++, query.from());
-        preparedStatement.setLong(i++, query.to());
-        for (String include : filter.includes()) {
-            preparedStatement.setString(i++, '%' + include.toUpperCase(Locale.ENGLISH) + '%');
-        }
-        for (String exclude : filter.excludes()) {
-            preparedStatement.setString(i++, '%' + exclude.toUpperCase(Locale.ENGLISH) + '%');
-        }
-        return i;
-    }
+    private static class TraceInsert implements JdbcUpdate {
 
-    private class TraceUpsert implements JdbcUpdate {
-
-        private final boolean update;
+        private final @Untainted String partitionName;
         private final String traceId;
         private final Trace.Header header;
         private final @Nullable Long entriesId;
         private final @Nullable Long mainThreadProfileId;
         private final @Nullable Long auxThreadProfileId;
 
-        private TraceUpsert(Trace trace, boolean update) throws IOException {
-            this.update = update;
-            this.traceId = trace.getId();
-            this.header = trace.getHeader();
-
-            List<Trace.Entry> entries = trace.getEntryList();
-            if (entries.isEmpty()) {
-                entriesId = null;
-            } else {
-                entriesId = traceCappedDatabase.writeMessages(entries,
-                        TraceCappedDatabaseStats.TRACE_ENTRIES);
-            }
-            if (trace.hasMainThreadProfile()) {
-                mainThreadProfileId = traceCappedDatabase.writeMessage(trace.getMainThreadProfile(),
-                        TraceCappedDatabaseStats.TRACE_PROFILES);
-            } else {
-                mainThreadProfileId = null;
-            }
-            if (trace.hasMainThreadProfile()) {
-                auxThreadProfileId = traceCappedDatabase.writeMessage(trace.getAuxThreadProfile(),
-                        TraceCappedDatabaseStats.TRACE_PROFILES);
-            } else {
-                auxThreadProfileId = null;
-            }
+        private TraceInsert(@Untainted String partitionName, String traceId,
+                Trace.Header header, @Nullable Long entriesId, @Nullable Long mainThreadProfileId,
+                @Nullable Long auxThreadProfileId) {
+            this.partitionName = partitionName;
+            this.traceId = traceId;
+            this.header = header;
+            this.entriesId = entriesId;
+            this.mainThreadProfileId = mainThreadProfileId;
+            this.auxThreadProfileId = auxThreadProfileId;
         }
 
         @Override
         public @Untainted String getSql() {
-            if (update) {
-                return "update trace set partial = ?, slow = ?, error = ?, start_time = ?,"
-                        + " capture_time = ?, duration_nanos = ?, transaction_type = ?,"
-                        + " transaction_name = ?, headline = ?, user = ?, error_message = ?,"
-                        + " header = ?, entries_capped_id = ?, main_thread_profile_capped_id = ?,"
-                        + " aux_thread_profile_capped_id = ? where id = ?";
-            } else {
-                return "insert into trace (partial, slow, error, start_time, capture_time,"
-                        + " duration_nanos, transaction_type, transaction_name, headline,"
-                        + " user, error_message, header, entries_capped_id,"
-                        + " main_thread_profile_capped_id, aux_thread_profile_capped_id, id)"
-                        + " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            }
+            return "insert into " + partitionName + " (partial, slow, error, start_time,"
+                    + " capture_time, duration_nanos, transaction_type, transaction_name, headline,"
+                    + " user, error_message, header, entries_capped_id,"
+                    + " main_thread_profile_capped_id, aux_thread_profile_capped_id, id)"
+                    + " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         }
 
         // minimal work inside this method as it is called with active connection
@@ -391,24 +409,28 @@ public class TraceDao implements TraceRepository {
 
     private static class TraceAttributeInsert implements JdbcUpdate {
 
-        private final Trace trace;
+        private final @Untainted String partitionName;
+        private final String traceId;
+        private final Trace.Header header;
 
-        private TraceAttributeInsert(Trace trace) {
-            this.trace = trace;
+        private TraceAttributeInsert(@Untainted String partitionName, String traceId,
+                Trace.Header header) {
+            this.partitionName = partitionName;
+            this.traceId = traceId;
+            this.header = header;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "insert into trace_attribute (trace_id, name, value, capture_time)"
+            return "insert into " + partitionName + " (trace_id, name, value, capture_time)"
                     + " values (?, ?, ?, ?)";
         }
 
         @Override
         public void bind(PreparedStatement preparedStatement) throws SQLException {
-            Trace.Header header = trace.getHeader();
             for (Trace.Attribute attribute : header.getAttributeList()) {
                 for (String value : attribute.getValueList()) {
-                    preparedStatement.setString(1, trace.getId());
+                    preparedStatement.setString(1, traceId);
                     preparedStatement.setString(2, attribute.getName());
                     preparedStatement.setString(3, value);
                     preparedStatement.setLong(4, header.getCaptureTime());
@@ -498,81 +520,53 @@ public class TraceDao implements TraceRepository {
         }
     }
 
-    private static class ErrorPointQuery implements JdbcRowQuery<ErrorMessagePoint> {
+    private static class StreamingTraceWriter implements MessageSource, TraceVisitor {
 
-        private final TraceQuery query;
-        private final ErrorMessageFilter filter;
-        private final long resolutionMillis;
+        private final TraceReader traceReader;
 
-        private ErrorPointQuery(TraceQuery query, ErrorMessageFilter filter,
-                long resolutionMillis) {
-            this.query = query;
-            this.filter = filter;
-            this.resolutionMillis = resolutionMillis;
-        }
+        private @MonotonicNonNull OutputStream out;
 
-        @Override
-        public @Untainted String getSql() {
-            // need ".0" to force double result
-            String captureTimeSql = castUntainted(
-                    "ceil(capture_time / " + resolutionMillis + ".0) * " + resolutionMillis);
-            StringBuilder sql = new StringBuilder();
-            sql.append("select " + captureTimeSql + ", count(*) from trace where error = ?");
-            appendQueryAndFilter(sql, query, filter);
-            sql.append(" group by " + captureTimeSql + " order by " + captureTimeSql);
-            return castUntainted(sql.toString());
+        private @MonotonicNonNull Profile mainThreadProfile;
+        private @MonotonicNonNull Profile auxThreadProfile;
+        private @MonotonicNonNull Trace.Header header;
+
+        private StreamingTraceWriter(TraceReader traceReader) {
+            this.traceReader = traceReader;
         }
 
         @Override
-        public void bind(PreparedStatement preparedStatement) throws SQLException {
-            int i = 1;
-            preparedStatement.setBoolean(i++, true);
-            bindQueryAndFilter(preparedStatement, i, query, filter);
+        public void writeDelimitedTo(OutputStream out) throws IOException {
+            this.out = out;
+            try {
+                traceReader.accept(this);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
         }
 
         @Override
-        public ErrorMessagePoint mapRow(ResultSet resultSet) throws SQLException {
-            long captureTime = resultSet.getLong(1);
-            long errorCount = resultSet.getLong(2);
-            return ImmutableErrorMessagePoint.of(captureTime, errorCount);
+        public void visitEntry(Trace.Entry entry) throws IOException {
+            checkNotNull(out);
+            entry.writeDelimitedTo(out);
         }
-    }
 
-    private static class ErrorMessageCountQuery implements JdbcRowQuery<ErrorMessageCount> {
-
-        private final TraceQuery query;
-        private final ErrorMessageFilter filter;
-        private final int limit;
-
-        private ErrorMessageCountQuery(TraceQuery query, ErrorMessageFilter filter, int limit) {
-            this.query = query;
-            this.filter = filter;
-            this.limit = limit;
-        }
+        // profiles are already held in memory by the transaction, so no need to stream them
 
         @Override
-        public @Untainted String getSql() {
-            StringBuilder sql = new StringBuilder();
-            sql.append("select error_message, count(*) from trace where error = ?");
-            appendQueryAndFilter(sql, query, filter);
-            sql.append(" group by error_message order by count(*) desc limit ?");
-            return castUntainted(sql.toString());
+        public void visitMainThreadProfile(Profile profile) {
+            mainThreadProfile = profile;
         }
 
         @Override
-        public void bind(PreparedStatement preparedStatement) throws SQLException {
-            int i = 1;
-            preparedStatement.setBoolean(i++, true);
-            i = bindQueryAndFilter(preparedStatement, i, query, filter);
-            preparedStatement.setInt(i++, limit);
+        public void visitAuxThreadProfile(Profile profile) {
+            auxThreadProfile = profile;
         }
 
         @Override
-        public ErrorMessageCount mapRow(ResultSet resultSet) throws SQLException {
-            return ImmutableErrorMessageCount.builder()
-                    .message(Strings.nullToEmpty(resultSet.getString(1)))
-                    .count(resultSet.getLong(2))
-                    .build();
+        public void visitHeader(Trace.Header header) {
+            this.header = header;
         }
     }
 }
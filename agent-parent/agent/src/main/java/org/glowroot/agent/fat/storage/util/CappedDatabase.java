@@ -17,7 +17,6 @@ package org.glowroot.agent.fat.storage.util;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -37,6 +36,7 @@ import com.google.common.collect.Maps;
 import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.CountingOutputStream;
+import com.google.common.io.FileBackedOutputStream;
 import com.google.common.primitives.Longs;
 import com.google.protobuf.AbstractMessage;
 import com.google.protobuf.AbstractMessageLite;
@@ -54,6 +54,10 @@ public class CappedDatabase {
 
     private static final Logger logger = LoggerFactory.getLogger(CappedDatabase.class);
 
+    // compressed blocks larger than this are buffered in a temporary file prior to being copied
+    // into the capped database
+    private static final int MEMORY_BUFFER_LIMIT_BYTES = 1024 * 1024;
+
     private final File file;
     private final Object lock = new Object();
     @GuardedBy("lock")
@@ -81,7 +85,7 @@ public class CappedDatabase {
             public void copyTo(OutputStream writer) throws IOException {
                 message.writeTo(writer);
             }
-        });
+        }, true);
     }
 
     public long writeMessages(final List<? extends AbstractMessageLite> messages, String type)
@@ -93,7 +97,21 @@ public class CappedDatabase {
                     message.writeDelimitedTo(writer);
                 }
             }
-        });
+        }, true);
+    }
+
+    // this is for writing a large number of messages without needing to hold them all in memory at
+    // the same time
+    //
+    // returns -1 (and no block is written) if the message source does not write any messages
+    public long writeDelimitedMessages(final MessageSource messageSource, String type)
+            throws IOException {
+        return write(type, new Copier() {
+            @Override
+            public void copyTo(OutputStream writer) throws IOException {
+                messageSource.writeDelimitedTo(writer);
+            }
+        }, false);
     }
 
     public CappedDatabaseStats getStats(String type) {
@@ -111,31 +129,52 @@ public class CappedDatabase {
             public void copyTo(OutputStream out) throws IOException {
                 byteSource.copyTo(out);
             }
-        });
+        }, true);
     }
 
-    private long write(String type, Copier copier) throws IOException {
-        synchronized (lock) {
-            if (closing) {
-                return -1;
-            }
-            long startTick = ticker.read();
-            out.startBlock();
-            NonClosingCountingOutputStream countingStreamAfterCompression =
-                    new NonClosingCountingOutputStream(out);
+    private long write(String type, Copier copier, boolean writeEmptyBlock) throws IOException {
+        if (closing) {
+            return -1;
+        }
+        // serialization and compression happen outside of the lock (the copier can be streaming
+        // a large trace straight from the transaction), and only the compressed bytes are copied
+        // into the capped database under the lock
+        FileBackedOutputStream compressed = new FileBackedOutputStream(MEMORY_BUFFER_LIMIT_BYTES);
+        try {
             CountingOutputStream countingStreamBeforeCompression =
-                    new CountingOutputStream(new LZFOutputStream(countingStreamAfterCompression));
+                    new CountingOutputStream(new LZFOutputStream(compressed));
             copier.copyTo(countingStreamBeforeCompression);
             countingStreamBeforeCompression.close();
-            long endTick = ticker.read();
-            CappedDatabaseStats stats = statsByType.get(type);
-            if (stats == null) {
-                stats = new CappedDatabaseStats();
-                statsByType.put(type, stats);
+            if (countingStreamBeforeCompression.getCount() == 0 && !writeEmptyBlock) {
+                return -1;
+            }
+            ByteSource compressedBytes = compressed.asByteSource();
+            synchronized (lock) {
+                if (closing) {
+                    return -1;
+                }
+                // checking up front so that a partial block is never written
+                if (compressedBytes.size() > out.getSizeKb() * 1024L
+                        - CappedDatabaseOutputStream.BLOCK_HEADER_SKIP_BYTES) {
+                    throw new IOException("A single block cannot have more bytes than size of the"
+                            + " capped database");
+                }
+                long startTick = ticker.read();
+                out.startBlock();
+                long bytesAfterCompression = compressedBytes.copyTo(out);
+                long cappedId = out.endBlock();
+                long endTick = ticker.read();
+                CappedDatabaseStats stats = statsByType.get(type);
+                if (stats == null) {
+                    stats = new CappedDatabaseStats();
+                    statsByType.put(type, stats);
+                }
+                stats.record(countingStreamBeforeCompression.getCount(), bytesAfterCompression,
+                        endTick - startTick);
+                return cappedId;
             }
-            stats.record(countingStreamBeforeCompression.getCount(),
-                    countingStreamAfterCompression.getCount(), endTick - startTick);
-            return out.endBlock();
+        } finally {
+            compressed.reset();
         }
     }
 
@@ -344,6 +383,10 @@ public class CappedDatabase {
         }
     }
 
+    public interface MessageSource {
+        void writeDelimitedTo(OutputStream out) throws IOException;
+    }
+
     private interface Copier {
         void copyTo(OutputStream out) throws IOException;
     }
@@ -354,32 +397,4 @@ public class CappedDatabase {
             super(message);
         }
     }
-
-    private static class NonClosingCountingOutputStream extends FilterOutputStream {
-
-        private long count;
-
-        private NonClosingCountingOutputStream(OutputStream out) {
-            super(out);
-        }
-
-        @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            out.write(b, off, len);
-            count += len;
-        }
-
-        @Override
-        public void write(int b) throws IOException {
-            out.write(b);
-            count++;
-        }
-
-        @Override
-        public void close() {}
-
-        private long getCount() {
-            return count;
-        }
-    }
 }
@@ -302,16 +302,6 @@ public class DataSource {
         }
     }
 
-    public void deleteBefore(@Untainted String tableName, long captureTime) throws SQLException {
-        // delete 100 at a time, which is both faster than deleting all at once, and doesn't
-        // lock the single jdbc connection for one large chunk of time
-        int deleted;
-        do {
-            deleted = update("delete from " + tableName + " where capture_time < ? limit 100",
-                    captureTime);
-        } while (deleted > 0);
-    }
-
     public void syncTable(@Untainted String tableName, List<Column> columns) throws SQLException {
         synchronized (lock) {
             if (closing) {
@@ -337,6 +327,21 @@ public class DataSource {
         }
     }
 
+    // exposed so that callers can make several statements atomic with respect to other users of
+    // this data source (including partition drops, which also hold this lock)
+    public Object getLock() {
+        return lock;
+    }
+
+    List<String> getTableNames(String prefix) throws SQLException {
+        synchronized (lock) {
+            if (closing) {
+                return ImmutableList.of();
+            }
+            return Schemas.getTableNames(prefix, connection);
+        }
+    }
+
     long getDbFileSize() {
         return dbFile == null ? 0 : dbFile.length();
     }
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage.util;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.checkerframework.checker.tainting.qual.Untainted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.fat.storage.util.Schemas.Column;
+import org.glowroot.agent.fat.storage.util.Schemas.Index;
+import org.glowroot.common.util.OnlyUsedByTests;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.glowroot.agent.fat.storage.util.Checkers.castUntainted;
+
+// table that is physically split into one table per time window (partition), behind a "union all"
+// view with the table name so that queries do not need to know about the partitions (h2 pushes
+// the query conditions down into the indexes of each partition)
+//
+// expiring data is then just dropping whole partitions, instead of row-by-row deletes that
+// hold the single connection lock and fragment the database file
+//
+// inserts always go to the latest partition, and a new partition is started when a capture time
+// reaches the end of the latest partition's time window, which guarantees that every row in a
+// partition has a capture time before the start of the next partition, so a partition can be
+// dropped once the start of the next partition has expired (rows inserted late, with a capture
+// time before the start of the latest partition, are just retained a bit longer)
+//
+// the time window of a partition is a fraction of the table's expiration, so that data is retained
+// at most that fraction longer than the expiration, and the expiration is read each time a new
+// partition is started since it can be changed at runtime (partitions that were started before the
+// change just keep their existing time window)
+public class PartitionedTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedTable.class);
+
+    // the view has this additional column so that the partition of a given row can be found
+    private static final String PARTITION_START_HOUR_COLUMN = "partition_start_hour";
+
+    private static final int PARTITIONS_PER_EXPIRATION =
+            Integer.getInteger("glowroot.internal.h2.partitionsPerExpiration", 4);
+
+    private final DataSource dataSource;
+    private final @Untainted String name;
+    private final ImmutableList<Column> columns;
+    private final ImmutableList<Index> indexes;
+    private final Supplier<Integer> expirationHoursSupplier;
+
+    // this is the data source lock (instead of a separate lock) since partitions are looked up for
+    // inserts while already holding the data source lock (e.g. during rollups), and partitions are
+    // created and dropped while holding this lock
+    private final Object lock;
+
+    // start of each partition in hours since the epoch (which is also the partition name suffix),
+    // sorted ascending and never empty
+    @GuardedBy("lock")
+    private final List<Long> partitionStartHours = Lists.newArrayList();
+
+    // index names must start with the table name, and are suffixed per partition
+    public PartitionedTable(DataSource dataSource, @Untainted String name, List<Column> columns,
+            List<Index> indexes, Supplier<Integer> expirationHoursSupplier) throws SQLException {
+        this.dataSource = dataSource;
+        this.name = name;
+        this.columns = ImmutableList.copyOf(columns);
+        this.indexes = ImmutableList.copyOf(indexes);
+        this.expirationHoursSupplier = expirationHoursSupplier;
+        lock = dataSource.getLock();
+        for (Index index : indexes) {
+            checkState(index.name().startsWith(name + "_"),
+                    "index name must start with the table name: %s", index.name());
+        }
+        String partitionPrefix = name + "_p";
+        synchronized (lock) {
+            List<String> tableNames = dataSource.getTableNames(name);
+            for (String tableName : tableNames) {
+                if (tableName.startsWith(partitionPrefix)) {
+                    String suffix = tableName.substring(partitionPrefix.length());
+                    if (isNumeric(suffix)) {
+                        partitionStartHours.add(Long.parseLong(suffix));
+                    }
+                }
+            }
+            if (tableNames.contains(name)) {
+                // upgrade from non-partitioned table, all of its rows have capture time before the
+                // end of the time window of its max capture time
+                long maxCaptureTime = dataSource
+                        .queryForLong("select ifnull(max(capture_time), 0) from " + name);
+                long startHour = getStartHour(maxCaptureTime, getPartitionHours());
+                if (partitionStartHours.contains(startHour)) {
+                    // this should not happen, but just in case, don't lose the partition
+                    logger.warn("partition {} already exists, dropping table {}",
+                            getPartitionName(startHour), name);
+                    dataSource.execute("drop table " + name);
+                } else {
+                    dataSource.renameTable(name, getPartitionName(startHour));
+                    partitionStartHours.add(startHour);
+                }
+            }
+            if (partitionStartHours.isEmpty()) {
+                // the view needs at least one partition, and starting the initial partition at the
+                // epoch means that the next insert will start a new partition aligned to its time
+                // window
+                partitionStartHours.add(0L);
+            }
+            Collections.sort(partitionStartHours);
+            for (long startHour : partitionStartHours) {
+                syncPartition(startHour);
+            }
+            createOrReplaceView();
+        }
+    }
+
+    public @Untainted String getPartitionForInsert(long captureTime) throws SQLException {
+        synchronized (lock) {
+            long latestStartHour = partitionStartHours.get(partitionStartHours.size() - 1);
+            long partitionHours = getPartitionHours();
+            // the start of the new partition is always after the start of the latest partition,
+            // even if the partition hours have changed since the latest partition was started
+            if (captureTime >= HOURS.toMillis(latestStartHour + partitionHours)) {
+                long startHour = getStartHour(captureTime, partitionHours);
+                syncPartition(startHour);
+                partitionStartHours.add(startHour);
+                createOrReplaceView();
+                return getPartitionName(startHour);
+            }
+            return getPartitionName(latestStartHour);
+        }
+    }
+
+    // used for updates and deletes of individual rows, since those cannot go through the view,
+    // returns null if there is no row matching the condition
+    //
+    // callers need to hold the data source lock until they are done with the partition, otherwise
+    // it can be dropped in between
+    public @Nullable @Untainted String getPartitionName(@Untainted String condition,
+            Object... args) throws SQLException {
+        Long startHour = dataSource.queryForOptionalLong("select " + PARTITION_START_HOUR_COLUMN
+                + " from " + name + " where " + condition + " limit 1", args);
+        if (startHour == null) {
+            return null;
+        }
+        return getPartitionName(startHour);
+    }
+
+    @OnlyUsedByTests
+    public List</*@Untainted*/ String> getPartitionNames() {
+        synchronized (lock) {
+            List</*@Untainted*/ String> partitionNames = Lists.newArrayList();
+            for (long startHour : partitionStartHours) {
+                partitionNames.add(getPartitionName(startHour));
+            }
+            return partitionNames;
+        }
+    }
+
+    // drops all partitions that only contain rows with capture time before the given capture time
+    // (the latest partition is never dropped)
+    public void dropBefore(long captureTime) throws SQLException {
+        synchronized (lock) {
+            List<Long> droppedStartHours = Lists.newArrayList();
+            for (int i = 0; i < partitionStartHours.size() - 1; i++) {
+                if (HOURS.toMillis(partitionStartHours.get(i + 1)) > captureTime) {
+                    break;
+                }
+                droppedStartHours.add(partitionStartHours.get(i));
+            }
+            if (droppedStartHours.isEmpty()) {
+                return;
+            }
+            partitionStartHours.removeAll(droppedStartHours);
+            // the view needs to be replaced before the partitions can be dropped
+            createOrReplaceView();
+            for (long startHour : droppedStartHours) {
+                dataSource.execute("drop table " + getPartitionName(startHour));
+            }
+        }
+    }
+
+    public void truncate() throws SQLException {
+        synchronized (lock) {
+            for (long startHour : partitionStartHours) {
+                dataSource.execute("truncate table " + getPartitionName(startHour));
+            }
+        }
+    }
+
+    private void syncPartition(long startHour) throws SQLException {
+        String partitionName = getPartitionName(startHour);
+        dataSource.syncTable(partitionName, columns);
+        List<Index> partitionIndexes = Lists.newArrayList();
+        for (Index index : indexes) {
+            partitionIndexes.add(ImmutableIndex.of(
+                    partitionName + castUntainted(index.name().substring(name.length())),
+                    index.columns()));
+        }
+        dataSource.syncIndexes(partitionName, ImmutableList.copyOf(partitionIndexes));
+    }
+
+    private void createOrReplaceView() throws SQLException {
+        StringBuilder columnList = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(columns.get(i).name());
+        }
+        StringBuilder sql = new StringBuilder();
+        sql.append("create or replace view ");
+        sql.append(name);
+        sql.append(" as ");
+        for (int i = 0; i < partitionStartHours.size(); i++) {
+            if (i > 0) {
+                sql.append(" union all ");
+            }
+            long startHour = partitionStartHours.get(i);
+            sql.append("select ");
+            sql.append(columnList);
+            sql.append(", cast(");
+            sql.append(startHour);
+            sql.append(" as bigint) ");
+            sql.append(PARTITION_START_HOUR_COLUMN);
+            sql.append(" from ");
+            sql.append(getPartitionName(startHour));
+        }
+        dataSource.execute(castUntainted(sql.toString()));
+    }
+
+    private @Untainted String getPartitionName(long startHour) {
+        return name + "_p" + castUntainted(startHour);
+    }
+
+    private long getPartitionHours() {
+        return Math.max(1, expirationHoursSupplier.get() / PARTITIONS_PER_EXPIRATION);
+    }
+
+    private static long getStartHour(long captureTime, long partitionHours) {
+        long hour = MILLISECONDS.toHours(captureTime);
+        return hour - hour % partitionHours;
+    }
+
+    private static boolean isNumeric(String str) {
+        if (str.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            if (!Character.isDigit(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
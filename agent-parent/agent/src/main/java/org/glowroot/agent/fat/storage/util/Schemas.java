@@ -110,6 +110,30 @@ public class Schemas {
         }
     }
 
+    // returns lower case names of tables (not including views) that start with the prefix
+    static List<String> getTableNames(String prefix, Connection connection) throws SQLException {
+        logger.debug("getTableNames(): prefix={}", prefix);
+        DatabaseMetaData metaData = connection.getMetaData();
+        // table name pattern is not used to filter since underscore is a pattern wildcard
+        ResultSet resultSet = metaData.getTables(null, null, null, new String[] {"TABLE"});
+        ResultSetCloser closer = new ResultSetCloser(resultSet);
+        try {
+            List<String> tableNames = Lists.newArrayList();
+            while (resultSet.next()) {
+                String tableName =
+                        checkNotNull(resultSet.getString("TABLE_NAME")).toLowerCase(Locale.ENGLISH);
+                if (tableName.startsWith(prefix)) {
+                    tableNames.add(tableName);
+                }
+            }
+            return tableNames;
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
     // useful for upgrades
     static boolean columnExists(String tableName, String columnName, Connection connection)
             throws SQLException {
@@ -71,6 +71,7 @@ public class AdviceCache {
     private final File baseDir;
 
     private volatile ImmutableList<Advice> reweavableAdvisors;
+    private volatile ImmutableList<InstrumentationConfig> reweavableConfigs;
     private volatile ImmutableSet<String> reweavableConfigVersions;
 
     private volatile ImmutableList<Advice> allAdvisors;
@@ -151,7 +152,8 @@ public class AdviceCache {
         return mixinTypes;
     }
 
-    @EnsuresNonNull({"reweavableAdvisors", "reweavableConfigVersions", "allAdvisors"})
+    @EnsuresNonNull({"reweavableAdvisors", "reweavableConfigs", "reweavableConfigVersions",
+            "allAdvisors"})
     public void updateAdvisors(/*>>>@UnknownInitialization(AdviceCache.class) AdviceCache this,*/
             List<InstrumentationConfig> reweavableConfigs, boolean cleanTmpDir) throws Exception {
         ImmutableMap<Advice, LazyDefinedClass> advisors =
@@ -179,10 +181,16 @@ public class AdviceCache {
             }
         }
         reweavableAdvisors = advisors.keySet().asList();
+        this.reweavableConfigs = ImmutableList.copyOf(reweavableConfigs);
         reweavableConfigVersions = createReweavableConfigVersions(reweavableConfigs);
         allAdvisors = ImmutableList.copyOf(Iterables.concat(pluginAdvisors, reweavableAdvisors));
     }
 
+    // the instrumentation configs that the current reweavable advisors were created from
+    public List<InstrumentationConfig> getReweavableConfigs() {
+        return reweavableConfigs;
+    }
+
     public boolean isOutOfSync(List<InstrumentationConfig> reweavableConfigs) {
         Set<String> versions = Sets.newHashSet();
         for (InstrumentationConfig reweavableConfig : reweavableConfigs) {
@@ -16,20 +16,19 @@
 package org.glowroot.agent.impl;
 
 import java.io.IOException;
-import java.util.List;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.Lists;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 import org.glowroot.agent.config.AdvancedConfig;
-import org.glowroot.agent.model.CommonTimerImpl;
+import org.glowroot.agent.model.ErrorMessage;
+import org.glowroot.agent.model.FlattenedTimers;
 import org.glowroot.agent.model.Profile;
 import org.glowroot.agent.model.ThreadContextImpl;
 import org.glowroot.agent.model.ThreadStats;
-import org.glowroot.agent.model.TimerImpl;
 import org.glowroot.agent.model.Transaction;
+import org.glowroot.common.model.ErrorMessageCollector;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
 import org.glowroot.common.model.MutableProfile;
@@ -37,6 +36,7 @@ import org.glowroot.common.model.QueryCollector;
 import org.glowroot.common.model.ServiceCallCollector;
 import org.glowroot.common.util.NotAvailableAware;
 import org.glowroot.common.util.Styles;
+import org.glowroot.storage.config.ConfigDefaults;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.Proto.OptionalDouble;
 
@@ -49,17 +49,18 @@ class AggregateCollector {
     private long transactionCount;
     private long errorCount;
     private boolean asyncTransactions;
-    private final List<MutableTimer> mainThreadRootTimers = Lists.newArrayList();
-    private final List<MutableTimer> auxThreadRootTimers = Lists.newArrayList();
-    private final List<MutableTimer> asyncRootTimers = Lists.newArrayList();
+    private final MutableTimerTree mainThreadRootTimers = new MutableTimerTree();
+    private final MutableTimerTree auxThreadRootTimers = new MutableTimerTree();
+    private final MutableTimerTree asyncRootTimers = new MutableTimerTree();
     private final MutableThreadStats mainThreadStats = new MutableThreadStats();
     private final MutableThreadStats auxThreadStats = new MutableThreadStats();
     // histogram values are in nanoseconds, but with microsecond precision to reduce the number of
     // buckets (and memory) required
     private final LazyHistogram durationNanosHistogram = new LazyHistogram();
     // lazy instantiated to reduce memory footprint
-    private @MonotonicNonNull QueryCollector queries;
-    private @MonotonicNonNull ServiceCallCollector serviceCalls;
+    private @MonotonicNonNull QueryIdCollector queries;
+    private @MonotonicNonNull QueryIdCollector serviceCalls;
+    private @MonotonicNonNull ErrorMessageCollector errorMessages;
     private @MonotonicNonNull MutableProfile mainThreadProfile;
     private @MonotonicNonNull MutableProfile auxThreadProfile;
 
@@ -77,8 +78,10 @@ class AggregateCollector {
         long totalDurationNanos = transaction.getDurationNanos();
         this.totalDurationNanos += totalDurationNanos;
         transactionCount++;
-        if (transaction.getErrorMessage() != null) {
+        ErrorMessage errorMessage = transaction.getErrorMessage();
+        if (errorMessage != null) {
             errorCount++;
+            mergeErrorMessage(errorMessage.message());
         }
         if (transaction.isAsync()) {
             asyncTransactions = true;
@@ -90,16 +93,23 @@ class AggregateCollector {
         durationNanosHistogram.add(totalDurationNanos);
     }
 
-    void mergeMainThreadRootTimer(TimerImpl toBeMergedRootTimer) {
-        mergeRootTimer(toBeMergedRootTimer, mainThreadRootTimers);
+    void mergeTimers(FlattenedTimers timers) {
+        int auxThreadStartIndex = timers.getAuxThreadStartIndex();
+        int asyncStartIndex = timers.getAsyncStartIndex();
+        mainThreadRootTimers.merge(timers, 0, auxThreadStartIndex);
+        auxThreadRootTimers.merge(timers, auxThreadStartIndex, asyncStartIndex);
+        asyncRootTimers.merge(timers, asyncStartIndex, timers.size());
     }
 
-    void mergeAuxThreadRootTimer(TimerImpl toBeMergedRootTimer) {
-        mergeRootTimer(toBeMergedRootTimer, auxThreadRootTimers);
-    }
-
-    void mergeAsyncRootTimer(CommonTimerImpl toBeMergedRootTimer) {
-        mergeRootTimer(toBeMergedRootTimer, asyncRootTimers);
+    private void mergeErrorMessage(String message) {
+        if (errorMessages == null) {
+            int errorMessagesHardLimitMultiplierWhileBuilding = transactionName == null
+                    ? AdvancedConfig.OVERALL_AGGREGATE_ERROR_MESSAGES_HARD_LIMIT_MULTIPLIER
+                    : AdvancedConfig.TRANSACTION_AGGREGATE_ERROR_MESSAGES_HARD_LIMIT_MULTIPLIER;
+            errorMessages = new ErrorMessageCollector(ConfigDefaults.MAX_AGGREGATE_ERROR_MESSAGES,
+                    errorMessagesHardLimitMultiplierWhileBuilding);
+        }
+        errorMessages.mergeErrorMessage(message);
     }
 
     void mergeMainThreadProfile(Profile toBeMergedProfile) {
@@ -116,23 +126,23 @@ class AggregateCollector {
         toBeMergedProfile.mergeIntoProfile(auxThreadProfile);
     }
 
-    QueryCollector getQueryCollector() {
+    QueryIdCollector getQueryCollector() {
         if (queries == null) {
             int queriesHardLimitMultiplierWhileBuilding = transactionName == null
                     ? AdvancedConfig.OVERALL_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER
                     : AdvancedConfig.TRANSACTION_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER;
-            queries = new QueryCollector(maxAggregateQueriesPerType,
+            queries = new QueryIdCollector(maxAggregateQueriesPerType,
                     queriesHardLimitMultiplierWhileBuilding);
         }
         return queries;
     }
 
-    ServiceCallCollector getServiceCallCollector() {
+    QueryIdCollector getServiceCallCollector() {
         if (serviceCalls == null) {
             int serviceCallsHardLimitMultiplierWhileBuilding = transactionName == null
                     ? AdvancedConfig.OVERALL_AGGREGATE_SERVICE_CALLS_HARD_LIMIT_MULTIPLIER
                     : AdvancedConfig.TRANSACTION_AGGREGATE_SERVICE_CALLS_HARD_LIMIT_MULTIPLIER;
-            serviceCalls = new ServiceCallCollector(maxAggregateServiceCallsPerType,
+            serviceCalls = new QueryIdCollector(maxAggregateServiceCallsPerType,
                     serviceCallsHardLimitMultiplierWhileBuilding);
         }
         return serviceCalls;
@@ -144,9 +154,9 @@ class AggregateCollector {
                 .setTransactionCount(transactionCount)
                 .setErrorCount(errorCount)
                 .setAsyncTransactions(asyncTransactions)
-                .addAllMainThreadRootTimer(getRootTimersProtobuf(mainThreadRootTimers))
-                .addAllAuxThreadRootTimer(getRootTimersProtobuf(auxThreadRootTimers))
-                .addAllAsyncRootTimer(getRootTimersProtobuf(asyncRootTimers))
+                .addAllMainThreadRootTimer(mainThreadRootTimers.toProto())
+                .addAllAuxThreadRootTimer(auxThreadRootTimers.toProto())
+                .addAllAsyncRootTimer(asyncRootTimers.toProto())
                 .setDurationNanosHistogram(durationNanosHistogram.toProto(scratchBuffer));
         if (!mainThreadStats.isNA()) {
             builder.setMainThreadStats(mainThreadStats.toProto());
@@ -155,10 +165,20 @@ class AggregateCollector {
             builder.setAuxThreadStats(auxThreadStats.toProto());
         }
         if (queries != null) {
-            builder.addAllQueriesByType(queries.toProto());
+            // the hard limit was already applied while building
+            QueryCollector queryCollector = new QueryCollector(maxAggregateQueriesPerType, 0);
+            queries.mergeQueriesInto(queryCollector);
+            builder.addAllQueriesByType(queryCollector.toProto());
         }
         if (serviceCalls != null) {
-            builder.addAllServiceCallsByType(serviceCalls.toProto());
+            // the hard limit was already applied while building
+            ServiceCallCollector serviceCallCollector =
+                    new ServiceCallCollector(maxAggregateServiceCallsPerType, 0);
+            serviceCalls.mergeServiceCallsInto(serviceCallCollector);
+            builder.addAllServiceCallsByType(serviceCallCollector.toProto());
+        }
+        if (errorMessages != null) {
+            builder.addAllErrorMessage(errorMessages.toProto());
         }
         if (mainThreadProfile != null) {
             builder.setMainThreadProfile(mainThreadProfile.toProto());
@@ -169,29 +189,6 @@ class AggregateCollector {
         return builder.build();
     }
 
-    private static void mergeRootTimer(CommonTimerImpl toBeMergedRootTimer,
-            List<MutableTimer> rootTimers) {
-        for (MutableTimer rootTimer : rootTimers) {
-            if (toBeMergedRootTimer.getName().equals(rootTimer.getName())) {
-                rootTimer.merge(toBeMergedRootTimer);
-                return;
-            }
-        }
-        MutableTimer rootTimer = MutableTimer.createRootTimer(toBeMergedRootTimer.getName(),
-                toBeMergedRootTimer.isExtended());
-        rootTimer.merge(toBeMergedRootTimer);
-        rootTimers.add(rootTimer);
-    }
-
-    private static List<Aggregate.Timer> getRootTimersProtobuf(List<MutableTimer> rootTimers) {
-        List<Aggregate.Timer> protobufRootTimers =
-                Lists.newArrayListWithCapacity(rootTimers.size());
-        for (MutableTimer rootTimer : rootTimers) {
-            protobufRootTimers.add(rootTimer.toProto());
-        }
-        return protobufRootTimers;
-    }
-
     private static class MutableThreadStats {
 
         private double totalCpuNanos;
@@ -28,10 +28,8 @@ import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.glowroot.agent.model.CommonTimerImpl;
+import org.glowroot.agent.model.FlattenedTimers;
 import org.glowroot.agent.model.Profile;
-import org.glowroot.agent.model.ThreadContextImpl;
-import org.glowroot.agent.model.TimerImpl;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
 import org.glowroot.wire.api.Collector;
@@ -66,9 +64,9 @@ public class AggregateIntervalCollector {
         return captureTime;
     }
 
-    public void add(Transaction transaction) {
+    public void add(Transaction transaction, FlattenedTimers timers) {
         IntervalTypeCollector typeCollector = getTypeCollector(transaction.getTransactionType());
-        typeCollector.add(transaction);
+        typeCollector.add(transaction, timers);
     }
 
     void flush(Collector collector) throws Exception {
@@ -141,8 +139,8 @@ public class AggregateIntervalCollector {
                     maxAggregateServiceCallsPerType);
         }
 
-        private void add(Transaction transaction) {
-            merge(transaction, overallAggregateCollector);
+        private void add(Transaction transaction, FlattenedTimers timers) {
+            merge(transaction, timers, overallAggregateCollector);
             AggregateCollector transactionAggregateCollector =
                     transactionAggregateCollectors.get(transaction.getTransactionName());
             if (transactionAggregateCollector == null && transactionAggregateCollectors
@@ -163,20 +161,14 @@ public class AggregateIntervalCollector {
                 }
                 return;
             }
-            merge(transaction, transactionAggregateCollector);
+            merge(transaction, timers, transactionAggregateCollector);
         }
 
-        private void merge(Transaction transaction, AggregateCollector aggregateCollector) {
+        private void merge(Transaction transaction, FlattenedTimers timers,
+                AggregateCollector aggregateCollector) {
             synchronized (aggregateCollector) {
                 aggregateCollector.add(transaction);
-                TimerImpl mainThreadRootTimer = transaction.getMainThreadRootTimer();
-                aggregateCollector.mergeMainThreadRootTimer(mainThreadRootTimer);
-                for (ThreadContextImpl auxThreadContext : transaction.getAuxThreadContexts()) {
-                    aggregateCollector.mergeAuxThreadRootTimer(auxThreadContext.getRootTimer());
-                }
-                for (CommonTimerImpl rootTimer : transaction.getAsyncRootTimers()) {
-                    aggregateCollector.mergeAsyncRootTimer(rootTimer);
-                }
+                aggregateCollector.mergeTimers(timers);
                 transaction.mergeQueriesInto(aggregateCollector.getQueryCollector());
                 transaction.mergeServiceCallsInto(aggregateCollector.getServiceCallCollector());
                 Profile mainThreadProfile = transaction.getMainThreadProfile();
@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.model.FlattenedTimers;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.OnlyUsedByTests;
@@ -50,7 +51,7 @@ public class Aggregator {
 
     // all structural changes to the transaction queue are made under queueLock for simplicity
     // TODO implement lock free structure
-    private final PendingTransaction head = new PendingTransaction(null);
+    private final PendingTransaction head = new PendingTransaction(null, null);
     // tail is non-volatile since only accessed under lock
     private PendingTransaction tail = head;
     private final Object queueLock = new Object();
@@ -92,11 +93,18 @@ public class Aggregator {
 
     int y;
 
+    long getAggregateIntervalMillis() {
+        return aggregateIntervalMillis;
+    }
+
     long add(Transaction transaction) {
         // this synchronized block is to ensure traces are placed into processing queue in the
         // order of captureTime (so that queue reader can assume if captureTime indicates time to
         // flush, then no new traces will come in with prior captureTime)
-        PendingTransaction newTail = new PendingTransaction(transaction);
+        // timers are flattened here by the transaction thread, to offload work from the single
+        // aggregator thread
+        PendingTransaction newTail =
+                new PendingTransaction(transaction, FlattenedTimers.create(transaction));
         long captureTime;
         synchronized (queueLock) {
             captureTime = clock.currentTimeMillis();
@@ -160,6 +168,7 @@ public class Aggregator {
             // used to do this at the very end of Transaction.end(), but moved to here to remove the
             // (minor) cost from the transaction main path
             Transaction transaction = checkNotNull(pendingTransaction.transaction);
+            FlattenedTimers timers = checkNotNull(pendingTransaction.timers);
             transaction.removeFromActiveTransactions();
 
             // remove head
@@ -183,7 +192,7 @@ public class Aggregator {
             // the synchronized block is to ensure visibility of updates to this particular
             // activeIntervalCollector
             synchronized (activeIntervalCollector) {
-                activeIntervalCollector.add(transaction);
+                activeIntervalCollector.add(transaction, timers);
             }
         }
 
@@ -246,11 +255,14 @@ public class Aggregator {
     private static class PendingTransaction {
 
         private final @Nullable Transaction transaction; // only null for head
+        private final @Nullable FlattenedTimers timers; // only null for head
         private volatile long captureTime;
         private volatile @Nullable PendingTransaction next;
 
-        private PendingTransaction(@Nullable Transaction transaction) {
+        private PendingTransaction(@Nullable Transaction transaction,
+                @Nullable FlattenedTimers timers) {
             this.transaction = transaction;
+            this.timers = timers;
         }
     }
 }
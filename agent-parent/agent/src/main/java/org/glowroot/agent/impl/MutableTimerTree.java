@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.glowroot.agent.model.FlattenedTimers;
+import org.glowroot.agent.model.TimerNameImpl;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// aggregated timer tree stored in parallel arrays, with each node's children linked through
+// firstChildIndexes/nextSiblingIndexes (in insertion order)
+//
+// must be used under an appropriate lock
+class MutableTimerTree {
+
+    private static final int NONE = -1;
+
+    private TimerNameImpl[] timerNames = new TimerNameImpl[8];
+    private int[] timerNameIds = new int[8];
+    private int[] firstChildIndexes = new int[8];
+    private int[] nextSiblingIndexes = new int[8];
+    // aggregates use double instead of long to avoid (unlikely) 292 year nanosecond rollover
+    private double[] totalNanos = new double[8];
+    private long[] counts = new long[8];
+    private int size;
+
+    private int firstRootIndex = NONE;
+
+    // maps flattened timer index to node index, only used during merge
+    private int[] nodeIndexes = new int[16];
+
+    // merges flattened timers in the range [from, to), all parents must also be in this range
+    void merge(FlattenedTimers flattenedTimers, int from, int to) {
+        if (nodeIndexes.length < to) {
+            nodeIndexes = new int[Math.max(to, nodeIndexes.length << 1)];
+        }
+        for (int i = from; i < to; i++) {
+            int parentIndex = flattenedTimers.getParentIndex(i);
+            int parentNodeIndex = parentIndex == -1 ? NONE : nodeIndexes[parentIndex];
+            int nodeIndex = getOrCreateNode(parentNodeIndex, flattenedTimers.getTimerName(i));
+            totalNanos[nodeIndex] += flattenedTimers.getTotalNanos(i);
+            counts[nodeIndex] += flattenedTimers.getCount(i);
+            nodeIndexes[i] = nodeIndex;
+        }
+    }
+
+    List<Aggregate.Timer> toProto() {
+        List<Aggregate.Timer> rootTimers = Lists.newArrayList();
+        int rootIndex = firstRootIndex;
+        while (rootIndex != NONE) {
+            rootTimers.add(toProto(rootIndex));
+            rootIndex = nextSiblingIndexes[rootIndex];
+        }
+        return rootTimers;
+    }
+
+    private int getOrCreateNode(int parentNodeIndex, TimerNameImpl timerName) {
+        int timerNameId = timerName.id();
+        int index = parentNodeIndex == NONE ? firstRootIndex : firstChildIndexes[parentNodeIndex];
+        int lastIndex = NONE;
+        while (index != NONE) {
+            if (timerNameIds[index] == timerNameId) {
+                return index;
+            }
+            lastIndex = index;
+            index = nextSiblingIndexes[index];
+        }
+        int newIndex = addNode(timerName);
+        if (lastIndex != NONE) {
+            nextSiblingIndexes[lastIndex] = newIndex;
+        } else if (parentNodeIndex == NONE) {
+            firstRootIndex = newIndex;
+        } else {
+            firstChildIndexes[parentNodeIndex] = newIndex;
+        }
+        return newIndex;
+    }
+
+    private int addNode(TimerNameImpl timerName) {
+        if (size == timerNames.length) {
+            int newCapacity = size << 1;
+            timerNames = Arrays.copyOf(timerNames, newCapacity);
+            timerNameIds = Arrays.copyOf(timerNameIds, newCapacity);
+            firstChildIndexes = Arrays.copyOf(firstChildIndexes, newCapacity);
+            nextSiblingIndexes = Arrays.copyOf(nextSiblingIndexes, newCapacity);
+            totalNanos = Arrays.copyOf(totalNanos, newCapacity);
+            counts = Arrays.copyOf(counts, newCapacity);
+        }
+        timerNames[size] = timerName;
+        timerNameIds[size] = timerName.id();
+        firstChildIndexes[size] = NONE;
+        nextSiblingIndexes[size] = NONE;
+        return size++;
+    }
+
+    private Aggregate.Timer toProto(int index) {
+        Aggregate.Timer.Builder builder = Aggregate.Timer.newBuilder()
+                .setName(timerNames[index].name())
+                .setExtended(timerNames[index].extended())
+                .setTotalNanos(totalNanos[index])
+                .setCount(counts[index]);
+        int childIndex = firstChildIndexes[index];
+        while (childIndex != NONE) {
+            builder.addChildTimer(toProto(childIndex));
+            childIndex = nextSiblingIndexes[childIndex];
+        }
+        return builder.build();
+    }
+}
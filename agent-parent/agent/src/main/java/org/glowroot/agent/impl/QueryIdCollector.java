@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import org.glowroot.agent.model.QueryData;
+import org.glowroot.agent.util.IntObjectMap;
+import org.glowroot.common.model.QueryCollector;
+import org.glowroot.common.model.ServiceCallCollector;
+
+// collects queries (or service calls) keyed by their QueryRegistry id while aggregating, the query
+// text is only used when the aggregate is built (at which point queries with the same text but
+// different ids, which can happen if the QueryRegistry was cleared during the interval, are merged)
+//
+// must be used under an appropriate lock
+public class QueryIdCollector {
+
+    private final IntObjectMap<MutableQueryData> queries = new IntObjectMap<MutableQueryData>();
+    // the number of queries per type is only needed to apply the hard limit while building
+    private final Multiset<String> queryCountsPerType = HashMultiset.create();
+
+    private final int hardLimit;
+
+    QueryIdCollector(int limit, int maxMultiplierWhileBuilding) {
+        hardLimit = maxMultiplierWhileBuilding == 0 ? Integer.MAX_VALUE
+                : limit * maxMultiplierWhileBuilding;
+    }
+
+    public void mergeQuery(QueryData queryData) {
+        int queryId = queryData.getQueryId();
+        MutableQueryData aggregateQuery = queries.get(queryId);
+        if (aggregateQuery == null) {
+            String queryType = queryData.getQueryType();
+            if (queryCountsPerType.count(queryType) >= hardLimit) {
+                return;
+            }
+            queryCountsPerType.add(queryType);
+            aggregateQuery = new MutableQueryData(queryType, queryData.getQueryText());
+            queries.put(queryId, aggregateQuery);
+        }
+        aggregateQuery.totalDurationNanos += queryData.getTotalDurationNanos();
+        aggregateQuery.executionCount += queryData.getExecutionCount();
+        if (queryData.isRowNavigationAttempted()) {
+            aggregateQuery.rowNavigationAttempted = true;
+            aggregateQuery.totalRows += queryData.getTotalRows();
+        }
+    }
+
+    void mergeQueriesInto(QueryCollector collector) {
+        for (MutableQueryData query : queries.values()) {
+            collector.mergeQuery(query.queryType, query.queryText, query.totalDurationNanos,
+                    query.executionCount, query.rowNavigationAttempted, query.totalRows);
+        }
+    }
+
+    void mergeServiceCallsInto(ServiceCallCollector collector) {
+        for (MutableQueryData serviceCall : queries.values()) {
+            collector.mergeServiceCall(serviceCall.queryType, serviceCall.queryText,
+                    serviceCall.totalDurationNanos, serviceCall.executionCount);
+        }
+    }
+
+    private static class MutableQueryData {
+
+        private final String queryType;
+        private final String queryText;
+
+        private long totalDurationNanos;
+        private long executionCount;
+        private boolean rowNavigationAttempted;
+        private long totalRows;
+
+        private MutableQueryData(String queryType, String queryText) {
+            this.queryType = queryType;
+            this.queryText = queryText;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.glowroot.agent.model.Transaction;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// samples the slow and error traces that are sent to storage
+//
+// each transaction type/name gets a token bucket, and traces that obtain a token are stored right
+// away, the rest compete for a fixed number of tail slots per transaction type per (short) tail
+// window, where the slowest traces win, and the tail samples are stored once their window ends, so
+// that an avalanche of slow traces is represented by the worst of them instead of only the first
+// few
+class TraceSampler {
+
+    private static final int TOKENS_PER_SECOND =
+            Integer.getInteger("glowroot.internal.traceSampler.tokensPerSecond", 5);
+
+    private static final int BURST = Integer.getInteger("glowroot.internal.traceSampler.burst", 20);
+
+    private static final int TAIL_SIZE =
+            Integer.getInteger("glowroot.internal.traceSampler.tailSize", 20);
+
+    private static final int TAIL_WINDOW_MILLIS =
+            Integer.getInteger("glowroot.internal.traceSampler.tailWindowMillis", 5000);
+
+    // this is just to limit memory, transaction names past this limit share a single bucket
+    private static final int TOKEN_BUCKETS_PER_TYPE_LIMIT = 1000;
+
+    private static final Comparator<Transaction> DURATION_ORDERING =
+            new Comparator<Transaction>() {
+                @Override
+                public int compare(Transaction left, Transaction right) {
+                    long leftDurationNanos = left.getDurationNanos();
+                    long rightDurationNanos = right.getDurationNanos();
+                    return leftDurationNanos < rightDurationNanos ? -1
+                            : (leftDurationNanos == rightDurationNanos ? 0 : 1);
+                }
+            };
+
+    private final long aggregateIntervalMillis;
+    // zero disables rate limiting
+    private final int tokensPerSecond;
+    private final int burst;
+    private final int tailSize;
+    private final long tailWindowMillis;
+    private final Ticker ticker;
+
+    @GuardedBy("this")
+    private final Map<String, TypeTokenBuckets> tokenBuckets = Maps.newHashMap();
+    @GuardedBy("this")
+    private long currentIntervalEnd;
+    // each tail is ordered from fastest to slowest so the fastest can be displaced cheaply
+    @GuardedBy("this")
+    private final Map<String, PriorityQueue<Transaction>> tails = Maps.newHashMap();
+    @GuardedBy("this")
+    private long currentTailWindowEnd;
+    @GuardedBy("this")
+    private int tailSampleCount;
+
+    TraceSampler(long aggregateIntervalMillis, Ticker ticker) {
+        this(aggregateIntervalMillis, TOKENS_PER_SECOND, BURST, TAIL_SIZE, TAIL_WINDOW_MILLIS,
+                ticker);
+    }
+
+    TraceSampler(long aggregateIntervalMillis, int tokensPerSecond, int burst, int tailSize,
+            long tailWindowMillis, Ticker ticker) {
+        this.aggregateIntervalMillis = aggregateIntervalMillis;
+        this.tokensPerSecond = tokensPerSecond;
+        this.burst = burst;
+        this.tailSize = tailSize;
+        this.tailWindowMillis = tailWindowMillis;
+        this.ticker = ticker;
+    }
+
+    synchronized boolean tryAcquire(Transaction transaction) {
+        if (tokensPerSecond == 0) {
+            return true;
+        }
+        String transactionType = transaction.getTransactionType();
+        TypeTokenBuckets typeTokenBuckets = tokenBuckets.get(transactionType);
+        if (typeTokenBuckets == null) {
+            typeTokenBuckets = new TypeTokenBuckets();
+            tokenBuckets.put(transactionType, typeTokenBuckets);
+        }
+        return typeTokenBuckets.get(transaction.getTransactionName())
+                .tryAcquire(ticker.read());
+    }
+
+    // returns the transaction that did not make it into (or was displaced from) the tail, or null
+    // if the tail still had room
+    synchronized @Nullable Transaction offer(Transaction transaction) {
+        if (tailSize == 0) {
+            return transaction;
+        }
+        String transactionType = transaction.getTransactionType();
+        PriorityQueue<Transaction> tail = tails.get(transactionType);
+        if (tail == null) {
+            tail = new PriorityQueue<Transaction>(tailSize, DURATION_ORDERING);
+            tails.put(transactionType, tail);
+        }
+        if (tail.size() < tailSize) {
+            tail.add(transaction);
+            tailSampleCount++;
+            return null;
+        }
+        Transaction fastest = tail.peek();
+        if (fastest.getDurationNanos() >= transaction.getDurationNanos()) {
+            return transaction;
+        }
+        tail.poll();
+        tail.add(transaction);
+        return fastest;
+    }
+
+    // number of tail samples currently held, which are waiting to be stored
+    synchronized int getTailSampleCount() {
+        return tailSampleCount;
+    }
+
+    // removes and returns the fastest tail sample across all transaction types, as long as it is
+    // faster than the given duration, otherwise returns null
+    synchronized @Nullable Transaction removeFastestTailSample(long fasterThanNanos) {
+        PriorityQueue<Transaction> fastestTail = null;
+        for (PriorityQueue<Transaction> tail : tails.values()) {
+            Transaction fastest = tail.peek();
+            if (fastest != null && fastest.getDurationNanos() < fasterThanNanos
+                    && (fastestTail == null || DURATION_ORDERING.compare(fastest,
+                            fastestTail.peek()) < 0)) {
+                fastestTail = tail;
+            }
+        }
+        if (fastestTail == null) {
+            return null;
+        }
+        tailSampleCount--;
+        return fastestTail.poll();
+    }
+
+    // returns the tail samples from any tail window that ended before the given time
+    synchronized List<Transaction> drainEndedWindows(long currentTime) {
+        if (currentTime > currentIntervalEnd) {
+            currentIntervalEnd = ceil(currentTime, aggregateIntervalMillis);
+            // token buckets are discarded at the end of each aggregate interval to bound memory (a
+            // new bucket starts full, which is almost always the state of an idle bucket anyways)
+            tokenBuckets.clear();
+        }
+        if (currentTime <= currentTailWindowEnd) {
+            return ImmutableList.of();
+        }
+        currentTailWindowEnd = ceil(currentTime, tailWindowMillis);
+        if (tailSampleCount == 0) {
+            return ImmutableList.of();
+        }
+        List<Transaction> samples = Lists.newArrayListWithCapacity(tailSampleCount);
+        for (PriorityQueue<Transaction> tail : tails.values()) {
+            samples.addAll(tail);
+        }
+        tails.clear();
+        tailSampleCount = 0;
+        return samples;
+    }
+
+    private static long ceil(long time, long intervalMillis) {
+        return (long) Math.ceil(time / (double) intervalMillis) * intervalMillis;
+    }
+
+    private class TypeTokenBuckets {
+
+        private final Map<String, TokenBucket> tokenBuckets = Maps.newHashMap();
+        private final TokenBucket overflowTokenBucket = new TokenBucket();
+
+        private TokenBucket get(String transactionName) {
+            TokenBucket tokenBucket = tokenBuckets.get(transactionName);
+            if (tokenBucket != null) {
+                return tokenBucket;
+            }
+            if (tokenBuckets.size() >= TOKEN_BUCKETS_PER_TYPE_LIMIT) {
+                return overflowTokenBucket;
+            }
+            tokenBucket = new TokenBucket();
+            tokenBuckets.put(transactionName, tokenBucket);
+            return tokenBucket;
+        }
+    }
+
+    private class TokenBucket {
+
+        private double tokens = burst;
+        private long lastRefillTick = ticker.read();
+
+        private boolean tryAcquire(long currentTick) {
+            double refill = (currentTick - lastRefillTick) * (double) tokensPerSecond
+                    / SECONDS.toNanos(1);
+            tokens = Math.min(burst, tokens + refill);
+            lastRefillTick = currentTick;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -18,11 +18,14 @@ package org.glowroot.agent.impl;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
@@ -33,10 +36,13 @@ import org.glowroot.agent.model.TraceCreator;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.common.util.ScheduledRunnable;
 import org.glowroot.wire.api.Collector;
-import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+import org.glowroot.wire.api.Collector.TraceReader;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TransactionCollector {
 
@@ -44,12 +50,21 @@ public class TransactionCollector {
 
     private static final int PENDING_LIMIT = 100;
 
-    private final ExecutorService executor;
+    private final ScheduledExecutorService executor;
     private final Collector collector;
     private final Aggregator aggregator;
     private final Clock clock;
     private final Ticker ticker;
+    private final TraceSampler traceSampler;
+    private final TailSampleFlusher tailSampleFlusher;
+
+    // these are the transactions whose traces are waiting to be stored, including those held in
+    // the trace sampler tail, and are used to serve these traces from the UI in the meantime
     private final Set<Transaction> pendingTransactions = Sets.newCopyOnWriteArraySet();
+    // these are the traces that have been accepted for storage but not yet stored, which together
+    // with the trace sampler tail samples are bounded by PENDING_LIMIT
+    @GuardedBy("pendingTraces")
+    private final List<PendingTrace> pendingTraces = Lists.newArrayList();
 
     private final RateLimiter warningRateLimiter = RateLimiter.create(1.0 / 60);
     @GuardedBy("warningRateLimiter")
@@ -57,13 +72,17 @@ public class TransactionCollector {
 
     private volatile long defaultSlowThresholdNanos;
 
-    public TransactionCollector(ExecutorService executor, final ConfigService configService,
-            Collector collector, Aggregator aggregator, Clock clock, Ticker ticker) {
+    public TransactionCollector(ScheduledExecutorService executor,
+            final ConfigService configService, Collector collector, Aggregator aggregator,
+            Clock clock, Ticker ticker) {
         this.executor = executor;
         this.collector = collector;
         this.aggregator = aggregator;
         this.clock = clock;
         this.ticker = ticker;
+        traceSampler = new TraceSampler(aggregator.getAggregateIntervalMillis(), ticker);
+        tailSampleFlusher = new TailSampleFlusher();
+        tailSampleFlusher.scheduleWithFixedDelay(executor, 1, 1, SECONDS);
         configService.addConfigListener(new ConfigListener() {
             @Override
             public void onChange() {
@@ -97,60 +116,135 @@ public class TransactionCollector {
         return pendingTransactions;
     }
 
-    void onCompletedTransaction(final Transaction transaction) {
+    void onCompletedTransaction(Transaction transaction) {
         // capture time is calculated by the aggregator because it depends on monotonically
         // increasing capture times so it can flush aggregates without concern for new data
         // arriving with a prior capture time
         long captureTime = aggregator.add(transaction);
-        final boolean slow = shouldStoreSlow(transaction);
+        boolean slow = shouldStoreSlow(transaction);
         if (!slow && !shouldStoreError(transaction)) {
+            transaction.releaseSpilledEntries();
             return;
         }
-        // limit doesn't apply to transactions that were already (partially) stored to make sure
-        // they don't get left out in case they cause an avalanche of slowness
-        if (pendingTransactions.size() >= PENDING_LIMIT && !transaction.isPartiallyStored()) {
-            logPendingLimitWarning();
-            return;
-        }
-        pendingTransactions.add(transaction);
-
         // this need to be called inside the transaction thread
         transaction.onCompleteWillStoreTrace(captureTime);
 
-        Runnable command = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Trace trace = TraceCreator.createCompletedTrace(transaction, slow);
-                    collector.collectTrace(trace);
-                } catch (Throwable t) {
-                    logger.error(t.getMessage(), t);
-                } finally {
-                    pendingTransactions.remove(transaction);
+        storeTailSamples(traceSampler.drainEndedWindows(captureTime));
+        // sampling and limit don't apply to transactions that were already (partially) stored to
+        // make sure they don't get left out in case they cause an avalanche of slowness
+        if (transaction.isPartiallyStored() || traceSampler.tryAcquire(transaction)) {
+            store(transaction, slow);
+            return;
+        }
+        // added to pending transactions prior to offering to the tail so that it is never missing
+        // from both active and pending transactions (e.g. when viewing trace in the UI)
+        pendingTransactions.add(transaction);
+        Transaction notSampled = traceSampler.offer(transaction);
+        if (notSampled == null) {
+            // the tail grew, so make sure the tail samples still fit under the pending limit
+            synchronized (pendingTraces) {
+                if (pendingTraces.size() + traceSampler.getTailSampleCount() > PENDING_LIMIT) {
+                    notSampled = traceSampler.removeFastestTailSample(Long.MAX_VALUE);
                 }
             }
-        };
-        // transaction is ended, so Executor Plugin won't tie this async work to the transaction
-        // (which is good)
-        executor.execute(command);
+            if (notSampled != null) {
+                logPendingLimitWarning();
+            }
+        }
+        if (notSampled != null) {
+            pendingTransactions.remove(notSampled);
+            notSampled.releaseSpilledEntries();
+        }
     }
 
     // no need to throttle partial trace storage since throttling is handled upstream by using a
     // single thread executor in PartialTraceStorageWatcher
     public void storePartialTrace(Transaction transaction) {
         try {
-            Trace trace = TraceCreator.createPartialTrace(transaction, clock.currentTimeMillis(),
-                    ticker.read());
+            TraceReader traceReader = TraceCreator.createPartialTraceReader(transaction,
+                    clock.currentTimeMillis(), ticker.read());
             transaction.setPartiallyStored();
             // one last check if transaction has completed
             if (!transaction.isCompleted()) {
-                collector.collectTrace(trace);
+                collector.collectTrace(traceReader);
             }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
     }
 
+    @OnlyUsedByTests
+    public void close() {
+        tailSampleFlusher.cancel();
+    }
+
+    private void storeTailSamples(List<Transaction> samples) {
+        for (Transaction sample : samples) {
+            store(sample, shouldStoreSlow(sample));
+        }
+    }
+
+    private void store(Transaction transaction, boolean slow) {
+        PendingTrace pendingTrace = new PendingTrace(transaction, slow);
+        Transaction evictedTailSample = null;
+        PendingTrace evicted = null;
+        synchronized (pendingTraces) {
+            if (pendingTraces.size() + traceSampler.getTailSampleCount() >= PENDING_LIMIT
+                    && !transaction.isPartiallyStored()) {
+                // keep the slowest traces when there is a backlog, tail samples are evicted first
+                // since they did not obtain a token
+                long durationNanos = transaction.getDurationNanos();
+                evictedTailSample = traceSampler.removeFastestTailSample(durationNanos);
+                if (evictedTailSample == null) {
+                    evicted = getFastestEvictable(durationNanos);
+                    if (evicted == null) {
+                        pendingTransactions.remove(transaction);
+                        transaction.releaseSpilledEntries();
+                        logPendingLimitWarning();
+                        return;
+                    }
+                    pendingTraces.remove(evicted);
+                }
+            }
+            pendingTraces.add(pendingTrace);
+        }
+        if (evictedTailSample != null) {
+            pendingTransactions.remove(evictedTailSample);
+            evictedTailSample.releaseSpilledEntries();
+            logPendingLimitWarning();
+        }
+        if (evicted != null) {
+            pendingTransactions.remove(evicted.transaction);
+            evicted.transaction.releaseSpilledEntries();
+            logPendingLimitWarning();
+        }
+        pendingTransactions.add(transaction);
+        // transaction is ended, so Executor Plugin won't tie this async work to the transaction
+        // (which is good)
+        executor.execute(pendingTrace);
+    }
+
+    // returns the fastest queued trace, as long as it is faster than the given duration
+    @GuardedBy("pendingTraces")
+    private @Nullable PendingTrace getFastestEvictable(long fasterThanNanos) {
+        PendingTrace fastest = null;
+        for (PendingTrace pendingTrace : pendingTraces) {
+            if (pendingTrace.transaction.isPartiallyStored()) {
+                continue;
+            }
+            long durationNanos = pendingTrace.transaction.getDurationNanos();
+            if (durationNanos < fasterThanNanos && (fastest == null
+                    || durationNanos < fastest.transaction.getDurationNanos())) {
+                fastest = pendingTrace;
+            }
+        }
+        if (fastest == null || !fastest.evict()) {
+            // trace storage has already started
+            return null;
+        }
+        return fastest;
+    }
+
     private void logPendingLimitWarning() {
         synchronized (warningRateLimiter) {
             if (warningRateLimiter.tryAcquire(0, MILLISECONDS)) {
@@ -165,6 +259,50 @@ public class TransactionCollector {
         }
     }
 
+    private class PendingTrace implements Runnable {
+
+        private final Transaction transaction;
+        private final boolean slow;
+        // false once trace storage has started or trace has been evicted
+        private final AtomicBoolean queued = new AtomicBoolean(true);
+
+        private PendingTrace(Transaction transaction, boolean slow) {
+            this.transaction = transaction;
+            this.slow = slow;
+        }
+
+        private boolean evict() {
+            return queued.compareAndSet(true, false);
+        }
+
+        @Override
+        public void run() {
+            if (!queued.compareAndSet(true, false)) {
+                // evicted
+                return;
+            }
+            try {
+                collector.collectTrace(TraceCreator.createCompletedTraceReader(transaction, slow));
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            } finally {
+                synchronized (pendingTraces) {
+                    pendingTraces.remove(this);
+                }
+                pendingTransactions.remove(transaction);
+                transaction.releaseSpilledEntries();
+            }
+        }
+    }
+
+    private class TailSampleFlusher extends ScheduledRunnable {
+
+        @Override
+        protected void runInternal() {
+            storeTailSamples(traceSampler.drainEndedWindows(clock.currentTimeMillis()));
+        }
+    }
+
     static boolean containsIgnoreCase(List<String> list, String test) {
         for (String item : list) {
             if (test.equalsIgnoreCase(item)) {
@@ -15,6 +15,9 @@
  */
 package org.glowroot.agent.impl;
 
+import java.io.File;
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nullable;
 
 import com.google.common.base.Ticker;
@@ -50,6 +53,9 @@ public class TransactionServiceImpl implements ConfigListener {
     private final UserProfileScheduler userProfileScheduler;
     private final Clock clock;
     private final Ticker ticker;
+    // null when trace entry spilling is disabled
+    private final @Nullable File traceEntrySpillDir;
+    private final @Nullable Executor traceEntrySpillExecutor;
 
     private final TransactionCompletionCallback transactionCompletionCallback =
             new TransactionCompletionCallback();
@@ -64,10 +70,12 @@ public class TransactionServiceImpl implements ConfigListener {
     public static TransactionServiceImpl create(TransactionRegistry transactionRegistry,
             TransactionCollector transactionCollector, ConfigService configService,
             TimerNameCache timerNameCache, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock) {
-        TransactionServiceImpl transactionServiceImpl =
-                new TransactionServiceImpl(transactionRegistry, transactionCollector, configService,
-                        timerNameCache, threadAllocatedBytes, userProfileScheduler, ticker, clock);
+            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock,
+            @Nullable File traceEntrySpillDir, @Nullable Executor traceEntrySpillExecutor) {
+        TransactionServiceImpl transactionServiceImpl = new TransactionServiceImpl(
+                transactionRegistry, transactionCollector, configService, timerNameCache,
+                threadAllocatedBytes, userProfileScheduler, ticker, clock, traceEntrySpillDir,
+                traceEntrySpillExecutor);
         configService.addConfigListener(transactionServiceImpl);
         TransactionServiceHolder.transactionService = transactionServiceImpl;
         return transactionServiceImpl;
@@ -76,7 +84,8 @@ public class TransactionServiceImpl implements ConfigListener {
     private TransactionServiceImpl(TransactionRegistry transactionRegistry,
             TransactionCollector transactionCollector, ConfigService configService,
             TimerNameCache timerNameCache, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock) {
+            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock,
+            @Nullable File traceEntrySpillDir, @Nullable Executor traceEntrySpillExecutor) {
         this.transactionRegistry = transactionRegistry;
         this.transactionCollector = transactionCollector;
         this.configService = configService;
@@ -85,6 +94,8 @@ public class TransactionServiceImpl implements ConfigListener {
         this.userProfileScheduler = userProfileScheduler;
         this.clock = clock;
         this.ticker = ticker;
+        this.traceEntrySpillDir = traceEntrySpillDir;
+        this.traceEntrySpillExecutor = traceEntrySpillExecutor;
     }
 
     // this is used by OptionalThreadContextImpl
@@ -122,7 +133,8 @@ public class TransactionServiceImpl implements ConfigListener {
                 maxTraceEntriesPerTransaction, maxAggregateQueriesPerType,
                 maxAggregateServiceCallsPerType, threadAllocatedBytes,
                 transactionCompletionCallback, ticker, transactionRegistry, this, configService,
-                userProfileScheduler, threadContextHolder);
+                userProfileScheduler, threadContextHolder, traceEntrySpillDir,
+                traceEntrySpillExecutor);
         TransactionEntry transactionEntry = transactionRegistry.addTransaction(transaction);
         transaction.setTransactionEntry(transactionEntry);
         threadContextHolder.set(transaction.getMainThreadContext());
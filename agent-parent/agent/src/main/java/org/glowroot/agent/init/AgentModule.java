@@ -21,6 +21,8 @@ import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.jar.JarFile;
 
@@ -30,6 +32,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Supplier;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +55,8 @@ import org.glowroot.agent.impl.WeavingTimerServiceImpl;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.agent.model.TraceEntrySpillFile;
+import org.glowroot.agent.util.GaugeSampleBuffer;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
 import org.glowroot.agent.util.OptionalService;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
@@ -97,11 +102,12 @@ public class AgentModule {
 
     private final GaugeCollector gaugeCollector;
     private final StackTraceCollector stackTraceCollector;
+    private final @Nullable ExecutorService traceEntrySpillExecutor;
 
     private final boolean jvmRetransformClassesSupported;
 
     private final LiveTraceRepository liveTraceRepository;
-    private final LiveWeavingService liveWeavingService;
+    private final LiveWeavingServiceImpl liveWeavingService;
     private final LiveJvmService liveJvmService;
 
     private final LazyPlatformMBeanServer lazyPlatformMBeanServer;
@@ -165,9 +171,18 @@ public class AgentModule {
         UserProfileScheduler userProfileScheduler =
                 new UserProfileScheduler(scheduledExecutor, configService, random);
         GlowrootService glowrootService = new GlowrootServiceImpl(transactionRegistry);
+        File traceEntrySpillDir = TraceEntrySpillFile.initSpillDir(baseDir);
+        if (traceEntrySpillDir == null) {
+            traceEntrySpillExecutor = null;
+        } else {
+            // single thread so that spilling never competes with the application for more than
+            // one core
+            traceEntrySpillExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("Glowroot-Trace-Entry-Spill-%d").build());
+        }
         TransactionServiceImpl.create(transactionRegistry, transactionCollector, configService,
                 timerNameCache, threadAllocatedBytes.getService(), userProfileScheduler, ticker,
-                clock);
+                clock, traceEntrySpillDir, traceEntrySpillExecutor);
         ConfigServiceFactory configServiceFactory = new ConfigServiceFactory() {
             @Override
             public org.glowroot.agent.plugin.api.config.ConfigService create(String pluginId) {
@@ -180,14 +195,16 @@ public class AgentModule {
         ServiceRegistryImpl.init(glowrootService, timerNameCache, configServiceFactory);
 
         lazyPlatformMBeanServer = new LazyPlatformMBeanServer();
+        long gaugeCollectionIntervalMillis = configService.getGaugeCollectionIntervalMillis();
+        GaugeSampleBuffer gaugeSampleBuffer =
+                GaugeSampleBuffer.create(gaugeCollectionIntervalMillis);
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
-                clock, ticker);
+                gaugeSampleBuffer, clock, ticker);
+        long gaugePeriodMillis = gaugeSampleBuffer == null ? gaugeCollectionIntervalMillis
+                : gaugeSampleBuffer.getSampleIntervalMillis();
         // using fixed rate to keep gauge collections close to on the second mark
-        long gaugeCollectionIntervalMillis = configService.getGaugeCollectionIntervalMillis();
-        long initialDelay = gaugeCollectionIntervalMillis
-                - (clock.currentTimeMillis() % gaugeCollectionIntervalMillis);
-        gaugeCollector.scheduleWithFixedDelay(initialDelay, gaugeCollectionIntervalMillis,
-                MILLISECONDS);
+        long initialDelay = gaugePeriodMillis - (clock.currentTimeMillis() % gaugePeriodMillis);
+        gaugeCollector.scheduleWithFixedDelay(initialDelay, gaugePeriodMillis, MILLISECONDS);
         stackTraceCollector = new StackTraceCollector(transactionRegistry, configService, random);
 
         immedateTraceStoreWatcher = new ImmediateTraceStoreWatcher(scheduledExecutor,
@@ -199,8 +216,8 @@ public class AgentModule {
                 clock, ticker);
         liveWeavingService = new LiveWeavingServiceImpl(analyzedWorld, instrumentation,
                 configService, adviceCache, jvmRetransformClassesSupported);
-        liveJvmService = new LiveJvmServiceImpl(lazyPlatformMBeanServer, transactionRegistry,
-                transactionCollector, threadAllocatedBytes.getAvailability());
+        liveJvmService = new LiveJvmServiceImpl(lazyPlatformMBeanServer, gaugeSampleBuffer,
+                transactionRegistry, transactionCollector, threadAllocatedBytes.getAvailability());
 
         initPlugins(pluginCache.pluginDescriptors());
 
@@ -275,8 +292,13 @@ public class AgentModule {
     @OnlyUsedByTests
     public void close() throws InterruptedException {
         immedateTraceStoreWatcher.cancel();
+        transactionCollector.close();
         aggregator.close();
         gaugeCollector.close();
         stackTraceCollector.close();
+        liveWeavingService.close();
+        if (traceEntrySpillExecutor != null) {
+            traceEntrySpillExecutor.shutdown();
+        }
     }
 }
@@ -30,7 +30,6 @@ import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.SystemInfo;
-import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 @VisibleForTesting
 public class CollectorProxy implements Collector {
@@ -65,9 +64,9 @@ public class CollectorProxy implements Collector {
     }
 
     @Override
-    public void collectTrace(Trace trace) throws Exception {
+    public void collectTrace(TraceReader traceReader) throws Exception {
         if (instance != null) {
-            instance.collectTrace(trace);
+            instance.collectTrace(traceReader);
         }
     }
 
@@ -23,18 +23,25 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
 import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -48,7 +55,7 @@ import org.slf4j.LoggerFactory;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.config.GaugeConfig;
 import org.glowroot.agent.config.GaugeConfig.MBeanAttribute;
-import org.glowroot.agent.config.ImmutableMBeanAttribute;
+import org.glowroot.agent.util.GaugeSampleBuffer;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
 import org.glowroot.agent.util.LazyPlatformMBeanServer.InitListener;
 import org.glowroot.agent.util.Reflections;
@@ -58,6 +65,7 @@ import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.Collector;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 class GaugeCollector extends ScheduledRunnable {
@@ -82,11 +90,41 @@ class GaugeCollector extends ScheduledRunnable {
     // priorRawCounterValues (except can't initialize here outside of the dedicated thread)
     private @MonotonicNonNull Map<String, RawCounterValue> priorRawCounterValues;
 
+    // gauge configs are compiled (object name parsed, attribute names split, pattern matches
+    // resolved) once instead of on every collection, this is also only accessed by the dedicated
+    // thread
+    private final Map<GaugeConfig, CompiledGauge> compiledGauges = Maps.newHashMap();
+
+    // incremented on every mbean registration and unregistration, so that pattern matches only need
+    // to be re-queried when something has changed
+    private final AtomicLong mbeanRegistrationCount = new AtomicLong();
+    private final NotificationListener registrationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, @Nullable Object handback) {
+            // this is called on the thread registering the mbean, so keep it minimal
+            mbeanRegistrationCount.getAndIncrement();
+        }
+    };
+    // non-null once the registration listener has been added, so that it can be removed on close
+    private volatile @Nullable MBeanServer registrationListenerMBeanServer;
+    private volatile boolean registrationNotifications;
+
+    // when non-null, this collector runs at the (sub-second) sample interval, and only sends one
+    // summary value (the weighted average) per gauge per gauge collection interval to the
+    // collector, with capture time at the end of the gauge collection interval
+    private final @Nullable GaugeSampleBuffer sampleBuffer;
+    // these are only accessed by the dedicated thread
+    private final Map<String, GaugeSummary> gaugeSummaries = Maps.newHashMap();
+    // end of the gauge collection interval of the current summaries (zero if there are none)
+    private long summaryCaptureTime;
+
     GaugeCollector(ConfigService configService, Collector collector,
-            LazyPlatformMBeanServer lazyPlatformMBeanServer, Clock clock, Ticker ticker) {
+            LazyPlatformMBeanServer lazyPlatformMBeanServer,
+            @Nullable GaugeSampleBuffer sampleBuffer, Clock clock, Ticker ticker) {
         this.configService = configService;
         this.collector = collector;
         this.lazyPlatformMBeanServer = lazyPlatformMBeanServer;
+        this.sampleBuffer = sampleBuffer;
         this.clock = clock;
         this.ticker = ticker;
         startTimeMillis = clock.currentTimeMillis();
@@ -109,6 +147,15 @@ class GaugeCollector extends ScheduledRunnable {
                     // checkNotNull is just to satisfy checker framework
                     logger.debug(e.getMessage(), e);
                 }
+                try {
+                    mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                            registrationListener, null, null);
+                    registrationListenerMBeanServer = mbeanServer;
+                    registrationNotifications = true;
+                } catch (Exception e) {
+                    // pattern matches will be re-queried on every collection
+                    logger.debug(e.getMessage(), e);
+                }
             }
         });
     }
@@ -120,9 +167,18 @@ class GaugeCollector extends ScheduledRunnable {
             // wait to now to initialize priorGaugeValues inside of the dedicated thread
             priorRawCounterValues = Maps.newHashMap();
         }
-        for (GaugeConfig gaugeConfig : configService.getGaugeConfigs()) {
+        List<GaugeConfig> gaugeConfigs = configService.getGaugeConfigs();
+        // remove compiled gauges for gauge configs that have been changed or removed
+        compiledGauges.keySet().retainAll(gaugeConfigs);
+        for (GaugeConfig gaugeConfig : gaugeConfigs) {
             gaugeValues.addAll(collectGaugeValues(gaugeConfig));
         }
+        if (sampleBuffer != null) {
+            gaugeValues = sample(sampleBuffer, gaugeValues);
+            if (gaugeValues.isEmpty()) {
+                return;
+            }
+        }
         try {
             collector.collectGaugeValues(gaugeValues);
         } catch (Throwable t) {
@@ -131,11 +187,60 @@ class GaugeCollector extends ScheduledRunnable {
         }
     }
 
+    // adds the samples to the sample buffer, and returns one summary value per gauge once per gauge
+    // collection interval, after the interval has ended (and otherwise returns empty list)
+    private List<GaugeValue> sample(GaugeSampleBuffer sampleBuffer, List<GaugeValue> samples) {
+        long collectionIntervalMillis = configService.getGaugeCollectionIntervalMillis();
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        for (GaugeValue sample : samples) {
+            sampleBuffer.add(sample);
+            // the interval is (captureTime - collectionIntervalMillis, captureTime]
+            long captureTime = (long) Math.ceil(sample.getCaptureTime()
+                    / (double) collectionIntervalMillis) * collectionIntervalMillis;
+            if (captureTime > summaryCaptureTime) {
+                summarize(gaugeValues);
+                summaryCaptureTime = captureTime;
+            }
+            GaugeSummary summary = gaugeSummaries.get(sample.getGaugeName());
+            if (summary == null) {
+                summary = new GaugeSummary();
+                gaugeSummaries.put(sample.getGaugeName(), summary);
+            }
+            summary.add(sample);
+        }
+        long currentTime = clock.currentTimeMillis();
+        if (currentTime >= summaryCaptureTime) {
+            // no more samples can be captured in the interval
+            summarize(gaugeValues);
+        }
+        if (!gaugeValues.isEmpty()) {
+            sampleBuffer.removeInactive(currentTime);
+        }
+        return gaugeValues;
+    }
+
+    private void summarize(List<GaugeValue> gaugeValues) {
+        for (Map.Entry<String, GaugeSummary> entry : gaugeSummaries.entrySet()) {
+            gaugeValues.add(entry.getValue().toGaugeValue(entry.getKey(), summaryCaptureTime));
+        }
+        gaugeSummaries.clear();
+    }
+
     void scheduleWithFixedDelay(long initialDelay, long period, TimeUnit unit) {
         scheduleWithFixedDelay(dedicatedScheduledExecutor, initialDelay, period, unit);
     }
 
     void close() throws InterruptedException {
+        MBeanServer mbeanServer = registrationListenerMBeanServer;
+        if (mbeanServer != null) {
+            try {
+                mbeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                        registrationListener);
+            } catch (Exception e) {
+                logger.debug(e.getMessage(), e);
+            }
+            registrationListenerMBeanServer = null;
+        }
         dedicatedScheduledExecutor.shutdown();
         if (!dedicatedScheduledExecutor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Could not terminate gauge collector");
@@ -145,6 +250,31 @@ class GaugeCollector extends ScheduledRunnable {
     @VisibleForTesting
     @RequiresNonNull("priorRawCounterValues")
     List<GaugeValue> collectGaugeValues(GaugeConfig gaugeConfig) throws InterruptedException {
+        CompiledGauge compiledGauge = compiledGauges.get(gaugeConfig);
+        if (compiledGauge == null) {
+            compiledGauge = compile(gaugeConfig);
+            compiledGauges.put(gaugeConfig, compiledGauge);
+        }
+        if (compiledGauge.objectName == null) {
+            // malformed object name was logged when compiled
+            return ImmutableList.of();
+        }
+        List<ResolvedMBean> mbeans = getMBeans(compiledGauge, compiledGauge.objectName);
+        if (mbeans.isEmpty()) {
+            logFirstTimeMBeanNotMatchedOrFound(gaugeConfig.mbeanObjectName());
+            return ImmutableList.of();
+        }
+        if (mbeans.size() == 1) {
+            return collectGaugeValues(compiledGauge, mbeans.get(0));
+        }
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        for (ResolvedMBean mbean : mbeans) {
+            gaugeValues.addAll(collectGaugeValues(compiledGauge, mbean));
+        }
+        return gaugeValues;
+    }
+
+    private CompiledGauge compile(GaugeConfig gaugeConfig) {
         String mbeanObjectName = gaugeConfig.mbeanObjectName();
         ObjectName objectName;
         try {
@@ -153,42 +283,99 @@ class GaugeCollector extends ScheduledRunnable {
             logger.debug(e.getMessage(), e);
             // using toString() instead of getMessage() in order to capture exception class name
             logFirstTimeMBeanException(mbeanObjectName, e.toString());
-            return ImmutableList.of();
+            return new CompiledGauge(null, ImmutableList.<CompiledAttribute>of(), new String[0]);
         }
+        List<CompiledAttribute> attributes = Lists.newArrayList();
+        Set<String> topLevelAttributeNames = Sets.newLinkedHashSet();
+        for (MBeanAttribute mbeanAttribute : gaugeConfig.mbeanAttributes()) {
+            CompiledAttribute attribute = new CompiledAttribute(mbeanAttribute);
+            attributes.add(attribute);
+            topLevelAttributeNames.add(attribute.topLevelName);
+        }
+        CompiledGauge compiledGauge = new CompiledGauge(objectName,
+                ImmutableList.copyOf(attributes),
+                topLevelAttributeNames.toArray(new String[topLevelAttributeNames.size()]));
         if (!objectName.isPattern()) {
-            return collectGaugeValues(objectName, gaugeConfig.mbeanAttributes(), mbeanObjectName);
+            compiledGauge.mbeans = ImmutableList.of(resolve(compiledGauge, objectName,
+                    mbeanObjectName));
         }
-        Set<ObjectName> matchingObjectNames = lazyPlatformMBeanServer.queryNames(objectName, null);
-        if (matchingObjectNames.isEmpty()) {
-            logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
-            return ImmutableList.of();
+        return compiledGauge;
+    }
+
+    // pattern matches are only re-queried when an mbean has been registered or unregistered since
+    // the last query (or on every collection if registration notifications are not available)
+    private List<ResolvedMBean> getMBeans(CompiledGauge compiledGauge, ObjectName objectName)
+            throws InterruptedException {
+        List<ResolvedMBean> mbeans = compiledGauge.mbeans;
+        if (!objectName.isPattern()) {
+            return checkNotNull(mbeans);
         }
-        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        // read registration count prior to querying, so registrations during the query will
+        // trigger another query next time
+        long registrationCount = mbeanRegistrationCount.get();
+        if (mbeans != null && registrationNotifications
+                && registrationCount == compiledGauge.registrationCount) {
+            return mbeans;
+        }
+        Set<ObjectName> matchingObjectNames = lazyPlatformMBeanServer.queryNames(objectName, null);
+        mbeans = Lists.newArrayList();
         for (ObjectName matchingObjectName : matchingObjectNames) {
-            gaugeValues.addAll(collectGaugeValues(matchingObjectName, gaugeConfig.mbeanAttributes(),
+            mbeans.add(resolve(compiledGauge, matchingObjectName,
                     matchingObjectName.getDomain() + ":"
                             + matchingObjectName.getKeyPropertyListString()));
         }
-        return gaugeValues;
+        compiledGauge.mbeans = mbeans;
+        compiledGauge.registrationCount = registrationCount;
+        return mbeans;
+    }
+
+    private static ResolvedMBean resolve(CompiledGauge compiledGauge, ObjectName objectName,
+            String mbeanObjectName) {
+        List<String> attributeNames = Lists.newArrayList();
+        List<String> gaugeNames = Lists.newArrayList();
+        for (CompiledAttribute attribute : compiledGauge.attributes) {
+            attributeNames.add(attribute.name);
+            String gaugeName = mbeanObjectName + ':' + attribute.name;
+            if (attribute.counter) {
+                // "[counter]" suffix is so gauge name (and gauge id) will change if gauge is
+                // switched between counter and non-counter (which will prevent counter and
+                // non-counter values showing up in same chart line)
+                gaugeName += "[counter]";
+            }
+            gaugeNames.add(gaugeName);
+        }
+        return new ResolvedMBean(objectName, mbeanObjectName, ImmutableList.copyOf(gaugeNames),
+                PlatformMXBeanAttributes.create(objectName, attributeNames));
     }
 
     @RequiresNonNull("priorRawCounterValues")
-    private List<GaugeValue> collectGaugeValues(ObjectName objectName,
-            List<ImmutableMBeanAttribute> mbeanAttributes, String mbeanObjectName) {
+    private List<GaugeValue> collectGaugeValues(CompiledGauge compiledGauge, ResolvedMBean mbean) {
         long captureTime = clock.currentTimeMillis();
+        String mbeanObjectName = mbean.mbeanObjectName;
+        PlatformMXBeanAttributes platformAttributes = mbean.platformAttributes;
+        Map<String, /*@Nullable*/ Object> batchedValues = ImmutableMap.of();
+        if (platformAttributes == null) {
+            try {
+                batchedValues = getAttributes(mbean.objectName, compiledGauge.topLevelNames);
+            } catch (InstanceNotFoundException e) {
+                logger.debug(e.getMessage(), e);
+                logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
+                return ImmutableList.of();
+            } catch (Exception e) {
+                // individual attributes will be read below in order to log the specific errors
+                logger.debug(e.getMessage(), e);
+            }
+        }
         List<GaugeValue> gaugeValues = Lists.newArrayList();
-        for (MBeanAttribute mbeanAttribute : mbeanAttributes) {
-            String mbeanAttributeName = mbeanAttribute.name();
+        for (int i = 0; i < compiledGauge.attributes.size(); i++) {
+            CompiledAttribute attribute = compiledGauge.attributes.get(i);
+            String mbeanAttributeName = attribute.name;
             Object attributeValue;
             try {
-                if (mbeanAttributeName.contains("/")) {
-                    String[] path = mbeanAttributeName.split("\\/");
-                    attributeValue = lazyPlatformMBeanServer.getAttribute(objectName, path[0]);
-                    CompositeData compositeData = (CompositeData) attributeValue;
-                    attributeValue = compositeData.get(path[1]);
+                if (platformAttributes == null) {
+                    attributeValue = getAttribute(mbean.objectName, attribute, batchedValues);
                 } else {
-                    attributeValue =
-                            lazyPlatformMBeanServer.getAttribute(objectName, mbeanAttributeName);
+                    attributeValue = platformAttributes.getValue(mbeanAttributeName);
                 }
             } catch (InstanceNotFoundException e) {
                 logger.debug(e.getMessage(), e);
@@ -222,12 +409,8 @@ class GaugeCollector extends ScheduledRunnable {
                         "MBean attribute value is not a number or string");
             }
             if (value != null) {
-                String gaugeName = mbeanObjectName + ':' + mbeanAttributeName;
-                if (mbeanAttribute.counter()) {
-                    // "[counter]" suffix is so gauge name (and gauge id) will change if gauge is
-                    // switched between counter and non-counter (which will prevent counter and
-                    // non-counter values showing up in same chart line)
-                    gaugeName += "[counter]";
+                String gaugeName = mbean.gaugeNames.get(i);
+                if (attribute.counter) {
                     RawCounterValue priorRawCounterValue = priorRawCounterValues.get(gaugeName);
                     long captureTick = ticker.read();
                     if (priorRawCounterValue != null) {
@@ -257,6 +440,36 @@ class GaugeCollector extends ScheduledRunnable {
         return gaugeValues;
     }
 
+    // all attributes of an mbean are read in a single getAttributes() call, but getAttributes()
+    // silently omits attributes that could not be read, so those are then read individually in
+    // getAttribute() below in order to report the specific error
+    private Map<String, /*@Nullable*/ Object> getAttributes(ObjectName objectName,
+            String[] attributeNames) throws Exception {
+        AttributeList attributeList =
+                lazyPlatformMBeanServer.getAttributes(objectName, attributeNames);
+        Map<String, /*@Nullable*/ Object> values = Maps.newHashMap();
+        for (Attribute attribute : attributeList.asList()) {
+            values.put(attribute.getName(), attribute.getValue());
+        }
+        return values;
+    }
+
+    private @Nullable Object getAttribute(ObjectName objectName, CompiledAttribute attribute,
+            Map<String, /*@Nullable*/ Object> batchedValues) throws Exception {
+        Object attributeValue;
+        if (batchedValues.containsKey(attribute.topLevelName)) {
+            attributeValue = batchedValues.get(attribute.topLevelName);
+        } else {
+            attributeValue =
+                    lazyPlatformMBeanServer.getAttribute(objectName, attribute.topLevelName);
+        }
+        if (attribute.compositeKey == null) {
+            return attributeValue;
+        }
+        CompositeData compositeData = (CompositeData) attributeValue;
+        return checkNotNull(compositeData).get(attribute.compositeKey);
+    }
+
     // relatively common, so nice message
     private void logFirstTimeMBeanNotMatchedOrFound(String mbeanObjectName) {
         int delaySeconds = configService.getAdvancedConfig().mbeanGaugeNotFoundDelaySeconds();
@@ -299,6 +512,88 @@ class GaugeCollector extends ScheduledRunnable {
         }
     }
 
+    // weighted average of the samples over a gauge collection interval, for counter gauges this is
+    // the same as the average delta per second over the whole interval, since sample weights are
+    // the sample interval nanos
+    private static class GaugeSummary {
+
+        private double totalValue;
+        private long totalWeight;
+
+        private void add(GaugeValue sample) {
+            totalValue += sample.getValue() * sample.getWeight();
+            totalWeight += sample.getWeight();
+        }
+
+        private GaugeValue toGaugeValue(String gaugeName, long captureTime) {
+            return GaugeValue.newBuilder()
+                    .setGaugeName(gaugeName)
+                    .setCaptureTime(captureTime)
+                    .setValue(totalValue / totalWeight)
+                    // non-counter gauge values always have weight 1
+                    .setWeight(gaugeName.endsWith("[counter]") ? totalWeight : 1)
+                    .build();
+        }
+    }
+
+    private static class CompiledGauge {
+
+        private final @Nullable ObjectName objectName;
+        private final ImmutableList<CompiledAttribute> attributes;
+        // distinct attribute names to pass to getAttributes()
+        private final String[] topLevelNames;
+
+        // for non-pattern object names this is resolved once when compiled
+        private @Nullable List<ResolvedMBean> mbeans;
+        private long registrationCount;
+
+        private CompiledGauge(@Nullable ObjectName objectName,
+                ImmutableList<CompiledAttribute> attributes, String[] topLevelNames) {
+            this.objectName = objectName;
+            this.attributes = attributes;
+            this.topLevelNames = topLevelNames;
+        }
+    }
+
+    private static class CompiledAttribute {
+
+        private final String name;
+        private final boolean counter;
+        private final String topLevelName;
+        private final @Nullable String compositeKey;
+
+        private CompiledAttribute(MBeanAttribute mbeanAttribute) {
+            name = mbeanAttribute.name();
+            counter = mbeanAttribute.counter();
+            int index = name.indexOf('/');
+            if (index == -1) {
+                topLevelName = name;
+                compositeKey = null;
+            } else {
+                topLevelName = name.substring(0, index);
+                compositeKey = name.substring(index + 1);
+            }
+        }
+    }
+
+    private static class ResolvedMBean {
+
+        private final ObjectName objectName;
+        private final String mbeanObjectName;
+        // one per compiled attribute
+        private final ImmutableList<String> gaugeNames;
+        private final @Nullable PlatformMXBeanAttributes platformAttributes;
+
+        private ResolvedMBean(ObjectName objectName, String mbeanObjectName,
+                ImmutableList<String> gaugeNames,
+                @Nullable PlatformMXBeanAttributes platformAttributes) {
+            this.objectName = objectName;
+            this.mbeanObjectName = mbeanObjectName;
+            this.gaugeNames = gaugeNames;
+            this.platformAttributes = platformAttributes;
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface RawCounterValue {
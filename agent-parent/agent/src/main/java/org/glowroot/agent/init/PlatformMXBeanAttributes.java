@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.init;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.management.ObjectName;
+
+// direct accessors for the common java.lang platform mxbean gauges, so that collecting them doesn't
+// go through the mbean server (which converts MemoryUsage to CompositeData on every read, and
+// contends with application mbeans for the mbean server's registry)
+//
+// OperatingSystem attributes are not included since most of them are only available through the
+// non-standard com.sun.management extension interface, so those still go through the mbean server
+abstract class PlatformMXBeanAttributes {
+
+    // returns null if the mbean or any of the attributes are not supported, in which case the
+    // attributes need to be read from the mbean server
+    static @Nullable PlatformMXBeanAttributes create(ObjectName objectName,
+            List<String> attributeNames) {
+        if (!objectName.getDomain().equals("java.lang")) {
+            return null;
+        }
+        String type = objectName.getKeyProperty("type");
+        String name = objectName.getKeyProperty("name");
+        int keyCount = objectName.getKeyPropertyList().size();
+        if ("Memory".equals(type) && keyCount == 1) {
+            for (String attributeName : attributeNames) {
+                if (!isMemoryUsageAttribute(attributeName, "HeapMemoryUsage/")
+                        && !isMemoryUsageAttribute(attributeName, "NonHeapMemoryUsage/")) {
+                    return null;
+                }
+            }
+            return new MemoryAttributes(ManagementFactory.getMemoryMXBean());
+        }
+        if ("GarbageCollector".equals(type) && name != null && keyCount == 2) {
+            for (String attributeName : attributeNames) {
+                if (!attributeName.equals("CollectionCount")
+                        && !attributeName.equals("CollectionTime")) {
+                    return null;
+                }
+            }
+            for (GarbageCollectorMXBean mxbean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (mxbean.getName().equals(name)) {
+                    return new GarbageCollectorAttributes(mxbean);
+                }
+            }
+            return null;
+        }
+        if ("MemoryPool".equals(type) && name != null && keyCount == 2) {
+            for (String attributeName : attributeNames) {
+                if (!isMemoryUsageAttribute(attributeName, "Usage/")
+                        && !isMemoryUsageAttribute(attributeName, "PeakUsage/")) {
+                    return null;
+                }
+            }
+            for (MemoryPoolMXBean mxbean : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (mxbean.getName().equals(name)) {
+                    return new MemoryPoolAttributes(mxbean);
+                }
+            }
+            return null;
+        }
+        return null;
+    }
+
+    // attribute name was validated in create()
+    abstract Object getValue(String attributeName);
+
+    private static boolean isMemoryUsageAttribute(String attributeName, String prefix) {
+        if (!attributeName.startsWith(prefix)) {
+            return false;
+        }
+        String key = attributeName.substring(prefix.length());
+        return key.equals("used") || key.equals("committed") || key.equals("max")
+                || key.equals("init");
+    }
+
+    private static long getMemoryUsageValue(MemoryUsage memoryUsage, String attributeName) {
+        String key = attributeName.substring(attributeName.indexOf('/') + 1);
+        if (key.equals("used")) {
+            return memoryUsage.getUsed();
+        } else if (key.equals("committed")) {
+            return memoryUsage.getCommitted();
+        } else if (key.equals("max")) {
+            return memoryUsage.getMax();
+        } else {
+            return memoryUsage.getInit();
+        }
+    }
+
+    private static class MemoryAttributes extends PlatformMXBeanAttributes {
+
+        private final MemoryMXBean mxbean;
+
+        private MemoryAttributes(MemoryMXBean mxbean) {
+            this.mxbean = mxbean;
+        }
+
+        @Override
+        Object getValue(String attributeName) {
+            if (attributeName.startsWith("HeapMemoryUsage/")) {
+                return getMemoryUsageValue(mxbean.getHeapMemoryUsage(), attributeName);
+            } else {
+                return getMemoryUsageValue(mxbean.getNonHeapMemoryUsage(), attributeName);
+            }
+        }
+    }
+
+    private static class GarbageCollectorAttributes extends PlatformMXBeanAttributes {
+
+        private final GarbageCollectorMXBean mxbean;
+
+        private GarbageCollectorAttributes(GarbageCollectorMXBean mxbean) {
+            this.mxbean = mxbean;
+        }
+
+        @Override
+        Object getValue(String attributeName) {
+            if (attributeName.equals("CollectionCount")) {
+                return mxbean.getCollectionCount();
+            } else {
+                return mxbean.getCollectionTime();
+            }
+        }
+    }
+
+    private static class MemoryPoolAttributes extends PlatformMXBeanAttributes {
+
+        private final MemoryPoolMXBean mxbean;
+
+        private MemoryPoolAttributes(MemoryPoolMXBean mxbean) {
+            this.mxbean = mxbean;
+        }
+
+        @Override
+        Object getValue(String attributeName) {
+            if (attributeName.startsWith("Usage/")) {
+                return getMemoryUsageValue(mxbean.getUsage(), attributeName);
+            } else {
+                return getMemoryUsageValue(mxbean.getPeakUsage(), attributeName);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+// index over the segments of the class names, i.e. the suffixes that start at the beginning of the
+// class name or right after a '.' or '$', which is exactly where a partial class name is allowed to
+// match, so that matching a partial class name is a (case insensitive) binary search over the
+// sorted suffixes, instead of upper casing and scanning every class name on every keystroke
+//
+// suffixes are stored as packed (class name index, offset) longs instead of as substrings in order
+// to keep the memory footprint small
+class ClassNameIndex {
+
+    // sorted case insensitive so that matches are returned in the same order as before
+    private final String[] classNames;
+    private final long[] suffixes;
+
+    private ClassNameIndex(String[] classNames, long[] suffixes) {
+        this.classNames = classNames;
+        this.suffixes = suffixes;
+    }
+
+    static ClassNameIndex create(Iterable<String> classNames) {
+        Set<String> distinctClassNames = Sets.newHashSet(classNames);
+        final String[] sortedClassNames =
+                distinctClassNames.toArray(new String[distinctClassNames.size()]);
+        Arrays.sort(sortedClassNames, String.CASE_INSENSITIVE_ORDER);
+        List<Long> suffixList = Lists.newArrayList();
+        for (int i = 0; i < sortedClassNames.length; i++) {
+            String className = sortedClassNames[i];
+            suffixList.add(pack(i, 0));
+            for (int j = 0; j < className.length() - 1; j++) {
+                char c = className.charAt(j);
+                if (c == '.' || c == '$') {
+                    suffixList.add(pack(i, j + 1));
+                }
+            }
+        }
+        Long[] boxedSuffixes = suffixList.toArray(new Long[suffixList.size()]);
+        Arrays.sort(boxedSuffixes, new Comparator<Long>() {
+            @Override
+            public int compare(Long left, Long right) {
+                String leftClassName = sortedClassNames[getClassNameIndex(left)];
+                String rightClassName = sortedClassNames[getClassNameIndex(right)];
+                return compareIgnoreCase(leftClassName, getOffset(left), rightClassName,
+                        getOffset(right));
+            }
+        });
+        long[] suffixes = new long[boxedSuffixes.length];
+        for (int i = 0; i < boxedSuffixes.length; i++) {
+            suffixes[i] = boxedSuffixes[i];
+        }
+        return new ClassNameIndex(sortedClassNames, suffixes);
+    }
+
+    // full matches (where the partial class name matches all the way to the end of the class name)
+    // are returned first
+    ImmutableList<String> getMatchingClassNames(String partialClassName, int limit) {
+        BitSet fullMatches = new BitSet(classNames.length);
+        BitSet matches = new BitSet(classNames.length);
+        for (int i = getFirstSuffixAtOrAfter(partialClassName); i < suffixes.length; i++) {
+            int classNameIndex = getClassNameIndex(suffixes[i]);
+            String className = classNames[classNameIndex];
+            int offset = getOffset(suffixes[i]);
+            if (!className.regionMatches(true, offset, partialClassName, 0,
+                    partialClassName.length())) {
+                break;
+            }
+            if (className.length() - offset == partialClassName.length()) {
+                fullMatches.set(classNameIndex);
+            } else {
+                matches.set(classNameIndex);
+            }
+        }
+        matches.andNot(fullMatches);
+        List<String> matchingClassNames = Lists.newArrayList();
+        addClassNames(fullMatches, limit, matchingClassNames);
+        addClassNames(matches, limit - matchingClassNames.size(), matchingClassNames);
+        return ImmutableList.copyOf(matchingClassNames);
+    }
+
+    private int getFirstSuffixAtOrAfter(String partialClassName) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            String className = classNames[getClassNameIndex(suffixes[mid])];
+            if (compareIgnoreCase(className, getOffset(suffixes[mid]), partialClassName, 0) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void addClassNames(BitSet bitSet, int limit, List<String> matchingClassNames) {
+        int count = 0;
+        for (int i = bitSet.nextSetBit(0); i >= 0 && count < limit; i = bitSet.nextSetBit(i + 1)) {
+            matchingClassNames.add(classNames[i]);
+            count++;
+        }
+    }
+
+    private static int compareIgnoreCase(String left, int leftOffset, String right,
+            int rightOffset) {
+        int leftLength = left.length() - leftOffset;
+        int rightLength = right.length() - rightOffset;
+        int length = Math.min(leftLength, rightLength);
+        for (int i = 0; i < length; i++) {
+            char leftChar = Character.toUpperCase(left.charAt(leftOffset + i));
+            char rightChar = Character.toUpperCase(right.charAt(rightOffset + i));
+            if (leftChar != rightChar) {
+                return leftChar - rightChar;
+            }
+        }
+        return leftLength - rightLength;
+    }
+
+    private static long pack(int classNameIndex, int offset) {
+        return ((long) classNameIndex << 32) | offset;
+    }
+
+    private static int getClassNameIndex(long suffix) {
+        return (int) (suffix >>> 32);
+    }
+
+    private static int getOffset(long suffix) {
+        return (int) suffix;
+    }
+}
@@ -29,9 +29,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
@@ -46,7 +44,6 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
@@ -78,6 +75,8 @@ class ClasspathCache {
 
     private static final Logger logger = LoggerFactory.getLogger(ClasspathCache.class);
 
+    private static final long LOADED_CLASSES_CHECK_MILLIS = 5000;
+
     private final AnalyzedWorld analyzedWorld;
     private final @Nullable Instrumentation instrumentation;
 
@@ -89,6 +88,18 @@ class ClasspathCache {
     @GuardedBy("this")
     private ImmutableMultimap<String, Location> classNameLocations = ImmutableMultimap.of();
 
+    // built lazily from classNameLocations and loadedClassNames, and reset when either changes
+    @GuardedBy("this")
+    private @Nullable ClassNameIndex classNameIndex;
+
+    // Class.getName() caches the name in the Class instance, so this list is cheap
+    @GuardedBy("this")
+    private ImmutableList<String> loadedClassNames = ImmutableList.of();
+    @GuardedBy("this")
+    private int loadedClassCount;
+    @GuardedBy("this")
+    private long lastLoadedClassesCheckTime;
+
     ClasspathCache(AnalyzedWorld analyzedWorld, @Nullable Instrumentation instrumentation) {
         this.analyzedWorld = analyzedWorld;
         this.instrumentation = instrumentation;
@@ -98,40 +109,13 @@ class ClasspathCache {
     synchronized ImmutableList<String> getMatchingClassNames(String partialClassName, int limit) {
         // update cache before proceeding
         updateCache();
-        PartialClassNameMatcher matcher = new PartialClassNameMatcher(partialClassName);
-        Set<String> fullMatchingClassNames = Sets.newLinkedHashSet();
-        Set<String> matchingClassNames = Sets.newLinkedHashSet();
         // also check loaded classes, e.g. for groovy classes
-        Iterator<String> i = classNameLocations.keySet().iterator();
-        if (instrumentation != null) {
-            List<String> loadedClassNames = Lists.newArrayList();
-            for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-                if (!clazz.getName().startsWith("[")) {
-                    loadedClassNames.add(clazz.getName());
-                }
-            }
-            i = Iterators.concat(i, loadedClassNames.iterator());
-        }
-        while (i.hasNext()) {
-            String className = i.next();
-            String classNameUpper = className.toUpperCase(Locale.ENGLISH);
-            boolean potentialFullMatch = matcher.isPotentialFullMatch(classNameUpper);
-            if (matchingClassNames.size() == limit && !potentialFullMatch) {
-                // once limit reached, only consider full matches
-                continue;
-            }
-            if (fullMatchingClassNames.size() == limit) {
-                break;
-            }
-            if (matcher.isPotentialMatch(classNameUpper)) {
-                if (potentialFullMatch) {
-                    fullMatchingClassNames.add(className);
-                } else {
-                    matchingClassNames.add(className);
-                }
-            }
+        updateLoadedClassNames();
+        if (classNameIndex == null) {
+            classNameIndex = ClassNameIndex
+                    .create(Iterables.concat(classNameLocations.keySet(), loadedClassNames));
         }
-        return combineClassNamesWithLimit(fullMatchingClassNames, matchingClassNames, limit);
+        return classNameIndex.getMatchingClassNames(partialClassName, limit);
     }
 
     // using synchronization over concurrent structures in this cache to conserve memory
@@ -172,18 +156,36 @@ class ClasspathCache {
             newMap.putAll(classNameLocations);
             newMap.putAll(newClassNameLocations);
             classNameLocations = ImmutableMultimap.copyOf(newMap);
+            classNameIndex = null;
         }
     }
 
-    private ImmutableList<String> combineClassNamesWithLimit(Set<String> fullMatchingClassNames,
-            Set<String> matchingClassNames, int limit) {
-        if (fullMatchingClassNames.size() < limit) {
-            int space = limit - fullMatchingClassNames.size();
-            int numToAdd = Math.min(space, matchingClassNames.size());
-            fullMatchingClassNames
-                    .addAll(ImmutableList.copyOf(Iterables.limit(matchingClassNames, numToAdd)));
+    // getAllLoadedClasses() is relatively expensive with many loaded classes, so this is only
+    // re-checked every few seconds (and not on every keystroke in the UI)
+    @GuardedBy("this")
+    private void updateLoadedClassNames() {
+        if (instrumentation == null) {
+            return;
         }
-        return ImmutableList.copyOf(fullMatchingClassNames);
+        long currentTimeMillis = System.currentTimeMillis();
+        if (currentTimeMillis - lastLoadedClassesCheckTime < LOADED_CLASSES_CHECK_MILLIS) {
+            return;
+        }
+        lastLoadedClassesCheckTime = currentTimeMillis;
+        Class<?>[] loadedClasses = instrumentation.getAllLoadedClasses();
+        if (loadedClasses.length == loadedClassCount) {
+            // class unloading is rare enough that the same count is assumed to mean no change
+            return;
+        }
+        loadedClassCount = loadedClasses.length;
+        List<String> names = Lists.newArrayList();
+        for (Class<?> clazz : loadedClasses) {
+            if (!clazz.getName().startsWith("[")) {
+                names.add(clazz.getName());
+            }
+        }
+        loadedClassNames = ImmutableList.copyOf(names);
+        classNameIndex = null;
     }
 
     @GuardedBy("this")
@@ -496,31 +498,6 @@ class ClasspathCache {
         ImmutableList<String> exceptions();
     }
 
-    private static class PartialClassNameMatcher {
-
-        private final String partialClassNameUpper;
-        private final String prefixedPartialClassNameUpper1;
-        private final String prefixedPartialClassNameUpper2;
-
-        private PartialClassNameMatcher(String partialClassName) {
-            partialClassNameUpper = partialClassName.toUpperCase(Locale.ENGLISH);
-            prefixedPartialClassNameUpper1 = '.' + partialClassNameUpper;
-            prefixedPartialClassNameUpper2 = '$' + partialClassNameUpper;
-        }
-
-        private boolean isPotentialFullMatch(String classNameUpper) {
-            return classNameUpper.equals(partialClassNameUpper)
-                    || classNameUpper.endsWith(prefixedPartialClassNameUpper1)
-                    || classNameUpper.endsWith(prefixedPartialClassNameUpper2);
-        }
-
-        private boolean isPotentialMatch(String classNameUpper) {
-            return classNameUpper.startsWith(partialClassNameUpper)
-                    || classNameUpper.contains(prefixedPartialClassNameUpper1)
-                    || classNameUpper.contains(prefixedPartialClassNameUpper2);
-        }
-    }
-
     private static class AnalyzingClassVisitor extends ClassVisitor {
 
         private final List<UiAnalyzedMethod> analyzedMethods = Lists.newArrayList();
@@ -49,8 +49,10 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.impl.TransactionCollector;
 import org.glowroot.agent.impl.TransactionRegistry;
+import org.glowroot.agent.util.GaugeSampleBuffer;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
 import org.glowroot.common.live.LiveJvmService;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Availability;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
@@ -71,13 +73,16 @@ public class LiveJvmServiceImpl implements LiveJvmService {
                     "java.lang.Double", "java.lang.Float");
 
     private final LazyPlatformMBeanServer lazyPlatformMBeanServer;
+    private final @Nullable GaugeSampleBuffer gaugeSampleBuffer;
     private final ThreadDumpService threadDumpService;
     private final Availability threadAllocatedBytesAvailability;
 
     public LiveJvmServiceImpl(LazyPlatformMBeanServer lazyPlatformMBeanServer,
-            TransactionRegistry transactionRegistry, TransactionCollector transactionCollector,
+            @Nullable GaugeSampleBuffer gaugeSampleBuffer, TransactionRegistry transactionRegistry,
+            TransactionCollector transactionCollector,
             Availability threadAllocatedBytesAvailability) {
         this.lazyPlatformMBeanServer = lazyPlatformMBeanServer;
+        this.gaugeSampleBuffer = gaugeSampleBuffer;
         threadDumpService = new ThreadDumpService(transactionRegistry, transactionCollector);
         this.threadAllocatedBytesAvailability = threadAllocatedBytesAvailability;
     }
@@ -234,6 +239,15 @@ public class LiveJvmServiceImpl implements LiveJvmService {
                 .build();
     }
 
+    @Override
+    public List<GaugeValue> getGaugeSamples(String agentId, String gaugeName, long from,
+            long to) {
+        if (gaugeSampleBuffer == null) {
+            return ImmutableList.of();
+        }
+        return gaugeSampleBuffer.getSamples(gaugeName, from, to);
+    }
+
     private List<MBeanDump.MBeanAttribute> getMBeanAttributes(ObjectName objectName)
             throws Exception {
         MBeanInfo mBeanInfo = lazyPlatformMBeanServer.getMBeanInfo(objectName);
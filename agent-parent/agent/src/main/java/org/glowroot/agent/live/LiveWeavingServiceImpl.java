@@ -17,9 +17,13 @@ package org.glowroot.agent.live;
 
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 
@@ -34,25 +38,39 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.config.InstrumentationConfig;
 import org.glowroot.agent.impl.AdviceCache;
 import org.glowroot.agent.live.ClasspathCache.UiAnalyzedMethod;
 import org.glowroot.agent.weaving.AnalyzedWorld;
+import org.glowroot.common.util.OnlyUsedByTests;
 import org.glowroot.common.live.LiveWeavingService;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GlobalMeta;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignature;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.objectweb.asm.Opcodes.ACC_FINAL;
 import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
 
 public class LiveWeavingServiceImpl implements LiveWeavingService {
 
     private static final String THE_SINGLE_KEY = "THE_SINGLE_KEY";
+    private static final Logger logger = LoggerFactory.getLogger(LiveWeavingServiceImpl.class);
+
+    private static final int REWEAVE_BATCH_SIZE =
+            Integer.getInteger("glowroot.internal.reweaveBatchSize", 100);
+
+    private static final long REWEAVE_BATCH_DELAY_MILLIS =
+            Long.getLong("glowroot.internal.reweaveBatchDelayMillis", 100);
+
     private static final Splitter splitter = Splitter.on(' ').omitEmptyStrings();
 
     private final AnalyzedWorld analyzedWorld;
@@ -61,6 +79,11 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
     private final AdviceCache adviceCache;
     private final boolean jvmRetransformClassesSupported;
 
+    // single thread so that batches from consecutive reweaves are never retransformed concurrently
+    private final ExecutorService reweaveExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("Glowroot-Reweave-%d").build());
+
     // hopefully can simplify someday https://github.com/google/guava/issues/872
     private final LoadingCache<String, ClasspathCache> classpathCache = CacheBuilder.newBuilder()
             .softValues()
@@ -163,6 +186,11 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return reweaveInternal();
     }
 
+    @OnlyUsedByTests
+    public void close() {
+        reweaveExecutor.shutdown();
+    }
+
     private List<UiAnalyzedMethod> getAnalyzedMethods(String className, String methodName) {
         // use set to remove duplicate methods (e.g. same class loaded by multiple class loaders)
         Set<UiAnalyzedMethod> analyzedMethods = Sets.newHashSet();
@@ -179,72 +207,197 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return classpathCache.getUnchecked(THE_SINGLE_KEY);
     }
 
+    // only the classes affected by the instrumentation configs that were added, removed or changed
+    // since the last reweave are retransformed (classes that are only affected by unchanged configs
+    // keep referencing the previously generated advice classes, which remain valid), and they are
+    // retransformed in small batches with a delay in between, since each retransformClasses call
+    // brings the JVM to a safepoint for the duration of the class redefinition, and a single call
+    // with thousands of classes can stall application threads for a long time
+    //
+    // the first batch is retransformed before returning (which covers the common case of a few
+    // targeted configs), and any remaining batches are retransformed in the background so that the
+    // caller (e.g. the UI request) is not held for the delays in between batches
+    //
+    // returns the number of classes that are (or are being) retransformed
     @RequiresNonNull("instrumentation")
-    private int reweaveInternal() throws Exception {
+    private synchronized int reweaveInternal() throws Exception {
+        List<InstrumentationConfig> priorConfigs = adviceCache.getReweavableConfigs();
         List<InstrumentationConfig> configs = configService.getInstrumentationConfigs();
+        Set<InstrumentationConfig> changedConfigs = getChangedConfigs(priorConfigs, configs);
+        if (changedConfigs.isEmpty()) {
+            return 0;
+        }
         adviceCache.updateAdvisors(configs, false);
         Set<String> classNames = Sets.newHashSet();
-        for (InstrumentationConfig config : configs) {
+        boolean untargetedConfigChanged = false;
+        for (InstrumentationConfig config : changedConfigs) {
             String className = config.className();
-            if (!className.isEmpty()) {
+            if (isTargetable(className)) {
                 classNames.add(className);
+            } else {
+                untargetedConfigChanged = true;
             }
         }
-        Set<Class<?>> classes = Sets.newHashSet();
-        List<Class<?>> possibleNewReweavableClasses = getExistingSubClasses(classNames);
-        // need to remove these classes from AnalyzedWorld, otherwise if a subclass and its parent
-        // class are both in the list and the subclass is re-transformed first, it will use the
-        // old cached AnalyzedClass for its parent which will have the old AnalyzedMethod advisors
-        List<Class<?>> existingReweavableClasses =
-                analyzedWorld.getClassesWithReweavableAdvice(true);
-        analyzedWorld.removeClasses(possibleNewReweavableClasses);
-        classes.addAll(existingReweavableClasses);
-        classes.addAll(possibleNewReweavableClasses);
+        // use linked hash set so that super classes are generally retransformed before their sub
+        // classes (though this is not required for correctness)
+        Set<Class<?>> classes = Sets.newLinkedHashSet();
+        if (untargetedConfigChanged) {
+            // configs without a class name (or with a class name pattern) can't be mapped to the
+            // affected classes, so fall back to all classes with reweavable advice
+            classes.addAll(analyzedWorld.getClassesWithReweavableAdvice(false));
+        }
+        classes.addAll(getExistingSubClasses(classNames));
         if (classes.isEmpty()) {
             return 0;
         }
-        instrumentation.retransformClasses(Iterables.toArray(classes, Class.class));
-        List<Class<?>> updatedReweavableClasses =
-                analyzedWorld.getClassesWithReweavableAdvice(false);
-        // all existing reweavable classes were woven
-        int count = existingReweavableClasses.size();
-        // now add newly reweavable classes
-        for (Class<?> possibleNewReweavableClass : possibleNewReweavableClasses) {
-            if (updatedReweavableClasses.contains(possibleNewReweavableClass)
-                    && !existingReweavableClasses.contains(possibleNewReweavableClass)) {
-                count++;
-            }
+        // need to remove these classes and their super types from AnalyzedWorld, otherwise if a
+        // subclass is re-transformed, it will use the old cached AnalyzedClass for its super types
+        // which will have the old AnalyzedMethod advisors
+        analyzedWorld.removeClasses(getClassesAndSuperTypes(classes));
+        final List<List<Class<?>>> batches =
+                Lists.partition(Lists.newArrayList(classes), REWEAVE_BATCH_SIZE);
+        final ReweaveStats stats = new ReweaveStats(classes.size(), batches.size());
+        final Instrumentation instrumentation = this.instrumentation;
+        retransformBatch(instrumentation, batches, 0, stats);
+        if (batches.size() > 1) {
+            reweaveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 1; i < batches.size(); i++) {
+                            if (REWEAVE_BATCH_DELAY_MILLIS > 0) {
+                                MILLISECONDS.sleep(REWEAVE_BATCH_DELAY_MILLIS);
+                            }
+                            retransformBatch(instrumentation, batches, i, stats);
+                        }
+                        stats.logDone();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable t) {
+                        logger.error(t.getMessage(), t);
+                    }
+                }
+            });
+        } else {
+            stats.logDone();
         }
-        return count;
+        return classes.size();
+    }
+
+    private static void retransformBatch(Instrumentation instrumentation,
+            List<List<Class<?>>> batches, int index, ReweaveStats stats) throws Exception {
+        List<Class<?>> batch = batches.get(index);
+        long startTick = System.nanoTime();
+        instrumentation.retransformClasses(Iterables.toArray(batch, Class.class));
+        long pauseNanos = System.nanoTime() - startTick;
+        logger.debug("reweave batch {} of {}: retransformed {} classes in {} ms", index + 1,
+                batches.size(), batch.size(), NANOSECONDS.toMillis(pauseNanos));
+        stats.totalPauseNanos += pauseNanos;
+        stats.maxPauseNanos = Math.max(stats.maxPauseNanos, pauseNanos);
     }
 
     @RequiresNonNull("instrumentation")
     private List<Class<?>> getExistingSubClasses(Set<String> classNames) {
+        // the sub type index covers all classes that have been analyzed, and is only supplemented
+        // by walking the type hierarchy for classes that were never analyzed (e.g. classes that
+        // were loaded before the weaving class file transformer was registered)
+        Set<String> subTypeNames = analyzedWorld.getSubTypeNames(classNames);
+        Map<Class<?>, Boolean> memo = new IdentityHashMap<Class<?>, Boolean>();
         List<Class<?>> classes = Lists.newArrayList();
         for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-            if (isSubClassOfOneOf(clazz, classNames)) {
+            if (isSubClassOfOneOf(clazz, subTypeNames, memo)) {
                 classes.add(clazz);
             }
         }
         return classes;
     }
 
-    private static boolean isSubClassOfOneOf(Class<?> clazz, Set<String> classNames) {
+    private static boolean isSubClassOfOneOf(Class<?> clazz, Set<String> classNames,
+            Map<Class<?>, Boolean> memo) {
+        Boolean memoized = memo.get(clazz);
+        if (memoized != null) {
+            return memoized;
+        }
+        boolean subClass = isSubClassOfOneOfInternal(clazz, classNames, memo);
+        memo.put(clazz, subClass);
+        return subClass;
+    }
+
+    private static boolean isSubClassOfOneOfInternal(Class<?> clazz, Set<String> classNames,
+            Map<Class<?>, Boolean> memo) {
         if (classNames.contains(clazz.getName())) {
             return true;
         }
         Class<?> superclass = clazz.getSuperclass();
-        if (superclass != null && isSubClassOfOneOf(superclass, classNames)) {
+        if (superclass != null && isSubClassOfOneOf(superclass, classNames, memo)) {
             return true;
         }
         for (Class<?> iface : clazz.getInterfaces()) {
-            if (isSubClassOfOneOf(iface, classNames)) {
+            if (isSubClassOfOneOf(iface, classNames, memo)) {
                 return true;
             }
         }
         return false;
     }
 
+    // returns the configs that are only in one of the two lists, so a changed config shows up both
+    // with its prior and with its new values (e.g. when its class name was changed, classes
+    // matching either class name need to be retransformed)
+    @VisibleForTesting
+    static Set<InstrumentationConfig> getChangedConfigs(List<InstrumentationConfig> priorConfigs,
+            List<InstrumentationConfig> configs) {
+        return Sets.symmetricDifference(Sets.newHashSet(priorConfigs), Sets.newHashSet(configs))
+                .immutableCopy();
+    }
+
+    @VisibleForTesting
+    static boolean isTargetable(String className) {
+        return !className.isEmpty() && !className.contains("*") && !className.contains("|");
+    }
+
+    private static List<Class<?>> getClassesAndSuperTypes(Set<Class<?>> classes) {
+        Set<Class<?>> classesAndSuperTypes = Sets.newHashSet();
+        for (Class<?> clazz : classes) {
+            addClassAndSuperTypes(clazz, classesAndSuperTypes);
+        }
+        return Lists.newArrayList(classesAndSuperTypes);
+    }
+
+    private static void addClassAndSuperTypes(Class<?> clazz, Set<Class<?>> classes) {
+        if (!classes.add(clazz)) {
+            return;
+        }
+        Class<?> superclass = clazz.getSuperclass();
+        if (superclass != null) {
+            addClassAndSuperTypes(superclass, classes);
+        }
+        for (Class<?> iface : clazz.getInterfaces()) {
+            addClassAndSuperTypes(iface, classes);
+        }
+    }
+
+    // only accessed by one thread at a time (the reweaving thread for the first batch, then the
+    // background thread for the remaining batches), and the hand-off happens via the executor
+    private static class ReweaveStats {
+
+        private final int classCount;
+        private final int batchCount;
+
+        private long totalPauseNanos;
+        private long maxPauseNanos;
+
+        private ReweaveStats(int classCount, int batchCount) {
+            this.classCount = classCount;
+            this.batchCount = batchCount;
+        }
+
+        private void logDone() {
+            logger.info("reweave retransformed {} classes in {} batches, total pause {} ms,"
+                    + " max batch pause {} ms", classCount, batchCount,
+                    NANOSECONDS.toMillis(totalPauseNanos), NANOSECONDS.toMillis(maxPauseNanos));
+        }
+    }
+
     @VisibleForTesting
     static class UiAnalyzedMethodOrdering extends Ordering<UiAnalyzedMethod> {
 
@@ -76,9 +76,8 @@ public class AsyncTimerImpl implements CommonTimerImpl {
         // async timers have no child timers
     }
 
-    @Override
-    public void mergeChildTimersInto2(List<org.glowroot.agent.impl.MutableTimer> mutableTimers) {
-        // async timers have no child timers
+    TimerNameImpl getTimerName() {
+        return timerName;
     }
 
     @Override
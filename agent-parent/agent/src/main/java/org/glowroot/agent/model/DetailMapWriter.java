@@ -24,7 +24,6 @@ import javax.annotation.Nullable;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,33 +47,53 @@ class DetailMapWriter {
 
     private DetailMapWriter() {}
 
-    static List<Trace.DetailEntry> toProto(Map<String, ? extends /*@Nullable*/ Object> detail) {
-        return writeMap(detail);
+    // the detail entries are added directly to the builder, instead of first being collected
+    // into an intermediate list
+    static void writeTo(Map<String, ? extends /*@Nullable*/ Object> detail,
+            Trace.Entry.Builder builder) {
+        for (Entry<String, ? extends /*@Nullable*/ Object> entry : detail.entrySet()) {
+            String name = getName(entry);
+            if (name != null) {
+                builder.addDetailEntry(createDetailEntry(name, entry.getValue()));
+            }
+        }
     }
 
-    private static List<Trace.DetailEntry> writeMap(Map<?, ?> detail) {
-        List<Trace.DetailEntry> entries = Lists.newArrayListWithCapacity(detail.size());
-        for (Entry<?, ? extends /*@Nullable*/ Object> entry : detail.entrySet()) {
-            Object key = entry.getKey();
-            if (key == null) {
-                // skip invalid data
-                logger.warn("detail map has null key");
-                continue;
+    static void writeTo(Map<String, ? extends /*@Nullable*/ Object> detail,
+            Trace.Header.Builder builder) {
+        for (Entry<String, ? extends /*@Nullable*/ Object> entry : detail.entrySet()) {
+            String name = getName(entry);
+            if (name != null) {
+                builder.addDetailEntry(createDetailEntry(name, entry.getValue()));
             }
-            String name = key.toString();
-            if (name == null) {
-                // skip invalid data
-                continue;
+        }
+    }
+
+    private static void writeMap(Map<?, ?> detail, Trace.DetailEntry.Builder builder) {
+        for (Entry<?, ? extends /*@Nullable*/ Object> entry : detail.entrySet()) {
+            String name = getName(entry);
+            if (name != null) {
+                builder.addChildEntry(createDetailEntry(name, entry.getValue()));
             }
-            entries.add(createDetailEntry(name, entry.getValue()));
         }
-        return entries;
+    }
+
+    private static @Nullable String getName(Entry<?, ?> entry) {
+        Object key = entry.getKey();
+        if (key == null) {
+            // skip invalid data
+            logger.warn("detail map has null key");
+            return null;
+        }
+        // toString() can return null, in which case the entry is skipped as invalid data
+        return key.toString();
     }
 
     private static Trace.DetailEntry createDetailEntry(String name, @Nullable Object value) {
         if (value instanceof Map) {
-            return Trace.DetailEntry.newBuilder().setName(name)
-                    .addAllChildEntry(writeMap((Map<?, ?>) value)).build();
+            Trace.DetailEntry.Builder builder = Trace.DetailEntry.newBuilder().setName(name);
+            writeMap((Map<?, ?>) value, builder);
+            return builder.build();
         } else if (value instanceof List) {
             Trace.DetailEntry.Builder builder = Trace.DetailEntry.newBuilder().setName(name);
             for (Object v : (List<?>) value) {
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.Arrays;
+
+// the timers of a completed transaction flattened into parallel arrays (in pre-order, so parents
+// always precede their children)
+//
+// this is built by the transaction thread at the end of the transaction, so that the single
+// aggregator thread does not need to walk the timer trees and can merge them into the aggregates
+// using array arithmetic and timer name id comparisons
+//
+// main thread timers come first, followed by auxiliary thread timers, followed by async timers
+public class FlattenedTimers {
+
+    private TimerNameImpl[] timerNames;
+    private int[] parentIndexes;
+    private long[] totalNanos;
+    private long[] counts;
+    private int size;
+
+    private int auxThreadStartIndex;
+    private int asyncStartIndex;
+
+    FlattenedTimers(int initialCapacity) {
+        timerNames = new TimerNameImpl[initialCapacity];
+        parentIndexes = new int[initialCapacity];
+        totalNanos = new long[initialCapacity];
+        counts = new long[initialCapacity];
+    }
+
+    // only called after transaction completion
+    public static FlattenedTimers create(Transaction transaction) {
+        FlattenedTimers flattenedTimers = new FlattenedTimers(16);
+        transaction.getMainThreadRootTimer().flattenInto(flattenedTimers, -1);
+        flattenedTimers.auxThreadStartIndex = flattenedTimers.size;
+        for (ThreadContextImpl auxThreadContext : transaction.getAuxThreadContexts()) {
+            auxThreadContext.getRootTimer().flattenInto(flattenedTimers, -1);
+        }
+        flattenedTimers.asyncStartIndex = flattenedTimers.size;
+        for (AsyncTimerImpl asyncRootTimer : transaction.getAsyncRootTimers()) {
+            flattenedTimers.add(asyncRootTimer.getTimerName(), -1,
+                    asyncRootTimer.getTotalNanos(), asyncRootTimer.getCount());
+        }
+        return flattenedTimers;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getAuxThreadStartIndex() {
+        return auxThreadStartIndex;
+    }
+
+    public int getAsyncStartIndex() {
+        return asyncStartIndex;
+    }
+
+    public TimerNameImpl getTimerName(int index) {
+        return timerNames[index];
+    }
+
+    // returns -1 for root timers
+    public int getParentIndex(int index) {
+        return parentIndexes[index];
+    }
+
+    public long getTotalNanos(int index) {
+        return totalNanos[index];
+    }
+
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    int add(TimerNameImpl timerName, int parentIndex, long totalNanos, long count) {
+        if (size == timerNames.length) {
+            int newCapacity = size << 1;
+            timerNames = Arrays.copyOf(timerNames, newCapacity);
+            parentIndexes = Arrays.copyOf(parentIndexes, newCapacity);
+            this.totalNanos = Arrays.copyOf(this.totalNanos, newCapacity);
+            counts = Arrays.copyOf(counts, newCapacity);
+        }
+        timerNames[size] = timerName;
+        parentIndexes[size] = parentIndex;
+        this.totalNanos[size] = totalNanos;
+        counts[size] = count;
+        return size++;
+    }
+}
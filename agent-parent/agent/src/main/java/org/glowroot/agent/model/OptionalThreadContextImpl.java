@@ -36,6 +36,7 @@ import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopAuxThread
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopQueryEntry;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.internal.QueryIdCache;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
 import org.glowroot.common.util.UsedByGeneratedBytecode;
 
@@ -110,6 +111,26 @@ public class OptionalThreadContextImpl implements ThreadContextPlus {
                 messageSupplier, timerName);
     }
 
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText,
+            QueryIdCache queryIdCache, MessageSupplier messageSupplier, TimerName timerName) {
+        if (threadContext == null) {
+            return NopQueryEntry.INSTANCE;
+        }
+        return threadContext.startQueryEntry(queryType, queryText, queryIdCache, messageSupplier,
+                timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            QueryIdCache queryIdCache, MessageSupplier messageSupplier, TimerName timerName) {
+        if (threadContext == null) {
+            return NopQueryEntry.INSTANCE;
+        }
+        return threadContext.startQueryEntry(queryType, queryText, queryExecutionCount,
+                queryIdCache, messageSupplier, timerName);
+    }
+
     @Override
     public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
             MessageSupplier messageSupplier, TimerName timerName) {
@@ -44,6 +44,8 @@ public class QueryData {
 
     private static final Ticker ticker = Tickers.getTicker();
 
+    // see QueryRegistry
+    private final int queryId;
     private final String queryType;
     private final String queryText;
     private final @Nullable QueryData nextQueryData;
@@ -60,12 +62,18 @@ public class QueryData {
     private long startTick;
     private int selfNestingLevel;
 
-    QueryData(String queryType, String queryText, @Nullable QueryData nextQueryData) {
+    QueryData(int queryId, String queryType, String queryText,
+            @Nullable QueryData nextQueryData) {
+        this.queryId = queryId;
         this.queryType = queryType;
         this.queryText = queryText;
         this.nextQueryData = nextQueryData;
     }
 
+    public int getQueryId() {
+        return queryId;
+    }
+
     public String getQueryType() {
         return queryType;
     }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+
+// process-wide registry that assigns an int id to each distinct (type, text), so that query data
+// can be keyed by int during the transaction and while aggregating, instead of being keyed by the
+// (possibly multi-KB) query text which needs string hashing and equality checks on every merge
+//
+// ids are never reused, and the registry is cleared once the (estimated) memory retained by its
+// query texts reaches its limit (to bound memory when applications execute lots of distinct query
+// texts, e.g. sql with inlined literals), after which the same text is assigned a new id, this is
+// ok since the query text is kept alongside the id, and queries are merged by text when the
+// aggregate is built for storage
+//
+// since ids are never reused, an id that is cached by a plugin (see QueryIdCache) still refers to
+// the same (type, text) after the registry is cleared
+public class QueryRegistry {
+
+    private static final long MAX_BYTES =
+            Long.getLong("glowroot.internal.queryRegistry.maxKilobytes", 8192) * 1024;
+
+    // rough estimate of the per entry overhead (map entry, string and char array headers, boxed id)
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    public static final QueryRegistry QUERIES = new QueryRegistry(MAX_BYTES);
+
+    public static final QueryRegistry SERVICE_CALLS = new QueryRegistry(MAX_BYTES);
+
+    private final long maxBytes;
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> ids =
+            Maps.newConcurrentMap();
+
+    // id 0 is reserved, see IntObjectMap
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final AtomicLong bytes = new AtomicLong();
+
+    @VisibleForTesting
+    QueryRegistry(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // returns 0 if the (type, text) is not registered
+    public int getExistingId(String type, String text) {
+        ConcurrentMap<String, Integer> idsForType = ids.get(type);
+        if (idsForType == null) {
+            return 0;
+        }
+        Integer id = idsForType.get(text);
+        return id == null ? 0 : id;
+    }
+
+    public int register(String type, String text) {
+        long entryBytes = ENTRY_OVERHEAD_BYTES + 2L * text.length();
+        if (bytes.addAndGet(entryBytes) > maxBytes) {
+            // registrations that race with this clear may be lost, which is ok since they will just
+            // be assigned a new id next time
+            ids.clear();
+            bytes.set(entryBytes);
+        }
+        ConcurrentMap<String, Integer> idsForType = ids.get(type);
+        if (idsForType == null) {
+            idsForType = Maps.newConcurrentMap();
+            ConcurrentMap<String, Integer> existing = ids.putIfAbsent(type, idsForType);
+            if (existing != null) {
+                idsForType = existing;
+            }
+        }
+        int id;
+        do {
+            // wrap around on overflow (skipping 0), by then the earliest ids are long gone
+            id = nextId.getAndIncrement() & Integer.MAX_VALUE;
+        } while (id == 0);
+        Integer existingId = idsForType.putIfAbsent(text, id);
+        return existingId == null ? id : existingId;
+    }
+}
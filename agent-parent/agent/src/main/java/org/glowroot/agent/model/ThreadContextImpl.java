@@ -17,10 +17,10 @@ package org.glowroot.agent.model;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
@@ -32,7 +32,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.slf4j.Logger;
@@ -40,8 +40,10 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.impl.AuxThreadContextImpl;
+import org.glowroot.agent.impl.QueryIdCollector;
 import org.glowroot.agent.impl.TransactionRegistry;
 import org.glowroot.agent.impl.TransactionServiceImpl;
+import org.glowroot.agent.model.TraceEntryImpl.SpilledChildren;
 import org.glowroot.agent.plugin.api.AsyncQueryEntry;
 import org.glowroot.agent.plugin.api.AsyncTraceEntry;
 import org.glowroot.agent.plugin.api.AuxThreadContext;
@@ -57,13 +59,15 @@ import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopAuxThread
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopQueryEntry;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.internal.QueryIdCache;
 import org.glowroot.agent.plugin.api.internal.ReadableMessage;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+import org.glowroot.agent.util.IntObjectMap;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.util.Tickers;
-import org.glowroot.common.model.QueryCollector;
-import org.glowroot.common.model.ServiceCallCollector;
 import org.glowroot.common.util.UsedByGeneratedBytecode;
+import org.glowroot.wire.api.Collector.TraceVisitor;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -101,10 +105,10 @@ public class ThreadContextImpl implements ThreadContextPlus {
     private @MonotonicNonNull QueryData headQueryData;
     private @MonotonicNonNull QueryData headServiceCallData;
     // these maps are only accessed by the thread context's thread
-    private @MonotonicNonNull QueryDataMap queriesForFirstType;
-    private @MonotonicNonNull Map<String, QueryDataMap> allQueryTypesMap;
-    private @MonotonicNonNull QueryDataMap serviceCallsForFirstType;
-    private @MonotonicNonNull Map<String, QueryDataMap> allServiceCallTypesMap;
+    //
+    // keyed by QueryRegistry id, which are unique across query types
+    private @MonotonicNonNull IntObjectMap<QueryData> queries;
+    private @MonotonicNonNull IntObjectMap<QueryData> serviceCalls;
 
     private final long threadId;
 
@@ -168,78 +172,163 @@ public class ThreadContextImpl implements ThreadContextPlus {
     }
 
     public List<Trace.Entry> getEntriesProtobuf(long captureTick) {
-        ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap = ArrayListMultimap.create();
-        buildParentChildMap(parentChildMap, captureTick);
-        List<Trace.Entry> entries = Lists.newArrayList();
-        addProtobufChildEntries(getRootEntry(), parentChildMap, transaction.getStartTick(),
-                captureTick, 0, entries);
+        EntryListBuilder entryListBuilder = new EntryListBuilder();
+        try {
+            visitEntries(captureTick, entryListBuilder);
+        } catch (Exception e) {
+            // EntryListBuilder does not throw exceptions
+            throw new RuntimeException(e);
+        }
+        return entryListBuilder.entries;
+    }
+
+    // entries are built and passed to the visitor one at a time so that they never need to all be
+    // held in memory at the same time
+    public int visitEntries(long captureTick, TraceVisitor traceVisitor) throws Exception {
+        int entryCount = visitEntries(-1, false, captureTick, traceVisitor);
         if (detachedTime != null) {
-            entries.add(Trace.Entry.newBuilder()
+            traceVisitor.visitEntry(Trace.Entry.newBuilder()
                     .setStartOffsetNanos(detachedTime)
                     .setMessage(
                             "this auxiliary thread was still running when the transaction ended")
                     .build());
+            entryCount++;
         }
-        return entries;
+        return entryCount;
     }
 
-    private static void addProtobufChildEntries(TraceEntryImpl entry,
-            Multimap<TraceEntryImpl, TraceEntryImpl> parentChildMap, long transactionStartTick,
-            long captureTick, int depth, List<Trace.Entry> entries) {
-        if (!parentChildMap.containsKey(entry)) {
-            return;
+    public int getEntryCount(long captureTick) {
+        int entryCount;
+        try {
+            entryCount = visitEntries(-1, false, captureTick, null);
+        } catch (Exception e) {
+            // counting does not visit anything, so it does not throw exceptions
+            throw new RuntimeException(e);
         }
-        Collection<TraceEntryImpl> childEntries = parentChildMap.get(entry);
-        for (TraceEntryImpl childEntry : childEntries) {
-            entries.add(childEntry.toProto(depth, transactionStartTick, captureTick));
-            addProtobufChildEntries(childEntry, parentChildMap, transactionStartTick,
-                    captureTick, depth + 1, entries);
+        if (detachedTime != null) {
+            entryCount++;
         }
+        return entryCount;
     }
 
-    private void buildParentChildMap(ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap,
-            long captureTick) {
+    // entries are linked in start order, so a single pass over the linked list (with a stack of the
+    // open ancestors to compute depth) produces them in depth-first order, spilled child entries
+    // are emitted right after their parent (they always precede the in-memory child entries), and
+    // auxiliary thread context entries are emitted right after the entry that was the tail when
+    // the auxiliary thread context was created
+    //
+    // trace visitor is null when only counting the entries
+    private int visitEntries(int rootDepth, boolean includeRoot, long captureTick,
+            @Nullable TraceVisitor traceVisitor) throws Exception {
         if (captureTick < traceEntryComponent.getStartTick()) {
-            return;
+            return 0;
         }
         boolean completed = isCompleted(captureTick);
         ListMultimap<TraceEntryImpl, ThreadContextImpl> tailEntryAuxThreadContextMap =
                 buildTailEntryChildThreadContextMap();
-        TraceEntryImpl entry = getRootEntry();
-        boolean entryIsRoot = true;
+        TraceEntrySpillFile spillFile = transaction.getTraceEntrySpillFile();
+        long transactionStartTick = transaction.getStartTick();
+        // root entry is always at the bottom of the stack
+        Deque<TraceEntryImpl> ancestors = new ArrayDeque<TraceEntryImpl>();
+        TraceEntryImpl rootEntry = getRootEntry();
+        int entryCount = 0;
+        if (includeRoot) {
+            if (traceVisitor != null) {
+                traceVisitor.visitEntry(
+                        rootEntry.toProto(rootDepth, transactionStartTick, captureTick));
+            }
+            entryCount++;
+        }
+        // the spill thread publishes spilled child segments together with the next in-memory
+        // entry, so the next entry needs to be read before the spilled children (see
+        // TraceEntryImpl.getSpilledChildren())
+        TraceEntryImpl entry = rootEntry.getNextTraceEntryIgnoringSpilledChildren();
+        SpilledChildren spilledChildren = rootEntry.getSpilledChildren();
+        if (spilledChildren != null) {
+            entryCount += visitSpilledChildEntries(spilledChildren, rootDepth + 1, spillFile,
+                    traceVisitor);
+            entry = spilledChildren.getNextTraceEntry();
+        }
+        ancestors.push(rootEntry);
+        entryCount += visitAuxThreadContexts(tailEntryAuxThreadContextMap.get(rootEntry),
+                ancestors, rootDepth, captureTick, traceVisitor);
         // filter out entries that started after the capture tick
         // checking completed is short circuit optimization for the common case
         while (entry != null
                 && (completed || Tickers.lessThanOrEqual(entry.getStartTick(), captureTick))) {
             TraceEntryImpl parentTraceEntry = entry.getParentTraceEntry();
-            if (parentTraceEntry == null && !entryIsRoot) {
+            if (parentTraceEntry == null) {
                 logFoundNonRootEntryWithNullParent(entry);
+                entry = entry.getNextTraceEntry();
                 continue;
             }
-            if (!entryIsRoot) {
-                parentChildMap.put(parentTraceEntry, entry);
+            while (ancestors.size() > 1 && ancestors.peek() != parentTraceEntry) {
+                ancestors.pop();
             }
-            for (ThreadContextImpl auxThreadContext : tailEntryAuxThreadContextMap.get(entry)) {
-                TraceEntryImpl auxRootEntry = auxThreadContext.getRootEntry();
-                if (completed
-                        || Tickers.lessThanOrEqual(auxRootEntry.getStartTick(), captureTick)) {
-                    // checkNotNull is safe b/c aux thread contexts have non-null parent trace entry
-                    parentChildMap.put(checkNotNull(auxThreadContext.parentTraceEntry),
-                            auxRootEntry);
-                }
+            int depth = rootDepth + ancestors.size();
+            if (traceVisitor != null) {
+                traceVisitor.visitEntry(entry.toProto(depth, transactionStartTick, captureTick));
+            }
+            entryCount++;
+            TraceEntryImpl nextEntry = entry.getNextTraceEntryIgnoringSpilledChildren();
+            spilledChildren = entry.getSpilledChildren();
+            if (spilledChildren != null) {
+                entryCount += visitSpilledChildEntries(spilledChildren, depth + 1, spillFile,
+                        traceVisitor);
+                nextEntry = spilledChildren.getNextTraceEntry();
             }
-            entry = entry.getNextTraceEntry();
-            entryIsRoot = false;
+            ancestors.push(entry);
+            entryCount += visitAuxThreadContexts(tailEntryAuxThreadContextMap.get(entry),
+                    ancestors, rootDepth, captureTick, traceVisitor);
+            entry = nextEntry;
         }
-        if (auxThreadContexts != null) {
-            for (ThreadContextImpl auxThreadContext : tailEntryAuxThreadContextMap.values()) {
-                auxThreadContext.buildParentChildMap(parentChildMap, captureTick);
+        return entryCount;
+    }
+
+    private static int visitSpilledChildEntries(SpilledChildren spilledChildren, int depth,
+            @Nullable TraceEntrySpillFile spillFile, @Nullable TraceVisitor traceVisitor)
+            throws Exception {
+        if (spillFile == null) {
+            return 0;
+        }
+        int entryCount = 0;
+        for (TraceEntrySpillFile.Segment segment : spilledChildren.getSegments()) {
+            if (traceVisitor == null) {
+                entryCount += segment.getEntryCount();
+            } else {
+                // this is less than the segment entry count if the spill file has already been
+                // released (in which case a single marker entry is visited instead)
+                entryCount += spillFile.visitEntries(segment, depth, traceVisitor);
             }
         }
+        return entryCount;
+    }
+
+    private static int visitAuxThreadContexts(List<ThreadContextImpl> auxThreadContexts,
+            Deque<TraceEntryImpl> ancestors, int rootDepth, long captureTick,
+            @Nullable TraceVisitor traceVisitor) throws Exception {
+        int entryCount = 0;
+        for (ThreadContextImpl auxThreadContext : auxThreadContexts) {
+            // the auxiliary thread context parent entry was open when the auxiliary thread context
+            // was created, so it is still on the ancestor stack (falling back to the root entry)
+            int parentDepth = rootDepth;
+            int i = 0;
+            for (TraceEntryImpl ancestor : ancestors) {
+                if (ancestor == auxThreadContext.parentTraceEntry) {
+                    parentDepth = rootDepth + ancestors.size() - 1 - i;
+                    break;
+                }
+                i++;
+            }
+            entryCount += auxThreadContext.visitEntries(parentDepth + 1, true, captureTick,
+                    traceVisitor);
+        }
+        return entryCount;
     }
 
     private boolean isEmptyAux() {
-        if (getRootEntry().getNextTraceEntry() != null) {
+        if (getRootEntry().getNextTraceEntry() != null
+                || !getRootEntry().getSpilledChildSegments().isEmpty()) {
             return false;
         }
         if (auxThreadContexts == null) {
@@ -350,12 +439,10 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return auxThreadContext;
     }
 
-    public void mergeQueriesInto(QueryCollector queries) {
+    public void mergeQueriesInto(QueryIdCollector queries) {
         QueryData curr = headQueryData;
         while (curr != null) {
-            queries.mergeQuery(curr.getQueryType(), curr.getQueryText(),
-                    curr.getTotalDurationNanos(), curr.getExecutionCount(),
-                    curr.isRowNavigationAttempted(), curr.getTotalRows());
+            queries.mergeQuery(curr);
             curr = curr.getNextQueryData();
         }
         if (auxThreadContexts != null) {
@@ -365,11 +452,10 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
     }
 
-    public void mergeServiceCallsInto(ServiceCallCollector serviceCalls) {
+    public void mergeServiceCallsInto(QueryIdCollector serviceCalls) {
         QueryData curr = headServiceCallData;
         while (curr != null) {
-            serviceCalls.mergeServiceCall(curr.getQueryType(), curr.getQueryText(),
-                    curr.getTotalDurationNanos(), curr.getExecutionCount());
+            serviceCalls.mergeQuery(curr);
             curr = curr.getNextQueryData();
         }
         if (auxThreadContexts != null) {
@@ -380,54 +466,47 @@ public class ThreadContextImpl implements ThreadContextPlus {
     }
 
     // only called by transaction thread
-    private @Nullable QueryData getOrCreateQueryDataIfPossible(String queryType, String queryText) {
-        if (headQueryData == null) {
-            if (!transaction.allowAnotherAggregateQuery()) {
-                return null;
-            }
-            QueryData queryData = new QueryData(queryType, queryText, null);
-            queriesForFirstType = new QueryDataMap();
-            queriesForFirstType.put(queryText, queryData);
-            headQueryData = queryData;
-            return headQueryData;
+    private @Nullable QueryData getOrCreateQueryDataIfPossible(String queryType, String queryText,
+            @Nullable QueryIdCache queryIdCache) {
+        int queryId = queryIdCache == null ? 0 : queryIdCache.getQueryId(queryText);
+        if (queryId == 0) {
+            queryId = QueryRegistry.QUERIES.getExistingId(queryType, queryText);
         }
-        QueryDataMap queriesForCurrentType;
-        if (queryType.equals(headQueryData.getQueryType())) {
-            queriesForCurrentType = checkNotNull(queriesForFirstType);
-        } else {
-            queriesForCurrentType = getOrCreateQueriesForType(queryType);
-        }
-        QueryData queryData = queriesForCurrentType.get(queryText);
+        QueryData queryData = queryId == 0 || queries == null ? null : queries.get(queryId);
         if (queryData == null && transaction.allowAnotherAggregateQuery()) {
-            queryData = new QueryData(queryType, queryText, headQueryData);
-            queriesForCurrentType.put(queryText, queryData);
+            // only registered once it is known that the query will be aggregated, so that queries
+            // beyond the aggregate query limit don't fill up the registry
+            if (queryId == 0) {
+                queryId = QueryRegistry.QUERIES.register(queryType, queryText);
+            }
+            if (queries == null) {
+                queries = new IntObjectMap<QueryData>();
+            }
+            queryData = new QueryData(queryId, queryType, queryText, headQueryData);
+            queries.put(queryId, queryData);
             headQueryData = queryData;
         }
+        if (queryIdCache != null && queryId != 0) {
+            queryIdCache.setQueryId(queryText, queryId);
+        }
         return queryData;
     }
 
     // only called by transaction thread
     private @Nullable QueryData getOrCreateServiceCallDataIfPossible(String type, String text) {
-        if (headServiceCallData == null) {
-            if (!transaction.allowAnotherAggregateServiceCall()) {
-                return null;
-            }
-            QueryData serviceCallData = new QueryData(type, text, null);
-            serviceCallsForFirstType = new QueryDataMap();
-            serviceCallsForFirstType.put(text, serviceCallData);
-            headServiceCallData = serviceCallData;
-            return headServiceCallData;
-        }
-        QueryDataMap serviceCallsForCurrentType;
-        if (type.equals(headServiceCallData.getQueryType())) {
-            serviceCallsForCurrentType = checkNotNull(serviceCallsForFirstType);
-        } else {
-            serviceCallsForCurrentType = getOrCreateServiceCallsForType(type);
-        }
-        QueryData serviceCallData = serviceCallsForCurrentType.get(text);
+        int serviceCallId = QueryRegistry.SERVICE_CALLS.getExistingId(type, text);
+        QueryData serviceCallData = serviceCallId == 0 || serviceCalls == null ? null
+                : serviceCalls.get(serviceCallId);
         if (serviceCallData == null && transaction.allowAnotherAggregateServiceCall()) {
-            serviceCallData = new QueryData(type, text, headServiceCallData);
-            serviceCallsForCurrentType.put(text, serviceCallData);
+            // see comment in getOrCreateQueryDataIfPossible()
+            if (serviceCallId == 0) {
+                serviceCallId = QueryRegistry.SERVICE_CALLS.register(type, text);
+            }
+            if (serviceCalls == null) {
+                serviceCalls = new IntObjectMap<QueryData>();
+            }
+            serviceCallData = new QueryData(serviceCallId, type, text, headServiceCallData);
+            serviceCalls.put(serviceCallId, serviceCallData);
             headServiceCallData = serviceCallData;
         }
         return serviceCallData;
@@ -508,6 +587,9 @@ public class ThreadContextImpl implements ThreadContextPlus {
                 threadStatsComponent.onComplete();
             }
             threadContextHolder.set(null);
+        } else if (traceEntryComponent.getInMemoryEntryCount() > transaction
+                .getMaxInMemoryEntries()) {
+            spillCompletedEntries();
         }
     }
 
@@ -521,6 +603,26 @@ public class ThreadContextImpl implements ThreadContextPlus {
         transaction.memoryBarrierReadWrite();
     }
 
+    // split typically unused path into separate method to not affect inlining budget
+    private void spillCompletedEntries() {
+        TraceEntrySpillFile spillFile = transaction.getTraceEntrySpillFile();
+        if (spillFile == null) {
+            return;
+        }
+        Set<TraceEntryImpl> anchorEntries = Sets.newIdentityHashSet();
+        if (auxThreadContexts != null) {
+            for (ThreadContextImpl auxThreadContext : auxThreadContexts) {
+                // checkNotNull is safe b/c aux thread contexts have non-null parent trace entry
+                // and parent trace context tail entry
+                anchorEntries.add(checkNotNull(auxThreadContext.parentTraceEntry));
+                anchorEntries.add(checkNotNull(auxThreadContext.parentThreadContextTailEntry));
+            }
+        }
+        traceEntryComponent.spillCompletedEntries(spillFile, anchorEntries,
+                transaction.getStartTick(), transaction.getMaxInMemoryEntries(),
+                transaction.getTraceEntrySpillExecutor());
+    }
+
     // detach is called from another thread
     void detach() {
         // this synchronization protects against clobbering valid thread context in race condition
@@ -538,36 +640,6 @@ public class ThreadContextImpl implements ThreadContextPlus {
         detachedTime = ticker.read();
     }
 
-    private QueryDataMap getOrCreateQueriesForType(String queryType) {
-        if (allQueryTypesMap == null) {
-            allQueryTypesMap = new HashMap<String, QueryDataMap>(2);
-            QueryDataMap queriesForCurrentType = new QueryDataMap();
-            allQueryTypesMap.put(queryType, queriesForCurrentType);
-            return queriesForCurrentType;
-        }
-        QueryDataMap queriesForCurrentType = allQueryTypesMap.get(queryType);
-        if (queriesForCurrentType == null) {
-            queriesForCurrentType = new QueryDataMap();
-            allQueryTypesMap.put(queryType, queriesForCurrentType);
-        }
-        return queriesForCurrentType;
-    }
-
-    private QueryDataMap getOrCreateServiceCallsForType(String type) {
-        if (allServiceCallTypesMap == null) {
-            allServiceCallTypesMap = new HashMap<String, QueryDataMap>(2);
-            QueryDataMap serviceCallsForCurrentType = new QueryDataMap();
-            allServiceCallTypesMap.put(type, serviceCallsForCurrentType);
-            return serviceCallsForCurrentType;
-        }
-        QueryDataMap serviceCallsForCurrentType = allServiceCallTypesMap.get(type);
-        if (serviceCallsForCurrentType == null) {
-            serviceCallsForCurrentType = new QueryDataMap();
-            allServiceCallTypesMap.put(type, serviceCallsForCurrentType);
-        }
-        return serviceCallsForCurrentType;
-    }
-
     @Override
     public TraceEntry startTransaction(String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName) {
@@ -656,7 +728,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText);
+        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText, null);
         if (transaction.allowAnotherEntry()) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, queryData,
                     1);
@@ -685,9 +757,49 @@ public class ThreadContextImpl implements ThreadContextPlus {
             logger.error("startQueryEntry(): argument 'timerName' must be non-null");
             return NopQueryEntry.INSTANCE;
         }
+        return startQueryEntryInternal(queryType, queryText, queryExecutionCount, null,
+                messageSupplier, timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText,
+            QueryIdCache queryIdCache, MessageSupplier messageSupplier, TimerName timerName) {
+        return startQueryEntry(queryType, queryText, 1, queryIdCache, messageSupplier, timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            QueryIdCache queryIdCache, MessageSupplier messageSupplier, TimerName timerName) {
+        if (queryType == null) {
+            logger.error("startQueryEntry(): argument 'queryType' must be non-null");
+            return NopQueryEntry.INSTANCE;
+        }
+        if (queryText == null) {
+            logger.error("startQueryEntry(): argument 'queryText' must be non-null");
+            return NopQueryEntry.INSTANCE;
+        }
+        if (queryIdCache == null) {
+            logger.error("startQueryEntry(): argument 'queryIdCache' must be non-null");
+            return NopQueryEntry.INSTANCE;
+        }
+        if (messageSupplier == null) {
+            logger.error("startQueryEntry(): argument 'messageSupplier' must be non-null");
+            return NopQueryEntry.INSTANCE;
+        }
+        if (timerName == null) {
+            logger.error("startQueryEntry(): argument 'timerName' must be non-null");
+            return NopQueryEntry.INSTANCE;
+        }
+        return startQueryEntryInternal(queryType, queryText, queryExecutionCount, queryIdCache,
+                messageSupplier, timerName);
+    }
+
+    private QueryEntry startQueryEntryInternal(String queryType, String queryText,
+            long queryExecutionCount, @Nullable QueryIdCache queryIdCache,
+            MessageSupplier messageSupplier, TimerName timerName) {
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText);
+        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText, queryIdCache);
         if (transaction.allowAnotherEntry()) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null,
                     queryData, queryExecutionCount);
@@ -719,7 +831,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         long startTick = ticker.read();
         TimerImpl syncTimer = startTimer(timerName, startTick);
         AsyncTimerImpl asyncTimer = startAsyncTimer(timerName, startTick);
-        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText);
+        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText, null);
         if (transaction.allowAnotherEntry()) {
             return startAsyncQueryEntry(startTick, messageSupplier, syncTimer, asyncTimer,
                     queryData, 1);
@@ -1134,4 +1246,23 @@ public class ThreadContextImpl implements ThreadContextPlus {
             return message;
         }
     }
+
+    private static class EntryListBuilder implements TraceVisitor {
+
+        private final List<Trace.Entry> entries = Lists.newArrayList();
+
+        @Override
+        public void visitEntry(Trace.Entry entry) {
+            entries.add(entry);
+        }
+
+        @Override
+        public void visitMainThreadProfile(Profile profile) {}
+
+        @Override
+        public void visitAuxThreadProfile(Profile profile) {}
+
+        @Override
+        public void visitHeader(Trace.Header header) {}
+    }
 }
@@ -16,8 +16,9 @@
 package org.glowroot.agent.model;
 
 import org.glowroot.agent.plugin.api.OptionalThreadContext;
+import org.glowroot.agent.plugin.api.internal.QueryIdThreadContext;
 
-public interface ThreadContextPlus extends OptionalThreadContext {
+public interface ThreadContextPlus extends OptionalThreadContext, QueryIdThreadContext {
 
     int getCurrentNestingGroupId();
 
@@ -206,26 +206,11 @@ public class TimerImpl implements Timer, CommonTimerImpl {
     }
 
     // only called after transaction completion
-    @Override
-    public void mergeChildTimersInto2(List<org.glowroot.agent.impl.MutableTimer> mutableTimers) {
+    void flattenInto(FlattenedTimers flattenedTimers, int parentIndex) {
+        int index = flattenedTimers.add(timerName, parentIndex, totalNanos, count);
         TimerImpl curr = headChild;
         while (curr != null) {
-            String currName = curr.getName();
-            boolean extended = curr.isExtended();
-            org.glowroot.agent.impl.MutableTimer matchingChildTimer = null;
-            for (org.glowroot.agent.impl.MutableTimer childTimer : mutableTimers) {
-                if (currName.equals(childTimer.getName()) && extended == childTimer.isExtended()) {
-                    matchingChildTimer = childTimer;
-                    break;
-                }
-            }
-            if (matchingChildTimer == null) {
-                matchingChildTimer = new org.glowroot.agent.impl.MutableTimer(curr.getName(),
-                        curr.isExtended(), 0, 0,
-                        new ArrayList<org.glowroot.agent.impl.MutableTimer>());
-                mutableTimers.add(matchingChildTimer);
-            }
-            matchingChildTimer.merge(curr);
+            curr.flattenInto(flattenedTimers, index);
             curr = curr.nextSibling;
         }
     }
@@ -15,6 +15,8 @@
  */
 package org.glowroot.agent.model;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
@@ -31,6 +33,15 @@ public abstract class TimerNameImpl implements TimerName {
 
     private static final AtomicInteger nextSpecialHashCode = new AtomicInteger();
 
+    // ids are interned by name (and extended), unlike specialHashCode which is unique per instance
+    //
+    // not using guava Maps.newConcurrentMap() since this class is pre-initialized by the weaver
+    private static final ConcurrentMap<String, Integer> ids =
+            new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentMap<String, Integer> extendedIds =
+            new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
     @VisibleForTesting
     public abstract String name();
 
@@ -48,4 +59,17 @@ public abstract class TimerNameImpl implements TimerName {
     int specialHashCode() {
         return nextSpecialHashCode.getAndIncrement();
     }
+
+    // used by aggregation to compare timer names using int equality
+    @Value.Derived
+    public int id() {
+        ConcurrentMap<String, Integer> ids = extended() ? extendedIds : TimerNameImpl.ids;
+        Integer id = ids.get(name());
+        if (id != null) {
+            return id;
+        }
+        id = nextId.getAndIncrement();
+        Integer existingId = ids.putIfAbsent(name(), id);
+        return existingId == null ? id : existingId;
+    }
 }
@@ -22,11 +22,14 @@ import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
 import org.glowroot.common.util.NotAvailableAware;
 import org.glowroot.common.util.Styles;
+import org.glowroot.wire.api.Collector.TraceReader;
+import org.glowroot.wire.api.Collector.TraceVisitor;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile.ProfileNode;
 import org.glowroot.wire.api.model.Proto;
@@ -37,20 +40,29 @@ public class TraceCreator {
 
     private TraceCreator() {}
 
+    public static TraceReader createPartialTraceReader(Transaction transaction, long captureTime,
+            long captureTick) {
+        return new TransactionTraceReader(transaction, true, true, captureTime, captureTick);
+    }
+
+    public static TraceReader createCompletedTraceReader(Transaction transaction, boolean slow) {
+        return new TransactionTraceReader(transaction, slow, false, transaction.getCaptureTime(),
+                transaction.getEndTick());
+    }
+
     public static Trace createPartialTrace(Transaction transaction, long captureTime,
             long captureTick) throws IOException {
-        return createFullTrace(transaction, true, true, captureTime, captureTick);
+        return toTraceInternal(createPartialTraceReader(transaction, captureTime, captureTick));
     }
 
     public static Trace createCompletedTrace(Transaction transaction, boolean slow)
             throws IOException {
-        return createFullTrace(transaction, slow, false, transaction.getCaptureTime(),
-                transaction.getEndTick());
+        return toTraceInternal(createCompletedTraceReader(transaction, slow));
     }
 
     public static Trace.Header createPartialTraceHeader(Transaction transaction, long captureTime,
             long captureTick) throws IOException {
-        int entryCount = transaction.getEntriesProtobuf(captureTick).size();
+        int entryCount = transaction.getEntryCount(captureTick);
         long mainThreadProfileSampleCount =
                 getProfileSampleCount(transaction.getMainThreadProfileProtobuf());
         long auxThreadProfileSampleCount =
@@ -62,7 +74,7 @@ public class TraceCreator {
 
     public static Trace.Header createCompletedTraceHeader(Transaction transaction)
             throws IOException {
-        int entryCount = transaction.getEntriesProtobuf(Long.MAX_VALUE).size();
+        int entryCount = transaction.getEntryCount(Long.MAX_VALUE);
         long mainProfileSampleCount =
                 getProfileSampleCount(transaction.getMainThreadProfileProtobuf());
         long auxProfileSampleCount =
@@ -73,30 +85,23 @@ public class TraceCreator {
                 auxProfileSampleCount);
     }
 
-    // timings for traces that are still active are normalized to the capture tick in order to
-    // *attempt* to present a picture of the trace at that exact tick
-    // (without using synchronization to block updates to the trace while it is being read)
-    private static Trace createFullTrace(Transaction transaction, boolean slow, boolean partial,
-            long captureTime, long captureTick) throws IOException {
-        List<Trace.Entry> entries = transaction.getEntriesProtobuf(captureTick);
-        int entryCount = entries.size();
-        Profile mainThreadProfile = transaction.getMainThreadProfileProtobuf();
-        long mainThreadProfileSampleCount = getProfileSampleCount(mainThreadProfile);
-        Profile auxThreadProfile = transaction.getAuxThreadProfileProtobuf();
-        long auxThreadProfileSampleCount = getProfileSampleCount(auxThreadProfile);
-        Trace.Header header = createTraceHeader(transaction, slow, partial, captureTime,
-                captureTick, entryCount, mainThreadProfileSampleCount, auxThreadProfileSampleCount);
-        Trace.Builder builder = Trace.newBuilder()
-                .setId(transaction.getTraceId())
-                .setHeader(header)
-                .addAllEntry(entries);
-        if (mainThreadProfile != null) {
-            builder.setMainThreadProfile(mainThreadProfile);
-        }
-        if (auxThreadProfile != null) {
-            builder.setAuxThreadProfile(auxThreadProfile);
+    // this is for collectors that need the full trace in memory anyways (e.g. to send it over the
+    // wire in a single message)
+    public static Trace toTrace(TraceReader traceReader) throws Exception {
+        FullTraceBuilder fullTraceBuilder = new FullTraceBuilder(traceReader.traceId());
+        traceReader.accept(fullTraceBuilder);
+        return fullTraceBuilder.build();
+    }
+
+    private static Trace toTraceInternal(TraceReader traceReader) throws IOException {
+        try {
+            return toTrace(traceReader);
+        } catch (Exception e) {
+            // FullTraceBuilder does not throw exceptions, so only IOException from building the
+            // header is possible here
+            Throwables.propagateIfPossible(e, IOException.class);
+            throw new RuntimeException(e);
         }
-        return builder.build();
     }
 
     private static Trace.Header createTraceHeader(Transaction transaction, boolean slow,
@@ -120,7 +125,7 @@ public class TraceCreator {
                     .setName(entry.getKey())
                     .addAllValue(entry.getValue());
         }
-        builder.addAllDetailEntry(DetailMapWriter.toProto(transaction.getDetail()));
+        DetailMapWriter.writeTo(transaction.getDetail(), builder);
         if (errorMessage != null) {
             Trace.Error.Builder errorBuilder = builder.getErrorBuilder();
             errorBuilder.setMessage(errorMessage.message());
@@ -247,4 +252,79 @@ public class TraceCreator {
     private static Proto.OptionalInt64 getOptionalInt(long value) {
         return Proto.OptionalInt64.newBuilder().setValue(value).build();
     }
+
+    // timings for traces that are still active are normalized to the capture tick in order to
+    // *attempt* to present a picture of the trace at that exact tick
+    // (without using synchronization to block updates to the trace while it is being read)
+    private static class TransactionTraceReader implements TraceReader {
+
+        private final Transaction transaction;
+        private final boolean slow;
+        private final boolean partial;
+        private final long captureTime;
+        private final long captureTick;
+
+        private TransactionTraceReader(Transaction transaction, boolean slow, boolean partial,
+                long captureTime, long captureTick) {
+            this.transaction = transaction;
+            this.slow = slow;
+            this.partial = partial;
+            this.captureTime = captureTime;
+            this.captureTick = captureTick;
+        }
+
+        @Override
+        public String traceId() {
+            return transaction.getTraceId();
+        }
+
+        @Override
+        public void accept(TraceVisitor traceVisitor) throws Exception {
+            int entryCount = transaction.visitEntries(captureTick, traceVisitor);
+            Profile mainThreadProfile = transaction.getMainThreadProfileProtobuf();
+            if (mainThreadProfile != null) {
+                traceVisitor.visitMainThreadProfile(mainThreadProfile);
+            }
+            Profile auxThreadProfile = transaction.getAuxThreadProfileProtobuf();
+            if (auxThreadProfile != null) {
+                traceVisitor.visitAuxThreadProfile(auxThreadProfile);
+            }
+            traceVisitor.visitHeader(createTraceHeader(transaction, slow, partial, captureTime,
+                    captureTick, entryCount, getProfileSampleCount(mainThreadProfile),
+                    getProfileSampleCount(auxThreadProfile)));
+        }
+    }
+
+    private static class FullTraceBuilder implements TraceVisitor {
+
+        private final Trace.Builder builder;
+
+        private FullTraceBuilder(String traceId) {
+            builder = Trace.newBuilder().setId(traceId);
+        }
+
+        @Override
+        public void visitEntry(Trace.Entry entry) {
+            builder.addEntry(entry);
+        }
+
+        @Override
+        public void visitMainThreadProfile(Profile profile) {
+            builder.setMainThreadProfile(profile);
+        }
+
+        @Override
+        public void visitAuxThreadProfile(Profile profile) {
+            builder.setAuxThreadProfile(profile);
+        }
+
+        @Override
+        public void visitHeader(Trace.Header header) {
+            builder.setHeader(header);
+        }
+
+        private Trace build() {
+            return builder.build();
+        }
+    }
 }
@@ -15,13 +15,28 @@
  */
 package org.glowroot.agent.model;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.annotation.Nullable;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.model.TraceEntrySpillFile.Segment;
 import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 // this supports updating by a single thread and reading by multiple threads
 class TraceEntryComponent {
@@ -42,6 +57,20 @@ class TraceEntryComponent {
 
     private TraceEntryImpl tailEntry;
 
+    // number of entries added to the linked list (not including the root entry), this includes
+    // entries that have since been spilled to disk
+    private int entryCount;
+    // used to back off when none of the in-memory entries can be spilled
+    private int nextSpillAttemptEntryCount;
+
+    // set by the transaction thread when handing off a spill to the spill thread, and cleared by
+    // the spill thread once it is done, so there is at most one spill at a time per thread context
+    private volatile boolean spillInProgress;
+    // only written by the spill thread (see above)
+    private volatile int spilledEntryCount;
+    // only written by the spill thread (see above)
+    private volatile boolean spillFileUnusable;
+
     private final Ticker ticker;
 
     TraceEntryComponent(ThreadContextImpl threadContext, MessageSupplier messageSupplier,
@@ -83,6 +112,7 @@ class TraceEntryComponent {
         tailEntry.setNextTraceEntry(entry);
         tailEntry = entry;
         activeEntry = entry;
+        entryCount++;
         return entry;
     }
 
@@ -111,6 +141,7 @@ class TraceEntryComponent {
         entry.immediateEndAsErrorEntry(errorMessage, endTick);
         tailEntry.setNextTraceEntry(entry);
         tailEntry = entry;
+        entryCount++;
         return entry;
     }
 
@@ -123,6 +154,90 @@ class TraceEntryComponent {
         return tailEntry;
     }
 
+    int getInMemoryEntryCount() {
+        return entryCount - spilledEntryCount;
+    }
+
+    // spills completed child entries (and their descendants) of the active entry to disk, and
+    // attaches them to the active entry as segments that precede its remaining in-memory children
+    //
+    // every entry after the active entry in the linked list is one of its descendants, since each
+    // of them was added while the active entry was on the stack
+    //
+    // the last child entry is always kept in memory since it may still be updated (e.g. the row
+    // count of a query entry while iterating over its result set), and so are entries that are not
+    // completed yet (e.g. async entries) or that anchor auxiliary thread contexts
+    //
+    // only the (cheap) selection of entries to spill happens on the transaction thread, rendering
+    // and writing them happens on the spill executor, and until the spill executor publishes the
+    // spilled segments, the entries remain reachable in memory
+    void spillCompletedEntries(TraceEntrySpillFile spillFile, Set<TraceEntryImpl> anchorEntries,
+            long transactionStartTick, int maxInMemoryEntries, Executor spillExecutor) {
+        if (spillInProgress || spillFileUnusable) {
+            return;
+        }
+        int inMemoryEntryCount = getInMemoryEntryCount();
+        if (inMemoryEntryCount < nextSpillAttemptEntryCount) {
+            return;
+        }
+        TraceEntryImpl parentEntry = activeEntry;
+        if (parentEntry == null) {
+            return;
+        }
+        TraceEntryImpl firstEntry = parentEntry.getNextTraceEntry();
+        // the spilled entries are those from firstEntry up to (but not including) endEntry, which
+        // is always a child of parentEntry
+        TraceEntryImpl endEntry = null;
+        Map<TraceEntryImpl, Integer> depths = Maps.newIdentityHashMap();
+        depths.put(parentEntry, -1);
+        TraceEntryImpl entry = firstEntry;
+        while (entry != null) {
+            Integer parentDepth = depths.get(entry.getParentTraceEntry());
+            if (parentDepth == null) {
+                // this is only possible after a missed pop, see popEntryBailout()
+                break;
+            }
+            if (parentDepth == -1) {
+                endEntry = entry;
+            }
+            if (!entry.isCompleted() || anchorEntries.contains(entry)) {
+                break;
+            }
+            depths.put(entry, parentDepth + 1);
+            entry = entry.getNextTraceEntry();
+        }
+        if (firstEntry == null || endEntry == null || endEntry == firstEntry) {
+            // back off so that this is not re-attempted on every entry
+            nextSpillAttemptEntryCount = inMemoryEntryCount + Math.max(maxInMemoryEntries / 10, 1);
+            return;
+        }
+        nextSpillAttemptEntryCount = 0;
+        spillInProgress = true;
+        try {
+            spillExecutor.execute(new SpillTask(spillFile, parentEntry, firstEntry, endEntry,
+                    depths, transactionStartTick));
+        } catch (RejectedExecutionException e) {
+            // spill executor has been shut down
+            logger.debug(e.getMessage(), e);
+            spillInProgress = false;
+        }
+    }
+
+    private static boolean flush(TraceEntrySpillFile spillFile, ByteArrayOutputStream buffer,
+            int bufferedCount, long bufferedStartOffsetNanos, List<Segment> segments) {
+        if (bufferedCount == 0) {
+            return true;
+        }
+        Segment segment = spillFile.append(buffer.toByteArray(), buffer.size(), bufferedCount,
+                bufferedStartOffsetNanos);
+        if (segment == null) {
+            return false;
+        }
+        segments.add(segment);
+        buffer.reset();
+        return true;
+    }
+
     private void popEntrySafe(TraceEntryImpl entry) {
         if (activeEntry == null) {
             logger.error("entry stack is empty, cannot pop entry: {}", entry);
@@ -149,4 +264,89 @@ class TraceEntryComponent {
             activeEntry = activeEntry.getParentTraceEntry();
         }
     }
+
+    // runs on the spill executor
+    private class SpillTask implements Runnable {
+
+        private final TraceEntrySpillFile spillFile;
+        private final TraceEntryImpl parentEntry;
+        private final TraceEntryImpl firstEntry;
+        private final TraceEntryImpl endEntry;
+        private final Map<TraceEntryImpl, Integer> depths;
+        private final long transactionStartTick;
+
+        private SpillTask(TraceEntrySpillFile spillFile, TraceEntryImpl parentEntry,
+                TraceEntryImpl firstEntry, TraceEntryImpl endEntry,
+                Map<TraceEntryImpl, Integer> depths, long transactionStartTick) {
+            this.spillFile = spillFile;
+            this.parentEntry = parentEntry;
+            this.firstEntry = firstEntry;
+            this.endEntry = endEntry;
+            this.depths = depths;
+            this.transactionStartTick = transactionStartTick;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!spill()) {
+                    // spill file is no longer usable (e.g. released or failed), the entries are
+                    // still in memory
+                    spillFileUnusable = true;
+                }
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+                spillFileUnusable = true;
+            } finally {
+                spillInProgress = false;
+            }
+        }
+
+        private boolean spill() {
+            long captureTick = ticker.read();
+            List<Segment> segments = Lists.newArrayList(parentEntry.getSpilledChildSegments());
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int bufferedCount = 0;
+            long bufferedStartOffsetNanos = 0;
+            int spilledCount = 0;
+            TraceEntryImpl entry = firstEntry;
+            while (entry != endEntry) {
+                // checkNotNull is safe since endEntry is reachable from firstEntry
+                int depth = checkNotNull(depths.get(entry));
+                Trace.Entry proto = entry.toProto(depth, transactionStartTick, captureTick);
+                if (bufferedCount == 0) {
+                    bufferedStartOffsetNanos = proto.getStartOffsetNanos();
+                }
+                try {
+                    proto.writeDelimitedTo(buffer);
+                } catch (IOException e) {
+                    // ByteArrayOutputStream does not throw IOException
+                    throw new IllegalStateException(e);
+                }
+                bufferedCount++;
+                spilledCount++;
+                ImmutableList<Segment> childSegments = entry.getSpilledChildSegments();
+                if (!childSegments.isEmpty()) {
+                    // flush buffer so that the child segments end up in the correct position
+                    if (!flush(spillFile, buffer, bufferedCount, bufferedStartOffsetNanos,
+                            segments)) {
+                        return false;
+                    }
+                    bufferedCount = 0;
+                    for (Segment childSegment : childSegments) {
+                        segments.add(childSegment.withAddedDepthOffset(depth + 1));
+                    }
+                }
+                entry = checkNotNull(entry.getNextTraceEntry());
+            }
+            if (!flush(spillFile, buffer, bufferedCount, bufferedStartOffsetNanos, segments)) {
+                return false;
+            }
+            // segments and the next in-memory entry are published together in a single volatile
+            // write, so readers never see one without the other
+            parentEntry.setSpilledChildren(ImmutableList.copyOf(segments), endEntry);
+            spilledEntryCount += spilledCount;
+            return true;
+        }
+    }
 }
@@ -16,6 +16,7 @@
 package org.glowroot.agent.model;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.Nullable;
 
@@ -42,13 +43,30 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
     private static final Logger logger = LoggerFactory.getLogger(TraceEntryImpl.class);
     private static final Ticker ticker = Tickers.getTicker();
 
+    @SuppressWarnings("nullness:type.argument.type.incompatible")
+    private static final AtomicReferenceFieldUpdater<TraceEntryImpl, TraceEntryImpl>
+            nextTraceEntryUpdater = AtomicReferenceFieldUpdater.newUpdater(TraceEntryImpl.class,
+                    TraceEntryImpl.class, "nextTraceEntry");
+
     private final ThreadContextImpl threadContext;
     private final @Nullable TraceEntryImpl parentTraceEntry;
-    private final @Nullable MessageSupplier messageSupplier;
+    // volatile since it is cleared once the message has been rendered (see renderedMessage)
+    private volatile @Nullable MessageSupplier messageSupplier;
 
     // volatile so it can be set from another thread (needed for async trace entries)
     private volatile @Nullable ErrorMessage errorMessage;
 
+    // the message is rendered once after the entry is completed and then reused, since the entry
+    // can be rendered multiple times (partial trace stores, live trace viewer, final trace store),
+    // and the message supplier is then released so that whatever it captured (e.g. bind parameters)
+    // is not retained alongside the rendered message for the rest of the transaction
+    //
+    // this is not done for the root entry since its message supplier is still needed for the
+    // transaction headline and the trace header detail
+    //
+    // volatile since the entry can be rendered by multiple threads
+    private volatile @Nullable RenderedMessage renderedMessage;
+
     private final long startTick;
 
     // these fields are not volatile, so depends on memory barrier in Transaction for visibility
@@ -58,7 +76,16 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
     private boolean initialComplete;
 
     // this is for maintaining linear list of trace entries
-    private @Nullable TraceEntryImpl nextTraceEntry;
+    //
+    // volatile only so that it can be read consistently with spilledChildren (see
+    // getSpilledChildren()), the transaction thread uses lazySet which is just a plain store plus
+    // store-store ordering, and doesn't need the memory barrier in Transaction for visibility
+    private volatile @Nullable TraceEntryImpl nextTraceEntry;
+
+    // child entries (and their descendants) that have been spilled to disk, which always precede
+    // the child entries that are still in memory, together with the first of those in-memory child
+    // entries, so that both are published by the spill thread in a single volatile write
+    private volatile @Nullable SpilledChildren spilledChildren;
 
     // only null for trace entries added using addEntryEntry()
     private final @Nullable TimerImpl syncTimer;
@@ -112,20 +139,37 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
             durationNanos = captureTick - revisedStartTick;
             active = true;
         }
-        MessageSupplier messageSupplier = getMessageSupplier();
-        ReadableMessage message =
-                messageSupplier == null ? null : (ReadableMessage) messageSupplier.get();
-
         Trace.Entry.Builder builder = Trace.Entry.newBuilder()
                 .setDepth(depth)
                 .setStartOffsetNanos(offsetNanos)
                 .setDurationNanos(durationNanos)
                 .setActive(active);
 
-        // async root entry always has empty message and empty detail
-        builder.setMessage(message == null ? "" : message.getText() + getRowCountSuffix());
-        if (message != null) {
-            builder.addAllDetailEntry(DetailMapWriter.toProto(message.getDetail()));
+        RenderedMessage renderedMessage = this.renderedMessage;
+        MessageSupplier messageSupplier = null;
+        if (renderedMessage == null) {
+            messageSupplier = this.messageSupplier;
+            if (messageSupplier == null) {
+                // the rendered message is set before the message supplier is cleared, so need to
+                // check it again in case another thread rendered it in between the two reads
+                renderedMessage = this.renderedMessage;
+            }
+        }
+        if (renderedMessage != null) {
+            builder.setMessage(renderedMessage.text + getRowCountSuffix());
+            builder.addAllDetailEntry(renderedMessage.detailEntries);
+        } else if (messageSupplier != null) {
+            ReadableMessage message = (ReadableMessage) messageSupplier.get();
+            builder.setMessage(message.getText() + getRowCountSuffix());
+            DetailMapWriter.writeTo(message.getDetail(), builder);
+            if (!active && parentTraceEntry != null) {
+                this.renderedMessage = new RenderedMessage(message.getText(),
+                        ImmutableList.copyOf(builder.getDetailEntryList()));
+                this.messageSupplier = null;
+            }
+        } else {
+            // async root entry always has empty message and empty detail
+            builder.setMessage("");
         }
         ErrorMessage errorMessage = this.errorMessage;
         if (errorMessage != null) {
@@ -275,11 +319,47 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
 
     @Nullable
     TraceEntryImpl getNextTraceEntry() {
-        return nextTraceEntry;
+        // see getSpilledChildren() for why nextTraceEntry is read first
+        TraceEntryImpl nextTraceEntry = this.nextTraceEntry;
+        SpilledChildren spilledChildren = this.spilledChildren;
+        return spilledChildren == null ? nextTraceEntry : spilledChildren.nextTraceEntry;
     }
 
     void setNextTraceEntry(TraceEntryImpl nextTraceEntry) {
-        this.nextTraceEntry = nextTraceEntry;
+        nextTraceEntryUpdater.lazySet(this, nextTraceEntry);
+    }
+
+    // when this is non-null, its next trace entry supersedes nextTraceEntry
+    //
+    // readers that need both the spilled child segments and the next trace entry must read
+    // nextTraceEntry (via getNextTraceEntryIgnoringSpilledChildren()) prior to calling this, since
+    // the spill thread publishes spilledChildren prior to unlinking the spilled entries from
+    // nextTraceEntry, so if this returns null then the prior read of nextTraceEntry did not skip
+    // any spilled entries
+    @Nullable
+    SpilledChildren getSpilledChildren() {
+        return spilledChildren;
+    }
+
+    @Nullable
+    TraceEntryImpl getNextTraceEntryIgnoringSpilledChildren() {
+        return nextTraceEntry;
+    }
+
+    ImmutableList<TraceEntrySpillFile.Segment> getSpilledChildSegments() {
+        SpilledChildren spilledChildren = this.spilledChildren;
+        return spilledChildren == null ? ImmutableList.<TraceEntrySpillFile.Segment>of()
+                : spilledChildren.segments;
+    }
+
+    // this is only called by the spill thread (and only for a single spill at a time per thread
+    // context)
+    void setSpilledChildren(ImmutableList<TraceEntrySpillFile.Segment> segments,
+            TraceEntryImpl nextTraceEntry) {
+        spilledChildren = new SpilledChildren(segments, nextTraceEntry);
+        // the spilled entries are unlinked after spilledChildren is published, see
+        // getSpilledChildren()
+        nextTraceEntryUpdater.lazySet(this, nextTraceEntry);
     }
 
     void immediateEndAsErrorEntry(ErrorMessage errorMessage, long endTick) {
@@ -289,7 +369,7 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
         initialComplete = true;
     }
 
-    private boolean isCompleted() {
+    boolean isCompleted() {
         // initialComplete is needed for async trace entries which have selfNestingLevel = 0 after
         // calling stopSyncTimer(), but are not complete until end() is called
         return initialComplete && selfNestingLevel == 0;
@@ -337,6 +417,8 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
         initialComplete = true;
     }
 
+    // the row count suffix is not part of the rendered message since rows can still be navigated
+    // after the entry is completed (e.g. jdbc result set iteration)
     private String getRowCountSuffix() {
         if (!isRowNavigationAttempted()) {
             return "";
@@ -370,12 +452,48 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
     // this is used for debugging, in particular in TraceEntryComponent.popEntryBailout()
     @Override
     public String toString() {
+        MessageSupplier messageSupplier = this.messageSupplier;
         if (messageSupplier != null) {
             return ((ReadableMessage) messageSupplier.get()).getText();
         }
+        RenderedMessage renderedMessage = this.renderedMessage;
+        if (renderedMessage != null) {
+            return renderedMessage.text;
+        }
         if (errorMessage != null) {
             return errorMessage.message();
         }
         return super.toString();
     }
+
+    static class SpilledChildren {
+
+        private final ImmutableList<TraceEntrySpillFile.Segment> segments;
+        private final TraceEntryImpl nextTraceEntry;
+
+        private SpilledChildren(ImmutableList<TraceEntrySpillFile.Segment> segments,
+                TraceEntryImpl nextTraceEntry) {
+            this.segments = segments;
+            this.nextTraceEntry = nextTraceEntry;
+        }
+
+        ImmutableList<TraceEntrySpillFile.Segment> getSegments() {
+            return segments;
+        }
+
+        TraceEntryImpl getNextTraceEntry() {
+            return nextTraceEntry;
+        }
+    }
+
+    private static class RenderedMessage {
+
+        private final String text;
+        private final ImmutableList<Trace.DetailEntry> detailEntries;
+
+        private RenderedMessage(String text, ImmutableList<Trace.DetailEntry> detailEntries) {
+            this.text = text;
+            this.detailEntries = detailEntries;
+        }
+    }
 }
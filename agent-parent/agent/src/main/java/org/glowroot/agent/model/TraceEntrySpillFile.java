@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.weaving.ClassLoaders;
+import org.glowroot.wire.api.Collector.TraceVisitor;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+// temporary file holding the completed trace entries of a single transaction that have been
+// spilled out of memory, see TraceEntryComponent.spillCompletedEntries()
+//
+// entries are appended by the trace entry spill thread and read back when the trace is captured
+public class TraceEntrySpillFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(TraceEntrySpillFile.class);
+
+    // zero disables spilling, in which case maxTraceEntriesPerTransaction is a hard limit
+    static final int MAX_ENTRIES =
+            Integer.getInteger("glowroot.internal.traceEntrySpill.maxEntries", 0);
+
+    private static final String FILE_PREFIX = "trace-entries-";
+
+    private final File file;
+
+    @GuardedBy("this")
+    private @Nullable RandomAccessFile out;
+    @GuardedBy("this")
+    private long size;
+    @GuardedBy("this")
+    private boolean released;
+    @GuardedBy("this")
+    private boolean failed;
+
+    TraceEntrySpillFile(File dir, String traceId) {
+        file = new File(dir, FILE_PREFIX + traceId);
+    }
+
+    // returns null if spilling is disabled
+    public static @Nullable File initSpillDir(File baseDir) {
+        if (MAX_ENTRIES == 0) {
+            return null;
+        }
+        File spillDir = new File(baseDir, "tmp");
+        try {
+            // clean up any files left behind by a prior jvm
+            ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(spillDir, FILE_PREFIX);
+        } catch (IOException e) {
+            logger.error("could not create trace entry spill directory, trace entries beyond"
+                    + " maxTraceEntriesPerTransaction will not be captured", e);
+            return null;
+        }
+        return spillDir;
+    }
+
+    // returns null if the entries could not be written, in which case the caller should keep them
+    // in memory
+    synchronized @Nullable Segment append(byte[] bytes, int length, int entryCount,
+            long startOffsetNanos) {
+        if (released || failed) {
+            return null;
+        }
+        try {
+            if (out == null) {
+                out = new RandomAccessFile(file, "rw");
+            }
+            out.seek(size);
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            logger.warn("could not spill trace entries to {}, the remaining trace entries will be"
+                    + " kept in memory: {}", file.getAbsolutePath(), e.getMessage(), e);
+            failed = true;
+            return null;
+        }
+        Segment segment = new Segment(size, length, entryCount, 0, startOffsetNanos);
+        size += length;
+        return segment;
+    }
+
+    // depth is added to the (relative) depth of each spilled entry
+    //
+    // returns the number of entries visited
+    int visitEntries(Segment segment, int depth, TraceVisitor traceVisitor) throws Exception {
+        int depthOffset = depth + segment.depthOffset;
+        byte[] bytes = read(segment);
+        if (bytes == null) {
+            // file has already been released (e.g. trace is being viewed in the UI just as it is
+            // being released after being stored), so a single entry is visited in place of the
+            // spilled entries so they don't disappear without any indication
+            traceVisitor.visitEntry(Trace.Entry.newBuilder()
+                    .setDepth(depthOffset)
+                    .setStartOffsetNanos(segment.startOffsetNanos)
+                    .setMessage("[" + segment.entryCount + " trace entries were spilled to disk"
+                            + " and are no longer available]")
+                    .build());
+            return 1;
+        }
+        InputStream in = new ByteArrayInputStream(bytes);
+        for (int i = 0; i < segment.entryCount; i++) {
+            Trace.Entry entry = Trace.Entry.parseDelimitedFrom(in);
+            traceVisitor.visitEntry(entry.toBuilder()
+                    .setDepth(entry.getDepth() + depthOffset)
+                    .build());
+        }
+        return segment.entryCount;
+    }
+
+    synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+        if (!file.delete()) {
+            logger.warn("could not delete trace entry spill file: {}", file.getAbsolutePath());
+        }
+    }
+
+    private synchronized @Nullable byte[] read(Segment segment) throws IOException {
+        if (released || out == null) {
+            return null;
+        }
+        byte[] bytes = new byte[segment.length];
+        out.seek(segment.position);
+        out.readFully(bytes);
+        return bytes;
+    }
+
+    // a contiguous run of spilled entries, whose depths are relative to the children of the trace
+    // entry that the segment is attached to (after adding depthOffset)
+    static class Segment {
+
+        private final long position;
+        private final int length;
+        private final int entryCount;
+        private final int depthOffset;
+        // start offset of the first spilled entry, used in case the entries are no longer available
+        private final long startOffsetNanos;
+
+        private Segment(long position, int length, int entryCount, int depthOffset,
+                long startOffsetNanos) {
+            this.position = position;
+            this.length = length;
+            this.entryCount = entryCount;
+            this.depthOffset = depthOffset;
+            this.startOffsetNanos = startOffsetNanos;
+        }
+
+        int getEntryCount() {
+            return entryCount;
+        }
+
+        Segment withAddedDepthOffset(int depth) {
+            return new Segment(position, length, entryCount, depthOffset + depth,
+                    startOffsetNanos);
+        }
+    }
+}
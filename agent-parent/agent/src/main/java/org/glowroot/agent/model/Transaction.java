@@ -15,11 +15,13 @@
  */
 package org.glowroot.agent.model;
 
+import java.io.File;
 import java.lang.management.ThreadInfo;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
@@ -39,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.AdvancedConfig;
 import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.impl.QueryIdCollector;
 import org.glowroot.agent.impl.TransactionCollection.TransactionEntry;
 import org.glowroot.agent.impl.TransactionRegistry;
 import org.glowroot.agent.impl.TransactionServiceImpl;
@@ -48,9 +51,8 @@ import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.internal.ReadableMessage;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
-import org.glowroot.common.model.QueryCollector;
-import org.glowroot.common.model.ServiceCallCollector;
 import org.glowroot.common.util.Cancellable;
+import org.glowroot.wire.api.Collector.TraceVisitor;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -96,6 +98,8 @@ public class Transaction {
     private volatile @Nullable ErrorMessage errorMessage;
 
     private final int maxTraceEntriesPerTransaction;
+    // this is the same as maxTraceEntriesPerTransaction unless trace entry spilling is enabled
+    private final int entryLimit;
     private final int maxAggregateQueriesPerType;
     private final int maxAggregateServiceCallsPerType;
 
@@ -152,6 +156,12 @@ public class Transaction {
 
     private @Nullable TransactionEntry transactionEntry;
 
+    private final @Nullable File traceEntrySpillDir;
+    // non-null when traceEntrySpillDir is non-null
+    private final @Nullable Executor traceEntrySpillExecutor;
+    @GuardedBy("this")
+    private @MonotonicNonNull TraceEntrySpillFile traceEntrySpillFile;
+
     public Transaction(long startTime, long startTick, String transactionType,
             String transactionName, MessageSupplier messageSupplier, TimerName timerName,
             boolean captureThreadStats, int maxTraceEntriesPerTransaction,
@@ -160,12 +170,20 @@ public class Transaction {
             CompletionCallback completionCallback, Ticker ticker,
             TransactionRegistry transactionRegistry, TransactionServiceImpl transactionService,
             ConfigService configService, UserProfileScheduler userProfileScheduler,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder,
+            @Nullable File traceEntrySpillDir, @Nullable Executor traceEntrySpillExecutor) {
         this.startTime = startTime;
         this.startTick = startTick;
         this.transactionType = transactionType;
         this.transactionName = transactionName;
         this.maxTraceEntriesPerTransaction = maxTraceEntriesPerTransaction;
+        if (traceEntrySpillDir == null) {
+            entryLimit = maxTraceEntriesPerTransaction;
+        } else {
+            entryLimit = Math.max(maxTraceEntriesPerTransaction, TraceEntrySpillFile.MAX_ENTRIES);
+        }
+        this.traceEntrySpillDir = traceEntrySpillDir;
+        this.traceEntrySpillExecutor = traceEntrySpillExecutor;
         this.maxAggregateQueriesPerType = maxAggregateQueriesPerType;
         this.maxAggregateServiceCallsPerType = maxAggregateServiceCallsPerType;
         this.completionCallback = completionCallback;
@@ -281,25 +299,62 @@ public class Transaction {
         return mainThreadContext.getThreadStats();
     }
 
-    public void mergeQueriesInto(QueryCollector queries) {
+    public void mergeQueriesInto(QueryIdCollector queries) {
         memoryBarrierRead();
         mainThreadContext.mergeQueriesInto(queries);
     }
 
-    public void mergeServiceCallsInto(ServiceCallCollector serviceCalls) {
+    public void mergeServiceCallsInto(QueryIdCollector serviceCalls) {
         memoryBarrierRead();
         mainThreadContext.mergeServiceCallsInto(serviceCalls);
     }
 
     public boolean allowAnotherEntry() {
-        return entryLimitCounter++ < maxTraceEntriesPerTransaction;
+        return entryLimitCounter++ < entryLimit;
     }
 
     public boolean allowAnotherErrorEntry() {
         // use higher entry limit when adding errors, but still need some kind of cap
-        return entryLimitCounter++ < maxTraceEntriesPerTransaction
-                || extraErrorEntryLimitCounter++ < 2
-                        * maxTraceEntriesPerTransaction;
+        return entryLimitCounter++ < entryLimit
+                || extraErrorEntryLimitCounter++ < 2 * maxTraceEntriesPerTransaction;
+    }
+
+    // number of entries that each thread context keeps in memory before spilling completed
+    // entries to disk
+    int getMaxInMemoryEntries() {
+        return maxTraceEntriesPerTransaction;
+    }
+
+    // returns null if trace entry spilling is disabled
+    @Nullable
+    TraceEntrySpillFile getTraceEntrySpillFile() {
+        if (traceEntrySpillDir == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (traceEntrySpillFile == null) {
+                traceEntrySpillFile = new TraceEntrySpillFile(traceEntrySpillDir, getTraceId());
+            }
+            return traceEntrySpillFile;
+        }
+    }
+
+    // entries are rendered and written to the spill file on this executor, off of the
+    // transaction thread
+    Executor getTraceEntrySpillExecutor() {
+        return checkNotNull(traceEntrySpillExecutor);
+    }
+
+    // this is called once the trace has been stored, or will not be stored
+    public void releaseSpilledEntries() {
+        if (traceEntrySpillDir == null) {
+            return;
+        }
+        synchronized (this) {
+            if (traceEntrySpillFile != null) {
+                traceEntrySpillFile.release();
+            }
+        }
     }
 
     public boolean allowAnotherAggregateQuery() {
@@ -317,6 +372,16 @@ public class Transaction {
         return mainThreadContext.getEntriesProtobuf(captureTick);
     }
 
+    int visitEntries(long captureTick, TraceVisitor traceVisitor) throws Exception {
+        memoryBarrierRead();
+        return mainThreadContext.visitEntries(captureTick, traceVisitor);
+    }
+
+    int getEntryCount(long captureTick) {
+        memoryBarrierRead();
+        return mainThreadContext.getEntryCount(captureTick);
+    }
+
     long getMainThreadProfileSampleCount() {
         if (mainThreadProfile == null) {
             return 0;
@@ -492,7 +557,7 @@ public class Transaction {
     }
 
     boolean isEntryLimitExceeded() {
-        return entryLimitCounter++ > maxTraceEntriesPerTransaction;
+        return entryLimitCounter++ > entryLimit;
     }
 
     public void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo, int limit) {
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
@@ -29,6 +30,7 @@ import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.model.TraceCreator;
 import org.glowroot.agent.server.ServerConnection.GrpcCall;
 import org.glowroot.common.live.LiveJvmService;
 import org.glowroot.common.live.LiveTraceRepository;
@@ -49,14 +51,20 @@ import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.SystemInfo;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamHeader;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class ServerCollectorImpl implements Collector {
 
     static final Logger logger = LoggerFactory.getLogger(ServerCollectorImpl.class);
 
+    private static final int STREAM_TRACE_TIMEOUT_SECONDS = 10;
+
     private final String agentId;
     private final ServerConnection serverConnection;
     private final CollectorServiceStub collectorServiceStub;
@@ -147,11 +155,20 @@ public class ServerCollectorImpl implements Collector {
         });
     }
 
+    // the trace is streamed to the server so that the full trace never needs to be held in memory
+    // at the same time, and only if that fails is the full trace built, since the trace reader is
+    // only valid until this method returns and the full trace needs to be retained while retrying
     @Override
-    public void collectTrace(Trace trace) {
+    public void collectTrace(TraceReader traceReader) throws Exception {
+        if (serverConnection.isClosed()) {
+            return;
+        }
+        if (streamTrace(traceReader)) {
+            return;
+        }
         final TraceMessage traceMessage = TraceMessage.newBuilder()
                 .setAgentId(agentId)
-                .setTrace(trace)
+                .setTrace(TraceCreator.toTrace(traceReader))
                 .build();
         serverConnection.callWithAFewRetries(new GrpcCall<EmptyMessage>() {
             @Override
@@ -161,6 +178,25 @@ public class ServerCollectorImpl implements Collector {
         });
     }
 
+    private boolean streamTrace(TraceReader traceReader) throws Exception {
+        StreamTraceResponseObserver responseObserver = new StreamTraceResponseObserver();
+        StreamObserver<TraceStreamMessage> requestObserver =
+                collectorServiceStub.collectTraceStream(responseObserver);
+        requestObserver.onNext(TraceStreamMessage.newBuilder()
+                .setStreamHeader(TraceStreamHeader.newBuilder()
+                        .setAgentId(agentId)
+                        .setTraceId(traceReader.traceId()))
+                .build());
+        try {
+            traceReader.accept(new StreamingTraceVisitor(requestObserver));
+        } catch (Exception e) {
+            requestObserver.onError(e);
+            throw e;
+        }
+        requestObserver.onCompleted();
+        return responseObserver.awaitSuccess();
+    }
+
     @Override
     public void log(LogEvent logEvent) {
         if (serverConnection.suppressLogCollector()) {
@@ -178,6 +214,75 @@ public class ServerCollectorImpl implements Collector {
         });
     }
 
+    private static class StreamingTraceVisitor implements TraceVisitor {
+
+        private final StreamObserver<TraceStreamMessage> requestObserver;
+
+        private StreamingTraceVisitor(StreamObserver<TraceStreamMessage> requestObserver) {
+            this.requestObserver = requestObserver;
+        }
+
+        @Override
+        public void visitEntry(Trace.Entry entry) {
+            requestObserver.onNext(TraceStreamMessage.newBuilder()
+                    .setEntry(entry)
+                    .build());
+        }
+
+        @Override
+        public void visitMainThreadProfile(Profile profile) {
+            requestObserver.onNext(TraceStreamMessage.newBuilder()
+                    .setMainThreadProfile(profile)
+                    .build());
+        }
+
+        @Override
+        public void visitAuxThreadProfile(Profile profile) {
+            requestObserver.onNext(TraceStreamMessage.newBuilder()
+                    .setAuxThreadProfile(profile)
+                    .build());
+        }
+
+        @Override
+        public void visitHeader(Trace.Header header) {
+            requestObserver.onNext(TraceStreamMessage.newBuilder()
+                    .setHeader(header)
+                    .build());
+        }
+    }
+
+    private class StreamTraceResponseObserver implements StreamObserver<EmptyMessage> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile boolean success;
+
+        @Override
+        public void onNext(EmptyMessage value) {}
+
+        @Override
+        public void onError(final Throwable t) {
+            serverConnection.suppressLogCollector(new Runnable() {
+                @Override
+                public void run() {
+                    logger.debug(t.getMessage(), t);
+                }
+            });
+            latch.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            success = true;
+            latch.countDown();
+        }
+
+        private boolean awaitSuccess() throws InterruptedException {
+            // if this times out and the stream later succeeds, the trace is stored twice, which is
+            // ok since trace storage is idempotent
+            return latch.await(STREAM_TRACE_TIMEOUT_SECONDS, SECONDS) && success;
+        }
+    }
+
     @OnlyUsedByTests
     public void close() throws InterruptedException {
         downstreamServiceObserver.close();
@@ -100,6 +100,10 @@ class ServerConnection {
         call.call(new RetryingStreamObserver<T>(call, 15, -1));
     }
 
+    boolean isClosed() {
+        return closed;
+    }
+
     void suppressLogCollector(Runnable runnable) {
         boolean priorValue = suppressLogCollector.get();
         suppressLogCollector.set(true);
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import org.glowroot.common.util.OnlyUsedByTests;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+// reading System.nanoTime() can be surprisingly expensive on virtualized platforms where it is
+// backed by a slow clocksource (e.g. xen or hpet), and timer capture calls it twice per timer
+//
+// this ticker instead returns the last System.nanoTime() value published by a dedicated thread,
+// which costs only a volatile read
+//
+// durations that are shorter than the resolution are still measured correctly on average, since
+// each is measured as either zero or as one (or more) update intervals, with probability
+// proportional to its length
+//
+// the updater thread wakes up once per resolution interval for the life of the jvm, so this is
+// only used when explicitly configured (see Tickers), and the resolution is bounded below by
+// MIN_RESOLUTION_MICROS to cap the cpu cost of the updater thread
+//
+// the updater thread runs at normal priority, so durations will be under-reported if it is
+// starved of cpu
+class CoarseTicker extends Ticker implements Runnable {
+
+    static final int MIN_RESOLUTION_MICROS = 100;
+
+    private final Ticker source;
+    private final long resolutionNanos;
+
+    private volatile long tick;
+
+    private volatile @Nullable Thread thread;
+    private volatile boolean closed;
+
+    @VisibleForTesting
+    CoarseTicker(Ticker source, int resolutionMicros) {
+        this.source = source;
+        resolutionNanos =
+                MICROSECONDS.toNanos(Math.max(resolutionMicros, MIN_RESOLUTION_MICROS));
+        tick = source.read();
+    }
+
+    static CoarseTicker create(int resolutionMicros) {
+        CoarseTicker coarseTicker = new CoarseTicker(Ticker.systemTicker(), resolutionMicros);
+        coarseTicker.start();
+        return coarseTicker;
+    }
+
+    @Override
+    public long read() {
+        return tick;
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            update();
+            LockSupport.parkNanos(resolutionNanos);
+        }
+    }
+
+    @VisibleForTesting
+    void start() {
+        Thread thread = new Thread(this, "Glowroot-Coarse-Ticker");
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    @VisibleForTesting
+    void update() {
+        tick = source.read();
+    }
+
+    @VisibleForTesting
+    long getResolutionNanos() {
+        return resolutionNanos;
+    }
+
+    @OnlyUsedByTests
+    void close() throws InterruptedException {
+        closed = true;
+        Thread thread = this.thread;
+        if (thread != null) {
+            // unpark so that the updater thread does not need to wait for the rest of its park
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+}
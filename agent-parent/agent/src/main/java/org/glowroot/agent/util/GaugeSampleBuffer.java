@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// in-memory ring buffer of high resolution gauge samples (e.g. every 100 milliseconds), which are
+// only served live to the UI, while the gauge collector sends a single summary value per gauge per
+// gauge collection interval to the collector, so storage and rpc volume are not affected by the
+// sample interval
+//
+// samples are stored in primitive arrays, so the default 5 minutes at 100 milliseconds is ~72kb
+// per gauge
+public class GaugeSampleBuffer {
+
+    private static final long SAMPLE_INTERVAL_MILLIS =
+            Long.getLong("glowroot.internal.gaugeSampleIntervalMillis", 0);
+
+    private static final long RETENTION_MILLIS =
+            MINUTES.toMillis(Long.getLong("glowroot.internal.gaugeSampleRetentionMinutes", 5));
+
+    private final long sampleIntervalMillis;
+    private final long retentionMillis;
+    private final int capacity;
+
+    private final ConcurrentMap<String, Ring> rings = Maps.newConcurrentMap();
+
+    @VisibleForTesting
+    public GaugeSampleBuffer(long sampleIntervalMillis, long retentionMillis) {
+        this.sampleIntervalMillis = sampleIntervalMillis;
+        this.retentionMillis = retentionMillis;
+        capacity = (int) (retentionMillis / sampleIntervalMillis) + 1;
+    }
+
+    // returns null if high resolution sampling is not enabled
+    public static @Nullable GaugeSampleBuffer create(long gaugeCollectionIntervalMillis) {
+        if (SAMPLE_INTERVAL_MILLIS <= 0
+                || SAMPLE_INTERVAL_MILLIS >= gaugeCollectionIntervalMillis) {
+            return null;
+        }
+        return new GaugeSampleBuffer(SAMPLE_INTERVAL_MILLIS, RETENTION_MILLIS);
+    }
+
+    public long getSampleIntervalMillis() {
+        return sampleIntervalMillis;
+    }
+
+    public void add(GaugeValue gaugeValue) {
+        String gaugeName = gaugeValue.getGaugeName();
+        Ring ring = rings.get(gaugeName);
+        if (ring == null) {
+            ring = new Ring(capacity);
+            Ring existingRing = rings.putIfAbsent(gaugeName, ring);
+            if (existingRing != null) {
+                ring = existingRing;
+            }
+        }
+        ring.add(gaugeValue.getCaptureTime(), gaugeValue.getValue(), gaugeValue.getWeight());
+    }
+
+    // ordered by capture time
+    public List<GaugeValue> getSamples(String gaugeName, long from, long to) {
+        Ring ring = rings.get(gaugeName);
+        if (ring == null) {
+            return ImmutableList.of();
+        }
+        return ring.getSamples(gaugeName, from, to);
+    }
+
+    // removes gauges that have not been sampled within the retention period (e.g. after the gauge
+    // config was removed)
+    public void removeInactive(long currentTimeMillis) {
+        for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+            if (entry.getValue().getLatestCaptureTime() < currentTimeMillis - retentionMillis) {
+                rings.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static class Ring {
+
+        @GuardedBy("this")
+        private final long[] captureTimes;
+        @GuardedBy("this")
+        private final double[] values;
+        @GuardedBy("this")
+        private final long[] weights;
+        // index of the next sample
+        @GuardedBy("this")
+        private int head;
+        @GuardedBy("this")
+        private int size;
+
+        private Ring(int capacity) {
+            captureTimes = new long[capacity];
+            values = new double[capacity];
+            weights = new long[capacity];
+        }
+
+        private synchronized void add(long captureTime, double value, long weight) {
+            captureTimes[head] = captureTime;
+            values[head] = value;
+            weights[head] = weight;
+            head = (head + 1) % captureTimes.length;
+            if (size < captureTimes.length) {
+                size++;
+            }
+        }
+
+        private synchronized long getLatestCaptureTime() {
+            if (size == 0) {
+                return Long.MIN_VALUE;
+            }
+            return captureTimes[(head - 1 + captureTimes.length) % captureTimes.length];
+        }
+
+        private synchronized List<GaugeValue> getSamples(String gaugeName, long from, long to) {
+            List<GaugeValue> samples = Lists.newArrayList();
+            int start = (head - size + captureTimes.length) % captureTimes.length;
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % captureTimes.length;
+                long captureTime = captureTimes[index];
+                if (captureTime < from) {
+                    continue;
+                }
+                if (captureTime > to) {
+                    break;
+                }
+                samples.add(GaugeValue.newBuilder()
+                        .setGaugeName(gaugeName)
+                        .setCaptureTime(captureTime)
+                        .setValue(values[index])
+                        .setWeight(weights[index])
+                        .build());
+            }
+            return samples;
+        }
+    }
+}
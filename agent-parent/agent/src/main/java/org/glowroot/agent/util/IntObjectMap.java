@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+
+// micro-optimized open addressing (linear probing) map with primitive int keys, which avoids boxing
+// the keys and allocating an entry per mapping
+//
+// key 0 is reserved for marking empty slots
+//
+// this does not support removal since it is only used to accumulate values
+public class IntObjectMap<V> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // capacity must always be a power of 2, see mask in indexOf()
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private @Nullable Object[] values = new Object[INITIAL_CAPACITY];
+
+    private int size;
+    private int threshold = INITIAL_CAPACITY >> 1; // 0.5 load factor
+
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(int key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            int keyAtIndex = keys[index];
+            if (keyAtIndex == key) {
+                return (V) values[index];
+            }
+            if (keyAtIndex == 0) {
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public void put(int key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        if (putWithoutRehashCheck(keys, values, key, value) && ++size > threshold) {
+            rehash();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                list.add((V) values[i]);
+            }
+        }
+        return list;
+    }
+
+    private void rehash() {
+        int[] existingKeys = keys;
+        @Nullable Object[] existingValues = values;
+        int capacity = existingKeys.length << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = capacity >> 1;
+        for (int i = 0; i < existingKeys.length; i++) {
+            int key = existingKeys[i];
+            if (key != 0) {
+                putWithoutRehashCheck(keys, values, key, existingValues[i]);
+            }
+        }
+    }
+
+    // returns true if the key was not already present
+    private static boolean putWithoutRehashCheck(int[] keys, @Nullable Object[] values, int key,
+            @Nullable Object value) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            int keyAtIndex = keys[index];
+            if (keyAtIndex == key) {
+                values[index] = value;
+                return false;
+            }
+            if (keyAtIndex == 0) {
+                keys[index] = key;
+                values[index] = value;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static int hash(int key) {
+        // keys are often sequential (e.g. query ids), so spread them to avoid long probe sequences
+        // when the low bits of nearby keys are masked
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
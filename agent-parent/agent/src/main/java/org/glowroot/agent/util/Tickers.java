@@ -23,6 +23,11 @@ public class Tickers {
     private static final boolean USE_DUMMY_TICKER =
             Boolean.getBoolean("glowroot.internal.dummyTicker");
 
+    // zero (the default) means use System.nanoTime() directly, see CoarseTicker for the minimum
+    // resolution when enabled
+    private static final int COARSE_TICKER_RESOLUTION_MICROS =
+            Integer.getInteger("glowroot.internal.coarseTicker.resolutionMicros", 0);
+
     private Tickers() {}
 
     // normally Ticker should be injected, but in some memory sensitive classes it can be cached
@@ -42,11 +47,20 @@ public class Tickers {
     static Ticker getTicker(boolean dummyTicker) {
         if (dummyTicker) {
             return new DummyTicker();
+        } else if (COARSE_TICKER_RESOLUTION_MICROS > 0) {
+            // the coarse ticker is shared so that all ticks come from the same time base, and so
+            // there is only a single updater thread
+            return CoarseTickerHolder.COARSE_TICKER;
         } else {
             return Ticker.systemTicker();
         }
     }
 
+    private static class CoarseTickerHolder {
+        private static final CoarseTicker COARSE_TICKER =
+                CoarseTicker.create(COARSE_TICKER_RESOLUTION_MICROS);
+    }
+
     private static class DummyTicker extends Ticker {
         @Override
         public long read() {
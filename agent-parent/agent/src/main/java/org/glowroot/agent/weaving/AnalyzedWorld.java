@@ -20,10 +20,13 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.security.CodeSource;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -36,6 +39,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
 import com.google.common.primitives.Bytes;
 import org.immutables.value.Value;
@@ -86,6 +90,19 @@ public class AnalyzedWorld {
     private final ConcurrentMap<String, AnalyzedClass> bootstrapLoaderWorld =
             new ConcurrentHashMap<String, AnalyzedClass>();
 
+    // index from super class and interface names to the names of their direct sub types, which is
+    // maintained as classes are analyzed so that finding all (transitive) sub types of a set of
+    // types (e.g. for reweaving) doesn't need to walk the type hierarchy of every loaded class
+    //
+    // this is by name only (across class loaders), and entries are never removed, so it can
+    // contain extra sub types, which is ok for callers since they just end up re-checking a few
+    // extra classes
+    //
+    // intentionally avoiding Maps.newConcurrentMap() and Sets.newConcurrentHashSet() for the same
+    // reason as above
+    private final ConcurrentMap<String, ConcurrentMap<String, Boolean>> subTypeNames =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Boolean>>();
+
     private final Supplier<List<Advice>> advisors;
     private final ImmutableList<ShimType> shimTypes;
     private final ImmutableList<MixinType> mixinTypes;
@@ -126,9 +143,29 @@ public class AnalyzedWorld {
         }
     }
 
+    // returns the given type names plus the names of all of their known (transitive) sub types
+    public Set<String> getSubTypeNames(Set<String> classNames) {
+        Set<String> allSubTypeNames = Sets.newHashSet(classNames);
+        Deque<String> remaining = new ArrayDeque<String>(classNames);
+        while (!remaining.isEmpty()) {
+            ConcurrentMap<String, Boolean> directSubTypeNames =
+                    subTypeNames.get(remaining.removeFirst());
+            if (directSubTypeNames == null) {
+                continue;
+            }
+            for (String subTypeName : directSubTypeNames.keySet()) {
+                if (allSubTypeNames.add(subTypeName)) {
+                    remaining.add(subTypeName);
+                }
+            }
+        }
+        return allSubTypeNames;
+    }
+
     void add(AnalyzedClass analyzedClass, @Nullable ClassLoader loader) {
         ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses = getAnalyzedClasses(loader);
         loaderAnalyzedClasses.put(analyzedClass.name(), analyzedClass);
+        indexSuperTypes(analyzedClass);
     }
 
     // it's ok if there are duplicates in the returned list (e.g. an interface that appears twice
@@ -243,9 +280,33 @@ public class AnalyzedWorld {
             // (rare) concurrent AnalyzedClass creation, use the one that made it into the map
             return existingAnalyzedClass;
         }
+        indexSuperTypes(analyzedClass);
         return analyzedClass;
     }
 
+    private void indexSuperTypes(AnalyzedClass analyzedClass) {
+        String superName = analyzedClass.superName();
+        if (superName != null && !superName.equals("java.lang.Object")) {
+            indexSubType(superName, analyzedClass.name());
+        }
+        for (String interfaceName : analyzedClass.interfaceNames()) {
+            indexSubType(interfaceName, analyzedClass.name());
+        }
+    }
+
+    private void indexSubType(String superTypeName, String subTypeName) {
+        ConcurrentMap<String, Boolean> directSubTypeNames = subTypeNames.get(superTypeName);
+        if (directSubTypeNames == null) {
+            directSubTypeNames = new ConcurrentHashMap<String, Boolean>();
+            ConcurrentMap<String, Boolean> existing =
+                    subTypeNames.putIfAbsent(superTypeName, directSubTypeNames);
+            if (existing != null) {
+                directSubTypeNames = existing;
+            }
+        }
+        directSubTypeNames.put(subTypeName, true);
+    }
+
     private List<Class<?>> getClassesWithReweavableAdvice(@Nullable ClassLoader loader,
             boolean remove) {
         List<Class<?>> classes = Lists.newArrayList();
@@ -70,7 +70,8 @@ public class ClassLoaders {
                 loader);
     }
 
-    static Class<?> defineClass(String name, byte[] bytes, ClassLoader loader) throws Exception {
+    public static Class<?> defineClass(String name, byte[] bytes, ClassLoader loader)
+            throws Exception {
         Method defineClassMethod = Reflections.getDeclaredMethod(ClassLoader.class, "defineClass",
                 String.class, byte[].class, int.class, int.class);
         Class<?> definedClass = (Class<?>) Reflections.invoke(defineClassMethod, loader, name,
@@ -262,6 +262,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.plugin.api.Timer");
         types.add("org.glowroot.agent.plugin.api.TimerName");
         types.add("org.glowroot.agent.plugin.api.config.ConfigListener");
+        types.add("org.glowroot.agent.plugin.api.internal.QueryIdThreadContext");
         types.add("org.glowroot.agent.plugin.api.util.FastThreadLocal");
         types.add("org.glowroot.agent.plugin.api.util.FastThreadLocal$Holder");
         types.add("org.glowroot.agent.plugin.api.weaving.BindClassMeta");
@@ -282,8 +283,10 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.plugin.api.weaving.OnThrow");
         types.add("org.glowroot.agent.plugin.api.weaving.Pointcut");
         types.add("org.glowroot.agent.plugin.api.weaving.Shim");
+        types.add("org.glowroot.agent.util.CoarseTicker");
         types.add("org.glowroot.agent.util.Reflections");
         types.add("org.glowroot.agent.util.Tickers");
+        types.add("org.glowroot.agent.util.Tickers$CoarseTickerHolder");
         types.add("org.glowroot.agent.util.Tickers$DummyTicker");
         types.add("org.glowroot.agent.weaving.Advice");
         types.add("org.glowroot.agent.weaving.Advice$AdviceOrdering");
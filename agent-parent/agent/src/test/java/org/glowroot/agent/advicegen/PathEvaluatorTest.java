@@ -15,6 +15,7 @@
  */
 package org.glowroot.agent.advicegen;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.Collections;
 import java.util.List;
 
@@ -119,6 +120,69 @@ public class PathEvaluatorTest {
         assertThat(value).isEqualTo("eeeeee");
     }
 
+    @Test
+    public void shouldCompilePublicPath() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(PublicA.class, "b.str.length");
+        // when
+        int value = (Integer) pathEvaluator.evaluateOnBase(new PublicA());
+        // then
+        assertThat(pathEvaluator.isCompiled()).isTrue();
+        assertThat(value).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldCompilePublicPathWithNull() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(PublicA.class, "b.nil.length");
+        // when
+        Object value = pathEvaluator.evaluateOnBase(new PublicA());
+        // then
+        assertThat(pathEvaluator.isCompiled()).isTrue();
+        assertThat(value).isNull();
+    }
+
+    @Test
+    public void shouldWrapExceptionFromCompiledPath() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(PublicA.class, "b.boom");
+        // when
+        Throwable t = null;
+        try {
+            pathEvaluator.evaluateOnBase(new PublicA());
+        } catch (InvocationTargetException e) {
+            t = e.getCause();
+        }
+        // then
+        assertThat(pathEvaluator.isCompiled()).isTrue();
+        assertThat(t).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void shouldNotCompilePrivatePath() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(A.class, "b.str");
+        // when
+        // then
+        assertThat(pathEvaluator.isCompiled()).isFalse();
+    }
+
+    public static class PublicA {
+        public PublicB getB() {
+            return new PublicB();
+        }
+    }
+
+    public static class PublicB {
+        public final String str = "abc";
+        public String getNil() {
+            return null;
+        }
+        public String boom() {
+            throw new IllegalStateException();
+        }
+    }
+
     @SuppressWarnings("unused")
     private static class SomeObject {
 
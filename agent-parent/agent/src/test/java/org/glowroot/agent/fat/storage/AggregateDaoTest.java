@@ -28,6 +28,7 @@ import org.junit.Test;
 import org.glowroot.agent.fat.storage.util.CappedDatabase;
 import org.glowroot.agent.fat.storage.util.DataSource;
 import org.glowroot.common.util.Styles;
+import org.glowroot.storage.config.ImmutableFatStorageConfig;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.AggregateRepository.OverallQuery;
 import org.glowroot.storage.repo.AggregateRepository.OverviewAggregate;
@@ -78,8 +79,10 @@ public class AggregateDaoTest {
                 ImmutableRollupConfig.of(1000, 0), ImmutableRollupConfig.of(15000, 3600000),
                 ImmutableRollupConfig.of(900000000, 8 * 3600000));
         when(configRepository.getRollupConfigs()).thenReturn(rollupConfigs);
+        when(configRepository.getStorageConfig())
+                .thenReturn(ImmutableFatStorageConfig.builder().build());
         aggregateDao = new AggregateDao(dataSource, ImmutableList.<CappedDatabase>of(),
-                configRepository, mock(TransactionTypeDao.class));
+                configRepository, mock(TransactionTypeDao.class), new ParallelMerger(1));
     }
 
     @After
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelMergerTest {
+
+    private ParallelMerger parallelMerger;
+
+    @Before
+    public void beforeEachTest() {
+        parallelMerger = new ParallelMerger(4);
+    }
+
+    @After
+    public void afterEachTest() {
+        parallelMerger.close();
+    }
+
+    @Test
+    public void shouldMergeAllItemsInParallel() throws Exception {
+        // given
+        List<Integer> items = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i);
+        }
+        SumCollector collector = new SumCollector();
+
+        // when
+        parallelMerger.merge(items, collector, new SumMerger());
+
+        // then
+        assertThat(collector.sum).isEqualTo(499500);
+        assertThat(collector.threadNames.size()).isGreaterThan(1);
+    }
+
+    @Test
+    public void shouldMergeFewItemsInCallingThread() throws Exception {
+        // given
+        List<Integer> items = Lists.newArrayList(1, 2, 3);
+        SumCollector collector = new SumCollector();
+
+        // when
+        parallelMerger.merge(items, collector, new SumMerger());
+
+        // then
+        assertThat(collector.sum).isEqualTo(6);
+        assertThat(collector.threadNames).containsOnly(Thread.currentThread().getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldPropagateException() throws Exception {
+        // given
+        List<Integer> items = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i);
+        }
+
+        // when
+        parallelMerger.merge(items, new SumCollector(), new SumMerger() {
+            @Override
+            public void merge(SumCollector collector, Integer item) throws Exception {
+                if (item == 999) {
+                    throw new IOException();
+                }
+            }
+        });
+    }
+
+    private static class SumCollector {
+        private long sum;
+        private final Set<String> threadNames = Sets.newHashSet();
+    }
+
+    private static class SumMerger implements ParallelMerger.Merger<Integer, SumCollector> {
+
+        @Override
+        public SumCollector newPartialCollector() {
+            return new SumCollector();
+        }
+
+        @Override
+        public void merge(SumCollector collector, Integer item) throws Exception {
+            collector.sum += item;
+            collector.threadNames.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void combine(SumCollector collector, SumCollector partialCollector) {
+            collector.sum += partialCollector.sum;
+            collector.threadNames.addAll(partialCollector.threadNames);
+        }
+    }
+}
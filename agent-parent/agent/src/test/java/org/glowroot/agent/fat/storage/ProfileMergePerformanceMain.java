@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.fat.storage.util.CappedDatabase;
+import org.glowroot.agent.fat.storage.util.DataSource;
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.storage.config.ImmutableFatStorageConfig;
+import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
+import org.glowroot.storage.repo.ConfigRepository;
+import org.glowroot.storage.repo.ConfigRepository.RollupConfig;
+import org.glowroot.storage.repo.ImmutableRollupConfig;
+import org.glowroot.storage.repo.ImmutableTransactionQuery;
+import org.glowroot.storage.repo.ProfileCollector;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// measures how the latency of merging 1000 one-minute profiles scales with the number of cores
+public class ProfileMergePerformanceMain {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ProfileMergePerformanceMain.class);
+
+    private static final String AGENT_ID = "";
+
+    private static final int PROFILE_COUNT = 1000;
+    private static final int ITERATIONS = 10;
+
+    private ProfileMergePerformanceMain() {}
+
+    public static void main(String... args) throws Exception {
+        DataSource dataSource = new DataSource();
+        File cappedFile = File.createTempFile("glowroot-perf-", ".capped.db");
+        CappedDatabase cappedDatabase = new CappedDatabase(cappedFile, 1000000,
+                Ticker.systemTicker());
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        when(configRepository.getStorageConfig())
+                .thenReturn(ImmutableFatStorageConfig.builder().build());
+        when(configRepository.getRollupConfigs()).thenReturn(ImmutableList.<RollupConfig>of(
+                ImmutableRollupConfig.of(MINUTES.toMillis(1), 0)));
+
+        AggregateDao aggregateDao = new AggregateDao(dataSource, ImmutableList.of(cappedDatabase),
+                configRepository, mock(TransactionTypeDao.class), new ParallelMerger(1));
+        Random random = new Random(0);
+        for (int i = 1; i <= PROFILE_COUNT; i++) {
+            Aggregate aggregate = Aggregate.newBuilder()
+                    .setTotalDurationNanos(1000000)
+                    .setTransactionCount(1)
+                    .setDurationNanosHistogram(Aggregate.Histogram.newBuilder()
+                            .addOrderedRawValue(1000000))
+                    .setMainThreadProfile(createProfile(random))
+                    .build();
+            aggregateDao.store(AGENT_ID, MINUTES.toMillis(i), ImmutableList.of(
+                    AggregatesByType.newBuilder()
+                            .setTransactionType("Web")
+                            .setOverallAggregate(aggregate)
+                            .build()));
+        }
+        TransactionQuery query = ImmutableTransactionQuery.builder()
+                .agentRollup(AGENT_ID)
+                .transactionType("Web")
+                .from(0)
+                .to(MINUTES.toMillis(PROFILE_COUNT))
+                .rollupLevel(0)
+                .build();
+
+        int maxParallelism = args.length == 0 ? Runtime.getRuntime().availableProcessors()
+                : Integer.parseInt(args[0]);
+        for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+            ParallelMerger parallelMerger = new ParallelMerger(parallelism);
+            aggregateDao = new AggregateDao(dataSource, ImmutableList.of(cappedDatabase),
+                    configRepository, mock(TransactionTypeDao.class), parallelMerger);
+            // warm up
+            for (int i = 0; i < ITERATIONS; i++) {
+                aggregateDao.mergeInMainThreadProfiles(new ProfileCollector(), query);
+            }
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            for (int i = 0; i < ITERATIONS; i++) {
+                aggregateDao.mergeInMainThreadProfiles(new ProfileCollector(), query);
+            }
+            logger.info("parallelism: {}, average elapsed time: {} milliseconds", parallelism,
+                    stopwatch.elapsed(MILLISECONDS) / ITERATIONS);
+            parallelMerger.close();
+        }
+
+        cappedDatabase.close();
+        dataSource.close();
+        cappedFile.delete();
+    }
+
+    private static Profile createProfile(Random random) {
+        MutableProfile profile = new MutableProfile();
+        for (int i = 0; i < 100; i++) {
+            List<StackTraceElement> stackTrace = Lists.newArrayList();
+            for (int j = 0; j < 30; j++) {
+                stackTrace.add(new StackTraceElement("com.example.Class" + random.nextInt(20),
+                        "method" + random.nextInt(5), "Class.java", j));
+            }
+            profile.merge(stackTrace, Thread.State.RUNNABLE);
+        }
+        return profile.toProto();
+    }
+}
@@ -24,10 +24,13 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.fat.storage.util.CappedDatabase;
 import org.glowroot.agent.fat.storage.util.DataSource;
+import org.glowroot.storage.config.ImmutableFatStorageConfig;
+import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class TraceDaoPerformanceMain {
 
@@ -41,8 +44,11 @@ public class TraceDaoPerformanceMain {
         DataSource dataSource = new DataSource();
         CappedDatabase cappedDatabase =
                 new CappedDatabase(new File("glowroot.capped.db"), 1000000, Ticker.systemTicker());
-        TraceDao traceDao =
-                new TraceDao(dataSource, cappedDatabase, mock(TransactionTypeDao.class));
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        when(configRepository.getStorageConfig())
+                .thenReturn(ImmutableFatStorageConfig.builder().build());
+        TraceDao traceDao = new TraceDao(dataSource, cappedDatabase,
+                mock(TransactionTypeDao.class), configRepository);
 
         Stopwatch stopwatch = Stopwatch.createStarted();
         for (int i = 0; i < 1000; i++) {
@@ -16,6 +16,7 @@
 package org.glowroot.agent.fat.storage;
 
 import java.io.File;
+import java.util.List;
 
 import com.google.common.base.Ticker;
 import org.junit.After;
@@ -28,13 +29,19 @@ import org.glowroot.common.live.ImmutableTracePointFilter;
 import org.glowroot.common.live.LiveTraceRepository.TracePoint;
 import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
 import org.glowroot.common.live.StringComparator;
+import org.glowroot.storage.config.ImmutableFatStorageConfig;
+import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.ImmutableTraceQuery;
 import org.glowroot.storage.repo.Result;
 import org.glowroot.storage.repo.TraceRepository.TraceQuery;
+import org.glowroot.wire.api.Collector.TraceReader;
+import org.glowroot.wire.api.Collector.TraceVisitor;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static java.util.concurrent.TimeUnit.DAYS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class TraceDaoTest {
 
@@ -53,7 +60,13 @@ public class TraceDaoTest {
         }
         cappedFile = File.createTempFile("glowroot-test-", ".capped.db");
         cappedDatabase = new CappedDatabase(cappedFile, 1000000, Ticker.systemTicker());
-        traceDao = new TraceDao(dataSource, cappedDatabase, mock(TransactionTypeDao.class));
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        // 1 day partitions
+        when(configRepository.getStorageConfig()).thenReturn(ImmutableFatStorageConfig.builder()
+                .traceExpirationHours(4 * 24)
+                .build());
+        traceDao = new TraceDao(dataSource, cappedDatabase, mock(TransactionTypeDao.class),
+                configRepository);
     }
 
     @After
@@ -90,6 +103,40 @@ public class TraceDaoTest {
         assertThat(header.getUser()).isEqualTo(trace.getHeader().getUser());
     }
 
+    @Test
+    public void shouldReadStreamedTrace() throws Exception {
+        // given
+        final Trace trace = TraceTestData.createTrace();
+        final Trace.Entry entry = Trace.Entry.newBuilder()
+                .setDepth(0)
+                .setStartOffsetNanos(1)
+                .setDurationNanos(2)
+                .setMessage("test entry")
+                .build();
+        traceDao.collect(new TraceReader() {
+            @Override
+            public String traceId() {
+                return trace.getId();
+            }
+            @Override
+            public void accept(TraceVisitor traceVisitor) throws Exception {
+                traceVisitor.visitEntry(entry);
+                traceVisitor.visitEntry(entry);
+                traceVisitor.visitHeader(trace.getHeader().toBuilder()
+                        .setEntryCount(2)
+                        .build());
+            }
+        });
+        // when
+        Trace.Header header = traceDao.readHeaderPlus(AGENT_ID, trace.getId()).header();
+        List<Trace.Entry> entries = traceDao.readEntries(AGENT_ID, trace.getId());
+        // then
+        assertThat(header.getHeadline()).isEqualTo("test headline");
+        assertThat(header.getEntryCount()).isEqualTo(2);
+        assertThat(entries).containsExactly(entry, entry);
+        assertThat(traceDao.readMainThreadProfile(AGENT_ID, trace.getId())).isNull();
+    }
+
     @Test
     public void shouldReadTraceWithDurationNanosQualifier() throws Exception {
         // given
@@ -278,9 +325,41 @@ public class TraceDaoTest {
         // given
         Trace trace = TraceTestData.createTrace();
         traceDao.collect(AGENT_ID, trace);
+        Trace laterTrace = TraceTestData.createTrace();
+        laterTrace = laterTrace.toBuilder()
+                .setHeader(laterTrace.getHeader().toBuilder()
+                        .setCaptureTime(DAYS.toMillis(1) + 11))
+                .build();
+        traceDao.collect(AGENT_ID, laterTrace);
         // when
-        traceDao.deleteBefore(100);
+        traceDao.deleteBefore(DAYS.toMillis(1));
         // then
         assertThat(traceDao.readHeaderPlus(AGENT_ID, trace.getId())).isNull();
+        assertThat(traceDao.readHeaderPlus(AGENT_ID, laterTrace.getId())).isNotNull();
+    }
+
+    @Test
+    public void shouldReplaceTraceInLaterPartition() throws Exception {
+        // given
+        Trace trace = TraceTestData.createTrace();
+        Trace partialTrace = trace.toBuilder()
+                .setHeader(trace.getHeader().toBuilder()
+                        .setPartial(true))
+                .build();
+        traceDao.collect(AGENT_ID, partialTrace);
+        Trace laterTrace = trace.toBuilder()
+                .setHeader(trace.getHeader().toBuilder()
+                        .setCaptureTime(DAYS.toMillis(1) + 11))
+                .build();
+        // when
+        traceDao.collect(AGENT_ID, laterTrace);
+        // then
+        assertThat(dataSource.queryForLong("select count(*) from trace where id = ?",
+                trace.getId())).isEqualTo(1);
+        assertThat(dataSource.queryForLong("select count(*) from trace_attribute"
+                + " where trace_id = ?", trace.getId())).isEqualTo(2);
+        Trace.Header header = traceDao.readHeaderPlus(AGENT_ID, trace.getId()).header();
+        assertThat(header.getPartial()).isFalse();
+        assertThat(header.getCaptureTime()).isEqualTo(DAYS.toMillis(1) + 11);
     }
 }
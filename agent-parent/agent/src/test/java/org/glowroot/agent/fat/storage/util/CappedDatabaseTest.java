@@ -17,6 +17,7 @@ package org.glowroot.agent.fat.storage.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.util.Random;
 
@@ -29,6 +30,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import org.glowroot.agent.fat.storage.util.CappedDatabase.MessageSource;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class CappedDatabaseTest {
@@ -149,4 +152,19 @@ public class CappedDatabaseTest {
         assertThat(exceptionClassName).isEqualTo("org.glowroot.agent.fat.storage.util"
                 + ".CappedDatabase$CappedBlockRolledOverMidReadException");
     }
+
+    @Test
+    public void shouldNotWriteEmptyDelimitedMessagesBlock() throws Exception {
+        // given
+        long smallestNonExpiredId = cappedDatabase.getSmallestNonExpiredId();
+        // when
+        long cappedId = cappedDatabase.writeDelimitedMessages(new MessageSource() {
+            @Override
+            public void writeDelimitedTo(OutputStream out) {}
+        }, "test");
+        // then
+        assertThat(cappedId).isEqualTo(-1);
+        assertThat(cappedDatabase.getSmallestNonExpiredId()).isEqualTo(smallestNonExpiredId);
+        assertThat(cappedDatabase.getStats("test").getWriteCount()).isZero();
+    }
 }
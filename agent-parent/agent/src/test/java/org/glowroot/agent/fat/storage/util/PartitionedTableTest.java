@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage.util;
+
+import java.util.List;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.fat.storage.util.Schemas.Column;
+import org.glowroot.agent.fat.storage.util.Schemas.ColumnType;
+import org.glowroot.agent.fat.storage.util.Schemas.Index;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PartitionedTableTest {
+
+    private static final ImmutableList<Column> columns = ImmutableList.<Column>of(
+            ImmutableColumn.of("capture_time", ColumnType.BIGINT),
+            ImmutableColumn.of("value", ColumnType.VARCHAR));
+
+    private static final ImmutableList<Index> indexes = ImmutableList.<Index>of(
+            ImmutableIndex.of("tab_idx", ImmutableList.of("capture_time")));
+
+    // 1 day partitions
+    private static final Supplier<Integer> ONE_DAY = Suppliers.ofInstance(4 * 24);
+
+    private DataSource dataSource;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        dataSource = new DataSource();
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        dataSource.close();
+    }
+
+    @Test
+    public void shouldStartNewPartition() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, ONE_DAY);
+        // when
+        insert(table.getPartitionForInsert(DAYS.toMillis(1) + 1), DAYS.toMillis(1) + 1);
+        insert(table.getPartitionForInsert(DAYS.toMillis(1) + 2), DAYS.toMillis(1) + 2);
+        insert(table.getPartitionForInsert(DAYS.toMillis(2) + 1), DAYS.toMillis(2) + 1);
+        // then
+        assertThat(table.getPartitionNames()).containsExactly("tab_p0", "tab_p24", "tab_p48");
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(3);
+        assertThat(dataSource.queryForLong("select count(*) from tab where capture_time < ?",
+                DAYS.toMillis(2))).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldDropExpiredPartitions() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, ONE_DAY);
+        insert(table.getPartitionForInsert(DAYS.toMillis(1) + 1), DAYS.toMillis(1) + 1);
+        insert(table.getPartitionForInsert(DAYS.toMillis(2) + 1), DAYS.toMillis(2) + 1);
+        // when
+        table.dropBefore(DAYS.toMillis(2) + 100);
+        // then
+        assertThat(table.getPartitionNames()).containsExactly("tab_p48");
+        assertThat(dataSource.tableExists("tab_p24")).isFalse();
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNeverDropLatestPartition() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, ONE_DAY);
+        insert(table.getPartitionForInsert(DAYS.toMillis(1) + 1), DAYS.toMillis(1) + 1);
+        // when
+        table.dropBefore(DAYS.toMillis(10));
+        // then
+        assertThat(table.getPartitionNames()).containsExactly("tab_p24");
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDerivePartitionHoursFromExpiration() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes,
+                Suppliers.ofInstance(8));
+        // when
+        insert(table.getPartitionForInsert(HOURS.toMillis(1)), HOURS.toMillis(1));
+        insert(table.getPartitionForInsert(HOURS.toMillis(3)), HOURS.toMillis(3));
+        insert(table.getPartitionForInsert(HOURS.toMillis(5) + 1), HOURS.toMillis(5) + 1);
+        // then
+        assertThat(table.getPartitionNames()).containsExactly("tab_p0", "tab_p2", "tab_p4");
+    }
+
+    @Test
+    public void shouldFindPartitionOfRow() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, ONE_DAY);
+        insert(table.getPartitionForInsert(DAYS.toMillis(1) + 1), DAYS.toMillis(1) + 1);
+        // inserted late into the latest partition
+        insert(table.getPartitionForInsert(DAYS.toMillis(2) + 1), DAYS.toMillis(2) + 1);
+        insert(table.getPartitionForInsert(DAYS.toMillis(1) + 2), DAYS.toMillis(1) + 2);
+        // when
+        String partitionName1 = table.getPartitionName("capture_time = ?", DAYS.toMillis(1) + 1);
+        String partitionName2 = table.getPartitionName("capture_time = ?", DAYS.toMillis(1) + 2);
+        String partitionName3 = table.getPartitionName("capture_time = ?", DAYS.toMillis(3));
+        // then
+        assertThat(partitionName1).isEqualTo("tab_p24");
+        assertThat(partitionName2).isEqualTo("tab_p48");
+        assertThat(partitionName3).isNull();
+    }
+
+    @Test
+    public void shouldUpgradeNonPartitionedTable() throws Exception {
+        // given
+        dataSource.execute("create table tab (capture_time bigint, value varchar)");
+        dataSource.update("insert into tab values (?, ?)", DAYS.toMillis(3) + 1, "abc");
+        // when
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, ONE_DAY);
+        // then
+        List<String> partitionNames = table.getPartitionNames();
+        assertThat(partitionNames).containsExactly("tab_p72");
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(1);
+    }
+
+    private void insert(String partitionName, long captureTime) throws Exception {
+        dataSource.update("insert into " + Checkers.castUntainted(partitionName)
+                + " (capture_time, value) values (?, ?)", captureTime, "abc");
+    }
+}
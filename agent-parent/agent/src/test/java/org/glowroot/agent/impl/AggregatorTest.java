@@ -37,7 +37,6 @@ import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.SystemInfo;
-import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -130,7 +129,7 @@ public class AggregatorTest {
         public void collectGaugeValues(List<GaugeValue> gaugeValues) {}
 
         @Override
-        public void collectTrace(Trace trace) {}
+        public void collectTrace(TraceReader traceReader) {}
 
         @Override
         public void log(LogEvent logEvent) {}
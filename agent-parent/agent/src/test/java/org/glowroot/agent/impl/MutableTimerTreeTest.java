@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.glowroot.agent.model.FlattenedTimers;
+import org.glowroot.agent.model.FlattenedTimersTestData;
+import org.glowroot.agent.model.ImmutableTimerNameImpl;
+import org.glowroot.agent.model.TimerNameImpl;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MutableTimerTreeTest {
+
+    @Test
+    public void shouldMergeByTimerName() {
+        // given
+        MutableTimerTree timerTree = new MutableTimerTree();
+        // different instances with same name should still be merged
+        FlattenedTimers timers = buildFlattenedTimers(
+                ImmutableTimerNameImpl.of("http request", false),
+                ImmutableTimerNameImpl.of("jdbc query", false),
+                ImmutableTimerNameImpl.of("jdbc query", true));
+        FlattenedTimers otherTimers = buildFlattenedTimers(
+                ImmutableTimerNameImpl.of("http request", false),
+                ImmutableTimerNameImpl.of("jdbc query", false),
+                ImmutableTimerNameImpl.of("jdbc execute", false));
+
+        // when
+        timerTree.merge(timers, 0, 3);
+        timerTree.merge(otherTimers, 0, 3);
+
+        // then
+        List<Aggregate.Timer> rootTimers = timerTree.toProto();
+        assertThat(rootTimers).hasSize(1);
+        Aggregate.Timer rootTimer = rootTimers.get(0);
+        assertThat(rootTimer.getName()).isEqualTo("http request");
+        assertThat(rootTimer.getTotalNanos()).isEqualTo(2000);
+        assertThat(rootTimer.getCount()).isEqualTo(2);
+        assertThat(rootTimer.getChildTimerCount()).isEqualTo(3);
+        assertThat(rootTimer.getChildTimer(0).getName()).isEqualTo("jdbc query");
+        assertThat(rootTimer.getChildTimer(0).getExtended()).isFalse();
+        assertThat(rootTimer.getChildTimer(0).getTotalNanos()).isEqualTo(200);
+        assertThat(rootTimer.getChildTimer(0).getCount()).isEqualTo(2);
+        assertThat(rootTimer.getChildTimer(1).getName()).isEqualTo("jdbc query");
+        assertThat(rootTimer.getChildTimer(1).getExtended()).isTrue();
+        assertThat(rootTimer.getChildTimer(1).getTotalNanos()).isEqualTo(10);
+        assertThat(rootTimer.getChildTimer(1).getCount()).isEqualTo(1);
+        assertThat(rootTimer.getChildTimer(2).getName()).isEqualTo("jdbc execute");
+        assertThat(rootTimer.getChildTimer(2).getTotalNanos()).isEqualTo(10);
+        assertThat(rootTimer.getChildTimer(2).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldMergeRange() {
+        // given
+        MutableTimerTree timerTree = new MutableTimerTree();
+        // main thread timers followed by an auxiliary thread timer tree
+        FlattenedTimers timers = new FlattenedTimersTestData()
+                .add(ImmutableTimerNameImpl.of("http request", false), -1, 1000, 1)
+                .add(ImmutableTimerNameImpl.of("jdbc query", false), 0, 100, 1)
+                .add(ImmutableTimerNameImpl.of("auxiliary thread", false), -1, 500, 1)
+                .add(ImmutableTimerNameImpl.of("jdbc query", false), 2, 50, 2)
+                .build();
+
+        // when
+        timerTree.merge(timers, 2, 4);
+
+        // then
+        List<Aggregate.Timer> rootTimers = timerTree.toProto();
+        assertThat(rootTimers).hasSize(1);
+        Aggregate.Timer rootTimer = rootTimers.get(0);
+        assertThat(rootTimer.getName()).isEqualTo("auxiliary thread");
+        assertThat(rootTimer.getTotalNanos()).isEqualTo(500);
+        assertThat(rootTimer.getChildTimerCount()).isEqualTo(1);
+        assertThat(rootTimer.getChildTimer(0).getName()).isEqualTo("jdbc query");
+        assertThat(rootTimer.getChildTimer(0).getTotalNanos()).isEqualTo(50);
+        assertThat(rootTimer.getChildTimer(0).getCount()).isEqualTo(2);
+    }
+
+    // builds a root timer with two child timers
+    private static FlattenedTimers buildFlattenedTimers(TimerNameImpl rootTimerName,
+            TimerNameImpl childTimerName, TimerNameImpl otherChildTimerName) {
+        return new FlattenedTimersTestData()
+                .add(rootTimerName, -1, 1000, 1)
+                .add(childTimerName, 0, 100, 1)
+                .add(otherChildTimerName, 0, 10, 1)
+                .build();
+    }
+}
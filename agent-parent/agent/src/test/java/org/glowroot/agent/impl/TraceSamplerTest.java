@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.agent.model.Transaction;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TraceSamplerTest {
+
+    @Test
+    public void shouldRateLimitAndSampleTailByDefault() {
+        // given
+        TraceSampler traceSampler = new TraceSampler(60000, mock(Ticker.class));
+        traceSampler.drainEndedWindows(1);
+
+        // when
+        int acquired = 0;
+        List<Transaction> notSampled = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            Transaction transaction = buildTransaction("Web", "/abc", i);
+            if (traceSampler.tryAcquire(transaction)) {
+                acquired++;
+            } else {
+                Transaction displaced = traceSampler.offer(transaction);
+                if (displaced != null) {
+                    notSampled.add(displaced);
+                }
+            }
+        }
+
+        // then
+        assertThat(acquired).isEqualTo(20);
+        assertThat(notSampled).hasSize(60);
+        assertThat(traceSampler.getTailSampleCount()).isEqualTo(20);
+        assertThat(traceSampler.drainEndedWindows(5000)).isEmpty();
+        List<Transaction> samples = traceSampler.drainEndedWindows(5001);
+        assertThat(samples).hasSize(20);
+        for (Transaction sample : samples) {
+            assertThat(sample.getDurationNanos()).isGreaterThanOrEqualTo(80);
+        }
+        assertThat(traceSampler.getTailSampleCount()).isZero();
+    }
+
+    @Test
+    public void shouldRateLimitPerTransactionName() {
+        // given
+        Ticker ticker = mock(Ticker.class);
+        TraceSampler traceSampler = new TraceSampler(60000, 10, 5, 0, 5000, ticker);
+        Transaction transaction = buildTransaction("Web", "/abc", 0);
+        Transaction otherTransaction = buildTransaction("Web", "/xyz", 0);
+
+        // when
+        int acquired = 0;
+        for (int i = 0; i < 100; i++) {
+            if (traceSampler.tryAcquire(transaction)) {
+                acquired++;
+            }
+        }
+
+        // then
+        assertThat(acquired).isEqualTo(5);
+        assertThat(traceSampler.tryAcquire(otherTransaction)).isTrue();
+
+        // when
+        when(ticker.read()).thenReturn(MILLISECONDS.toNanos(200));
+
+        // then
+        assertThat(traceSampler.tryAcquire(transaction)).isTrue();
+        assertThat(traceSampler.tryAcquire(transaction)).isTrue();
+        assertThat(traceSampler.tryAcquire(transaction)).isFalse();
+    }
+
+    @Test
+    public void shouldNotRateLimitWhenDisabled() {
+        // given
+        TraceSampler traceSampler = new TraceSampler(60000, 0, 0, 0, 5000, mock(Ticker.class));
+        Transaction transaction = buildTransaction("Web", "/abc", 0);
+
+        // then
+        for (int i = 0; i < 100; i++) {
+            assertThat(traceSampler.tryAcquire(transaction)).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldKeepSlowestInTail() {
+        // given
+        TraceSampler traceSampler = new TraceSampler(60000, 10, 5, 3, 5000, mock(Ticker.class));
+        traceSampler.drainEndedWindows(1);
+        List<Transaction> notSampled = Lists.newArrayList();
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            // durations are out of order on purpose
+            Transaction displaced =
+                    traceSampler.offer(buildTransaction("Web", "/abc", (i * 37) % 100));
+            if (displaced != null) {
+                notSampled.add(displaced);
+            }
+        }
+
+        // then
+        assertThat(notSampled).hasSize(97);
+        List<Transaction> samples = traceSampler.drainEndedWindows(5001);
+        assertThat(samples).hasSize(3);
+        List<Long> durations = Lists.newArrayList();
+        for (Transaction sample : samples) {
+            durations.add(sample.getDurationNanos());
+        }
+        assertThat(durations).containsOnly(97L, 98L, 99L);
+        assertThat(traceSampler.drainEndedWindows(10001)).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepSeparateTailPerTransactionType() {
+        // given
+        TraceSampler traceSampler = new TraceSampler(60000, 10, 5, 2, 5000, mock(Ticker.class));
+        traceSampler.drainEndedWindows(1);
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            traceSampler.offer(buildTransaction("Web", "/abc", i));
+            traceSampler.offer(buildTransaction("Background", "xyz", i));
+        }
+
+        // then
+        assertThat(traceSampler.getTailSampleCount()).isEqualTo(4);
+        assertThat(traceSampler.drainEndedWindows(5001)).hasSize(4);
+    }
+
+    @Test
+    public void shouldRemoveFastestTailSample() {
+        // given
+        TraceSampler traceSampler = new TraceSampler(60000, 10, 5, 2, 5000, mock(Ticker.class));
+        traceSampler.offer(buildTransaction("Web", "/abc", 30));
+        traceSampler.offer(buildTransaction("Web", "/abc", 40));
+        traceSampler.offer(buildTransaction("Background", "xyz", 20));
+
+        // then
+        assertThat(traceSampler.removeFastestTailSample(10)).isNull();
+        assertThat(traceSampler.removeFastestTailSample(100).getDurationNanos()).isEqualTo(20);
+        assertThat(traceSampler.removeFastestTailSample(100).getDurationNanos()).isEqualTo(30);
+        assertThat(traceSampler.getTailSampleCount()).isEqualTo(1);
+    }
+
+    private static Transaction buildTransaction(String transactionType, String transactionName,
+            long durationNanos) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTransactionType()).thenReturn(transactionType);
+        when(transaction.getTransactionName()).thenReturn(transactionName);
+        when(transaction.getDurationNanos()).thenReturn(durationNanos);
+        return transaction;
+    }
+}
@@ -19,14 +19,24 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.List;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 
 import org.glowroot.agent.config.AdvancedConfig;
@@ -35,7 +45,9 @@ import org.glowroot.agent.config.GaugeConfig;
 import org.glowroot.agent.config.ImmutableAdvancedConfig;
 import org.glowroot.agent.config.ImmutableGaugeConfig;
 import org.glowroot.agent.config.ImmutableMBeanAttribute;
+import org.glowroot.agent.util.GaugeSampleBuffer;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.agent.util.LazyPlatformMBeanServer.InitListener;
 import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.Collector;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
@@ -46,6 +58,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -53,6 +66,8 @@ import static org.mockito.Mockito.when;
 
 public class GaugeCollectorTest {
 
+    private ConfigService configService;
+    private Collector collector;
     private GaugeCollector gaugeCollector;
     private LazyPlatformMBeanServer lazyPlatformMBeanServer;
     private Clock clock;
@@ -61,19 +76,21 @@ public class GaugeCollectorTest {
 
     @Before
     public void beforeEachTest() throws Exception {
-        ConfigService configService = mock(ConfigService.class);
+        configService = mock(ConfigService.class);
         AdvancedConfig advancedConfig =
                 ImmutableAdvancedConfig.builder().mbeanGaugeNotFoundDelaySeconds(60).build();
         when(configService.getAdvancedConfig()).thenReturn(advancedConfig);
 
-        Collector collector = mock(Collector.class);
+        collector = mock(Collector.class);
         lazyPlatformMBeanServer = mock(LazyPlatformMBeanServer.class);
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(new AttributeList());
         clock = mock(Clock.class);
         ticker = mock(Ticker.class);
         logger = mock(Logger.class);
         setLogger(GaugeCollector.class, logger);
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
-                clock, ticker);
+                null, clock, ticker);
     }
 
     @After
@@ -254,6 +271,171 @@ public class GaugeCollectorTest {
                 "MBean attribute value is not a number or string");
     }
 
+    @Test
+    public void shouldReadAllAttributesInSingleCall() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("xyz:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
+                .build();
+        AttributeList attributeList = new AttributeList();
+        attributeList.add(new Attribute("ccc", 1));
+        attributeList.add(new Attribute("ddd", "2"));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(attributeList);
+        // when
+        List<GaugeValue> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfig);
+        // then
+        assertThat(gaugeValues).hasSize(2);
+        assertThat(gaugeValues.get(0).getGaugeName()).isEqualTo("xyz:aaa=bbb:ccc");
+        assertThat(gaugeValues.get(0).getValue()).isEqualTo(1);
+        assertThat(gaugeValues.get(1).getGaugeName()).isEqualTo("xyz:aaa=bbb:ddd");
+        assertThat(gaugeValues.get(1).getValue()).isEqualTo(2);
+        verify(lazyPlatformMBeanServer).getAttributes(ObjectName.getInstance("xyz:aaa=bbb"),
+                new String[] {"ccc", "ddd"});
+        verify(lazyPlatformMBeanServer, never()).getAttribute(any(ObjectName.class),
+                anyString());
+    }
+
+    @Test
+    public void shouldReadPlatformMXBeanAttributesDirectly() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("java.lang:type=Memory")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("HeapMemoryUsage/used", false))
+                .build();
+        // when
+        List<GaugeValue> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfig);
+        // then
+        assertThat(gaugeValues).hasSize(1);
+        assertThat(gaugeValues.get(0).getGaugeName())
+                .isEqualTo("java.lang:type=Memory:HeapMemoryUsage/used");
+        assertThat(gaugeValues.get(0).getValue()).isGreaterThan(0);
+        verify(lazyPlatformMBeanServer, never()).getAttributes(any(ObjectName.class),
+                any(String[].class));
+        verify(lazyPlatformMBeanServer, never()).getAttribute(any(ObjectName.class),
+                anyString());
+    }
+
+    @Test
+    public void shouldOnlyRequeryPatternAfterMBeanRegistration() throws Exception {
+        // given
+        ArgumentCaptor<InitListener> initListenerCaptor =
+                ArgumentCaptor.forClass(InitListener.class);
+        verify(lazyPlatformMBeanServer).addInitListener(initListenerCaptor.capture());
+        MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+        initListenerCaptor.getValue().postInit(mbeanServer);
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("xyz:aaa=*")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        ObjectName objectName = ObjectName.getInstance("xyz:aaa=*");
+        when(lazyPlatformMBeanServer.queryNames(objectName, null))
+                .thenReturn(ImmutableSet.of(ObjectName.getInstance("xyz:aaa=bbb")));
+        AttributeList attributeList = new AttributeList();
+        attributeList.add(new Attribute("ccc", 1));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(attributeList);
+        // when
+        gaugeCollector.collectGaugeValues(gaugeConfig);
+        gaugeCollector.collectGaugeValues(gaugeConfig);
+        mbeanServer.registerMBean(new Test1(), ObjectName.getInstance("test:name=test1"));
+        gaugeCollector.collectGaugeValues(gaugeConfig);
+        gaugeCollector.collectGaugeValues(gaugeConfig);
+        // then
+        verify(lazyPlatformMBeanServer, times(2)).queryNames(objectName, null);
+        verify(lazyPlatformMBeanServer, times(4)).getAttributes(
+                ObjectName.getInstance("xyz:aaa=bbb"), new String[] {"ccc"});
+    }
+
+    @Test
+    public void shouldRemoveRegistrationListenerOnClose() throws Exception {
+        // given
+        ArgumentCaptor<InitListener> initListenerCaptor =
+                ArgumentCaptor.forClass(InitListener.class);
+        verify(lazyPlatformMBeanServer).addInitListener(initListenerCaptor.capture());
+        MBeanServer mbeanServer = mock(MBeanServer.class);
+        initListenerCaptor.getValue().postInit(mbeanServer);
+        ArgumentCaptor<NotificationListener> listenerCaptor =
+                ArgumentCaptor.forClass(NotificationListener.class);
+        verify(mbeanServer).addNotificationListener(eq(MBeanServerDelegate.DELEGATE_NAME),
+                listenerCaptor.capture(), any(NotificationFilter.class), any());
+        // when
+        gaugeCollector.close();
+        // then
+        verify(mbeanServer).removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                listenerCaptor.getValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSendSummaryOncePerCollectionInterval() throws Exception {
+        // given
+        GaugeSampleBuffer sampleBuffer = new GaugeSampleBuffer(100, 60000);
+        GaugeCollector gaugeCollector = new GaugeCollector(configService, collector,
+                lazyPlatformMBeanServer, sampleBuffer, clock, ticker);
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("xyz:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        when(configService.getGaugeConfigs()).thenReturn(ImmutableList.of(gaugeConfig));
+        when(configService.getGaugeCollectionIntervalMillis()).thenReturn(5000L);
+        AttributeList attributeList1 = new AttributeList();
+        attributeList1.add(new Attribute("ccc", 1));
+        AttributeList attributeList2 = new AttributeList();
+        attributeList2.add(new Attribute("ccc", 4));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(attributeList1, attributeList1, attributeList2);
+        when(clock.currentTimeMillis()).thenReturn(4800L, 4800L, 4900L, 4900L, 5000L, 5000L);
+        // when
+        gaugeCollector.runInternal();
+        gaugeCollector.runInternal();
+        gaugeCollector.runInternal();
+        // then
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(collector).collectGaugeValues(captor.capture());
+        List<GaugeValue> gaugeValues = captor.getValue();
+        assertThat(gaugeValues).hasSize(1);
+        assertThat(gaugeValues.get(0).getGaugeName()).isEqualTo("xyz:aaa=bbb:ccc");
+        assertThat(gaugeValues.get(0).getCaptureTime()).isEqualTo(5000);
+        assertThat(gaugeValues.get(0).getValue()).isEqualTo(2);
+        assertThat(gaugeValues.get(0).getWeight()).isEqualTo(1);
+        assertThat(sampleBuffer.getSamples("xyz:aaa=bbb:ccc", 0, 5000)).hasSize(3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSendSummaryAtEndOfCollectionInterval() throws Exception {
+        // given
+        GaugeSampleBuffer sampleBuffer = new GaugeSampleBuffer(100, 60000);
+        GaugeCollector gaugeCollector = new GaugeCollector(configService, collector,
+                lazyPlatformMBeanServer, sampleBuffer, clock, ticker);
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("xyz:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        when(configService.getGaugeConfigs()).thenReturn(ImmutableList.of(gaugeConfig));
+        when(configService.getGaugeCollectionIntervalMillis()).thenReturn(5000L);
+        AttributeList attributeList1 = new AttributeList();
+        attributeList1.add(new Attribute("ccc", 1));
+        AttributeList attributeList2 = new AttributeList();
+        attributeList2.add(new Attribute("ccc", 4));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(attributeList1, attributeList2);
+        when(clock.currentTimeMillis()).thenReturn(4900L, 4900L, 5100L, 5100L);
+        // when
+        gaugeCollector.runInternal();
+        gaugeCollector.runInternal();
+        // then
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(collector).collectGaugeValues(captor.capture());
+        List<GaugeValue> gaugeValues = captor.getValue();
+        assertThat(gaugeValues).hasSize(1);
+        assertThat(gaugeValues.get(0).getCaptureTime()).isEqualTo(5000);
+        assertThat(gaugeValues.get(0).getValue()).isEqualTo(1);
+    }
+
     private static void setLogger(Class<?> clazz, Logger logger) throws Exception {
         Field loggerField = clazz.getDeclaredField("logger");
         loggerField.setAccessible(true);
@@ -262,4 +444,8 @@ public class GaugeCollectorTest {
         modifiersField.setInt(loggerField, loggerField.getModifiers() & ~Modifier.FINAL);
         loggerField.set(null, logger);
     }
+
+    public interface Test1MBean {}
+
+    public static class Test1 implements Test1MBean {}
 }
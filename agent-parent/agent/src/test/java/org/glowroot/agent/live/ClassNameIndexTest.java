@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassNameIndexTest {
+
+    private static final ClassNameIndex classNameIndex = ClassNameIndex.create(ImmutableList.of(
+            "com.example.Abc", "com.example.AbcDef", "com.example.Outer$Abc",
+            "com.example.XAbc", "org.example.abc.Other", "Abcdefg"));
+
+    @Test
+    public void shouldMatchAtSegmentStarts() {
+        // when
+        List<String> classNames = classNameIndex.getMatchingClassNames("abc", 10);
+        // then
+        assertThat(classNames).containsExactly("com.example.Abc", "com.example.Outer$Abc",
+                "Abcdefg", "com.example.AbcDef", "org.example.abc.Other");
+    }
+
+    @Test
+    public void shouldMatchAcrossSegments() {
+        // when
+        List<String> classNames = classNameIndex.getMatchingClassNames("EXAMPLE.abcd", 10);
+        // then
+        assertThat(classNames).containsExactly("com.example.AbcDef");
+    }
+
+    @Test
+    public void shouldReturnFullMatchesFirstWithLimit() {
+        // when
+        List<String> classNames = classNameIndex.getMatchingClassNames("Abc", 3);
+        // then
+        assertThat(classNames).containsExactly("com.example.Abc", "com.example.Outer$Abc",
+                "Abcdefg");
+    }
+
+    @Test
+    public void shouldNotMatch() {
+        // when
+        List<String> classNames = classNameIndex.getMatchingClassNames("bcd", 10);
+        // then
+        assertThat(classNames).isEmpty();
+    }
+}
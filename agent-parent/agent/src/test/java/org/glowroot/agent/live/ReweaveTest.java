@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.agent.config.ImmutableInstrumentationConfig;
+import org.glowroot.agent.config.InstrumentationConfig;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.InstrumentationConfig.CaptureKind;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReweaveTest {
+
+    private final InstrumentationConfig baseConfig = ImmutableInstrumentationConfig.builder()
+            .className("a")
+            .methodName("n")
+            .methodReturnType("")
+            .captureKind(CaptureKind.TIMER)
+            .timerName("t")
+            .traceEntryMessageTemplate("")
+            .traceEntryCaptureSelfNested(false)
+            .transactionType("")
+            .transactionNameTemplate("")
+            .transactionUserTemplate("")
+            .enabledProperty("")
+            .traceEntryEnabledProperty("")
+            .build();
+
+    @Test
+    public void shouldOnlyReturnChangedConfigs() {
+        // given
+        InstrumentationConfig unchanged =
+                ImmutableInstrumentationConfig.builder().copyFrom(baseConfig).build();
+        InstrumentationConfig removed = ImmutableInstrumentationConfig.builder()
+                .copyFrom(baseConfig).className("b").build();
+        InstrumentationConfig priorChanged = ImmutableInstrumentationConfig.builder()
+                .copyFrom(baseConfig).className("c").build();
+        InstrumentationConfig changed = ImmutableInstrumentationConfig.builder()
+                .copyFrom(baseConfig).className("d").build();
+        InstrumentationConfig added = ImmutableInstrumentationConfig.builder()
+                .copyFrom(baseConfig).className("e").build();
+        // when
+        Set<InstrumentationConfig> changedConfigs = LiveWeavingServiceImpl.getChangedConfigs(
+                ImmutableList.of(unchanged, removed, priorChanged),
+                ImmutableList.of(unchanged, changed, added));
+        // then
+        assertThat(changedConfigs).containsOnly(removed, priorChanged, changed, added);
+    }
+
+    @Test
+    public void shouldNotReturnConfigsWhenNothingChanged() {
+        // given
+        InstrumentationConfig config =
+                ImmutableInstrumentationConfig.builder().copyFrom(baseConfig).build();
+        // when
+        Set<InstrumentationConfig> changedConfigs = LiveWeavingServiceImpl.getChangedConfigs(
+                ImmutableList.of(baseConfig), ImmutableList.of(config));
+        // then
+        assertThat(changedConfigs).isEmpty();
+    }
+
+    @Test
+    public void shouldOnlyTargetExactClassNames() {
+        assertThat(LiveWeavingServiceImpl.isTargetable("org.example.Foo")).isTrue();
+        assertThat(LiveWeavingServiceImpl.isTargetable("")).isFalse();
+        assertThat(LiveWeavingServiceImpl.isTargetable("org.example.*")).isFalse();
+        assertThat(LiveWeavingServiceImpl.isTargetable("org.example.Foo|org.example.Bar"))
+                .isFalse();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+// builds real FlattenedTimers for tests outside of this package, without needing to run a
+// transaction
+public class FlattenedTimersTestData {
+
+    private final FlattenedTimers flattenedTimers = new FlattenedTimers(4);
+
+    // timers must be added in pre-order, so that parents always precede their children
+    public FlattenedTimersTestData add(TimerNameImpl timerName, int parentIndex, long totalNanos,
+            long count) {
+        flattenedTimers.add(timerName, parentIndex, totalNanos, count);
+        return this;
+    }
+
+    public FlattenedTimers build() {
+        return flattenedTimers;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryRegistryTest {
+
+    @Test
+    public void shouldReturnSameIdForSameText() {
+        // given
+        QueryRegistry registry = new QueryRegistry(1024);
+        // when
+        int id = registry.register("SQL", "select 1");
+        // then
+        assertThat(id).isNotEqualTo(0);
+        assertThat(registry.getExistingId("SQL", new String("select 1"))).isEqualTo(id);
+        assertThat(registry.register("SQL", "select 2")).isNotEqualTo(id);
+        assertThat(registry.register("CQL", "select 1")).isNotEqualTo(id);
+    }
+
+    @Test
+    public void shouldNotFindUnregisteredText() {
+        // given
+        QueryRegistry registry = new QueryRegistry(1024);
+        registry.register("SQL", "select 1");
+        // when
+        int id = registry.getExistingId("SQL", "select 2");
+        // then
+        assertThat(id).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotReuseIdsAfterClearing() {
+        // given
+        // room for two short query texts
+        QueryRegistry registry = new QueryRegistry(250);
+        int id = registry.register("SQL", "select 1");
+        registry.register("SQL", "select 2");
+        // when
+        registry.register("SQL", "select 3");
+        // then
+        assertThat(registry.getExistingId("SQL", "select 1")).isEqualTo(0);
+        int newId = registry.register("SQL", "select 1");
+        assertThat(newId).isNotEqualTo(id);
+        assertThat(registry.getExistingId("SQL", "select 1")).isEqualTo(newId);
+    }
+
+    @Test
+    public void shouldClearBasedOnTextLength() {
+        // given
+        QueryRegistry registry = new QueryRegistry(1024);
+        registry.register("SQL", "select 1");
+        // when
+        registry.register("SQL", Strings.repeat("x", 1000));
+        // then
+        assertThat(registry.getExistingId("SQL", "select 1")).isEqualTo(0);
+    }
+}
@@ -15,10 +15,22 @@
  */
 package org.glowroot.agent.model;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Test;
 
+import org.glowroot.agent.model.TraceEntrySpillFile.Segment;
 import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.wire.api.Collector.TraceVisitor;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -75,4 +87,199 @@ public class TraceEntryComponentTest {
         // then
         assertThat(traceEntryComponent.isCompleted()).isFalse();
     }
+
+    @Test
+    public void testSpillCompletedEntries() throws Exception {
+        // given
+        TraceEntryComponent traceEntryComponent = new TraceEntryComponent(
+                mock(ThreadContextImpl.class), mock(MessageSupplier.class), mock(TimerImpl.class),
+                0, mock(Ticker.class));
+        pushAndPop(traceEntryComponent, "a");
+        TraceEntryImpl entryB = push(traceEntryComponent, "b");
+        pushAndPop(traceEntryComponent, "c");
+        pop(traceEntryComponent, entryB);
+        TraceEntryImpl entryD = pushAndPop(traceEntryComponent, "d");
+        File dir = Files.createTempDir();
+        TraceEntrySpillFile spillFile = new TraceEntrySpillFile(dir, "test");
+        // when
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.<TraceEntryImpl>of(),
+                0, 1, MoreExecutors.directExecutor());
+        // then
+        TraceEntryImpl rootEntry = traceEntryComponent.getRootEntry();
+        assertThat(traceEntryComponent.getInMemoryEntryCount()).isEqualTo(1);
+        assertThat(rootEntry.getNextTraceEntry()).isSameAs(entryD);
+        List<Trace.Entry> entries = readSpilledEntries(spillFile, rootEntry);
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getMessage()).isEqualTo("a");
+        assertThat(entries.get(0).getDepth()).isEqualTo(0);
+        assertThat(entries.get(1).getMessage()).isEqualTo("b");
+        assertThat(entries.get(1).getDepth()).isEqualTo(0);
+        assertThat(entries.get(2).getMessage()).isEqualTo("c");
+        assertThat(entries.get(2).getDepth()).isEqualTo(1);
+        spillFile.release();
+        assertThat(dir.listFiles()).isEmpty();
+        dir.delete();
+    }
+
+    @Test
+    public void testSpillNestedCompletedEntries() throws Exception {
+        // given
+        TraceEntryComponent traceEntryComponent = new TraceEntryComponent(
+                mock(ThreadContextImpl.class), mock(MessageSupplier.class), mock(TimerImpl.class),
+                0, mock(Ticker.class));
+        TraceEntryImpl entryA = push(traceEntryComponent, "a");
+        pushAndPop(traceEntryComponent, "b");
+        pushAndPop(traceEntryComponent, "c");
+        File dir = Files.createTempDir();
+        TraceEntrySpillFile spillFile = new TraceEntrySpillFile(dir, "test");
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.<TraceEntryImpl>of(),
+                0, 1, MoreExecutors.directExecutor());
+        pop(traceEntryComponent, entryA);
+        pushAndPop(traceEntryComponent, "d");
+        // when
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.<TraceEntryImpl>of(),
+                0, 1, MoreExecutors.directExecutor());
+        // then
+        List<Trace.Entry> entries =
+                readSpilledEntries(spillFile, traceEntryComponent.getRootEntry());
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getMessage()).isEqualTo("a");
+        assertThat(entries.get(0).getDepth()).isEqualTo(0);
+        assertThat(entries.get(1).getMessage()).isEqualTo("b");
+        assertThat(entries.get(1).getDepth()).isEqualTo(1);
+        // entry c was kept in memory by the first spill, since it was the last child of entry a
+        assertThat(entries.get(2).getMessage()).isEqualTo("c");
+        assertThat(entries.get(2).getDepth()).isEqualTo(1);
+        assertThat(traceEntryComponent.getInMemoryEntryCount()).isEqualTo(1);
+        spillFile.release();
+        dir.delete();
+    }
+
+    @Test
+    public void testNotSpillAnchorEntries() throws Exception {
+        // given
+        TraceEntryComponent traceEntryComponent = new TraceEntryComponent(
+                mock(ThreadContextImpl.class), mock(MessageSupplier.class), mock(TimerImpl.class),
+                0, mock(Ticker.class));
+        pushAndPop(traceEntryComponent, "a");
+        TraceEntryImpl entryB = pushAndPop(traceEntryComponent, "b");
+        pushAndPop(traceEntryComponent, "c");
+        File dir = Files.createTempDir();
+        TraceEntrySpillFile spillFile = new TraceEntrySpillFile(dir, "test");
+        // when
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.of(entryB), 0, 1,
+                MoreExecutors.directExecutor());
+        // then
+        List<Trace.Entry> entries =
+                readSpilledEntries(spillFile, traceEntryComponent.getRootEntry());
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).getMessage()).isEqualTo("a");
+        assertThat(traceEntryComponent.getRootEntry().getNextTraceEntry()).isSameAs(entryB);
+        spillFile.release();
+        dir.delete();
+    }
+
+    @Test
+    public void testSpillIsPublishedBySpillExecutor() throws Exception {
+        // given
+        TraceEntryComponent traceEntryComponent = new TraceEntryComponent(
+                mock(ThreadContextImpl.class), mock(MessageSupplier.class), mock(TimerImpl.class),
+                0, mock(Ticker.class));
+        TraceEntryImpl entryA = pushAndPop(traceEntryComponent, "a");
+        pushAndPop(traceEntryComponent, "b");
+        TraceEntryImpl entryC = pushAndPop(traceEntryComponent, "c");
+        File dir = Files.createTempDir();
+        TraceEntrySpillFile spillFile = new TraceEntrySpillFile(dir, "test");
+        final List<Runnable> tasks = Lists.newArrayList();
+        Executor spillExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        TraceEntryImpl rootEntry = traceEntryComponent.getRootEntry();
+        // when
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.<TraceEntryImpl>of(),
+                0, 1, spillExecutor);
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.<TraceEntryImpl>of(),
+                0, 1, spillExecutor);
+        // then
+        assertThat(tasks).hasSize(1);
+        assertThat(rootEntry.getNextTraceEntry()).isSameAs(entryA);
+        assertThat(rootEntry.getSpilledChildren()).isNull();
+        assertThat(traceEntryComponent.getInMemoryEntryCount()).isEqualTo(3);
+        // when
+        tasks.get(0).run();
+        // then
+        assertThat(rootEntry.getNextTraceEntry()).isSameAs(entryC);
+        assertThat(rootEntry.getSpilledChildSegments()).hasSize(1);
+        assertThat(traceEntryComponent.getInMemoryEntryCount()).isEqualTo(1);
+        spillFile.release();
+        dir.delete();
+    }
+
+    @Test
+    public void testVisitReleasedSpillFile() throws Exception {
+        // given
+        TraceEntryComponent traceEntryComponent = new TraceEntryComponent(
+                mock(ThreadContextImpl.class), mock(MessageSupplier.class), mock(TimerImpl.class),
+                0, mock(Ticker.class));
+        pushAndPop(traceEntryComponent, "a");
+        pushAndPop(traceEntryComponent, "b");
+        pushAndPop(traceEntryComponent, "c");
+        File dir = Files.createTempDir();
+        TraceEntrySpillFile spillFile = new TraceEntrySpillFile(dir, "test");
+        traceEntryComponent.spillCompletedEntries(spillFile, ImmutableSet.<TraceEntryImpl>of(),
+                0, 1, MoreExecutors.directExecutor());
+        // when
+        spillFile.release();
+        // then
+        List<Trace.Entry> entries =
+                readSpilledEntries(spillFile, traceEntryComponent.getRootEntry());
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).getMessage())
+                .isEqualTo("[2 trace entries were spilled to disk and are no longer available]");
+        assertThat(entries.get(0).getDepth()).isEqualTo(0);
+        dir.delete();
+    }
+
+    private static TraceEntryImpl push(TraceEntryComponent traceEntryComponent, String message) {
+        return traceEntryComponent.pushEntry(0, MessageSupplier.from(message),
+                mock(TimerImpl.class), null, null, 0);
+    }
+
+    private static void pop(TraceEntryComponent traceEntryComponent, TraceEntryImpl entry) {
+        // this marks the entry as completed (the pop inside of end() goes to the mock thread
+        // context)
+        entry.end();
+        traceEntryComponent.popEntry(entry, 0);
+    }
+
+    private static TraceEntryImpl pushAndPop(TraceEntryComponent traceEntryComponent,
+            String message) {
+        TraceEntryImpl entry = push(traceEntryComponent, message);
+        pop(traceEntryComponent, entry);
+        return entry;
+    }
+
+    private static List<Trace.Entry> readSpilledEntries(TraceEntrySpillFile spillFile,
+            TraceEntryImpl entry) throws Exception {
+        final List<Trace.Entry> entries = Lists.newArrayList();
+        TraceVisitor traceVisitor = new TraceVisitor() {
+            @Override
+            public void visitEntry(Trace.Entry entry) {
+                entries.add(entry);
+            }
+            @Override
+            public void visitMainThreadProfile(Profile profile) {}
+            @Override
+            public void visitAuxThreadProfile(Profile profile) {}
+            @Override
+            public void visitHeader(Trace.Header header) {}
+        };
+        for (Segment segment : entry.getSpilledChildSegments()) {
+            spillFile.visitEntries(segment, 0, traceVisitor);
+        }
+        return entries;
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import org.glowroot.agent.plugin.api.Message;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.util.Tickers;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class TraceEntryImplTest {
+
+    private static final Ticker ticker = Tickers.getTicker();
+
+    @Test
+    public void shouldRenderCompletedEntryMessageOnlyOnce() {
+        // given
+        CountingMessageSupplier messageSupplier = new CountingMessageSupplier();
+        TraceEntryImpl entry = pushAndPop(messageSupplier);
+        // when
+        Trace.Entry first = entry.toProto(0, 0, ticker.read());
+        Trace.Entry second = entry.toProto(0, 0, ticker.read());
+        // then
+        assertThat(messageSupplier.count).isEqualTo(1);
+        assertThat(first).isEqualTo(second);
+        assertThat(second.getMessage()).isEqualTo("abc");
+        assertThat(second.getDetailEntryList()).hasSize(1);
+        assertThat(second.getDetailEntry(0).getName()).isEqualTo("x");
+        assertThat(second.getDetailEntry(0).getValue(0).getString()).isEqualTo("y");
+    }
+
+    @Test
+    public void shouldReleaseMessageSupplierOnceRendered() {
+        // given
+        TraceEntryImpl entry = pushAndPop(new CountingMessageSupplier());
+        // when
+        entry.toProto(0, 0, ticker.read());
+        // then
+        assertThat(entry.getMessageSupplier()).isNull();
+        assertThat(entry.toString()).isEqualTo("abc");
+    }
+
+    @Test
+    public void shouldNotCacheRowCountSuffix() {
+        // given
+        CountingMessageSupplier messageSupplier = new CountingMessageSupplier();
+        TraceEntryImpl entry = pushAndPop(messageSupplier);
+        entry.incrementCurrRow();
+        // when
+        Trace.Entry first = entry.toProto(0, 0, ticker.read());
+        // rows can still be navigated after the entry is completed
+        entry.incrementCurrRow();
+        Trace.Entry second = entry.toProto(0, 0, ticker.read());
+        // then
+        assertThat(messageSupplier.count).isEqualTo(1);
+        assertThat(first.getMessage()).isEqualTo("abc => 1 row");
+        assertThat(second.getMessage()).isEqualTo("abc => 2 rows");
+    }
+
+    private static TraceEntryImpl pushAndPop(MessageSupplier messageSupplier) {
+        TraceEntryComponent traceEntryComponent = new TraceEntryComponent(
+                mock(ThreadContextImpl.class), mock(MessageSupplier.class), mock(TimerImpl.class),
+                0, mock(Ticker.class));
+        TraceEntryImpl entry = traceEntryComponent.pushEntry(0, messageSupplier,
+                mock(TimerImpl.class), null, null, 0);
+        // this marks the entry as completed (the pop inside of end() goes to the mock thread
+        // context)
+        entry.end();
+        traceEntryComponent.popEntry(entry, 0);
+        return entry;
+    }
+
+    private static class CountingMessageSupplier extends MessageSupplier {
+
+        private int count;
+
+        @Override
+        public Message get() {
+            count++;
+            return Message.from("abc", ImmutableMap.of("x", "y"));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoarseTickerTest {
+
+    @Test
+    public void shouldReturnLastPublishedTick() {
+        // given
+        FakeTicker source = new FakeTicker(1000);
+        CoarseTicker coarseTicker = new CoarseTicker(source, 200);
+        // when
+        source.advance(150);
+        long beforeUpdate = coarseTicker.read();
+        coarseTicker.update();
+        long afterUpdate = coarseTicker.read();
+        // then
+        assertThat(beforeUpdate).isEqualTo(1000);
+        assertThat(afterUpdate).isEqualTo(1150);
+    }
+
+    @Test
+    public void shouldNeverBeAheadOfSource() {
+        // given
+        FakeTicker source = new FakeTicker(0);
+        CoarseTicker coarseTicker = new CoarseTicker(source, 200);
+        // when
+        for (int i = 0; i < 1000; i++) {
+            source.advance(i % 7);
+            if (i % 3 == 0) {
+                coarseTicker.update();
+            }
+            // then
+            assertThat(Tickers.lessThanOrEqual(coarseTicker.read(), source.read())).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldMeasureShortDurationsAccuratelyOnAverage() {
+        // given
+        long updateIntervalNanos = 1000;
+        long durationNanos = 100;
+        FakeTicker source = new FakeTicker(0);
+        CoarseTicker coarseTicker = new CoarseTicker(source, 200);
+        long actualTotalNanos = 0;
+        long measuredTotalNanos = 0;
+        // when
+        // durations start at every offset within the update interval
+        for (int i = 0; i < 10000; i++) {
+            long startNanos = source.read();
+            long coarseStartTick = coarseTicker.read();
+            advanceAndUpdate(source, coarseTicker, durationNanos, updateIntervalNanos);
+            measuredTotalNanos += coarseTicker.read() - coarseStartTick;
+            actualTotalNanos += source.read() - startNanos;
+            advanceAndUpdate(source, coarseTicker, 37, updateIntervalNanos);
+        }
+        // then
+        assertThat((double) measuredTotalNanos).isBetween(0.95 * actualTotalNanos,
+                1.05 * actualTotalNanos);
+    }
+
+    @Test
+    public void shouldEnforceMinimumResolution() {
+        // when
+        CoarseTicker coarseTicker = new CoarseTicker(new FakeTicker(0), 1);
+        // then
+        assertThat(coarseTicker.getResolutionNanos())
+                .isEqualTo(MICROSECONDS.toNanos(CoarseTicker.MIN_RESOLUTION_MICROS));
+    }
+
+    @Test
+    public void shouldStopUpdaterThreadOnClose() throws Exception {
+        // given
+        // large resolution so that close() would block for a long time without the unpark
+        CoarseTicker coarseTicker = new CoarseTicker(new FakeTicker(0), Integer.MAX_VALUE);
+        coarseTicker.start();
+        // when
+        coarseTicker.close();
+        // then (close() joins the updater thread, so getting here means it has stopped)
+    }
+
+    // simulates the updater thread publishing a tick at every multiple of updateIntervalNanos
+    private static void advanceAndUpdate(FakeTicker source, CoarseTicker coarseTicker,
+            long nanos, long updateIntervalNanos) {
+        long target = source.read() + nanos;
+        long nextUpdate = (source.read() / updateIntervalNanos + 1) * updateIntervalNanos;
+        while (nextUpdate <= target) {
+            source.set(nextUpdate);
+            coarseTicker.update();
+            nextUpdate += updateIntervalNanos;
+        }
+        source.set(target);
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        private FakeTicker(long nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long nanos) {
+            this.nanos += nanos;
+        }
+
+        private void set(long nanos) {
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeSampleBufferTest {
+
+    @Test
+    public void shouldReturnSamplesInRange() {
+        // given
+        GaugeSampleBuffer sampleBuffer = new GaugeSampleBuffer(100, 1000);
+        for (int i = 1; i <= 5; i++) {
+            sampleBuffer.add(createSample(i * 100, i));
+        }
+        // when
+        List<GaugeValue> samples = sampleBuffer.getSamples("abc", 200, 400);
+        // then
+        assertThat(samples).hasSize(3);
+        assertThat(samples.get(0).getCaptureTime()).isEqualTo(200);
+        assertThat(samples.get(2).getCaptureTime()).isEqualTo(400);
+        assertThat(sampleBuffer.getSamples("xyz", 0, 1000)).isEmpty();
+    }
+
+    @Test
+    public void shouldOverwriteOldestSamples() {
+        // given
+        GaugeSampleBuffer sampleBuffer = new GaugeSampleBuffer(100, 1000);
+        for (int i = 1; i <= 25; i++) {
+            sampleBuffer.add(createSample(i * 100, i));
+        }
+        // when
+        List<GaugeValue> samples = sampleBuffer.getSamples("abc", 0, Long.MAX_VALUE);
+        // then
+        assertThat(samples).hasSize(11);
+        assertThat(samples.get(0).getCaptureTime()).isEqualTo(1500);
+        assertThat(samples.get(10).getCaptureTime()).isEqualTo(2500);
+        assertThat(samples.get(10).getValue()).isEqualTo(25);
+    }
+
+    @Test
+    public void shouldRemoveInactiveGauges() {
+        // given
+        GaugeSampleBuffer sampleBuffer = new GaugeSampleBuffer(100, 1000);
+        sampleBuffer.add(createSample(100, 1));
+        // when
+        sampleBuffer.removeInactive(1100);
+        sampleBuffer.removeInactive(1101);
+        // then
+        assertThat(sampleBuffer.getSamples("abc", 0, Long.MAX_VALUE)).isEmpty();
+    }
+
+    private static GaugeValue createSample(long captureTime, double value) {
+        return GaugeValue.newBuilder()
+                .setGaugeName("abc")
+                .setCaptureTime(captureTime)
+                .setValue(value)
+                .setWeight(1)
+                .build();
+    }
+}
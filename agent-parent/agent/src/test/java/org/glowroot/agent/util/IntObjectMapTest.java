@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void shouldGetAfterRehash() {
+        // given
+        IntObjectMap<String> map = new IntObjectMap<String>();
+        Map<Integer, String> uniqueValues = Maps.newHashMap();
+        for (int i = 1; i <= 100; i++) {
+            uniqueValues.put(i * 1024, "value-" + i);
+        }
+        // when
+        for (Entry<Integer, String> entry : uniqueValues.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        // then
+        assertThat(map.size()).isEqualTo(100);
+        for (Entry<Integer, String> entry : uniqueValues.entrySet()) {
+            assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        assertThat(map.get(1)).isNull();
+        assertThat(map.values()).containsOnlyElementsOf(uniqueValues.values());
+    }
+
+    @Test
+    public void shouldReplaceExistingValue() {
+        // given
+        IntObjectMap<String> map = new IntObjectMap<String>();
+        map.put(1, "a");
+        // when
+        map.put(1, "b");
+        // then
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.get(1)).isEqualTo("b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowZeroKey() {
+        new IntObjectMap<String>().put(0, "a");
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnalyzedWorldTest {
+
+    @Test
+    public void shouldFindSubTypesOfAnalyzedClasses() throws Exception {
+        // given
+        AnalyzedWorld analyzedWorld = new AnalyzedWorld(
+                Suppliers.<List<Advice>>ofInstance(ImmutableList.<Advice>of()),
+                ImmutableList.<ShimType>of(), ImmutableList.<MixinType>of(), null);
+        analyzedWorld.getAnalyzedClass(SubBasicMisc.class.getName(),
+                SubBasicMisc.class.getClassLoader());
+        analyzedWorld.getAnalyzedClass(BasicMisc.class.getName(),
+                BasicMisc.class.getClassLoader());
+        // when
+        Set<String> subTypeNames =
+                analyzedWorld.getSubTypeNames(ImmutableSet.of(SuperBasicMisc.class.getName()));
+        // then
+        assertThat(subTypeNames).containsOnly(SuperBasicMisc.class.getName(),
+                BasicMisc.class.getName(), SubBasicMisc.class.getName());
+    }
+}
@@ -25,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OperationsPerInvocation;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
@@ -47,6 +48,23 @@ public class ResultSetBenchmark extends TransactionWorthy {
 
     private Connection connection;
     private PreparedStatement preparedStatement;
+    private PreparedStatement insertPreparedStatement;
+
+    // separate transaction worthy instance since the result set navigation benchmark is already
+    // using this class's doSomethingTransactionWorthy()
+    //
+    // run with "-prof gc" to see the allocation (and retention) of captured batch bind parameters
+    private final TransactionWorthy batchInsert = new TransactionWorthy() {
+        @Override
+        public void doSomethingTransactionWorthy() throws SQLException {
+            for (int i = 0; i < 10000; i++) {
+                insertPreparedStatement.setString(1, "mock" + (i & 0xFF));
+                insertPreparedStatement.setInt(2, i);
+                insertPreparedStatement.addBatch();
+            }
+            insertPreparedStatement.executeBatch();
+        }
+    };
 
     @Setup
     public void setup() throws SQLException {
@@ -56,6 +74,7 @@ public class ResultSetBenchmark extends TransactionWorthy {
                 Statement statement = connection.createStatement();
                 try {
                     statement.execute("create table mock (name varchar(100))");
+                    statement.execute("create table mock_insert (name varchar(100), num int)");
                     for (int i = 0; i < 10000; i++) {
                         statement.execute("insert into mock (name) values ('mock" + 1 + "')");
                     }
@@ -68,11 +87,26 @@ public class ResultSetBenchmark extends TransactionWorthy {
                 break;
         }
         preparedStatement = connection.prepareStatement("select * from mock");
+        insertPreparedStatement =
+                connection.prepareStatement("insert into mock_insert (name, num) values (?, ?)");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws SQLException {
+        if (database == Database.HSQLDB) {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("delete from mock_insert");
+            } finally {
+                statement.close();
+            }
+        }
     }
 
     @TearDown
     public void tearDown() throws SQLException {
         preparedStatement.close();
+        insertPreparedStatement.close();
         connection.close();
     }
 
@@ -82,6 +116,12 @@ public class ResultSetBenchmark extends TransactionWorthy {
         doSomethingTransactionWorthy();
     }
 
+    @Benchmark
+    @OperationsPerInvocation(10000)
+    public void addBatch() throws Exception {
+        batchInsert.doSomethingTransactionWorthy();
+    }
+
     @Override
     public void doSomethingTransactionWorthy() throws SQLException {
         ResultSet resultSet = preparedStatement.executeQuery();
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SqlNormalizerBenchmark {
+
+    @Param
+    private Sql sql;
+
+    @Benchmark
+    public String normalize() {
+        return SqlNormalizer.normalize(sql.text);
+    }
+
+    // typical orm generated sql
+    public enum Sql {
+
+        PREPARED_SELECT("select employee0_.id as id1_0_0_, employee0_.name as name2_0_0_,"
+                + " employee0_.department_id as departme3_0_0_ from employee employee0_"
+                + " where employee0_.id=?"),
+
+        SELECT_WITH_LITERALS("select employee0_.id as id1_0_0_, employee0_.name as name2_0_0_,"
+                + " employee0_.department_id as departme3_0_0_ from employee employee0_"
+                + " where employee0_.status='ACTIVE' and employee0_.department_id=1234"),
+
+        SELECT_WITH_IN_LIST("select employee0_.id as id1_0_, employee0_.name as name2_0_"
+                + " from employee employee0_ where employee0_.id in (101, 102, 103, 104, 105,"
+                + " 106, 107, 108, 109, 110) order by employee0_.name asc"),
+
+        INSERT_WITH_LITERALS("insert into employee (name, department_id, salary, hired, id)"
+                + " values ('John O''Brien', 12, 85000.50, '2016-03-01', 98765)");
+
+        private final String text;
+
+        private Sql(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -32,7 +32,6 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.glowroot.wire.api.Collector;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.CollectorServiceGrpc;
 import org.glowroot.wire.api.model.CollectorServiceGrpc.CollectorService;
@@ -43,6 +42,7 @@ import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitResponse;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage;
 import org.glowroot.wire.api.model.DownstreamServiceGrpc;
 import org.glowroot.wire.api.model.DownstreamServiceGrpc.DownstreamService;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.AgentConfigUpdateRequest;
@@ -50,6 +50,7 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ClientResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ClientResponse.MessageCase;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ServerRequest;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -67,7 +68,7 @@ public class GrpcServerWrapper {
 
     private volatile @MonotonicNonNull AgentConfig agentConfig;
 
-    public GrpcServerWrapper(Collector collector, int port) throws IOException {
+    public GrpcServerWrapper(TraceCollector collector, int port) throws IOException {
         bossEventLoopGroup = EventLoopGroups.create("Glowroot-grpc-boss-ELG");
         workerEventLoopGroup = EventLoopGroups.create("Glowroot-grpc-worker-ELG");
         executor = Executors.newCachedThreadPool(
@@ -130,9 +131,9 @@ public class GrpcServerWrapper {
 
     private class CollectorServiceImpl implements CollectorService {
 
-        private final Collector collector;
+        private final TraceCollector collector;
 
-        private CollectorServiceImpl(Collector collector) {
+        private CollectorServiceImpl(TraceCollector collector) {
             this.collector = collector;
         }
 
@@ -184,6 +185,56 @@ public class GrpcServerWrapper {
             responseObserver.onCompleted();
         }
 
+        @Override
+        public StreamObserver<TraceStreamMessage> collectTraceStream(
+                final StreamObserver<EmptyMessage> responseObserver) {
+            return new StreamObserver<TraceStreamMessage>() {
+
+                private final Trace.Builder trace = Trace.newBuilder();
+
+                @Override
+                public void onNext(TraceStreamMessage value) {
+                    switch (value.getMessageCase()) {
+                        case STREAM_HEADER:
+                            trace.setId(value.getStreamHeader().getTraceId());
+                            break;
+                        case ENTRY:
+                            trace.addEntry(value.getEntry());
+                            break;
+                        case MAIN_THREAD_PROFILE:
+                            trace.setMainThreadProfile(value.getMainThreadProfile());
+                            break;
+                        case AUX_THREAD_PROFILE:
+                            trace.setAuxThreadProfile(value.getAuxThreadProfile());
+                            break;
+                        case HEADER:
+                            trace.setHeader(value.getHeader());
+                            break;
+                        default:
+                            throw new IllegalStateException(
+                                    "Unexpected message: " + value.getMessageCase());
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    logger.debug(t.getMessage(), t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    try {
+                        collector.collectTrace(trace.build());
+                    } catch (Throwable t) {
+                        responseObserver.onError(t);
+                        return;
+                    }
+                    responseObserver.onNext(EmptyMessage.getDefaultInstance());
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+
         @Override
         public void log(LogMessage request, StreamObserver<EmptyMessage> responseObserver) {
             try {
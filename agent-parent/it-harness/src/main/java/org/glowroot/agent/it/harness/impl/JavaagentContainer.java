@@ -325,6 +325,9 @@ public class JavaagentContainer implements Container {
 
     private static List<String> buildCommand(int heartbeatPort, int collectorPort,
             int javaagentServicePort, File baseDir, List<String> extraJvmArgs) throws Exception {
+        // this is passed to the javaagent jvm below along with the other glowroot.internal.*
+        // system properties
+        TraceSampling.disableUnlessConfigured();
         List<String> command = Lists.newArrayList();
         String javaExecutable = StandardSystemProperty.JAVA_HOME.value() + File.separator + "bin"
                 + File.separator + "java";
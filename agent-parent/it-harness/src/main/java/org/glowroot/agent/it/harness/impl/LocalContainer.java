@@ -81,6 +81,7 @@ public class LocalContainer implements Container {
             traceCollector = new TraceCollector();
             server = new GrpcServerWrapper(traceCollector, collectorPort);
         }
+        TraceSampling.disableUnlessConfigured();
         isolatedWeavingClassLoader = new IsolatedWeavingClassLoader(AppUnderTest.class);
         final Map<String, String> properties = Maps.newHashMap();
         properties.put("glowroot.base.dir", this.baseDir.getAbsolutePath());
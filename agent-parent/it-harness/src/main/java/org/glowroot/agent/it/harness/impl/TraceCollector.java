@@ -28,11 +28,13 @@ import org.immutables.value.Value;
 
 import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.Collector;
+import org.glowroot.wire.api.Collector.TraceVisitor;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.SystemInfo;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -114,7 +116,30 @@ class TraceCollector implements Collector {
     public void collectGaugeValues(List<GaugeValue> gaugeValues) {}
 
     @Override
-    public void collectTrace(Trace trace) {
+    public void collectTrace(TraceReader traceReader) throws Exception {
+        final Trace.Builder builder = Trace.newBuilder().setId(traceReader.traceId());
+        traceReader.accept(new TraceVisitor() {
+            @Override
+            public void visitEntry(Trace.Entry entry) {
+                builder.addEntry(entry);
+            }
+            @Override
+            public void visitMainThreadProfile(Profile profile) {
+                builder.setMainThreadProfile(profile);
+            }
+            @Override
+            public void visitAuxThreadProfile(Profile profile) {
+                builder.setAuxThreadProfile(profile);
+            }
+            @Override
+            public void visitHeader(Trace.Header header) {
+                builder.setHeader(header);
+            }
+        });
+        collectTrace(builder.build());
+    }
+
+    void collectTrace(Trace trace) {
         Trace currTrace = this.trace;
         if (currTrace == null
                 || currTrace.getHeader().getCaptureTime() <= trace.getHeader().getCaptureTime()) {
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.it.harness.impl;
+
+// tests expect every slow trace to be stored right away, so trace sampling (rate limiting) is
+// disabled in the containers unless a test explicitly sets the property
+class TraceSampling {
+
+    private static final String TOKENS_PER_SECOND_PROPERTY =
+            "glowroot.internal.traceSampler.tokensPerSecond";
+
+    private TraceSampling() {}
+
+    static void disableUnlessConfigured() {
+        if (System.getProperty(TOKENS_PER_SECOND_PROPERTY) == null) {
+            System.setProperty(TOKENS_PER_SECOND_PROPERTY, "0");
+        }
+    }
+}
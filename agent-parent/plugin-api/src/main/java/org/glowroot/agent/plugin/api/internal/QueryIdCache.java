@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.api.internal;
+
+// this interface exists so that plugins can hold on to the id that glowroot assigns to a query text
+// (e.g. per prepared statement) and pass it back on subsequent executions (see
+// QueryIdThreadContext), without exposing query ids through the org.glowroot.agent.plugin.api
+// package
+//
+// implementations only need to remember the last query text and its id, and should compare the
+// query text by identity, since a different query text (e.g. after toggling normalization of sql
+// literals) has a different id
+public interface QueryIdCache {
+
+    // returns 0 if there is no id cached for the query text
+    int getQueryId(String queryText);
+
+    void setQueryId(String queryText, int queryId);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.api.internal;
+
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.TimerName;
+
+// this interface exists to provide the query id caching variants of startQueryEntry() to plugins
+// without adding them to org.glowroot.agent.plugin.api.ThreadContext, the ThreadContext passed to
+// plugin advice implements this interface (other than no-op instances, so plugins must check with
+// instanceof)
+public interface QueryIdThreadContext {
+
+    QueryEntry startQueryEntry(String queryType, String queryText, QueryIdCache queryIdCache,
+            MessageSupplier messageSupplier, TimerName timerName);
+
+    QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            QueryIdCache queryIdCache, MessageSupplier messageSupplier, TimerName timerName);
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.lang.ref.WeakReference;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.ByteArrayParameterValue;
+import org.glowroot.agent.plugin.jdbc.message.BatchedBindParameters;
+import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
+
+// captured bind parameters are retained by their trace entries until the trace is complete, so this
+// caps the (estimated) memory retained by captured bind parameters per trace, once the limit is
+// reached bind parameters are no longer captured for the rest of the trace
+//
+// the plugin api does not provide a place to store state per trace, so the remaining budget is
+// tracked per thread and reset whenever the thread context changes (so for async traces the limit
+// applies separately to each thread that participates in the trace)
+class BindParameterBudget {
+
+    // rough estimate of object header plus reference to the object
+    private static final int OBJECT_OVERHEAD = 16;
+
+    private static final FastThreadLocal<BindParameterBudget> budgets =
+            new FastThreadLocal<BindParameterBudget>() {
+                @Override
+                protected BindParameterBudget initialValue() {
+                    return new BindParameterBudget();
+                }
+            };
+
+    // weak reference so that completed traces are not retained by idle threads
+    private @Nullable WeakReference<ThreadContext> contextRef;
+    private long remainingBytes;
+
+    private BindParameterBudget() {}
+
+    static boolean tryAcquire(ThreadContext context, BindParameterList parameters) {
+        BindParameterBudget budget = getBudget(context);
+        if (budget.remainingBytes == Long.MAX_VALUE) {
+            // no limit
+            return true;
+        }
+        long bytes = 0;
+        for (int i = 0; i < parameters.size(); i++) {
+            bytes += estimateSize(parameters.get(i));
+        }
+        return budget.tryAcquire(bytes);
+    }
+
+    static boolean tryAcquire(ThreadContext context, BatchedBindParameters batchedParameters) {
+        BindParameterBudget budget = getBudget(context);
+        if (budget.remainingBytes == Long.MAX_VALUE) {
+            // no limit
+            return true;
+        }
+        int rowCount = batchedParameters.getRowCount();
+        long bytes = 0;
+        for (int i = 0; i < rowCount; i++) {
+            int columnCount = batchedParameters.getColumnCount(i);
+            for (int j = 0; j < columnCount; j++) {
+                bytes += estimateSize(batchedParameters.get(i, j));
+            }
+        }
+        return budget.tryAcquire(bytes);
+    }
+
+    private static BindParameterBudget getBudget(ThreadContext context) {
+        BindParameterBudget budget = budgets.get();
+        WeakReference<ThreadContext> contextRef = budget.contextRef;
+        if (contextRef == null || contextRef.get() != context) {
+            budget.contextRef = new WeakReference<ThreadContext>(context);
+            budget.remainingBytes = JdbcPluginProperties.bindParameterMemoryLimitBytes();
+        }
+        return budget;
+    }
+
+    private boolean tryAcquire(long bytes) {
+        if (bytes > remainingBytes) {
+            // don't capture any more bind parameters for this trace, even if smaller, since a
+            // trace with only some of its bind parameters captured would be confusing
+            // (negative so that even executions with only null parameters are rejected)
+            remainingBytes = -1;
+            return false;
+        }
+        remainingBytes -= bytes;
+        return true;
+    }
+
+    private static long estimateSize(@Nullable Object parameter) {
+        if (parameter == null) {
+            return 0;
+        }
+        if (parameter instanceof String) {
+            return OBJECT_OVERHEAD + 2 * ((String) parameter).length();
+        }
+        if (parameter instanceof ByteArrayParameterValue) {
+            return OBJECT_OVERHEAD + ((ByteArrayParameterValue) parameter).getLength();
+        }
+        return OBJECT_OVERHEAD;
+    }
+}
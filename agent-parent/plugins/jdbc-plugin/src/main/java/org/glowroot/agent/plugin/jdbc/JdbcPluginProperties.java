@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2015 the original author or authors.
+ * Copyright 2012-2016 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -29,6 +29,7 @@ public class JdbcPluginProperties {
 
     // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
     private static int stackTraceThresholdMillis;
+    private static long bindParameterMemoryLimitBytes;
 
     private static volatile ImmutableMultimap<String, Integer> displayBinaryParameterAsHex =
             ImmutableMultimap.of();
@@ -39,6 +40,10 @@ public class JdbcPluginProperties {
             public void onChange() {
                 Double value = configService.getDoubleProperty("stackTraceThresholdMillis").value();
                 stackTraceThresholdMillis = value == null ? Integer.MAX_VALUE : value.intValue();
+                value = configService.getDoubleProperty("bindParameterMemoryLimitKilobytes")
+                        .value();
+                bindParameterMemoryLimitBytes =
+                        value == null ? Long.MAX_VALUE : (long) (value * 1024);
             }
         });
     }
@@ -60,6 +65,10 @@ public class JdbcPluginProperties {
         return stackTraceThresholdMillis;
     }
 
+    static long bindParameterMemoryLimitBytes() {
+        return bindParameterMemoryLimitBytes;
+    }
+
     static boolean displayBinaryParameterAsHex(String sql, int parameterIndex) {
         return displayBinaryParameterAsHex.containsEntry(sql, parameterIndex);
     }
@@ -15,52 +15,64 @@
  */
 package org.glowroot.agent.plugin.jdbc;
 
-import java.util.Collection;
-
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Queues;
 import com.google.common.hash.HashCode;
 
+import org.glowroot.agent.plugin.api.internal.QueryIdCache;
+import org.glowroot.agent.plugin.jdbc.message.BatchedBindParameters;
 import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
 
 // used to capture and mirror the state of prepared statements since the underlying
 // PreparedStatement values cannot be inspected after they have been set
-class PreparedStatementMirror extends StatementMirror {
+class PreparedStatementMirror extends StatementMirror implements QueryIdCache {
 
     private static final int PARAMETERS_INITIAL_CAPACITY = 4;
 
     private final String sql;
+    // lazily normalized since it is only needed when normalizing sql literals, and then only once
+    // per prepared statement (instead of once per execution)
+    private @Nullable String normalizedSql;
+    // the backslash escapes property that normalizedSql was normalized with
+    private boolean normalizedSqlBackslashEscapes;
+    // the id that glowroot assigned to the query text (the sql or the normalized sql), so that the
+    // query text doesn't need to be looked up on every execution, see QueryIdCache
+    private @Nullable String queryIdText;
+    private int queryId;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private BindParameterList parameters;
+    //
+    // lazily created on first parameter value, so it is never created when bind parameter capture
+    // is disabled
+    private @Nullable BindParameterList parameters;
     private boolean parametersCopied;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private @Nullable Collection<BindParameterList> batchedParameters;
+    //
+    // this is only created when there are parameters to batch, otherwise only the batch size is
+    // tracked
+    private @Nullable BatchedBindParameters batchedParameters;
+    private int batchSize;
 
     public PreparedStatementMirror(String sql) {
         this.sql = sql;
-        // TODO delay creation to optimize case when bind parameter capture is disabled
-        parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
     }
 
     public void addBatch() {
         // synchronization isn't an issue here as this method is called only by the monitored thread
-        if (batchedParameters == null) {
-            batchedParameters = Queues.newConcurrentLinkedQueue();
+        if (parameters != null) {
+            if (batchedParameters == null) {
+                batchedParameters = new BatchedBindParameters(parameters.size());
+            }
+            // the parameter values are copied into the batch storage, so there is no need to
+            // mark the parameters as copied
+            batchedParameters.addRow(parameters);
         }
-        batchedParameters.add(parameters);
-        parametersCopied = true;
+        batchSize++;
     }
 
-    public Collection<BindParameterList> getBatchedParameters() {
-        if (batchedParameters == null) {
-            return ImmutableList.of();
-        } else {
-            return batchedParameters;
-        }
+    public @Nullable BatchedBindParameters getBatchedParameters() {
+        return batchedParameters;
     }
 
     public @Nullable BindParameterList getParametersCopy() {
@@ -72,25 +84,49 @@ class PreparedStatementMirror extends StatementMirror {
         return sql;
     }
 
+    String getNormalizedSql(boolean backslashEscapes) {
+        if (normalizedSql == null || normalizedSqlBackslashEscapes != backslashEscapes) {
+            normalizedSql = SqlNormalizer.normalize(sql, backslashEscapes);
+            normalizedSqlBackslashEscapes = backslashEscapes;
+        }
+        return normalizedSql;
+    }
+
+    @Override
+    public int getQueryId(String queryText) {
+        return queryText == queryIdText ? queryId : 0;
+    }
+
+    @Override
+    public void setQueryId(String queryText, int queryId) {
+        queryIdText = queryText;
+        this.queryId = queryId;
+    }
+
     int getBatchSize() {
-        return batchedParameters == null ? 0 : batchedParameters.size();
+        return batchSize;
     }
 
     // remember parameterIndex starts at 1 not 0
     public void setParameterValue(int parameterIndex, @Nullable Object object) {
-        if (parametersCopied) {
+        if (parameters == null) {
+            parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
+        } else if (parametersCopied) {
             // separate method for less common path to not impact inlining budget of fast(er) path
-            copyParameters();
+            copyParameters(parameters);
         }
         parameters.set(parameterIndex - 1, object);
     }
 
-    private void copyParameters() {
-        parameters = BindParameterList.copyOf(parameters);
+    private void copyParameters(BindParameterList parameters) {
+        this.parameters = BindParameterList.copyOf(parameters);
         parametersCopied = false;
     }
 
     public void clearParameters() {
+        if (parameters == null) {
+            return;
+        }
         if (parametersCopied) {
             parameters = new BindParameterList(parameters.size());
             parametersCopied = false;
@@ -101,36 +137,41 @@ class PreparedStatementMirror extends StatementMirror {
 
     @Override
     public void clearBatch() {
-        if (parametersCopied) {
-            parameters = new BindParameterList(parameters.size());
-            parametersCopied = false;
-        } else {
-            parameters.clear();
-        }
+        clearParameters();
         batchedParameters = null;
+        batchSize = 0;
     }
 
-    static class ByteArrayParameterValue {
+    // only the length of byte arrays is retained, unless they are displayed as hex (see
+    // ByteArrayParameterValue), so that large blobs are not retained by the trace
+    static class ByteArrayLengthParameterValue {
         private final int length;
-        private final byte /*@Nullable*/[] bytes;
-        public ByteArrayParameterValue(byte[] bytes, boolean displayAsHex) {
-            length = bytes.length;
-            // only retain bytes if needed for displaying as hex
-            this.bytes = displayAsHex ? bytes : null;
+        ByteArrayLengthParameterValue(int length) {
+            this.length = length;
         }
         @Override
         public String toString() {
-            if (bytes != null) {
-                return "0x" + HashCode.fromBytes(bytes).toString();
-            } else {
-                return "{" + length + " bytes}";
-            }
+            return "{" + length + " bytes}";
+        }
+    }
+
+    static class ByteArrayParameterValue {
+        private final byte[] bytes;
+        ByteArrayParameterValue(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        int getLength() {
+            return bytes.length;
+        }
+        @Override
+        public String toString() {
+            return "0x" + HashCode.fromBytes(bytes).toString();
         }
     }
 
     static class StreamingParameterValue {
         private final Class<?> clazz;
-        public StreamingParameterValue(Class<?> clazz) {
+        StreamingParameterValue(Class<?> clazz) {
             this.clazz = clazz;
         }
         @Override
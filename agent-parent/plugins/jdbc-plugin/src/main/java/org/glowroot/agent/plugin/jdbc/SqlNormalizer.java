@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import javax.annotation.Nullable;
+
+// replaces string and numeric literals with ? and IN lists with (?+), so that sql which only
+// differs by inlined literals (e.g. unprepared statements) is aggregated under the same query text
+// instead of each variation using up one of the limited number of aggregated queries
+//
+// this is a single pass scanner (not a parser) which copies everything else verbatim, including
+// quoted identifiers and comments, and which returns the original string (without allocating) when
+// there is nothing to replace
+//
+// this is public so it can be used by the benchmarks
+public class SqlNormalizer {
+
+    private SqlNormalizer() {}
+
+    public static String normalize(String sql) {
+        return normalize(sql, false);
+    }
+
+    // backslashEscapes is for dialects that treat backslash as an escape character inside of all
+    // string literals (e.g. mysql by default), standard sql only does this inside of E'...'
+    public static String normalize(String sql, boolean backslashEscapes) {
+        int length = sql.length();
+        // lazily created on first replacement
+        StringBuilder sb = null;
+        // index in sql up to which has been copied to sb
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int end;
+            if (c == '\'') {
+                end = skipStringLiteral(sql, i, backslashEscapes);
+            } else if (isPrefixedStringLiteral(sql, i)) {
+                end = skipStringLiteral(sql, i + 1, backslashEscapes || isEscapePrefix(c));
+            } else if (isNumericLiteralStart(sql, i)) {
+                end = skipNumericLiteral(sql, i);
+            } else if (c == '(' && isPrecededByIn(sql, i)) {
+                int inListEnd = skipInList(sql, i, backslashEscapes);
+                if (inListEnd == -1) {
+                    i++;
+                    continue;
+                }
+                sb = append(sb, sql, copied, i, "(?+)");
+                copied = inListEnd;
+                i = inListEnd;
+                continue;
+            } else {
+                i = skipNonLiteral(sql, i);
+                continue;
+            }
+            sb = append(sb, sql, copied, i, "?");
+            copied = end;
+            i = end;
+        }
+        if (sb == null) {
+            return sql;
+        }
+        sb.append(sql, copied, length);
+        return sb.toString();
+    }
+
+    private static StringBuilder append(@Nullable StringBuilder sb, String sql, int copied,
+            int index, String replacement) {
+        if (sb == null) {
+            sb = new StringBuilder(sql.length());
+        }
+        sb.append(sql, copied, index);
+        sb.append(replacement);
+        return sb;
+    }
+
+    // returns the index after the token starting at i, for tokens that are copied verbatim
+    private static int skipNonLiteral(String sql, int i) {
+        char c = sql.charAt(i);
+        if (c == '"' || c == '`') {
+            return skipQuoted(sql, i, c);
+        }
+        if (c == '[') {
+            return skipQuoted(sql, i, ']');
+        }
+        if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+            int end = sql.indexOf('\n', i + 2);
+            return end == -1 ? sql.length() : end + 1;
+        }
+        if (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+            int end = sql.indexOf("*/", i + 2);
+            return end == -1 ? sql.length() : end + 2;
+        }
+        if (isIdentifierPart(c)) {
+            // skip the whole identifier so that digits inside of it (e.g. table1) are not
+            // mistaken for numeric literals
+            int end = i + 1;
+            while (end < sql.length() && isIdentifierPart(sql.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+        return i + 1;
+    }
+
+    // string literal with a single character prefix, e.g. N'abc', E'abc', X'0F', B'01'
+    private static boolean isPrefixedStringLiteral(String sql, int i) {
+        if (i + 1 >= sql.length() || sql.charAt(i + 1) != '\'') {
+            return false;
+        }
+        char c = Character.toUpperCase(sql.charAt(i));
+        if (c != 'N' && c != 'E' && c != 'X' && c != 'B') {
+            return false;
+        }
+        return i == 0 || !isIdentifierPart(sql.charAt(i - 1));
+    }
+
+    // E'...' is the postgresql escape string syntax
+    private static boolean isEscapePrefix(char c) {
+        return c == 'E' || c == 'e';
+    }
+
+    // i is the index of the opening quote, quotes inside of the literal are escaped by doubling
+    // them, or with a backslash if backslashEscapes (otherwise e.g. 'C:\' is a complete literal)
+    private static int skipStringLiteral(String sql, int i, boolean backslashEscapes) {
+        int length = sql.length();
+        int j = i + 1;
+        while (j < length) {
+            char c = sql.charAt(j);
+            if (c == '\\' && backslashEscapes) {
+                j += 2;
+            } else if (c == '\'') {
+                if (j + 1 < length && sql.charAt(j + 1) == '\'') {
+                    j += 2;
+                } else {
+                    return j + 1;
+                }
+            } else {
+                j++;
+            }
+        }
+        // unterminated
+        return length;
+    }
+
+    private static int skipQuoted(String sql, int i, char closingQuote) {
+        int end = sql.indexOf(closingQuote, i + 1);
+        return end == -1 ? sql.length() : end + 1;
+    }
+
+    private static boolean isNumericLiteralStart(String sql, int i) {
+        char c = sql.charAt(i);
+        if (c == '.') {
+            if (i + 1 >= sql.length() || !isDigit(sql.charAt(i + 1))) {
+                return false;
+            }
+        } else if (!isDigit(c)) {
+            return false;
+        }
+        // not part of an identifier (e.g. table1) or of a qualified name (e.g. t.1)
+        return i == 0 || (!isIdentifierPart(sql.charAt(i - 1)) && sql.charAt(i - 1) != '.');
+    }
+
+    // covers integers, decimals, exponents (1.5e-3) and hex (0x1F)
+    private static int skipNumericLiteral(String sql, int i) {
+        int length = sql.length();
+        int j = i + 1;
+        while (j < length) {
+            char c = sql.charAt(j);
+            if (isIdentifierPart(c) || c == '.') {
+                j++;
+            } else if ((c == '+' || c == '-') && isExponent(sql.charAt(j - 1))
+                    && !isHex(sql, i)) {
+                j++;
+            } else {
+                break;
+            }
+        }
+        return j;
+    }
+
+    private static boolean isExponent(char c) {
+        return c == 'e' || c == 'E';
+    }
+
+    private static boolean isHex(String sql, int i) {
+        return i + 1 < sql.length() && sql.charAt(i) == '0'
+                && (sql.charAt(i + 1) == 'x' || sql.charAt(i + 1) == 'X');
+    }
+
+    private static boolean isPrecededByIn(String sql, int i) {
+        int j = i - 1;
+        while (j >= 0 && Character.isWhitespace(sql.charAt(j))) {
+            j--;
+        }
+        if (j < 1) {
+            return false;
+        }
+        char n = sql.charAt(j);
+        char in = sql.charAt(j - 1);
+        return (n == 'n' || n == 'N') && (in == 'i' || in == 'I')
+                && (j == 1 || !isIdentifierPart(sql.charAt(j - 2)));
+    }
+
+    // returns the index after the closing parenthesis if the parenthesized list only contains
+    // literals and bind parameters, otherwise returns -1 (e.g. sub queries)
+    private static int skipInList(String sql, int i, boolean backslashEscapes) {
+        int length = sql.length();
+        int j = i + 1;
+        boolean expectingItem = true;
+        while (j < length) {
+            char c = sql.charAt(j);
+            if (Character.isWhitespace(c)) {
+                j++;
+            } else if (expectingItem) {
+                if (c == '?') {
+                    j++;
+                } else if (c == '\'') {
+                    j = skipStringLiteral(sql, j, backslashEscapes);
+                } else if (isPrefixedStringLiteral(sql, j)) {
+                    j = skipStringLiteral(sql, j + 1, backslashEscapes || isEscapePrefix(c));
+                } else if (c == '-' && j + 1 < length && isNumericLiteralStart(sql, j + 1)) {
+                    j = skipNumericLiteral(sql, j + 1);
+                } else if (isNumericLiteralStart(sql, j)) {
+                    j = skipNumericLiteral(sql, j);
+                } else {
+                    return -1;
+                }
+                expectingItem = false;
+            } else if (c == ',') {
+                expectingItem = true;
+                j++;
+            } else if (c == ')') {
+                return j + 1;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -27,6 +27,7 @@ import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.internal.QueryIdThreadContext;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
@@ -39,11 +40,14 @@ import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.ByteArrayLengthParameterValue;
 import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.ByteArrayParameterValue;
 import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.StreamingParameterValue;
 import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier;
 import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier2;
 import org.glowroot.agent.plugin.jdbc.message.BatchStatementMessageSupplier;
+import org.glowroot.agent.plugin.jdbc.message.BatchedBindParameters;
+import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
 import org.glowroot.agent.plugin.jdbc.message.PreparedStatementMessageSupplier;
 import org.glowroot.agent.plugin.jdbc.message.StatementMessageSupplier;
 
@@ -61,6 +65,10 @@ public class StatementAspect {
             configService.getBooleanProperty("captureBindParameters");
     private static final BooleanProperty captureStatementClose =
             configService.getBooleanProperty("captureStatementClose");
+    private static final BooleanProperty normalizeSqlLiterals =
+            configService.getBooleanProperty("normalizeSqlLiterals");
+    private static final BooleanProperty sqlBackslashEscapes =
+            configService.getBooleanProperty("sqlBackslashEscapes");
 
     // ===================== Mixin =====================
 
@@ -163,9 +171,12 @@ public class StatementAspect {
             }
         }
         private static void setBytes(PreparedStatementMirror mirror, int parameterIndex, byte[] x) {
-            boolean displayAsHex = JdbcPluginProperties.displayBinaryParameterAsHex(mirror.getSql(),
-                    parameterIndex);
-            mirror.setParameterValue(parameterIndex, new ByteArrayParameterValue(x, displayAsHex));
+            if (JdbcPluginProperties.displayBinaryParameterAsHex(mirror.getSql(), parameterIndex)) {
+                mirror.setParameterValue(parameterIndex, new ByteArrayParameterValue(x));
+            } else {
+                mirror.setParameterValue(parameterIndex,
+                        new ByteArrayLengthParameterValue(x.length));
+            }
         }
     }
 
@@ -298,7 +309,12 @@ public class StatementAspect {
                 return null;
             }
             MessageSupplier messageSupplier = new StatementMessageSupplier(sql);
-            QueryEntry query = context.startQueryEntry(QUERY_TYPE, sql, messageSupplier, timerName);
+            // the trace entry always shows the sql with its literals, only the aggregated query
+            // text is normalized
+            String queryText = normalizeSqlLiterals.value()
+                    ? SqlNormalizer.normalize(sql, sqlBackslashEscapes.value()) : sql;
+            QueryEntry query =
+                    context.startQueryEntry(QUERY_TYPE, queryText, messageSupplier, timerName);
             mirror.setLastQuery(query);
             return query;
         }
@@ -406,16 +422,19 @@ public class StatementAspect {
                 // this shouldn't happen since just checked hasGlowrootStatementMirror() above
                 return null;
             }
-            MessageSupplier messageSupplier;
-            String queryText = mirror.getSql();
+            MessageSupplier messageSupplier = null;
+            String sql = mirror.getSql();
             if (captureBindParameters.value()) {
-                messageSupplier =
-                        new PreparedStatementMessageSupplier(queryText, mirror.getParametersCopy());
-            } else {
-                messageSupplier = new StatementMessageSupplier(queryText);
+                BindParameterList parameters = mirror.getParametersCopy();
+                if (parameters != null && BindParameterBudget.tryAcquire(context, parameters)) {
+                    messageSupplier = new PreparedStatementMessageSupplier(sql, parameters);
+                }
+            }
+            if (messageSupplier == null) {
+                messageSupplier = new StatementMessageSupplier(sql);
             }
             QueryEntry queryEntry =
-                    context.startQueryEntry(QUERY_TYPE, queryText, messageSupplier, timerName);
+                    startQueryEntry(context, mirror, 1, messageSupplier, timerName);
             mirror.setLastQuery(queryEntry);
             return queryEntry;
         }
@@ -556,17 +575,22 @@ public class StatementAspect {
         }
         private static @Nullable QueryEntry onBeforePreparedStatement(ThreadContext context,
                 PreparedStatementMirror mirror) {
-            MessageSupplier messageSupplier;
-            String queryText = mirror.getSql();
+            MessageSupplier messageSupplier = null;
+            String sql = mirror.getSql();
             int batchSize = mirror.getBatchSize();
             if (captureBindParameters.value()) {
-                messageSupplier = new BatchPreparedStatementMessageSupplier(queryText,
-                        mirror.getBatchedParameters());
-            } else {
-                messageSupplier = new BatchPreparedStatementMessageSupplier2(queryText, batchSize);
+                BatchedBindParameters batchedParameters = mirror.getBatchedParameters();
+                if (batchedParameters != null
+                        && BindParameterBudget.tryAcquire(context, batchedParameters)) {
+                    messageSupplier =
+                            new BatchPreparedStatementMessageSupplier(sql, batchedParameters);
+                }
+            }
+            if (messageSupplier == null) {
+                messageSupplier = new BatchPreparedStatementMessageSupplier2(sql, batchSize);
             }
-            QueryEntry queryEntry = context.startQueryEntry(QUERY_TYPE, queryText, batchSize,
-                    messageSupplier, timerName);
+            QueryEntry queryEntry =
+                    startQueryEntry(context, mirror, batchSize, messageSupplier, timerName);
             mirror.setLastQuery(queryEntry);
             mirror.clearBatch();
             return queryEntry;
@@ -634,4 +658,26 @@ public class StatementAspect {
             }
         }
     }
+
+    private static QueryEntry startQueryEntry(ThreadContext context,
+            PreparedStatementMirror mirror, long queryExecutionCount,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        String queryText = getQueryText(mirror);
+        if (context instanceof QueryIdThreadContext) {
+            // the mirror caches the query id so that the query text isn't looked up on every
+            // execution of the prepared statement
+            return ((QueryIdThreadContext) context).startQueryEntry(QUERY_TYPE, queryText,
+                    queryExecutionCount, mirror, messageSupplier, timerName);
+        }
+        return context.startQueryEntry(QUERY_TYPE, queryText, queryExecutionCount,
+                messageSupplier, timerName);
+    }
+
+    private static String getQueryText(PreparedStatementMirror mirror) {
+        if (normalizeSqlLiterals.value()) {
+            return mirror.getNormalizedSql(sqlBackslashEscapes.value());
+        } else {
+            return mirror.getSql();
+        }
+    }
 }
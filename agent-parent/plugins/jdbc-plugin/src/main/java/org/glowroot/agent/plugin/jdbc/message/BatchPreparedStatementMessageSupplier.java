@@ -15,8 +15,6 @@
  */
 package org.glowroot.agent.plugin.jdbc.message;
 
-import java.util.Collection;
-
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 
@@ -24,10 +22,10 @@ public class BatchPreparedStatementMessageSupplier extends MessageSupplier {
 
     private final String sql;
 
-    private final Collection<BindParameterList> batchedParameters;
+    private final BatchedBindParameters batchedParameters;
 
     public BatchPreparedStatementMessageSupplier(String sql,
-            Collection<BindParameterList> batchedParameters) {
+            BatchedBindParameters batchedParameters) {
         this.sql = sql;
         this.batchedParameters = batchedParameters;
     }
@@ -36,15 +34,24 @@ public class BatchPreparedStatementMessageSupplier extends MessageSupplier {
     public Message get() {
         StringBuilder sb = new StringBuilder();
         sb.append("jdbc execution: ");
-        int batchSize = batchedParameters.size();
+        int batchSize = batchedParameters.getRowCount();
         if (batchSize > 1) {
             // print out number of batches to make it easy to identify
             sb.append(batchSize);
             sb.append(" x ");
         }
         sb.append(sql);
-        for (BindParameterList oneParameters : batchedParameters) {
-            PreparedStatementMessageSupplier.appendParameters(sb, oneParameters);
+        for (int i = 0; i < batchSize; i++) {
+            int columnCount = batchedParameters.getColumnCount(i);
+            sb.append(" [");
+            for (int j = 0; j < columnCount; j++) {
+                if (j > 0) {
+                    sb.append(", ");
+                }
+                PreparedStatementMessageSupplier.appendParameter(sb,
+                        batchedParameters.get(i, j));
+            }
+            sb.append("]");
         }
         return Message.from(sb.toString());
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+// micro-optimized storage for the bind parameters of a batch, the parameter values of all rows are
+// copied into a single flat array (instead of retaining one BindParameterList per row), so large
+// batches only retain a single object (plus the values themselves)
+//
+// the array is in column-major layout (all values of the first parameter, followed by all values of
+// the second parameter, etc), since the number of parameters is generally fixed after the first
+// row, while the number of rows keeps growing
+//
+// the number of parameters of each row is only stored once the rows differ in width, so that
+// narrower rows (including the earlier rows after a wider row is added) are not padded with nulls
+public class BatchedBindParameters {
+
+    private static final int INITIAL_ROW_CAPACITY = 16;
+
+    private @Nullable Object[] values;
+    private int rowCapacity;
+    private int columnCount;
+    private int rowCount;
+    // null while all rows have columnCount parameters
+    private @Nullable int[] rowColumnCounts;
+
+    public BatchedBindParameters(int columnCount) {
+        this.columnCount = columnCount;
+        rowCapacity = INITIAL_ROW_CAPACITY;
+        values = new Object[columnCount * rowCapacity];
+    }
+
+    public void addRow(BindParameterList parameters) {
+        int size = parameters.size();
+        if (size != columnCount && rowColumnCounts == null) {
+            rowColumnCounts = new int[rowCapacity];
+            Arrays.fill(rowColumnCounts, 0, rowCount, columnCount);
+        }
+        if (rowCount == rowCapacity || size > columnCount) {
+            grow(size);
+        }
+        if (rowColumnCounts != null) {
+            rowColumnCounts[rowCount] = size;
+        }
+        @Nullable Object[] rowValues = parameters.parameters;
+        for (int i = 0; i < size; i++) {
+            values[i * rowCapacity + rowCount] = rowValues[i];
+        }
+        rowCount++;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // max number of parameters over all rows
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public int getColumnCount(int row) {
+        return rowColumnCounts == null ? columnCount : rowColumnCounts[row];
+    }
+
+    public @Nullable Object get(int row, int column) {
+        return values[column * rowCapacity + row];
+    }
+
+    private void grow(int minColumnCount) {
+        int newRowCapacity = rowCapacity;
+        if (rowCount == rowCapacity) {
+            // using same capacity increase formula as ArrayList
+            newRowCapacity = rowCapacity + (rowCapacity >> 1);
+        }
+        int newColumnCount = Math.max(columnCount, minColumnCount);
+        @Nullable Object[] newValues = new Object[newColumnCount * newRowCapacity];
+        for (int i = 0; i < columnCount; i++) {
+            System.arraycopy(values, i * rowCapacity, newValues, i * newRowCapacity, rowCount);
+        }
+        values = newValues;
+        if (rowColumnCounts != null && newRowCapacity != rowCapacity) {
+            int[] newRowColumnCounts = new int[newRowCapacity];
+            System.arraycopy(rowColumnCounts, 0, newRowColumnCounts, 0, rowCount);
+            rowColumnCounts = newRowColumnCounts;
+        }
+        rowCapacity = newRowCapacity;
+        columnCount = newColumnCount;
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 the original author or authors.
+ * Copyright 2014-2016 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -25,7 +25,8 @@ import com.google.common.collect.Iterators;
 // micro-optimized list for bind parameters
 public class BindParameterList implements Iterable</*@Nullable*/ Object> {
 
-    private @Nullable Object[] parameters;
+    // package-private so BatchedBindParameters can copy directly from the array
+    @Nullable Object[] parameters;
     private int size;
 
     public static BindParameterList copyOf(BindParameterList bindParameterList) {
@@ -69,6 +70,10 @@ public class BindParameterList implements Iterable</*@Nullable*/ Object> {
         return size;
     }
 
+    public @Nullable Object get(int i) {
+        return parameters[i];
+    }
+
     boolean isEmpty() {
         return size == 0;
     }
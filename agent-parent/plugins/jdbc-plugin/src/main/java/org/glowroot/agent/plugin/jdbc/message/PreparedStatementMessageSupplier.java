@@ -43,24 +43,26 @@ public class PreparedStatementMessageSupplier extends MessageSupplier {
         return Message.from(sb.toString());
     }
 
-    static void appendParameters(StringBuilder sb, BindParameterList parameters) {
+    private static void appendParameters(StringBuilder sb, BindParameterList parameters) {
         sb.append(" [");
-        boolean first = true;
-        for (Object parameter : parameters) {
-            if (!first) {
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
                 sb.append(", ");
             }
-            if (parameter instanceof String) {
-                sb.append("\'");
-                sb.append((String) parameter);
-                sb.append("\'");
-            } else if (parameter == null) {
-                sb.append("NULL");
-            } else {
-                sb.append(String.valueOf(parameter));
-            }
-            first = false;
+            appendParameter(sb, parameters.get(i));
         }
         sb.append("]");
     }
+
+    static void appendParameter(StringBuilder sb, @Nullable Object parameter) {
+        if (parameter instanceof String) {
+            sb.append("\'");
+            sb.append((String) parameter);
+            sb.append("\'");
+        } else if (parameter == null) {
+            sb.append("NULL");
+        } else {
+            sb.append(String.valueOf(parameter));
+        }
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+
+    @Test
+    public void shouldReplaceLiterals() {
+        assertThat(SqlNormalizer.normalize(
+                "select * from employee where name = 'it''s' and age > 30 and rate < -1.5e-3"))
+                        .isEqualTo(
+                                "select * from employee where name = ? and age > ? and rate < -?");
+    }
+
+    @Test
+    public void shouldReplacePrefixedStringLiterals() {
+        assertThat(SqlNormalizer.normalize("insert into t (a, b) values (N'abc', X'0F')"))
+                .isEqualTo("insert into t (a, b) values (?, ?)");
+    }
+
+    @Test
+    public void shouldNotTreatBackslashAsEscapeInStandardStringLiterals() {
+        assertThat(SqlNormalizer.normalize("select * from t where path = 'C:\\' and x='y'"))
+                .isEqualTo("select * from t where path = ? and x=?");
+        assertThat(SqlNormalizer.normalize("select * from t where x = E'it\\'s' and y = 1"))
+                .isEqualTo("select * from t where x = ? and y = ?");
+    }
+
+    @Test
+    public void shouldTreatBackslashAsEscapeWhenEnabled() {
+        assertThat(SqlNormalizer.normalize("select * from t where x = 'it\\'s' and y = 1", true))
+                .isEqualTo("select * from t where x = ? and y = ?");
+    }
+
+    @Test
+    public void shouldReplaceInLists() {
+        assertThat(SqlNormalizer.normalize("select * from t where id in (1, 2, 3) and x = ?"))
+                .isEqualTo("select * from t where id in (?+) and x = ?");
+        assertThat(SqlNormalizer.normalize("select * from t where id IN(?,?) or id not in ('a')"))
+                .isEqualTo("select * from t where id IN(?+) or id not in (?+)");
+    }
+
+    @Test
+    public void shouldNotReplaceSubqueryInList() {
+        assertThat(SqlNormalizer.normalize("select * from t where id in (select id from u)"))
+                .isEqualTo("select * from t where id in (select id from u)");
+    }
+
+    @Test
+    public void shouldNotReplaceDigitsInIdentifiers() {
+        assertThat(SqlNormalizer.normalize("select t1.col2, \"3d\", `x4` from table5 t1"))
+                .isEqualTo("select t1.col2, \"3d\", `x4` from table5 t1");
+    }
+
+    @Test
+    public void shouldNotReplaceInsideComments() {
+        assertThat(SqlNormalizer.normalize("select /* 'a' 1 */ 2 -- 'b' 3\nfrom t"))
+                .isEqualTo("select /* 'a' 1 */ ? -- 'b' 3\nfrom t");
+    }
+
+    @Test
+    public void shouldReturnSameInstanceWhenNothingToReplace() {
+        String sql = "select * from t where id = ?";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import org.junit.Test;
+
+import org.glowroot.agent.plugin.api.internal.ReadableMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchedBindParametersTest {
+
+    @Test
+    public void shouldRetainRowsWhenGrowing() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(2);
+        BindParameterList parameters = new BindParameterList(2);
+        // when
+        for (int i = 0; i < 100; i++) {
+            parameters.set(0, i);
+            parameters.set(1, "x" + i);
+            batchedParameters.addRow(parameters);
+        }
+        // then
+        assertThat(batchedParameters.getRowCount()).isEqualTo(100);
+        assertThat(batchedParameters.getColumnCount()).isEqualTo(2);
+        for (int i = 0; i < 100; i++) {
+            assertThat(batchedParameters.get(i, 0)).isEqualTo(i);
+            assertThat(batchedParameters.get(i, 1)).isEqualTo("x" + i);
+        }
+    }
+
+    @Test
+    public void shouldAddColumnsWhenRowHasMoreParameters() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(1);
+        BindParameterList parameters = new BindParameterList(1);
+        parameters.set(0, "a");
+        batchedParameters.addRow(parameters);
+        // when
+        parameters.set(1, "b");
+        batchedParameters.addRow(parameters);
+        // then
+        assertThat(batchedParameters.getColumnCount()).isEqualTo(2);
+        assertThat(batchedParameters.getColumnCount(0)).isEqualTo(1);
+        assertThat(batchedParameters.getColumnCount(1)).isEqualTo(2);
+        assertThat(batchedParameters.get(0, 0)).isEqualTo("a");
+        assertThat(batchedParameters.get(0, 1)).isNull();
+        assertThat(batchedParameters.get(1, 0)).isEqualTo("a");
+        assertThat(batchedParameters.get(1, 1)).isEqualTo("b");
+    }
+
+    @Test
+    public void shouldRenderRows() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(2);
+        BindParameterList parameters = new BindParameterList(2);
+        parameters.set(0, "a");
+        parameters.set(1, 1.5);
+        batchedParameters.addRow(parameters);
+        parameters.set(0, null);
+        parameters.set(1, 5);
+        batchedParameters.addRow(parameters);
+        // when
+        ReadableMessage message = (ReadableMessage) new BatchPreparedStatementMessageSupplier(
+                "insert", batchedParameters).get();
+        // then
+        assertThat(message.getText())
+                .isEqualTo("jdbc execution: 2 x insert ['a', 1.5] [NULL, 5]");
+    }
+
+    @Test
+    public void shouldRenderMixedWidthRows() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(2);
+        BindParameterList parameters = new BindParameterList(2);
+        parameters.set(0, "a");
+        parameters.set(1, "b");
+        batchedParameters.addRow(parameters);
+        parameters.clear();
+        parameters.set(0, "c");
+        parameters.set(1, "d");
+        parameters.set(2, "e");
+        batchedParameters.addRow(parameters);
+        parameters.clear();
+        parameters.set(0, "f");
+        batchedParameters.addRow(parameters);
+        for (int i = 0; i < 20; i++) {
+            batchedParameters.addRow(parameters);
+        }
+        // when
+        ReadableMessage message = (ReadableMessage) new BatchPreparedStatementMessageSupplier(
+                "insert", batchedParameters).get();
+        // then
+        StringBuilder expected =
+                new StringBuilder("jdbc execution: 23 x insert ['a', 'b'] ['c', 'd', 'e']");
+        for (int i = 0; i < 21; i++) {
+            expected.append(" ['f']");
+        }
+        assertThat(message.getText()).isEqualTo(expected.toString());
+    }
+}
@@ -17,6 +17,7 @@ package org.glowroot.common.live;
 
 import java.util.List;
 
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
@@ -46,6 +47,11 @@ public interface LiveJvmService {
 
     Capabilities getCapabilities(String agentId) throws Exception;
 
+    // high resolution gauge samples that are still held in memory on the agent, ordered by capture
+    // time (empty if high resolution gauge sampling is not enabled)
+    List<GaugeValue> getGaugeSamples(String agentId, String gaugeName, long from, long to)
+            throws Exception;
+
     @SuppressWarnings("serial")
     public class AgentNotConnectedException extends Exception {}
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// error messages are counted by fingerprint, so that error messages which only differ by ids,
+// timestamps, etc are counted together
+public class ErrorMessageCollector {
+
+    private final Map<String, MutableErrorMessage> errorMessages = Maps.newHashMap();
+    private final int limit;
+    private final int maxMultiplierWhileBuilding;
+
+    public ErrorMessageCollector(int limit, int maxMultiplierWhileBuilding) {
+        this.limit = limit;
+        this.maxMultiplierWhileBuilding = maxMultiplierWhileBuilding;
+    }
+
+    public List<Aggregate.ErrorMessage> toProto() {
+        if (errorMessages.isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<Aggregate.ErrorMessage> protobufErrorMessages =
+                Lists.newArrayListWithCapacity(errorMessages.size());
+        for (Map.Entry<String, MutableErrorMessage> entry : errorMessages.entrySet()) {
+            MutableErrorMessage errorMessage = entry.getValue();
+            protobufErrorMessages.add(Aggregate.ErrorMessage.newBuilder()
+                    .setFingerprint(entry.getKey())
+                    .setMessage(errorMessage.message)
+                    .setCount(errorMessage.count)
+                    .build());
+        }
+        if (protobufErrorMessages.size() > limit) {
+            order(protobufErrorMessages);
+            protobufErrorMessages = protobufErrorMessages.subList(0, limit);
+        }
+        return protobufErrorMessages;
+    }
+
+    public void mergeErrorMessage(String message) {
+        mergeErrorMessage(getFingerprint(message), message, 1);
+    }
+
+    public void mergeErrorMessages(List<Aggregate.ErrorMessage> toBeMergedErrorMessages) {
+        for (Aggregate.ErrorMessage errorMessage : toBeMergedErrorMessages) {
+            mergeErrorMessage(errorMessage.getFingerprint(), errorMessage.getMessage(),
+                    errorMessage.getCount());
+        }
+    }
+
+    private void mergeErrorMessage(String fingerprint, String message, long count) {
+        MutableErrorMessage errorMessage = errorMessages.get(fingerprint);
+        if (errorMessage == null) {
+            if (maxMultiplierWhileBuilding != 0
+                    && errorMessages.size() >= limit * maxMultiplierWhileBuilding) {
+                return;
+            }
+            errorMessage = new MutableErrorMessage(message);
+            errorMessages.put(fingerprint, errorMessage);
+        }
+        errorMessage.count += count;
+    }
+
+    // replaces numbers, hex values (including uuids) with "?"
+    public static String getFingerprint(String message) {
+        int length = message.length();
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            if (!Character.isLetterOrDigit(message.charAt(i))) {
+                sb.append(message.charAt(i++));
+                continue;
+            }
+            int end = i + 1;
+            while (end < length && Character.isLetterOrDigit(message.charAt(end))) {
+                end++;
+            }
+            appendFingerprint(message, i, end, sb);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    private static void appendFingerprint(String message, int start, int end, StringBuilder sb) {
+        if (isHexValue(message, start, end)) {
+            sb.append('?');
+            return;
+        }
+        boolean inDigits = false;
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (isDigit(c)) {
+                if (!inDigits) {
+                    sb.append('?');
+                    inDigits = true;
+                }
+            } else {
+                sb.append(c);
+                inDigits = false;
+            }
+        }
+    }
+
+    // "0x" prefixed hex value, or hex digits containing at least one decimal digit (so that plain
+    // words like "face" are not matched)
+    private static boolean isHexValue(String message, int start, int end) {
+        int i = start;
+        boolean hexPrefix = end - start > 2 && message.charAt(start) == '0'
+                && (message.charAt(start + 1) == 'x' || message.charAt(start + 1) == 'X');
+        if (hexPrefix) {
+            i += 2;
+        }
+        boolean containsDigit = false;
+        for (; i < end; i++) {
+            char c = message.charAt(i);
+            if (isDigit(c)) {
+                containsDigit = true;
+            } else if (!(c >= 'a' && c <= 'f') && !(c >= 'A' && c <= 'F')) {
+                return false;
+            }
+        }
+        return hexPrefix || containsDigit;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void order(List<Aggregate.ErrorMessage> errorMessages) {
+        // reverse sort by count
+        Collections.sort(errorMessages, new Comparator<Aggregate.ErrorMessage>() {
+            @Override
+            public int compare(Aggregate.ErrorMessage left, Aggregate.ErrorMessage right) {
+                return Longs.compare(right.getCount(), left.getCount());
+            }
+        });
+    }
+
+    private static class MutableErrorMessage {
+
+        private final String message;
+        private long count;
+
+        private MutableErrorMessage(String message) {
+            this.message = message;
+        }
+    }
+}
@@ -20,6 +20,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.zip.DataFormatException;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.ByteString;
 import org.HdrHistogram.Histogram;
@@ -37,14 +39,21 @@ public class LazyHistogram {
     private int size;
     private boolean sorted;
 
-    private @MonotonicNonNull Histogram histogram;
+    private @Nullable Histogram histogram;
+
+    // once a rolled up (log-bucketed) histogram is merged in, the histogram is tracked using log
+    // buckets from then on
+    private @MonotonicNonNull LogBucketHistogram logBucketHistogram;
 
     public LazyHistogram() {}
 
     // special constructor, histogram created this way cannot be further mutated
     public LazyHistogram(Aggregate.Histogram hist) {
         ByteString encodedBytes = hist.getEncodedBytes();
-        if (encodedBytes.isEmpty()) {
+        if (hist.getLogBucketCountCount() > 0) {
+            logBucketHistogram = new LogBucketHistogram();
+            logBucketHistogram.merge(hist);
+        } else if (encodedBytes.isEmpty()) {
             List<Long> orderedRawValues = hist.getOrderedRawValueList();
             values = new long[orderedRawValues.size()];
             for (int i = 0; i < values.length; i++) {
@@ -56,9 +65,32 @@ public class LazyHistogram {
         }
     }
 
+    // uses the precomputed values at the percentiles when available, and only decodes the
+    // histogram if needed
+    public static long[] getValuesAtPercentiles(Aggregate.Histogram hist,
+            List<Double> percentiles) {
+        long[] valuesAtPercentiles = new long[percentiles.size()];
+        LazyHistogram decoded = null;
+        for (int i = 0; i < valuesAtPercentiles.length; i++) {
+            double percentile = percentiles.get(i);
+            Long precomputedValue = getPrecomputedValueAtPercentile(hist, percentile);
+            if (precomputedValue != null) {
+                valuesAtPercentiles[i] = precomputedValue;
+            } else {
+                if (decoded == null) {
+                    decoded = new LazyHistogram(hist);
+                }
+                valuesAtPercentiles[i] = decoded.getValueAtPercentile(percentile);
+            }
+        }
+        return valuesAtPercentiles;
+    }
+
     public Aggregate.Histogram toProto(ScratchBuffer scratchBuffer) {
         Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder();
-        if (histogram == null) {
+        if (logBucketHistogram != null) {
+            logBucketHistogram.writeTo(builder);
+        } else if (histogram == null) {
             if (!sorted) {
                 // sort values before storing so don't have to sort each time later when calculating
                 // percentiles
@@ -78,21 +110,63 @@ public class LazyHistogram {
         return builder.build();
     }
 
+    // rolled up histograms are stored using log buckets (unless still small enough to be stored as
+    // raw values), along with precomputed values at the given percentiles
+    public Aggregate.Histogram toRollupProto(ScratchBuffer scratchBuffer,
+            List<Double> precomputedPercentiles) {
+        if (histogram != null) {
+            convertToLogBucketHistogram();
+        }
+        Aggregate.Histogram.Builder builder = toProto(scratchBuffer).toBuilder();
+        for (double percentile : precomputedPercentiles) {
+            builder.addPercentileValue(Aggregate.PercentileValue.newBuilder()
+                    .setPercentile(percentile)
+                    .setValue(getValueAtPercentile(percentile)));
+        }
+        return builder.build();
+    }
+
     public void merge(Aggregate.Histogram toBeMergedHistogram) throws DataFormatException {
         ByteString encodedBytes = toBeMergedHistogram.getEncodedBytes();
-        if (encodedBytes.isEmpty()) {
+        if (toBeMergedHistogram.getLogBucketCountCount() > 0) {
+            if (logBucketHistogram == null) {
+                convertToLogBucketHistogram();
+            }
+            logBucketHistogram.merge(toBeMergedHistogram);
+        } else if (encodedBytes.isEmpty()) {
             for (long rawValue : toBeMergedHistogram.getOrderedRawValueList()) {
                 add(rawValue);
             }
         } else {
+            Histogram toBeMerged =
+                    Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0);
+            if (logBucketHistogram != null) {
+                logBucketHistogram.merge(toBeMerged);
+                return;
+            }
             if (histogram == null) {
                 convertValuesToHistogram();
             }
-            histogram.add(Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0));
+            histogram.add(toBeMerged);
         }
     }
 
     public void merge(LazyHistogram toBeMergedHistogram) {
+        if (logBucketHistogram != null || toBeMergedHistogram.logBucketHistogram != null) {
+            if (logBucketHistogram == null) {
+                convertToLogBucketHistogram();
+            }
+            if (toBeMergedHistogram.logBucketHistogram != null) {
+                logBucketHistogram.merge(toBeMergedHistogram.logBucketHistogram);
+            } else if (toBeMergedHistogram.histogram != null) {
+                logBucketHistogram.merge(toBeMergedHistogram.histogram);
+            } else {
+                for (int i = 0; i < toBeMergedHistogram.size; i++) {
+                    logBucketHistogram.add(toBeMergedHistogram.values[i]);
+                }
+            }
+            return;
+        }
         if (histogram == null) {
             convertValuesToHistogram();
         }
@@ -106,6 +180,9 @@ public class LazyHistogram {
     }
 
     public long getValueAtPercentile(double percentile) {
+        if (logBucketHistogram != null) {
+            return logBucketHistogram.getValueAtPercentile(percentile);
+        }
         if (histogram == null) {
             if (size == 0) {
                 // this is consistent with HdrHistogram behavior
@@ -125,6 +202,10 @@ public class LazyHistogram {
 
     @VisibleForTesting
     public void add(long value) {
+        if (logBucketHistogram != null) {
+            logBucketHistogram.add(value);
+            return;
+        }
         ensureCapacity(size + 1);
         if (histogram != null) {
             histogram.recordValue(value);
@@ -135,7 +216,7 @@ public class LazyHistogram {
     }
 
     private void ensureCapacity(int capacity) {
-        if (histogram != null) {
+        if (histogram != null || logBucketHistogram != null) {
             return;
         }
         if (capacity > MAX_VALUES) {
@@ -161,6 +242,32 @@ public class LazyHistogram {
         values = new long[0];
     }
 
+    private static @Nullable Long getPrecomputedValueAtPercentile(Aggregate.Histogram hist,
+            double percentile) {
+        for (int i = 0; i < hist.getPercentileValueCount(); i++) {
+            Aggregate.PercentileValue percentileValue = hist.getPercentileValue(i);
+            if (percentileValue.getPercentile() == percentile) {
+                return percentileValue.getValue();
+            }
+        }
+        return null;
+    }
+
+    @EnsuresNonNull("logBucketHistogram")
+    private void convertToLogBucketHistogram() {
+        logBucketHistogram = new LogBucketHistogram();
+        if (histogram == null) {
+            for (int i = 0; i < size; i++) {
+                logBucketHistogram.add(values[i]);
+            }
+            values = new long[0];
+            size = 0;
+        } else {
+            logBucketHistogram.merge(histogram);
+            histogram = null;
+        }
+    }
+
     private void sortValues() {
         Arrays.sort(values, 0, size);
         sorted = true;
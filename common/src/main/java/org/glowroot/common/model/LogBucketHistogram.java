@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// histogram with logarithmically sized buckets, bucket i counts values in (GAMMA^(i-1), GAMMA^i]
+//
+// this has bounded relative error (~0.5%), and even for nanosecond durations spanning many orders
+// of magnitude it only needs a few thousand buckets, so unlike HdrHistogram it is compact
+// enough to be stored as plain counts, and merged and read directly without decoding
+class LogBucketHistogram {
+
+    private static final double GAMMA = 1.01;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private int offset;
+    private long[] counts = new long[0];
+    private long totalCount;
+
+    void add(long value) {
+        add(value, 1);
+    }
+
+    void add(long value, long count) {
+        int index = getBucketIndex(value);
+        ensureBucket(index);
+        counts[index - offset] += count;
+        totalCount += count;
+    }
+
+    void merge(Aggregate.Histogram toBeMergedHistogram) {
+        int toBeMergedCount = toBeMergedHistogram.getLogBucketCountCount();
+        if (toBeMergedCount == 0) {
+            return;
+        }
+        int toBeMergedOffset = toBeMergedHistogram.getLogBucketOffset();
+        ensureBucket(toBeMergedOffset);
+        ensureBucket(toBeMergedOffset + toBeMergedCount - 1);
+        for (int i = 0; i < toBeMergedCount; i++) {
+            long count = toBeMergedHistogram.getLogBucketCount(i);
+            counts[toBeMergedOffset + i - offset] += count;
+            totalCount += count;
+        }
+    }
+
+    void merge(LogBucketHistogram toBeMergedHistogram) {
+        if (toBeMergedHistogram.counts.length == 0) {
+            return;
+        }
+        ensureBucket(toBeMergedHistogram.offset);
+        ensureBucket(toBeMergedHistogram.offset + toBeMergedHistogram.counts.length - 1);
+        for (int i = 0; i < toBeMergedHistogram.counts.length; i++) {
+            counts[toBeMergedHistogram.offset + i - offset] += toBeMergedHistogram.counts[i];
+        }
+        totalCount += toBeMergedHistogram.totalCount;
+    }
+
+    void merge(Histogram toBeMergedHistogram) {
+        for (HistogramIterationValue value : toBeMergedHistogram.recordedValues()) {
+            add(value.getValueIteratedTo(), value.getCountAtValueIteratedTo());
+        }
+    }
+
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            // this is consistent with HdrHistogram behavior
+            return 0;
+        }
+        // support "0th" percentile to mean the smallest tracked percentile
+        long rank = Math.max((long) Math.ceil(totalCount * percentile / 100), 1);
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= rank) {
+                return getBucketValue(offset + i);
+            }
+        }
+        return getBucketValue(offset + counts.length - 1);
+    }
+
+    void writeTo(Aggregate.Histogram.Builder builder) {
+        int start = 0;
+        while (start < counts.length && counts[start] == 0) {
+            start++;
+        }
+        int end = counts.length;
+        while (end > start && counts[end - 1] == 0) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        builder.setLogBucketOffset(offset + start);
+        for (int i = start; i < end; i++) {
+            builder.addLogBucketCount(counts[i]);
+        }
+    }
+
+    private void ensureBucket(int index) {
+        if (counts.length == 0) {
+            offset = index;
+            counts = new long[1];
+        } else if (index < offset) {
+            long[] temp = new long[counts.length + offset - index];
+            System.arraycopy(counts, 0, temp, offset - index, counts.length);
+            counts = temp;
+            offset = index;
+        } else if (index >= offset + counts.length) {
+            long[] temp = new long[index - offset + 1];
+            System.arraycopy(counts, 0, temp, 0, counts.length);
+            counts = temp;
+        }
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value <= 1) {
+            return 0;
+        }
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    // the value in the bucket with the smallest maximum relative error
+    private static long getBucketValue(int index) {
+        return Math.round(2 * Math.pow(GAMMA, index) / (GAMMA + 1));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ErrorMessageCollectorTest {
+
+    @Test
+    public void shouldFingerprintNumbers() {
+        assertThat(ErrorMessageCollector.getFingerprint("Timeout after 30000 ms"))
+                .isEqualTo("Timeout after ? ms");
+        assertThat(ErrorMessageCollector.getFingerprint("No row with id=123 in table user2"))
+                .isEqualTo("No row with id=? in table user?");
+        assertThat(ErrorMessageCollector.getFingerprint("Duplicate entry"))
+                .isEqualTo("Duplicate entry");
+    }
+
+    @Test
+    public void shouldFingerprintHexValues() {
+        assertThat(ErrorMessageCollector.getFingerprint("Bad address 0xdeadbeef"))
+                .isEqualTo("Bad address ?");
+        assertThat(ErrorMessageCollector.getFingerprint("Object@7a81197d is closed"))
+                .isEqualTo("Object@? is closed");
+        assertThat(ErrorMessageCollector.getFingerprint("Order not found: "
+                + "123e4567-e89b-12d3-a456-426655440000"))
+                        .isEqualTo("Order not found: ?-?-?-?-?");
+        // plain words made of hex characters are left alone
+        assertThat(ErrorMessageCollector.getFingerprint("Cannot decode face"))
+                .isEqualTo("Cannot decode face");
+    }
+
+    @Test
+    public void shouldCountByFingerprint() {
+        // given
+        ErrorMessageCollector collector = new ErrorMessageCollector(10, 0);
+
+        // when
+        collector.mergeErrorMessage("Order 1 not found");
+        collector.mergeErrorMessage("Order 2 not found");
+        collector.mergeErrorMessage("Connection refused");
+        collector.mergeErrorMessages(collector.toProto());
+
+        // then
+        List<Aggregate.ErrorMessage> errorMessages = collector.toProto();
+        assertThat(errorMessages).hasSize(2);
+        for (Aggregate.ErrorMessage errorMessage : errorMessages) {
+            if (errorMessage.getFingerprint().equals("Order ? not found")) {
+                assertThat(errorMessage.getMessage()).isEqualTo("Order 1 not found");
+                assertThat(errorMessage.getCount()).isEqualTo(4);
+            } else {
+                assertThat(errorMessage.getMessage()).isEqualTo("Connection refused");
+                assertThat(errorMessage.getCount()).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    public void shouldTruncateToLimitByCount() {
+        // given
+        ErrorMessageCollector collector = new ErrorMessageCollector(1, 0);
+
+        // when
+        collector.mergeErrorMessage("Connection refused");
+        collector.mergeErrorMessage("Order 1 not found");
+        collector.mergeErrorMessage("Order 2 not found");
+
+        // then
+        List<Aggregate.ErrorMessage> errorMessages = collector.toProto();
+        assertThat(errorMessages).hasSize(1);
+        assertThat(errorMessages.get(0).getFingerprint()).isEqualTo("Order ? not found");
+        assertThat(errorMessages.get(0).getCount()).isEqualTo(2);
+    }
+}
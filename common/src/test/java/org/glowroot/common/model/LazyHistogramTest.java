@@ -15,6 +15,7 @@
  */
 package org.glowroot.common.model;
 
+import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
@@ -78,6 +79,72 @@ public class LazyHistogramTest {
         shouldDecodeOnTopOfExisting(100000000, 200000000);
     }
 
+    @Test
+    public void shouldTestRollupEncodeDecode() throws Exception {
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestRollupEncodeDecode(i);
+        }
+        shouldTestRollupEncodeDecode(10000000);
+        shouldTestRollupEncodeDecode(100000000);
+    }
+
+    @Test
+    public void shouldStoreRollupAsLogBuckets() {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        for (int i = 10000000; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        // when
+        Aggregate.Histogram histogram = lazyHistogram.toRollupProto(new ScratchBuffer(),
+                ImmutableList.<Double>of());
+        // then
+        assertThat(histogram.getEncodedBytes().isEmpty()).isTrue();
+        assertThat(histogram.getOrderedRawValueCount()).isZero();
+        assertThat(histogram.getLogBucketCountCount()).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldTestRollupMergedWithNonRollup() throws Exception {
+        // given
+        LazyHistogram rollupHistogram = new LazyHistogram();
+        for (int i = 10000000; i > 0; i -= 1000) {
+            rollupHistogram.add(i);
+        }
+        LazyHistogram nonRollupHistogram = new LazyHistogram();
+        for (int i = 20000000; i > 10000000; i -= 1000) {
+            nonRollupHistogram.add(i);
+        }
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        // when
+        lazyHistogram.merge(nonRollupHistogram.toProto(new ScratchBuffer()));
+        lazyHistogram.merge(
+                rollupHistogram.toRollupProto(new ScratchBuffer(), ImmutableList.<Double>of()));
+        // then
+        assertPercentile(lazyHistogram, 20000000, 50);
+        assertPercentile(lazyHistogram, 20000000, 95);
+        assertPercentile(lazyHistogram, 20000000, 99);
+    }
+
+    @Test
+    public void shouldUsePrecomputedPercentiles() {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        for (int i = 10000000; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = lazyHistogram.toRollupProto(new ScratchBuffer(),
+                ImmutableList.of(50.0, 95.0));
+        // when
+        long[] values =
+                LazyHistogram.getValuesAtPercentiles(histogram, ImmutableList.of(95.0, 99.0));
+        // then
+        assertThat(histogram.getPercentileValueCount()).isEqualTo(2);
+        assertThat(values[0]).isEqualTo(histogram.getPercentileValue(1).getValue());
+        assertThat(values[1]).isEqualTo(lazyHistogram.getValueAtPercentile(99));
+    }
+
     private void shouldTestPercentiles(int num) {
         // given
         LazyHistogram lazyHistogram = new LazyHistogram();
@@ -111,6 +178,26 @@ public class LazyHistogramTest {
         assertPercentile(lazyHistogram, num, 99.99);
     }
 
+    private void shouldTestRollupEncodeDecode(int num) throws Exception {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = lazyHistogram.toRollupProto(new ScratchBuffer(),
+                ImmutableList.<Double>of());
+        lazyHistogram = new LazyHistogram();
+        // when
+        lazyHistogram.merge(histogram);
+        lazyHistogram.merge(histogram);
+        // then
+        assertPercentile(lazyHistogram, num, 50);
+        assertPercentile(lazyHistogram, num, 95);
+        assertPercentile(lazyHistogram, num, 99);
+        assertPercentile(lazyHistogram, num, 99.9);
+        assertPercentile(lazyHistogram, num, 99.99);
+    }
+
     private void shouldTestEncodeDecodeAndAddMore(int num) throws Exception {
         // given
         LazyHistogram lazyHistogram = new LazyHistogram();
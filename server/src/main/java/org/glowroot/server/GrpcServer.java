@@ -20,6 +20,7 @@ import java.io.IOException;
 import io.grpc.internal.ServerImpl;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.stub.StreamObserver;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,15 +34,18 @@ import org.glowroot.wire.api.model.CollectorServiceGrpc;
 import org.glowroot.wire.api.model.CollectorServiceGrpc.CollectorService;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.EmptyMessage;
-import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitResponse;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage;
 import org.glowroot.wire.api.model.DownstreamServiceGrpc;
 import org.glowroot.wire.api.model.Proto;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public class GrpcServer {
 
@@ -113,7 +117,8 @@ public class GrpcServer {
             try {
                 aggregateRepository.store(request.getAgentId(), request.getCaptureTime(),
                         request.getAggregatesByTypeList());
-                alertingService.checkTransactionAlerts(request.getCaptureTime());
+                alertingService.checkTransactionAlerts(request.getAgentId(),
+                        request.getCaptureTime(), request.getAggregatesByTypeList());
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 responseObserver.onError(t);
@@ -128,11 +133,8 @@ public class GrpcServer {
                 StreamObserver<EmptyMessage> responseObserver) {
             try {
                 gaugeValueRepository.store(request.getAgentId(), request.getGaugeValuesList());
-                long maxCaptureTime = 0;
-                for (GaugeValue gaugeValue : request.getGaugeValuesList()) {
-                    maxCaptureTime = Math.max(maxCaptureTime, gaugeValue.getCaptureTime());
-                }
-                alertingService.checkGaugeAlerts(maxCaptureTime);
+                alertingService.checkGaugeAlerts(request.getAgentId(),
+                        request.getGaugeValuesList());
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 responseObserver.onError(t);
@@ -156,6 +158,59 @@ public class GrpcServer {
             responseObserver.onCompleted();
         }
 
+        @Override
+        public StreamObserver<TraceStreamMessage> collectTraceStream(
+                final StreamObserver<EmptyMessage> responseObserver) {
+            return new StreamObserver<TraceStreamMessage>() {
+
+                private @MonotonicNonNull String agentId;
+                private final Trace.Builder trace = Trace.newBuilder();
+
+                @Override
+                public void onNext(TraceStreamMessage value) {
+                    switch (value.getMessageCase()) {
+                        case STREAM_HEADER:
+                            agentId = value.getStreamHeader().getAgentId();
+                            trace.setId(value.getStreamHeader().getTraceId());
+                            break;
+                        case ENTRY:
+                            trace.addEntry(value.getEntry());
+                            break;
+                        case MAIN_THREAD_PROFILE:
+                            trace.setMainThreadProfile(value.getMainThreadProfile());
+                            break;
+                        case AUX_THREAD_PROFILE:
+                            trace.setAuxThreadProfile(value.getAuxThreadProfile());
+                            break;
+                        case HEADER:
+                            trace.setHeader(value.getHeader());
+                            break;
+                        default:
+                            throw new IllegalStateException(
+                                    "Unexpected message: " + value.getMessageCase());
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    logger.debug(t.getMessage(), t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    try {
+                        traceRepository.collect(checkNotNull(agentId), trace.build());
+                    } catch (Throwable t) {
+                        logger.error(t.getMessage(), t);
+                        responseObserver.onError(t);
+                        return;
+                    }
+                    responseObserver.onNext(EmptyMessage.getDefaultInstance());
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+
         @Override
         public void log(LogMessage request, StreamObserver<EmptyMessage> responseObserver) {
             try {
@@ -17,7 +17,10 @@ package org.glowroot.server;
 
 import java.util.List;
 
+import com.google.common.collect.ImmutableList;
+
 import org.glowroot.common.live.LiveJvmService;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
@@ -79,4 +82,12 @@ class LiveJvmServiceImpl implements LiveJvmService {
     public Capabilities getCapabilities(String agentId) throws Exception {
         return downstreamService.capabilities(agentId);
     }
+
+    @Override
+    public List<GaugeValue> getGaugeSamples(String agentId, String gaugeName, long from,
+            long to) {
+        // high resolution gauge samples are not retrieved over the downstream connection (yet),
+        // so the central UI only shows the per gauge collection interval summary values
+        return ImmutableList.of();
+    }
 }
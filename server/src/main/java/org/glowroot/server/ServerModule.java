@@ -21,6 +21,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
@@ -30,6 +32,7 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +49,7 @@ import org.glowroot.server.storage.TraceDao;
 import org.glowroot.server.storage.TransactionTypeDao;
 import org.glowroot.server.storage.TriggeredAlertDao;
 import org.glowroot.storage.repo.RepoAdmin;
+import org.glowroot.storage.repo.helper.AlertCheckRunnable;
 import org.glowroot.storage.repo.helper.AlertingService;
 import org.glowroot.storage.repo.helper.RollupLevelService;
 import org.glowroot.storage.util.MailService;
@@ -53,7 +57,9 @@ import org.glowroot.ui.CreateUiModuleBuilder;
 import org.glowroot.ui.UiModule;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class ServerModule {
 
@@ -61,12 +67,14 @@ public class ServerModule {
 
     private final Cluster cluster;
     private final Session session;
+    private final ScheduledExecutorService alertCheckExecutor;
     private final GrpcServer server;
     private final UiModule uiModule;
 
     ServerModule() throws Exception {
         Cluster cluster = null;
         Session session = null;
+        ScheduledExecutorService alertCheckExecutor = null;
         GrpcServer server = null;
         UiModule uiModule = null;
         try {
@@ -126,6 +134,16 @@ public class ServerModule {
             AlertingService alertingService = new AlertingService(configRepository, agentDao,
                     triggeredAlertDao, aggregateDao, gaugeValueDao, rollupLevelService,
                     new MailService());
+            alertCheckExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("Glowroot-Alert-Check-%d")
+                            .build());
+            long alertCheckIntervalMillis =
+                    configRepository.getRollupConfigs().get(0).intervalMillis();
+            new AlertCheckRunnable(alertingService, configRepository, clock).scheduleWithFixedDelay(
+                    alertCheckExecutor, alertCheckIntervalMillis, alertCheckIntervalMillis,
+                    MILLISECONDS);
 
             server = new GrpcServer(serverConfig.grpcPort(), agentDao, aggregateDao,
                     gaugeValueDao, traceDao, alertingService);
@@ -160,6 +178,9 @@ public class ServerModule {
             if (server != null) {
                 server.close();
             }
+            if (alertCheckExecutor != null) {
+                alertCheckExecutor.shutdownNow();
+            }
             if (session != null) {
                 session.close();
             }
@@ -170,6 +191,7 @@ public class ServerModule {
         }
         this.cluster = cluster;
         this.session = session;
+        this.alertCheckExecutor = alertCheckExecutor;
         this.server = server;
         this.uiModule = uiModule;
     }
@@ -177,6 +199,10 @@ public class ServerModule {
     void close() throws InterruptedException {
         uiModule.close();
         server.close();
+        alertCheckExecutor.shutdown();
+        if (!alertCheckExecutor.awaitTermination(10, SECONDS)) {
+            throw new IllegalStateException("Could not terminate executor");
+        }
         session.close();
         cluster.close();
     }
@@ -17,13 +17,22 @@ package org.glowroot.server.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
@@ -33,6 +42,7 @@ import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.utils.UUIDs;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -44,6 +54,7 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Parser;
 import org.immutables.value.Value;
 
+import org.glowroot.common.model.ErrorMessageCollector;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
 import org.glowroot.common.model.MutableProfile;
@@ -58,6 +69,7 @@ import org.glowroot.storage.repo.AgentRepository.AgentRollup;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.ConfigRepository.RollupConfig;
+import org.glowroot.storage.repo.ErrorMessageResultCollector;
 import org.glowroot.storage.repo.ImmutableOverallErrorSummary;
 import org.glowroot.storage.repo.ImmutableOverallSummary;
 import org.glowroot.storage.repo.ImmutableOverviewAggregate;
@@ -70,6 +82,7 @@ import org.glowroot.storage.repo.MutableTimer;
 import org.glowroot.storage.repo.ProfileCollector;
 import org.glowroot.storage.repo.TransactionErrorSummaryCollector;
 import org.glowroot.storage.repo.TransactionSummaryCollector;
+import org.glowroot.storage.repo.Utils;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate.QueriesByType;
@@ -84,6 +97,9 @@ import static java.util.concurrent.TimeUnit.HOURS;
 
 public class AggregateDao implements AggregateRepository {
 
+    private static final int MIN_ROWS_FOR_PARALLEL_MERGE =
+            Integer.getInteger("glowroot.internal.merge.minRowsForParallel", 32);
+
     private static final Table summaryTable = ImmutableTable.builder()
             .partialName("summary")
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
@@ -144,6 +160,13 @@ public class AggregateDao implements AggregateRepository {
             .fromInclusive(false)
             .build();
 
+    private static final Table errorMessagesTable = ImmutableTable.builder()
+            .partialName("error_messages")
+            .addColumns(ImmutableColumn.of("error_messages", "blob"))
+            .summary(false)
+            .fromInclusive(false)
+            .build();
+
     private static final Table mainThreadProfileTable = ImmutableTable.builder()
             .partialName("main_thread_profile")
             .addColumns(ImmutableColumn.of("main_thread_profile", "blob"))
@@ -193,7 +216,7 @@ public class AggregateDao implements AggregateRepository {
 
         allTables = ImmutableList.of(summaryTable, errorSummaryTable, overviewTable,
                 histogramTable, throughputTable, queriesTable, serviceCallsTable,
-                mainThreadProfileTable, auxThreadProfileTable);
+                errorMessagesTable, mainThreadProfileTable, auxThreadProfileTable);
         Map<Table, List<PreparedStatement>> insertOverallMap = Maps.newHashMap();
         Map<Table, List<PreparedStatement>> insertTransactionMap = Maps.newHashMap();
         Map<Table, List<PreparedStatement>> readOverallMap = Maps.newHashMap();
@@ -494,19 +517,14 @@ public class AggregateDao implements AggregateRepository {
     public void mergeInQueries(QueryCollector collector, TransactionQuery query)
             throws IOException {
         ResultSet results = executeQuery(queriesTable, query);
-        long captureTime = Long.MIN_VALUE;
-        for (Row row : results) {
-            captureTime = Math.max(captureTime, checkNotNull(row.getTimestamp(0)).getTime());
-            ByteBuffer byteBuf = checkNotNull(row.getBytes(1));
-            try (InputStream input = new ByteBufferInputStream(byteBuf)) {
-                Parser<QueriesByType> parser = Aggregate.QueriesByType.parser();
-                QueriesByType message;
-                while ((message = parser.parseDelimitedFrom(input)) != null) {
-                    collector.mergeQueries(message);
-                    collector.updateLastCaptureTime(captureTime);
-                }
-            }
-        }
+        merge(results, collector,
+                // partial collectors are not truncated, truncation is done by the final collector
+                () -> new QueryCollector(Integer.MAX_VALUE, 0),
+                AggregateDao::mergeQueries,
+                (left, right) -> {
+                    left.mergeQueries(right.toProto());
+                    left.updateLastCaptureTime(right.getLastCaptureTime());
+                });
     }
 
     // query.from() is non-inclusive
@@ -529,17 +547,30 @@ public class AggregateDao implements AggregateRepository {
         }
     }
 
+    // query.from() is non-inclusive
+    @Override
+    public void mergeInErrorMessages(ErrorMessageResultCollector collector,
+            TransactionQuery query) throws IOException {
+        ResultSet results = executeQuery(errorMessagesTable, query);
+        for (Row row : results) {
+            long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
+            ByteBuffer bytes = checkNotNull(row.getBytes(1));
+            collector.mergeErrorMessages(captureTime,
+                    Messages.parseDelimitedFrom(bytes, Aggregate.ErrorMessage.parser()));
+        }
+    }
+
     // query.from() is non-inclusive
     @Override
     public void mergeInMainThreadProfiles(ProfileCollector collector, TransactionQuery query)
-            throws InvalidProtocolBufferException {
+            throws IOException {
         mergeInProfiles(collector, query, mainThreadProfileTable);
     }
 
     // query.from() is non-inclusive
     @Override
     public void mergeInAuxThreadProfiles(ProfileCollector collector, TransactionQuery query)
-            throws InvalidProtocolBufferException {
+            throws IOException {
         mergeInProfiles(collector, query, auxThreadProfileTable);
     }
 
@@ -638,6 +669,8 @@ public class AggregateDao implements AggregateRepository {
     private void rollupOne(int rollupLevel, String agentRollup, String transactionType, long from,
             long to) throws Exception {
         ScratchBuffer scratchBuffer = new ScratchBuffer();
+        List<Double> precomputedPercentiles =
+                Utils.getPrecomputedPercentiles(configRepository, agentRollup);
         TransactionQuery query = ImmutableTransactionQuery.builder()
                 .agentRollup(agentRollup)
                 .transactionType(transactionType)
@@ -648,10 +681,11 @@ public class AggregateDao implements AggregateRepository {
         rollupOverallSummary(rollupLevel, query);
         rollupErrorSummary(rollupLevel, query);
         rollupOverview(rollupLevel, query);
-        rollupHistogram(rollupLevel, query, scratchBuffer);
+        rollupHistogram(rollupLevel, query, scratchBuffer, precomputedPercentiles);
         rollupThroughput(rollupLevel, query);
         rollupQueries(rollupLevel, query);
         rollupServiceCalls(rollupLevel, query);
+        rollupErrorMessages(rollupLevel, query);
         rollupThreadProfile(rollupLevel, query, mainThreadProfileTable);
         rollupThreadProfile(rollupLevel, query, auxThreadProfileTable);
 
@@ -667,10 +701,11 @@ public class AggregateDao implements AggregateRepository {
                     .rollupLevel(rollupLevel - 1)
                     .build();
             rollupOverview(rollupLevel, query);
-            rollupHistogram(rollupLevel, query, scratchBuffer);
+            rollupHistogram(rollupLevel, query, scratchBuffer, precomputedPercentiles);
             rollupThroughput(rollupLevel, query);
             rollupQueries(rollupLevel, query);
             rollupServiceCalls(rollupLevel, query);
+            rollupErrorMessages(rollupLevel, query);
             rollupThreadProfile(rollupLevel, query, mainThreadProfileTable);
             rollupThreadProfile(rollupLevel, query, auxThreadProfileTable);
         }
@@ -799,7 +834,7 @@ public class AggregateDao implements AggregateRepository {
     }
 
     private void rollupHistogram(int rollupLevel, TransactionQuery query,
-            ScratchBuffer scratchBuffer) throws Exception {
+            ScratchBuffer scratchBuffer, List<Double> precomputedPercentiles) throws Exception {
         ResultSet results = executeQueryForRollup(histogramTable, query);
         if (results.isExhausted()) {
             // this probably shouldn't happen
@@ -829,7 +864,8 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setTimestamp(i++, new Date(query.to()));
         boundStatement.setDouble(i++, totalDurationNanos);
         boundStatement.setLong(i++, transactionCount);
-        boundStatement.setBytes(i++, toByteBuffer(durationNanosHistogram.toProto(scratchBuffer)));
+        boundStatement.setBytes(i++, toByteBuffer(
+                durationNanosHistogram.toRollupProto(scratchBuffer, precomputedPercentiles)));
         boundStatement.setInt(i++, getTTL(rollupLevel));
         session.execute(boundStatement);
     }
@@ -922,6 +958,36 @@ public class AggregateDao implements AggregateRepository {
         session.execute(boundStatement);
     }
 
+    private void rollupErrorMessages(int rollupLevel, TransactionQuery query) throws IOException {
+        ResultSet results = executeQueryForRollup(errorMessagesTable, query);
+        if (results.isExhausted()) {
+            return;
+        }
+        ErrorMessageCollector collector =
+                new ErrorMessageCollector(ConfigDefaults.MAX_AGGREGATE_ERROR_MESSAGES, 0);
+        for (Row row : results) {
+            ByteBuffer bytes = checkNotNull(row.getBytes(0));
+            collector.mergeErrorMessages(
+                    Messages.parseDelimitedFrom(bytes, Aggregate.ErrorMessage.parser()));
+        }
+        BoundStatement boundStatement;
+        if (query.transactionName() == null) {
+            boundStatement = getInsertOverallPS(errorMessagesTable, rollupLevel).bind();
+        } else {
+            boundStatement = getInsertTransactionPS(errorMessagesTable, rollupLevel).bind();
+        }
+        int i = 0;
+        boundStatement.setString(i++, query.agentRollup());
+        boundStatement.setString(i++, query.transactionType());
+        if (query.transactionName() != null) {
+            boundStatement.setString(i++, query.transactionName());
+        }
+        boundStatement.setTimestamp(i++, new Date(query.to()));
+        boundStatement.setBytes(i++, Messages.toByteBuffer(collector.toProto()));
+        boundStatement.setInt(i++, getTTL(rollupLevel));
+        session.execute(boundStatement);
+    }
+
     private void rollupThreadProfile(int rollupLevel, TransactionQuery query, Table table)
             throws InvalidProtocolBufferException {
         ResultSet results = executeQueryForRollup(table, query);
@@ -1111,6 +1177,17 @@ public class AggregateDao implements AggregateRepository {
             boundStatement.setInt(i++, getTTL(rollupLevel));
             session.execute(boundStatement);
         }
+        List<Aggregate.ErrorMessage> errorMessages = aggregate.getErrorMessageList();
+        if (!errorMessages.isEmpty()) {
+            boundStatement = getInsertOverallPS(errorMessagesTable, rollupLevel).bind();
+            i = 0;
+            boundStatement.setString(i++, agentRollup);
+            boundStatement.setString(i++, transactionType);
+            boundStatement.setTimestamp(i++, new Date(captureTime));
+            boundStatement.setBytes(i++, Messages.toByteBuffer(errorMessages));
+            boundStatement.setInt(i++, getTTL(rollupLevel));
+            session.execute(boundStatement);
+        }
     }
 
     private void storeTransactionAggregate(int rollupLevel, String agentRollup,
@@ -1208,6 +1285,18 @@ public class AggregateDao implements AggregateRepository {
             boundStatement.setInt(i++, getTTL(rollupLevel));
             session.execute(boundStatement);
         }
+        List<Aggregate.ErrorMessage> errorMessages = aggregate.getErrorMessageList();
+        if (!errorMessages.isEmpty()) {
+            boundStatement = getInsertTransactionPS(errorMessagesTable, rollupLevel).bind();
+            i = 0;
+            boundStatement.setString(i++, agentRollup);
+            boundStatement.setString(i++, transactionType);
+            boundStatement.setString(i++, transactionName);
+            boundStatement.setTimestamp(i++, new Date(captureTime));
+            boundStatement.setBytes(i++, Messages.toByteBuffer(errorMessages));
+            boundStatement.setInt(i++, getTTL(rollupLevel));
+            session.execute(boundStatement);
+        }
     }
 
     private PreparedStatement getInsertOverallPS(Table table, int rollupLevel) {
@@ -1288,19 +1377,98 @@ public class AggregateDao implements AggregateRepository {
     }
 
     private void mergeInProfiles(ProfileCollector collector, TransactionQuery query,
-            Table profileTable) throws InvalidProtocolBufferException {
+            Table profileTable) throws IOException {
         ResultSet results = executeQuery(profileTable, query);
-        long captureTime = Long.MIN_VALUE;
-        for (Row row : results) {
-            captureTime = Math.max(captureTime, checkNotNull(row.getTimestamp(0)).getTime());
-            ByteBuffer bytes = checkNotNull(row.getBytes(1));
-            // TODO optimize this byte copying
-            Profile profile = Profile.parseFrom(ByteString.copyFrom(bytes));
-            collector.mergeProfile(profile);
-            collector.updateLastCaptureTime(captureTime);
+        merge(results, collector, ProfileCollector::new, AggregateDao::mergeProfile,
+                (left, right) -> {
+                    left.mergeProfile(right.getProfile().toProto());
+                    left.updateLastCaptureTime(right.getLastCaptureTime());
+                });
+    }
+
+    // rows are merged directly into the collector while iterating over the result set (which
+    // fetches further pages as needed), until there are more than MIN_ROWS_FOR_PARALLEL_MERGE
+    //
+    // after that, the remaining rows are read in chunks of MIN_ROWS_FOR_PARALLEL_MERGE rows, and
+    // each chunk is parsed and merged into its own partial collector on the fork join common pool
+    // while the next chunk is being read, the partial collectors are merged into the collector (in
+    // order, on this thread), and the number of chunks in flight is bounded by the common pool
+    // parallelism, so that only a bounded number of rows are buffered at any given time
+    private static <C> void merge(ResultSet results, C collector,
+            Supplier<C> partialCollectorSupplier, RowMerger<C> rowMerger,
+            CollectorMerger<C> collectorMerger) throws IOException {
+        Iterator<Row> i = results.iterator();
+        for (int count = 0; count < MIN_ROWS_FOR_PARALLEL_MERGE && i.hasNext(); count++) {
+            rowMerger.merge(collector, i.next());
+        }
+        if (!i.hasNext()) {
+            return;
+        }
+        int maxChunksInFlight = Math.max(ForkJoinPool.getCommonPoolParallelism(), 1);
+        Deque<Future<C>> chunksInFlight = new ArrayDeque<>();
+        try {
+            while (i.hasNext()) {
+                List<Row> chunk = new ArrayList<>(MIN_ROWS_FOR_PARALLEL_MERGE);
+                while (chunk.size() < MIN_ROWS_FOR_PARALLEL_MERGE && i.hasNext()) {
+                    chunk.add(i.next());
+                }
+                if (chunksInFlight.size() == maxChunksInFlight) {
+                    collectorMerger.merge(collector, getPartialCollector(chunksInFlight.poll()));
+                }
+                chunksInFlight.add(ForkJoinPool.commonPool().submit(() -> {
+                    C partialCollector = partialCollectorSupplier.get();
+                    for (Row row : chunk) {
+                        rowMerger.merge(partialCollector, row);
+                    }
+                    return partialCollector;
+                }));
+            }
+            while (!chunksInFlight.isEmpty()) {
+                collectorMerger.merge(collector, getPartialCollector(chunksInFlight.poll()));
+            }
+        } finally {
+            for (Future<C> chunkInFlight : chunksInFlight) {
+                chunkInFlight.cancel(false);
+            }
+        }
+    }
+
+    private static <C> C getPartialCollector(Future<C> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
         }
     }
 
+    private static void mergeQueries(QueryCollector collector, Row row) throws IOException {
+        long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
+        ByteBuffer byteBuf = checkNotNull(row.getBytes(1));
+        try (InputStream input = new ByteBufferInputStream(byteBuf)) {
+            Parser<QueriesByType> parser = Aggregate.QueriesByType.parser();
+            QueriesByType message;
+            while ((message = parser.parseDelimitedFrom(input)) != null) {
+                collector.mergeQueries(message);
+                collector.updateLastCaptureTime(captureTime);
+            }
+        }
+    }
+
+    private static void mergeProfile(ProfileCollector collector, Row row)
+            throws InvalidProtocolBufferException {
+        long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
+        ByteBuffer bytes = checkNotNull(row.getBytes(1));
+        // TODO optimize this byte copying
+        Profile profile = Profile.parseFrom(ByteString.copyFrom(bytes));
+        collector.mergeProfile(profile);
+        collector.updateLastCaptureTime(captureTime);
+    }
+
     private int getTTL(int rollupLevel) {
         return Ints.saturatedCast(HOURS.toSeconds(
                 configRepository.getStorageConfig().rollupExpirationHours().get(rollupLevel)));
@@ -1582,4 +1750,14 @@ public class AggregateDao implements AggregateRepository {
         private long errorCount;
         private long transactionCount;
     }
+
+    @FunctionalInterface
+    private interface RowMerger<C> {
+        void merge(C collector, Row row) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface CollectorMerger<C> {
+        void merge(C collector, C partialCollector) throws IOException;
+    }
 }
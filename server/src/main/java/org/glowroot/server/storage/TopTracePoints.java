@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.server.storage;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Maps;
+
+import org.glowroot.common.live.LiveTraceRepository.TracePoint;
+import org.glowroot.server.storage.TraceDao.TraceKey;
+import org.glowroot.storage.repo.Result;
+
+// retains the slowest trace points using a bounded min-heap, so that trace points can be streamed
+// through without holding all of them in memory
+//
+// duplicates (partially stored traces) are removed by retaining only the trace point with the
+// latest capture time, since there is (small) window between updated insert (with new capture
+// time) and the delete of prior insert (with prior capture time)
+class TopTracePoints {
+
+    private final int limit;
+
+    private final PriorityQueue<TracePoint> heap;
+    private final Map<TraceKey, TracePoint> retained = Maps.newHashMap();
+
+    private boolean moreAvailable;
+
+    TopTracePoints(int limit) {
+        this.limit = limit;
+        heap = new PriorityQueue<>(Math.max(limit, 1),
+                Comparator.comparingLong(TracePoint::durationNanos));
+    }
+
+    void add(TracePoint tracePoint) {
+        TraceKey traceKey = ImmutableTraceKey.of(tracePoint.agentId(), tracePoint.traceId());
+        TracePoint existing = retained.get(traceKey);
+        if (existing != null) {
+            if (existing.captureTime() >= tracePoint.captureTime()) {
+                return;
+            }
+            heap.remove(existing);
+            retained.remove(traceKey);
+        }
+        if (heap.size() < limit) {
+            heap.add(tracePoint);
+            retained.put(traceKey, tracePoint);
+            return;
+        }
+        moreAvailable = true;
+        TracePoint fastest = heap.peek();
+        if (fastest == null || fastest.durationNanos() >= tracePoint.durationNanos()) {
+            return;
+        }
+        heap.poll();
+        retained.remove(ImmutableTraceKey.of(fastest.agentId(), fastest.traceId()));
+        heap.add(tracePoint);
+        retained.put(traceKey, tracePoint);
+    }
+
+    boolean isFull() {
+        return heap.size() >= limit;
+    }
+
+    boolean moreAvailable() {
+        return moreAvailable;
+    }
+
+    Result<TracePoint> toResult() {
+        List<TracePoint> tracePoints = heap.stream()
+                .sorted(Comparator.comparingLong(TracePoint::captureTime))
+                // explicit type on this line is needed for Checker Framework
+                // see https://github.com/typetools/checker-framework/issues/531
+                .collect(Collectors.<TracePoint>toList());
+        return new Result<>(tracePoints, moreAvailable);
+    }
+}
@@ -17,27 +17,23 @@ package org.glowroot.server.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -50,9 +46,6 @@ import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
 import org.glowroot.common.util.Styles;
 import org.glowroot.server.util.Messages;
 import org.glowroot.storage.repo.ConfigRepository;
-import org.glowroot.storage.repo.ImmutableErrorMessageCount;
-import org.glowroot.storage.repo.ImmutableErrorMessagePoint;
-import org.glowroot.storage.repo.ImmutableErrorMessageResult;
 import org.glowroot.storage.repo.ImmutableHeaderPlus;
 import org.glowroot.storage.repo.Result;
 import org.glowroot.storage.repo.TraceRepository;
@@ -62,17 +55,23 @@ import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 public class TraceDao implements TraceRepository {
 
+    // trace points are streamed from cassandra in pages of this size
+    private static final int POINT_FETCH_SIZE = 1000;
+
+    private static final int MAX_DURATION_BUCKET = getDurationBucket(Long.MAX_VALUE);
+
     private final Session session;
     private final ConfigRepository configRepository;
 
     private final AgentDao agentDao;
     private final TransactionTypeDao transactionTypeDao;
 
-    private final PreparedStatement insertOverallSlowPoint;
-    private final PreparedStatement insertTransactionSlowPoint;
+    private final PreparedStatement insertOverallSlowPointByDuration;
+    private final PreparedStatement insertTransactionSlowPointByDuration;
 
     private final PreparedStatement insertOverallSlowCount;
     private final PreparedStatement insertTransactionSlowCount;
@@ -83,9 +82,6 @@ public class TraceDao implements TraceRepository {
     private final PreparedStatement insertOverallErrorCount;
     private final PreparedStatement insertTransactionErrorCount;
 
-    private final PreparedStatement insertOverallErrorMessage;
-    private final PreparedStatement insertTransactionErrorMessage;
-
     private final PreparedStatement insertHeader;
     private final PreparedStatement insertEntries;
     private final PreparedStatement insertMainThreadProfile;
@@ -93,24 +89,24 @@ public class TraceDao implements TraceRepository {
 
     private final PreparedStatement insertAttributeName;
 
-    private final PreparedStatement readOverallSlowPoint;
-    private final PreparedStatement readTransactionSlowPoint;
+    private final PreparedStatement readOverallSlowPointByDuration;
+    private final PreparedStatement readTransactionSlowPointByDuration;
     private final PreparedStatement readOverallErrorPoint;
     private final PreparedStatement readTransactionErrorPoint;
 
-    private final PreparedStatement readOverallErrorMessage;
-    private final PreparedStatement readTransactionErrorMessage;
-
     private final PreparedStatement readAttributeName;
 
     private final PreparedStatement readHeader;
 
-    private final PreparedStatement deletePartialOverallSlowPoint;
-    private final PreparedStatement deletePartialTransactionSlowPoint;
+    private final PreparedStatement deletePartialOverallSlowPointByDuration;
+    private final PreparedStatement deletePartialTransactionSlowPointByDuration;
 
     private final PreparedStatement deletePartialOverallSlowCount;
     private final PreparedStatement deletePartialTransactionSlowCount;
 
+    // null when there are no legacy slow points, see readLegacySlowPoints()
+    private final @Nullable LegacySlowPointStatements legacySlowPointStatements;
+
     public TraceDao(Session session, ConfigRepository configRepository, AgentDao agentDao,
             TransactionTypeDao transactionTypeDao) {
         this.session = session;
@@ -118,17 +114,22 @@ public class TraceDao implements TraceRepository {
         this.agentDao = agentDao;
         this.transactionTypeDao = transactionTypeDao;
 
-        session.execute("create table if not exists trace_tt_slow_point (agent_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, agent_id varchar,"
+        // slow points are duplicated into exponentially sized duration buckets (by milliseconds,
+        // see getDurationBucket()) so that the slowest points can be read without reading every
+        // point in the time range
+        session.execute("create table if not exists trace_tt_slow_point_by_duration"
+                + " (agent_rollup varchar, transaction_type varchar, duration_bucket int,"
+                + " capture_time timestamp, agent_id varchar, trace_id varchar,"
+                + " duration_nanos bigint, error boolean, headline varchar, user varchar,"
+                + " attributes blob, primary key ((agent_rollup, transaction_type,"
+                + " duration_bucket), capture_time, agent_id, trace_id))");
+
+        session.execute("create table if not exists trace_tn_slow_point_by_duration"
+                + " (agent_rollup varchar, transaction_type varchar, transaction_name varchar,"
+                + " duration_bucket int, capture_time timestamp, agent_id varchar,"
                 + " trace_id varchar, duration_nanos bigint, error boolean, headline varchar,"
-                + " user varchar, attributes blob, primary key ((agent_rollup, transaction_type),"
-                + " capture_time, agent_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_slow_point (agent_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " agent_id varchar, trace_id varchar, duration_nanos bigint, error boolean,"
-                + " headline varchar, user varchar, attributes blob, primary key ((agent_rollup,"
-                + " transaction_type, transaction_name), capture_time, agent_id, trace_id))");
+                + " user varchar, attributes blob, primary key ((agent_rollup, transaction_type,"
+                + " transaction_name, duration_bucket), capture_time, agent_id, trace_id))");
 
         session.execute("create table if not exists trace_tt_error_point (agent_rollup varchar,"
                 + " transaction_type varchar, capture_time timestamp, agent_id varchar,"
@@ -143,17 +144,6 @@ public class TraceDao implements TraceRepository {
                 + " primary key ((agent_rollup, transaction_type, transaction_name), capture_time,"
                 + " agent_id, trace_id))");
 
-        session.execute("create table if not exists trace_tt_error_message (agent_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, agent_id varchar,"
-                + " trace_id varchar, error_message varchar, primary key ((agent_rollup,"
-                + " transaction_type), capture_time, agent_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_error_message (agent_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " agent_id varchar, trace_id varchar, error_message varchar, primary key"
-                + " ((agent_rollup, transaction_type, transaction_name), capture_time, agent_id,"
-                + " trace_id))");
-
         session.execute("create table if not exists trace_header (agent_id varchar,"
                 + " trace_id varchar, header blob, primary key (agent_id, trace_id))");
 
@@ -195,14 +185,17 @@ public class TraceDao implements TraceRepository {
                 + " transaction_type varchar, attribute_name varchar, primary key ((agent_rollup,"
                 + " transaction_type), attribute_name))");
 
-        insertOverallSlowPoint = session.prepare("insert into trace_tt_slow_point (agent_rollup,"
-                + " transaction_type, capture_time, agent_id, trace_id, duration_nanos, error,"
-                + " user, attributes) values (?, ?, ?, ?, ?, ?, ?, ?, ?) using ttl ?");
+        insertOverallSlowPointByDuration = session.prepare("insert into"
+                + " trace_tt_slow_point_by_duration (agent_rollup, transaction_type,"
+                + " duration_bucket, capture_time, agent_id, trace_id, duration_nanos, error,"
+                + " headline, user, attributes) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+                + " using ttl ?");
 
-        insertTransactionSlowPoint = session.prepare("insert into trace_tn_slow_point"
-                + " (agent_rollup, transaction_type, transaction_name, capture_time, agent_id,"
-                + " trace_id, duration_nanos, error, user, attributes) values"
-                + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) using ttl ?");
+        insertTransactionSlowPointByDuration = session.prepare("insert into"
+                + " trace_tn_slow_point_by_duration (agent_rollup, transaction_type,"
+                + " transaction_name, duration_bucket, capture_time, agent_id, trace_id,"
+                + " duration_nanos, error, headline, user, attributes) values"
+                + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) using ttl ?");
 
         insertOverallSlowCount = session.prepare("insert into trace_tt_slow_count (agent_rollup,"
                 + " transaction_type, capture_time, agent_id, trace_id) values (?, ?, ?, ?, ?)"
@@ -230,14 +223,6 @@ public class TraceDao implements TraceRepository {
                 + " (agent_rollup, transaction_type, transaction_name, capture_time, agent_id,"
                 + " trace_id) values (?, ?, ?, ?, ?, ?) using ttl ?");
 
-        insertOverallErrorMessage = session.prepare("insert into trace_tt_error_message"
-                + " (agent_rollup, transaction_type, capture_time, agent_id, trace_id,"
-                + " error_message) values (?, ?, ?, ?, ?, ?) using ttl ?");
-
-        insertTransactionErrorMessage = session.prepare("insert into trace_tn_error_message"
-                + " (agent_rollup, transaction_type, transaction_name, capture_time, agent_id,"
-                + " trace_id, error_message) values (?, ?, ?, ?, ?, ?, ?) using ttl ?");
-
         insertHeader = session.prepare("insert into trace_header (agent_id, trace_id, header)"
                 + " values (?, ?, ?) using ttl ?");
 
@@ -253,14 +238,16 @@ public class TraceDao implements TraceRepository {
         insertAttributeName = session.prepare("insert into trace_attribute_name (agent_rollup,"
                 + " transaction_type, attribute_name) values (?, ?, ?) using ttl ?");
 
-        readOverallSlowPoint = session.prepare("select agent_id, trace_id, capture_time,"
-                + " duration_nanos, error, headline, user, attributes from trace_tt_slow_point"
-                + " where agent_rollup = ? and transaction_type = ? and capture_time > ?"
+        readOverallSlowPointByDuration = session.prepare("select agent_id, trace_id,"
+                + " capture_time, duration_nanos, error, headline, user, attributes"
+                + " from trace_tt_slow_point_by_duration where agent_rollup = ?"
+                + " and transaction_type = ? and duration_bucket = ? and capture_time > ?"
                 + " and capture_time <= ?");
 
-        readTransactionSlowPoint = session.prepare("select agent_id, trace_id, capture_time,"
-                + " duration_nanos, error, headline, user, attributes from trace_tn_slow_point"
-                + " where agent_rollup = ? and transaction_type = ? and transaction_name = ?"
+        readTransactionSlowPointByDuration = session.prepare("select agent_id, trace_id,"
+                + " capture_time, duration_nanos, error, headline, user, attributes"
+                + " from trace_tn_slow_point_by_duration where agent_rollup = ?"
+                + " and transaction_type = ? and transaction_name = ? and duration_bucket = ?"
                 + " and capture_time > ? and capture_time <= ?");
 
         readOverallErrorPoint = session.prepare("select agent_id, trace_id, capture_time,"
@@ -273,26 +260,20 @@ public class TraceDao implements TraceRepository {
                 + " from trace_tn_error_point where agent_rollup = ? and transaction_type = ?"
                 + " and transaction_name = ? and capture_time > ? and capture_time <= ?");
 
-        readOverallErrorMessage = session.prepare("select capture_time, error_message"
-                + " from trace_tt_error_message where agent_rollup = ? and transaction_type = ?"
-                + " and capture_time > ? and capture_time <= ?");
-
-        readTransactionErrorMessage = session.prepare("select capture_time, error_message"
-                + " from trace_tn_error_message where agent_rollup = ? and transaction_type = ?"
-                + " and transaction_name = ? and capture_time > ? and capture_time <= ?");
-
         readAttributeName = session.prepare("select attribute_name from trace_attribute_name"
                 + " where agent_rollup = ? and transaction_type = ?");
 
         readHeader = session
                 .prepare("select header from trace_header where agent_id = ? and trace_id = ?");
 
-        deletePartialOverallSlowPoint = session.prepare("delete from trace_tt_slow_point"
-                + " where agent_rollup = ? and transaction_type = ? and capture_time = ?"
+        deletePartialOverallSlowPointByDuration = session.prepare("delete from"
+                + " trace_tt_slow_point_by_duration where agent_rollup = ?"
+                + " and transaction_type = ? and duration_bucket = ? and capture_time = ?"
                 + " and agent_id = ? and trace_id = ?");
 
-        deletePartialTransactionSlowPoint = session.prepare("delete from trace_tn_slow_point"
-                + " where agent_rollup = ? and transaction_type = ? and transaction_name = ?"
+        deletePartialTransactionSlowPointByDuration = session.prepare("delete from"
+                + " trace_tn_slow_point_by_duration where agent_rollup = ?"
+                + " and transaction_type = ? and transaction_name = ? and duration_bucket = ?"
                 + " and capture_time = ? and agent_id = ? and trace_id = ?");
 
         deletePartialOverallSlowCount = session.prepare("delete from trace_tt_slow_count"
@@ -302,6 +283,8 @@ public class TraceDao implements TraceRepository {
         deletePartialTransactionSlowCount = session.prepare("delete from trace_tn_slow_count"
                 + " where agent_rollup = ? and transaction_type = ? and transaction_name = ?"
                 + " and capture_time = ? and agent_id = ? and trace_id = ?");
+
+        legacySlowPointStatements = LegacySlowPointStatements.createIfNotEmpty(session);
     }
 
     @Override
@@ -316,30 +299,34 @@ public class TraceDao implements TraceRepository {
 
         for (String agentRollup : agentRollups) {
             if (header.getSlow()) {
-                BoundStatement boundStatement = insertOverallSlowPoint.bind();
+                BoundStatement boundStatement = insertOverallSlowPointByDuration.bind();
                 int i = 0;
                 boundStatement.setString(i++, agentRollup);
                 boundStatement.setString(i++, header.getTransactionType());
+                boundStatement.setInt(i++, getDurationBucket(header.getDurationNanos()));
                 boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
                 boundStatement.setString(i++, agentId);
                 boundStatement.setString(i++, trace.getId());
                 boundStatement.setLong(i++, header.getDurationNanos());
                 boundStatement.setBool(i++, header.hasError());
+                boundStatement.setString(i++, header.getHeadline());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
                 boundStatement.setBytes(i++, Messages.toByteBuffer(header.getAttributeList()));
                 boundStatement.setInt(i++, getTTL());
                 session.execute(boundStatement);
 
-                boundStatement = insertTransactionSlowPoint.bind();
+                boundStatement = insertTransactionSlowPointByDuration.bind();
                 i = 0;
                 boundStatement.setString(i++, agentRollup);
                 boundStatement.setString(i++, header.getTransactionType());
                 boundStatement.setString(i++, header.getTransactionName());
+                boundStatement.setInt(i++, getDurationBucket(header.getDurationNanos()));
                 boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
                 boundStatement.setString(i++, agentId);
                 boundStatement.setString(i++, trace.getId());
                 boundStatement.setLong(i++, header.getDurationNanos());
                 boundStatement.setBool(i++, header.hasError());
+                boundStatement.setString(i++, header.getHeadline());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
                 boundStatement.setBytes(i++, Messages.toByteBuffer(header.getAttributeList()));
                 boundStatement.setInt(i++, getTTL());
@@ -367,25 +354,32 @@ public class TraceDao implements TraceRepository {
                 session.execute(boundStatement);
 
                 if (priorHeader != null) {
-                    boundStatement = deletePartialOverallSlowPoint.bind();
+                    boundStatement = deletePartialOverallSlowPointByDuration.bind();
                     i = 0;
                     boundStatement.setString(i++, agentRollup);
                     boundStatement.setString(i++, priorHeader.getTransactionType());
+                    boundStatement.setInt(i++, getDurationBucket(priorHeader.getDurationNanos()));
                     boundStatement.setTimestamp(i++, new Date(priorHeader.getCaptureTime()));
                     boundStatement.setString(i++, agentId);
                     boundStatement.setString(i++, trace.getId());
                     session.execute(boundStatement);
 
-                    boundStatement = deletePartialTransactionSlowPoint.bind();
+                    boundStatement = deletePartialTransactionSlowPointByDuration.bind();
                     i = 0;
                     boundStatement.setString(i++, agentRollup);
                     boundStatement.setString(i++, priorHeader.getTransactionType());
                     boundStatement.setString(i++, priorHeader.getTransactionName());
+                    boundStatement.setInt(i++, getDurationBucket(priorHeader.getDurationNanos()));
                     boundStatement.setTimestamp(i++, new Date(priorHeader.getCaptureTime()));
                     boundStatement.setString(i++, agentId);
                     boundStatement.setString(i++, trace.getId());
                     session.execute(boundStatement);
 
+                    if (legacySlowPointStatements != null) {
+                        legacySlowPointStatements.deletePartial(session, agentRollup, agentId,
+                                trace.getId(), priorHeader);
+                    }
+
                     boundStatement = deletePartialOverallSlowCount.bind();
                     i = 0;
                     boundStatement.setString(i++, agentRollup);
@@ -409,36 +403,13 @@ public class TraceDao implements TraceRepository {
             // seems unnecessary to insert error info for partial traces
             // and this avoids having to clean up partial trace data when trace is complete
             if (header.hasError() && !header.getPartial()) {
-                BoundStatement boundStatement = insertOverallErrorMessage.bind();
+                BoundStatement boundStatement = insertOverallErrorPoint.bind();
                 int i = 0;
                 boundStatement.setString(i++, agentRollup);
                 boundStatement.setString(i++, header.getTransactionType());
                 boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
                 boundStatement.setString(i++, agentId);
                 boundStatement.setString(i++, trace.getId());
-                boundStatement.setString(i++, header.getError().getMessage());
-                boundStatement.setInt(i++, getTTL());
-                session.execute(boundStatement);
-
-                boundStatement = insertTransactionErrorMessage.bind();
-                i = 0;
-                boundStatement.setString(i++, agentRollup);
-                boundStatement.setString(i++, header.getTransactionType());
-                boundStatement.setString(i++, header.getTransactionName());
-                boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
-                boundStatement.setString(i++, agentId);
-                boundStatement.setString(i++, trace.getId());
-                boundStatement.setString(i++, header.getError().getMessage());
-                boundStatement.setInt(i++, getTTL());
-                session.execute(boundStatement);
-
-                boundStatement = insertOverallErrorPoint.bind();
-                i = 0;
-                boundStatement.setString(i++, agentRollup);
-                boundStatement.setString(i++, header.getTransactionType());
-                boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
-                boundStatement.setString(i++, agentId);
-                boundStatement.setString(i++, trace.getId());
                 boundStatement.setLong(i++, header.getDurationNanos());
                 boundStatement.setString(i++, header.getError().getMessage());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
@@ -550,28 +521,52 @@ public class TraceDao implements TraceRepository {
         return attributeNames;
     }
 
+    // reads the duration buckets from slowest to fastest, stopping once the slowest points have
+    // been found (since all points in the remaining buckets are faster)
     @Override
     public Result<TracePoint> readSlowPoints(TraceQuery query, TracePointFilter filter, int limit)
             throws IOException {
         String transactionName = query.transactionName();
-        if (transactionName == null) {
-            BoundStatement boundStatement = readOverallSlowPoint.bind();
-            boundStatement.setString(0, query.agentRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setTimestamp(2, new Date(query.from()));
-            boundStatement.setTimestamp(3, new Date(query.to()));
-            ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, false);
-        } else {
-            BoundStatement boundStatement = readTransactionSlowPoint.bind();
-            boundStatement.setString(0, query.agentRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setString(2, transactionName);
-            boundStatement.setTimestamp(3, new Date(query.from()));
-            boundStatement.setTimestamp(4, new Date(query.to()));
+        int lowestBucket = getDurationBucket(filter.durationNanosLow());
+        Long durationNanosHigh = filter.durationNanosHigh();
+        int highestBucket = durationNanosHigh == null ? MAX_DURATION_BUCKET
+                : getDurationBucket(durationNanosHigh);
+        TopTracePoints topTracePoints = new TopTracePoints(limit);
+        for (int bucket = highestBucket; bucket >= lowestBucket; bucket--) {
+            if (topTracePoints.isFull() && topTracePoints.moreAvailable()) {
+                break;
+            }
+            BoundStatement boundStatement;
+            int i = 0;
+            if (transactionName == null) {
+                boundStatement = readOverallSlowPointByDuration.bind();
+                boundStatement.setString(i++, query.agentRollup());
+                boundStatement.setString(i++, query.transactionType());
+            } else {
+                boundStatement = readTransactionSlowPointByDuration.bind();
+                boundStatement.setString(i++, query.agentRollup());
+                boundStatement.setString(i++, query.transactionType());
+                boundStatement.setString(i++, transactionName);
+            }
+            boundStatement.setInt(i++, bucket);
+            boundStatement.setTimestamp(i++, new Date(query.from()));
+            boundStatement.setTimestamp(i++, new Date(query.to()));
+            boundStatement.setFetchSize(POINT_FETCH_SIZE);
             ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, false);
+            // once full, points from this and lower buckets are only needed to determine whether
+            // more are available
+            boolean fullBefore = topTracePoints.isFull();
+            processPoints(results, filter, false, topTracePoints, fullBefore);
+        }
+        if (legacySlowPointStatements != null) {
+            // legacy slow points are not bucketed by duration, so they are all read, but only
+            // after the duration buckets, since reading them first would invalidate the early exit
+            // above (all points in the remaining buckets are only known to be faster than the
+            // points read from higher buckets)
+            ResultSet results = legacySlowPointStatements.read(session, query);
+            processPoints(results, filter, false, topTracePoints, false);
         }
+        return topTracePoints.toResult();
     }
 
     @Override
@@ -584,8 +579,11 @@ public class TraceDao implements TraceRepository {
             boundStatement.setString(1, query.transactionType());
             boundStatement.setTimestamp(2, new Date(query.from()));
             boundStatement.setTimestamp(3, new Date(query.to()));
+            boundStatement.setFetchSize(POINT_FETCH_SIZE);
             ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, true);
+            TopTracePoints topTracePoints = new TopTracePoints(limit);
+            processPoints(results, filter, true, topTracePoints, false);
+            return topTracePoints.toResult();
         } else {
             BoundStatement boundStatement = readTransactionErrorPoint.bind();
             boundStatement.setString(0, query.agentRollup());
@@ -593,8 +591,11 @@ public class TraceDao implements TraceRepository {
             boundStatement.setString(2, transactionName);
             boundStatement.setTimestamp(3, new Date(query.from()));
             boundStatement.setTimestamp(4, new Date(query.to()));
+            boundStatement.setFetchSize(POINT_FETCH_SIZE);
             ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, true);
+            TopTracePoints topTracePoints = new TopTracePoints(limit);
+            processPoints(results, filter, true, topTracePoints, false);
+            return topTracePoints.toResult();
         }
     }
 
@@ -640,65 +641,6 @@ public class TraceDao implements TraceRepository {
         }
     }
 
-    @Override
-    public ErrorMessageResult readErrorMessages(TraceQuery query, ErrorMessageFilter filter,
-            long resolutionMillis, int limit) throws Exception {
-        BoundStatement boundStatement;
-        String transactionName = query.transactionName();
-        if (transactionName == null) {
-            boundStatement = readOverallErrorMessage.bind();
-            boundStatement.setString(0, query.agentRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setTimestamp(2, new Date(query.from()));
-            boundStatement.setTimestamp(3, new Date(query.to()));
-        } else {
-            boundStatement = readTransactionErrorMessage.bind();
-            boundStatement.setString(0, query.agentRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setString(2, transactionName);
-            boundStatement.setTimestamp(3, new Date(query.from()));
-            boundStatement.setTimestamp(4, new Date(query.to()));
-        }
-        ResultSet results = session.execute(boundStatement);
-        // rows are already in order by captureTime, so saving sort step by using linked hash map
-        Map<Long, MutableLong> pointCounts = Maps.newLinkedHashMap();
-        Map<String, MutableLong> messageCounts = Maps.newHashMap();
-        for (Row row : results) {
-            long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
-            String errorMessage = checkNotNull(row.getString(1));
-            if (!matches(filter, errorMessage)) {
-                continue;
-            }
-            captureTime =
-                    (long) Math.ceil(captureTime / (double) resolutionMillis) * resolutionMillis;
-            pointCounts.computeIfAbsent(captureTime, k -> new MutableLong()).increment();
-            messageCounts.computeIfAbsent(errorMessage, k -> new MutableLong()).increment();
-        }
-        List<ErrorMessagePoint> points = pointCounts.entrySet().stream()
-                .map(e -> ImmutableErrorMessagePoint.of(e.getKey(), e.getValue().value))
-                .sorted(Comparator.comparingLong(ErrorMessagePoint::captureTime))
-                // explicit type on this line is needed for Checker Framework
-                // see https://github.com/typetools/checker-framework/issues/531
-                .collect(Collectors.<ErrorMessagePoint>toList());
-        List<ErrorMessageCount> counts = messageCounts.entrySet().stream()
-                .map(e -> ImmutableErrorMessageCount.of(e.getKey(), e.getValue().value))
-                // explicit type on this line is needed for Checker Framework
-                // see https://github.com/typetools/checker-framework/issues/531
-                .collect(Collectors.<ErrorMessageCount>toList());
-
-        if (counts.size() <= limit) {
-            return ImmutableErrorMessageResult.builder()
-                    .addAllPoints(points)
-                    .counts(new Result<>(counts, false))
-                    .build();
-        } else {
-            return ImmutableErrorMessageResult.builder()
-                    .addAllPoints(points)
-                    .counts(new Result<>(counts.subList(0, limit), true))
-                    .build();
-        }
-    }
-
     @Override
     public @Nullable HeaderPlus readHeaderPlus(String agentId, String traceId)
             throws InvalidProtocolBufferException {
@@ -787,9 +729,11 @@ public class TraceDao implements TraceRepository {
                 HOURS.toSeconds(configRepository.getStorageConfig().traceExpirationHours()));
     }
 
-    private static Result<TracePoint> processPoints(ResultSet results, TracePointFilter filter,
-            int limit, boolean errorPoints) throws IOException {
-        List<TracePoint> tracePoints = Lists.newArrayList();
+    // rows are streamed from cassandra (see POINT_FETCH_SIZE) so that only the retained trace
+    // points are held in memory
+    private static void processPoints(ResultSet results, TracePointFilter filter,
+            boolean errorPoints, TopTracePoints topTracePoints, boolean stopWhenMoreAvailable)
+            throws IOException {
         for (Row row : results) {
             int i = 0;
             String agentId = checkNotNull(row.getString(i++));
@@ -802,64 +746,135 @@ public class TraceDao implements TraceRepository {
             // error points are defined by having an error message, so safe to checkNotNull
             String errorMessage = errorPoints ? checkNotNull(row.getString(i++)) : "";
             String user = Strings.nullToEmpty(row.getString(i++));
+            if (!filter.matchesDuration(durationNanos)
+                    || !filter.matchesHeadline(headline)
+                    || !filter.matchesError(errorMessage)
+                    || !filter.matchesUser(user)) {
+                continue;
+            }
+            // attributes are parsed last since that is the most expensive part
             ByteBuffer attributeBytes = row.getBytes(i++);
             List<Trace.Attribute> attrs =
                     Messages.parseDelimitedFrom(attributeBytes, Trace.Attribute.parser());
             Map<String, List<String>> attributes = attrs.stream().collect(
                     Collectors.toMap(Trace.Attribute::getName, Trace.Attribute::getValueList));
-            if (filter.matchesDuration(durationNanos)
-                    && filter.matchesHeadline(headline)
-                    && filter.matchesError(errorMessage)
-                    && filter.matchesUser(user)
-                    && filter.matchesAttributes(attributes)) {
-                tracePoints.add(ImmutableTracePoint.builder()
-                        .agentId(agentId)
-                        .traceId(traceId)
-                        .captureTime(captureTime)
-                        .durationNanos(durationNanos)
-                        .error(error)
-                        .build());
+            if (!filter.matchesAttributes(attributes)) {
+                continue;
             }
-        }
-        // remove duplicates (partially stored traces) since there is (small) window between updated
-        // insert (with new capture time) and the delete of prior insert (with prior capture time)
-        Set<TraceKey> traceKeys = Sets.newHashSet();
-        ListIterator<TracePoint> i = tracePoints.listIterator(tracePoints.size());
-        while (i.hasPrevious()) {
-            TracePoint trace = i.previous();
-            TraceKey traceKey = ImmutableTraceKey.of(trace.agentId(), trace.traceId());
-            if (!traceKeys.add(traceKey)) {
-                i.remove();
+            topTracePoints.add(ImmutableTracePoint.builder()
+                    .agentId(agentId)
+                    .traceId(traceId)
+                    .captureTime(captureTime)
+                    .durationNanos(durationNanos)
+                    .error(error)
+                    .build());
+            if (stopWhenMoreAvailable && topTracePoints.moreAvailable()) {
+                return;
             }
         }
-        // apply limit and re-sort if needed
-        if (tracePoints.size() > limit) {
-            tracePoints = tracePoints.stream()
-                    .sorted(Comparator.comparingLong(TracePoint::durationNanos).reversed())
-                    .limit(limit)
-                    .sorted(Comparator.comparingLong(TracePoint::captureTime))
-                    // explicit type on this line is needed for Checker Framework
-                    // see https://github.com/typetools/checker-framework/issues/531
-                    .collect(Collectors.<TracePoint>toList());
-            return new Result<>(tracePoints, true);
-        } else {
-            return new Result<>(tracePoints, false);
-        }
     }
 
-    private static boolean matches(ErrorMessageFilter filter, String errorMessage) {
-        String upper = errorMessage.toUpperCase(Locale.ENGLISH);
-        for (String include : filter.includes()) {
-            if (!upper.contains(include.toUpperCase(Locale.ENGLISH))) {
-                return false;
+    // bucket 0 holds durations under 1 millisecond, and bucket n > 0 holds durations in the range
+    // [2^(n-1), 2^n) milliseconds
+    @VisibleForTesting
+    static int getDurationBucket(long durationNanos) {
+        return Long.SIZE - Long.numberOfLeadingZeros(NANOSECONDS.toMillis(durationNanos));
+    }
+
+    // slow points used to be stored in trace_tt_slow_point and trace_tn_slow_point (without
+    // duration buckets), and are no longer written there, but the existing rows are still read
+    // (and cleaned up when a partial trace is completed) until they expire via their TTL
+    //
+    // whether there are any legacy slow points is only checked at startup, so after they expire
+    // the (then empty) legacy tables are still read until the next restart
+    private static class LegacySlowPointStatements {
+
+        private final PreparedStatement readOverallSlowPoint;
+        private final PreparedStatement readTransactionSlowPoint;
+
+        private final PreparedStatement deletePartialOverallSlowPoint;
+        private final PreparedStatement deletePartialTransactionSlowPoint;
+
+        private LegacySlowPointStatements(Session session) {
+            readOverallSlowPoint = session.prepare("select agent_id, trace_id, capture_time,"
+                    + " duration_nanos, error, headline, user, attributes from trace_tt_slow_point"
+                    + " where agent_rollup = ? and transaction_type = ? and capture_time > ?"
+                    + " and capture_time <= ?");
+
+            readTransactionSlowPoint = session.prepare("select agent_id, trace_id, capture_time,"
+                    + " duration_nanos, error, headline, user, attributes from trace_tn_slow_point"
+                    + " where agent_rollup = ? and transaction_type = ? and transaction_name = ?"
+                    + " and capture_time > ? and capture_time <= ?");
+
+            deletePartialOverallSlowPoint = session.prepare("delete from trace_tt_slow_point"
+                    + " where agent_rollup = ? and transaction_type = ? and capture_time = ?"
+                    + " and agent_id = ? and trace_id = ?");
+
+            deletePartialTransactionSlowPoint = session.prepare("delete from trace_tn_slow_point"
+                    + " where agent_rollup = ? and transaction_type = ? and transaction_name = ?"
+                    + " and capture_time = ? and agent_id = ? and trace_id = ?");
+        }
+
+        private ResultSet read(Session session, TraceQuery query) {
+            String transactionName = query.transactionName();
+            BoundStatement boundStatement;
+            int i = 0;
+            if (transactionName == null) {
+                boundStatement = readOverallSlowPoint.bind();
+                boundStatement.setString(i++, query.agentRollup());
+                boundStatement.setString(i++, query.transactionType());
+            } else {
+                boundStatement = readTransactionSlowPoint.bind();
+                boundStatement.setString(i++, query.agentRollup());
+                boundStatement.setString(i++, query.transactionType());
+                boundStatement.setString(i++, transactionName);
             }
+            boundStatement.setTimestamp(i++, new Date(query.from()));
+            boundStatement.setTimestamp(i++, new Date(query.to()));
+            boundStatement.setFetchSize(POINT_FETCH_SIZE);
+            return session.execute(boundStatement);
         }
-        for (String exclude : filter.excludes()) {
-            if (upper.contains(exclude.toUpperCase(Locale.ENGLISH))) {
-                return false;
+
+        private void deletePartial(Session session, String agentRollup, String agentId,
+                String traceId, Trace.Header priorHeader) {
+            BoundStatement boundStatement = deletePartialOverallSlowPoint.bind();
+            int i = 0;
+            boundStatement.setString(i++, agentRollup);
+            boundStatement.setString(i++, priorHeader.getTransactionType());
+            boundStatement.setTimestamp(i++, new Date(priorHeader.getCaptureTime()));
+            boundStatement.setString(i++, agentId);
+            boundStatement.setString(i++, traceId);
+            session.execute(boundStatement);
+
+            boundStatement = deletePartialTransactionSlowPoint.bind();
+            i = 0;
+            boundStatement.setString(i++, agentRollup);
+            boundStatement.setString(i++, priorHeader.getTransactionType());
+            boundStatement.setString(i++, priorHeader.getTransactionName());
+            boundStatement.setTimestamp(i++, new Date(priorHeader.getCaptureTime()));
+            boundStatement.setString(i++, agentId);
+            boundStatement.setString(i++, traceId);
+            session.execute(boundStatement);
+        }
+
+        private static @Nullable LegacySlowPointStatements createIfNotEmpty(Session session) {
+            String keyspaceName = session.getLoggedKeyspace();
+            if (keyspaceName == null) {
+                return null;
+            }
+            KeyspaceMetadata keyspace =
+                    session.getCluster().getMetadata().getKeyspace(keyspaceName);
+            if (keyspace == null || keyspace.getTable("trace_tt_slow_point") == null
+                    || keyspace.getTable("trace_tn_slow_point") == null) {
+                return null;
+            }
+            // every slow point is stored in both tables, so only need to check one of them
+            if (session.execute("select agent_rollup from trace_tt_slow_point limit 1")
+                    .one() == null) {
+                return null;
             }
+            return new LegacySlowPointStatements(session);
         }
-        return true;
     }
 
     @Value.Immutable
@@ -868,11 +883,4 @@ public class TraceDao implements TraceRepository {
         String agentId();
         String traceId();
     }
-
-    private static class MutableLong {
-        private long value;
-        private void increment() {
-            value++;
-        }
-    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.server.storage;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.glowroot.common.live.ImmutableTracePoint;
+import org.glowroot.common.live.LiveTraceRepository.TracePoint;
+import org.glowroot.storage.repo.Result;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TopTracePointsTest {
+
+    @Test
+    public void shouldRetainSlowest() {
+        // given
+        TopTracePoints topTracePoints = new TopTracePoints(3);
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            topTracePoints.add(buildTracePoint("trace" + i, 100 - i, i * 7 % 10));
+        }
+
+        // then
+        Result<TracePoint> result = topTracePoints.toResult();
+        assertThat(result.moreAvailable()).isTrue();
+        List<TracePoint> tracePoints = result.records();
+        assertThat(tracePoints).extracting("durationNanos").containsOnly(9L, 8L, 7L);
+        // ordered by capture time
+        assertThat(tracePoints).extracting("captureTime").containsExactly(93L, 96L, 99L);
+    }
+
+    @Test
+    public void shouldNotIndicateMoreAvailableUnderLimit() {
+        // given
+        TopTracePoints topTracePoints = new TopTracePoints(3);
+
+        // when
+        topTracePoints.add(buildTracePoint("trace1", 1, 5));
+        topTracePoints.add(buildTracePoint("trace2", 2, 6));
+        topTracePoints.add(buildTracePoint("trace3", 3, 7));
+
+        // then
+        assertThat(topTracePoints.isFull()).isTrue();
+        assertThat(topTracePoints.toResult().moreAvailable()).isFalse();
+        assertThat(topTracePoints.toResult().records()).hasSize(3);
+    }
+
+    @Test
+    public void shouldRemoveDuplicatePartialTraces() {
+        // given
+        TopTracePoints topTracePoints = new TopTracePoints(3);
+
+        // when
+        topTracePoints.add(buildTracePoint("trace1", 1, 5));
+        topTracePoints.add(buildTracePoint("trace1", 2, 8));
+        topTracePoints.add(buildTracePoint("trace2", 3, 6));
+        topTracePoints.add(buildTracePoint("trace2", 2, 4));
+
+        // then
+        Result<TracePoint> result = topTracePoints.toResult();
+        assertThat(result.moreAvailable()).isFalse();
+        assertThat(result.records()).hasSize(2);
+        assertThat(result.records().get(0).captureTime()).isEqualTo(2);
+        assertThat(result.records().get(0).durationNanos()).isEqualTo(8);
+        assertThat(result.records().get(1).captureTime()).isEqualTo(3);
+        assertThat(result.records().get(1).durationNanos()).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldCalculateDurationBuckets() {
+        assertThat(TraceDao.getDurationBucket(0)).isEqualTo(0);
+        assertThat(TraceDao.getDurationBucket(MILLISECONDS.toNanos(1) - 1)).isEqualTo(0);
+        assertThat(TraceDao.getDurationBucket(MILLISECONDS.toNanos(1))).isEqualTo(1);
+        assertThat(TraceDao.getDurationBucket(MILLISECONDS.toNanos(2))).isEqualTo(2);
+        assertThat(TraceDao.getDurationBucket(MILLISECONDS.toNanos(3))).isEqualTo(2);
+        assertThat(TraceDao.getDurationBucket(MILLISECONDS.toNanos(1024))).isEqualTo(11);
+        assertThat(TraceDao.getDurationBucket(Long.MAX_VALUE)).isEqualTo(44);
+    }
+
+    private static TracePoint buildTracePoint(String traceId, long captureTime,
+            long durationNanos) {
+        return ImmutableTracePoint.builder()
+                .agentId("agent")
+                .traceId(traceId)
+                .captureTime(captureTime)
+                .durationNanos(durationNanos)
+                .error(false)
+                .build();
+    }
+}
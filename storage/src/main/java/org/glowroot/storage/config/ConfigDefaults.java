@@ -20,4 +20,5 @@ public class ConfigDefaults {
     public static final int MAX_AGGREGATE_TRANSACTIONS_PER_TYPE = 500;
     public static final int MAX_AGGREGATE_QUERIES_PER_TYPE = 500;
     public static final int MAX_AGGREGATE_SERVICE_CALLS_PER_TYPE = 500;
+    public static final int MAX_AGGREGATE_ERROR_MESSAGES = 500;
 }
@@ -19,6 +19,7 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
+import com.google.common.collect.ImmutableList;
 import org.immutables.value.Value;
 
 import org.glowroot.common.model.QueryCollector;
@@ -68,6 +69,10 @@ public interface AggregateRepository {
     void mergeInServiceCalls(ServiceCallCollector collector, TransactionQuery query)
             throws Exception;
 
+    // query.from() is non-inclusive
+    void mergeInErrorMessages(ErrorMessageResultCollector collector, TransactionQuery query)
+            throws Exception;
+
     // query.from() is non-inclusive
     void mergeInMainThreadProfiles(ProfileCollector collector, TransactionQuery query)
             throws Exception;
@@ -182,4 +187,30 @@ public interface AggregateRepository {
     public enum ErrorSummarySortOrder {
         ERROR_COUNT, ERROR_RATE
     }
+
+    @Value.Immutable
+    public interface ErrorMessageFilter {
+        ImmutableList<String> includes();
+        ImmutableList<String> excludes();
+    }
+
+    @Value.Immutable
+    public interface ErrorMessageResult {
+        List<ErrorMessagePoint> points();
+        Result<ErrorMessageCount> counts();
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    public interface ErrorMessagePoint {
+        long captureTime();
+        long errorCount();
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    public interface ErrorMessageCount {
+        String message();
+        long count();
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.storage.repo;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+
+import org.glowroot.common.model.ErrorMessageCollector;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageCount;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageFilter;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessagePoint;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageResult;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// merges the pre-aggregated error message counts (by fingerprint) into error rate points at the
+// given resolution and into overall error message counts
+public class ErrorMessageResultCollector {
+
+    private final ErrorMessageFilter filter;
+    private final long resolutionMillis;
+
+    private final Map<Long, MutableLong> pointCounts = Maps.newTreeMap();
+    private final Map<String, MutableErrorMessageCount> messageCounts = Maps.newHashMap();
+
+    private long lastCaptureTime;
+
+    public ErrorMessageResultCollector(ErrorMessageFilter filter, long resolutionMillis) {
+        this.filter = filter;
+        this.resolutionMillis = resolutionMillis;
+    }
+
+    public void mergeErrorMessages(long captureTime, List<Aggregate.ErrorMessage> errorMessages) {
+        lastCaptureTime = Math.max(lastCaptureTime, captureTime);
+        long pointCaptureTime = Utils.getNextRollupTime(captureTime, resolutionMillis);
+        for (Aggregate.ErrorMessage errorMessage : errorMessages) {
+            if (!matches(errorMessage.getFingerprint())) {
+                continue;
+            }
+            MutableLong pointCount = pointCounts.get(pointCaptureTime);
+            if (pointCount == null) {
+                pointCount = new MutableLong();
+                pointCounts.put(pointCaptureTime, pointCount);
+            }
+            pointCount.value += errorMessage.getCount();
+            MutableErrorMessageCount messageCount =
+                    messageCounts.get(errorMessage.getFingerprint());
+            if (messageCount == null) {
+                messageCount = new MutableErrorMessageCount(errorMessage.getMessage());
+                messageCounts.put(errorMessage.getFingerprint(), messageCount);
+            }
+            messageCount.count += errorMessage.getCount();
+        }
+    }
+
+    public long getLastCaptureTime() {
+        return lastCaptureTime;
+    }
+
+    public ErrorMessageResult getResult(int limit) {
+        List<ErrorMessagePoint> points = Lists.newArrayList();
+        for (Map.Entry<Long, MutableLong> entry : pointCounts.entrySet()) {
+            points.add(ImmutableErrorMessagePoint.of(entry.getKey(), entry.getValue().value));
+        }
+        List<ErrorMessageCount> counts = Lists.newArrayList();
+        for (MutableErrorMessageCount messageCount : messageCounts.values()) {
+            counts.add(ImmutableErrorMessageCount.of(messageCount.message, messageCount.count));
+        }
+        // reverse sort by count
+        Collections.sort(counts, new Comparator<ErrorMessageCount>() {
+            @Override
+            public int compare(ErrorMessageCount left, ErrorMessageCount right) {
+                return Longs.compare(right.count(), left.count());
+            }
+        });
+        return ImmutableErrorMessageResult.builder()
+                .addAllPoints(points)
+                .counts(Result.from(counts, limit))
+                .build();
+    }
+
+    // only the fingerprint and the first message seen with that fingerprint are stored, so the
+    // filter is applied to the fingerprint (using the fingerprint of the filter term as well, e.g.
+    // "user 1234" is matched as "user ?"), which is shared by every message in the group, instead
+    // of keeping or dropping the whole group based on whichever message happened to be seen first
+    private boolean matches(String fingerprint) {
+        String upper = fingerprint.toUpperCase(Locale.ENGLISH);
+        for (String include : filter.includes()) {
+            if (!upper.contains(getUpperFingerprint(include))) {
+                return false;
+            }
+        }
+        for (String exclude : filter.excludes()) {
+            if (upper.contains(getUpperFingerprint(exclude))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getUpperFingerprint(String term) {
+        return ErrorMessageCollector.getFingerprint(term).toUpperCase(Locale.ENGLISH);
+    }
+
+    private static class MutableLong {
+        private long value;
+    }
+
+    private static class MutableErrorMessageCount {
+
+        private final String message;
+        private long count;
+
+        private MutableErrorMessageCount(String message) {
+            this.message = message;
+        }
+    }
+}
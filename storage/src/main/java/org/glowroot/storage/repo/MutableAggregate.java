@@ -24,12 +24,14 @@ import javax.annotation.Nullable;
 import com.google.common.collect.Lists;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
+import org.glowroot.common.model.ErrorMessageCollector;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
 import org.glowroot.common.model.MutableProfile;
 import org.glowroot.common.model.QueryCollector;
 import org.glowroot.common.model.ServiceCallCollector;
 import org.glowroot.common.util.Styles;
+import org.glowroot.storage.config.ConfigDefaults;
 import org.glowroot.storage.repo.AggregateRepository.OverviewAggregate;
 import org.glowroot.storage.repo.AggregateRepository.PercentileAggregate;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -53,6 +55,7 @@ public class MutableAggregate {
     // lazy instantiated to reduce memory footprint
     private @MonotonicNonNull QueryCollector queries;
     private @MonotonicNonNull ServiceCallCollector serviceCalls;
+    private @MonotonicNonNull ErrorMessageCollector errorMessages;
     private @MonotonicNonNull MutableProfile mainThreadProfile;
     private @MonotonicNonNull MutableProfile auxThreadProfile;
 
@@ -111,7 +114,9 @@ public class MutableAggregate {
         durationNanosHistogram.merge(toBeMergedDurationNanosHistogram);
     }
 
-    public Aggregate toAggregate(ScratchBuffer scratchBuffer) throws IOException {
+    // used for storing rolled up aggregates, see LazyHistogram.toRollupProto()
+    public Aggregate toAggregate(ScratchBuffer scratchBuffer,
+            List<Double> precomputedPercentiles) throws IOException {
         Aggregate.Builder builder = Aggregate.newBuilder()
                 .setTotalDurationNanos(totalDurationNanos)
                 .setTransactionCount(transactionCount)
@@ -120,7 +125,8 @@ public class MutableAggregate {
                 .addAllMainThreadRootTimer(toProto(mainThreadRootTimers))
                 .addAllAuxThreadRootTimer(toProto(auxThreadRootTimers))
                 .addAllAsyncRootTimer(toProto(asyncRootTimers))
-                .setDurationNanosHistogram(durationNanosHistogram.toProto(scratchBuffer));
+                .setDurationNanosHistogram(durationNanosHistogram.toRollupProto(scratchBuffer,
+                        precomputedPercentiles));
         if (!mainThreadStats.isNA()) {
             builder.setMainThreadStats(mainThreadStats.toProto());
         }
@@ -133,6 +139,9 @@ public class MutableAggregate {
         if (serviceCalls != null) {
             builder.addAllServiceCallsByType(serviceCalls.toProto());
         }
+        if (errorMessages != null) {
+            builder.addAllErrorMessage(errorMessages.toProto());
+        }
         if (mainThreadProfile != null) {
             builder.setMainThreadProfile(mainThreadProfile.toProto());
         }
@@ -184,6 +193,14 @@ public class MutableAggregate {
         serviceCalls.mergeServiceCalls(toBeMergedServiceCalls);
     }
 
+    public void mergeErrorMessages(List<Aggregate.ErrorMessage> toBeMergedErrorMessages) {
+        if (errorMessages == null) {
+            errorMessages =
+                    new ErrorMessageCollector(ConfigDefaults.MAX_AGGREGATE_ERROR_MESSAGES, 0);
+        }
+        errorMessages.mergeErrorMessages(toBeMergedErrorMessages);
+    }
+
     public void mergeMainThreadProfile(Profile toBeMergedProfile) throws IOException {
         if (mainThreadProfile == null) {
             mainThreadProfile = new MutableProfile();
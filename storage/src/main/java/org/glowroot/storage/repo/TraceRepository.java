@@ -19,7 +19,6 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableList;
 import org.immutables.value.Value;
 
 import org.glowroot.common.live.LiveTraceRepository.Existence;
@@ -46,9 +45,6 @@ public interface TraceRepository {
 
     long readErrorCount(TraceQuery query) throws Exception;
 
-    ErrorMessageResult readErrorMessages(TraceQuery query, ErrorMessageFilter filter,
-            long resolutionMillis, int limit) throws Exception;
-
     @Nullable
     HeaderPlus readHeaderPlus(String agentId, String traceId) throws Exception;
 
@@ -72,32 +68,6 @@ public interface TraceRepository {
         long to();
     }
 
-    @Value.Immutable
-    public interface ErrorMessageFilter {
-        ImmutableList<String> includes();
-        ImmutableList<String> excludes();
-    }
-
-    @Value.Immutable
-    public interface ErrorMessageResult {
-        List<ErrorMessagePoint> points();
-        Result<ErrorMessageCount> counts();
-    }
-
-    @Value.Immutable
-    @Styles.AllParameters
-    public interface ErrorMessagePoint {
-        long captureTime();
-        long errorCount();
-    }
-
-    @Value.Immutable
-    @Styles.AllParameters
-    public interface ErrorMessageCount {
-        String message();
-        long count();
-    }
-
     @Value.Immutable
     @Styles.AllParameters
     public interface HeaderPlus {
@@ -15,7 +15,15 @@
  */
 package org.glowroot.storage.repo;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.List;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertKind;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.UiConfig;
 
 public class Utils {
 
@@ -46,6 +54,24 @@ public class Utils {
         }
     }
 
+    // the percentiles that are precomputed when rolling up aggregates, so that percentile charts
+    // (which default to these percentiles) and transaction alerts can read them directly
+    public static List<Double> getPrecomputedPercentiles(ConfigRepository configRepository,
+            String agentRollup) throws IOException {
+        ImmutableSortedSet.Builder<Double> percentiles = ImmutableSortedSet.naturalOrder();
+        UiConfig uiConfig = configRepository.getUiConfig(agentRollup);
+        if (uiConfig != null) {
+            percentiles.addAll(uiConfig.getDefaultDisplayedPercentileList());
+        }
+        for (AlertConfig alertConfig : configRepository.getAlertConfigs(agentRollup)) {
+            if (alertConfig.getKind() == AlertKind.TRANSACTION
+                    && alertConfig.hasTransactionPercentile()) {
+                percentiles.add(alertConfig.getTransactionPercentile().getValue());
+            }
+        }
+        return percentiles.build().asList();
+    }
+
     public static long getNextRollupTime(long captureTime, long intervalMillis) {
         return (long) Math.ceil(captureTime / (double) intervalMillis) * intervalMillis;
     }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.storage.repo.helper;
+
+import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.ScheduledRunnable;
+import org.glowroot.storage.repo.ConfigRepository;
+
+// checks alerts for agent rollups and for agents that have stopped sending data, see
+// AlertingService.checkAlerts()
+public class AlertCheckRunnable extends ScheduledRunnable {
+
+    private final AlertingService alertingService;
+    private final ConfigRepository configRepository;
+    private final Clock clock;
+
+    public AlertCheckRunnable(AlertingService alertingService, ConfigRepository configRepository,
+            Clock clock) {
+        this.alertingService = alertingService;
+        this.configRepository = configRepository;
+        this.clock = clock;
+    }
+
+    @Override
+    protected void runInternal() throws Exception {
+        long intervalMillis = configRepository.getRollupConfigs().get(0).intervalMillis();
+        long currentTime = clock.currentTimeMillis();
+        // evaluate up to the capture time of the last completed aggregate interval
+        alertingService.checkAlerts(currentTime - currentTime % intervalMillis);
+    }
+}
@@ -17,9 +17,15 @@ package org.glowroot.storage.repo.helper;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
 import javax.mail.Address;
 import javax.mail.Authenticator;
@@ -29,6 +35,9 @@ import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,11 +58,24 @@ import org.glowroot.storage.util.Encryption;
 import org.glowroot.storage.util.MailService;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertKind;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+// alerts for agents are evaluated incrementally as aggregates and gauge values are collected, using
+// a sliding window per agent per alert config that is seeded from storage the first time the alert
+// config is evaluated (e.g. after startup or after the alert config is changed), and afterwards
+// only updated from the collected data, so that alert checks do not need to read back from storage
+//
+// checkAlerts() is called periodically to evaluate alerts for agent rollups (which do not collect
+// data themselves) and for agents that have stopped sending data
+//
+// windows only hold data at the granularity that is collected (rollup level 0), so when the time
+// period of an alert config is only covered by a coarser rollup level, the alert is evaluated from
+// storage each time instead of from a window
 public class AlertingService {
 
     private static final Logger logger = LoggerFactory.getLogger(AlertingService.class);
@@ -66,6 +88,11 @@ public class AlertingService {
     private final RollupLevelService rollupLevelService;
     private final MailService mailService;
 
+    // only holds state for (leaf) agents, entries for agents that no longer exist are removed by
+    // checkAlerts()
+    private final ConcurrentMap<String, AgentAlertState> agentAlertStates =
+            Maps.newConcurrentMap();
+
     public AlertingService(ConfigRepository configRepository, AgentRepository agentRepository,
             TriggeredAlertRepository triggeredAlertRepository,
             AggregateRepository aggregateRepository, GaugeValueRepository gaugeValueRepository,
@@ -79,39 +106,124 @@ public class AlertingService {
         this.mailService = mailService;
     }
 
-    public void checkTransactionAlerts(long endTime) throws Exception {
+    // called after storing the aggregates, only the alerts for the agent that the aggregates are
+    // from are checked
+    public void checkTransactionAlerts(String agentId, long captureTime,
+            List<AggregatesByType> aggregatesByType) throws Exception {
         try {
-            for (AgentRollup agentRollup : agentRepository.readAgentRollups()) {
-                for (AlertConfig alertConfig : configRepository
-                        .getAlertConfigs(agentRollup.name())) {
-                    if (alertConfig.getKind() != AlertKind.TRANSACTION) {
-                        continue;
-                    }
-                    checkTransactionAlert(agentRollup.name(), alertConfig, endTime);
-                }
+            AgentAlertState agentAlertState = getAgentAlertState(agentId);
+            synchronized (agentAlertState) {
+                checkTransactionAlerts(agentId, captureTime, aggregatesByType,
+                        agentAlertState.transactionAlertWindows);
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    // called after storing the gauge values, only the alerts for the agent that the gauge values
+    // are from are checked
+    public void checkGaugeAlerts(String agentId, List<GaugeValue> gaugeValues) throws Exception {
+        long endTime = 0;
+        for (GaugeValue gaugeValue : gaugeValues) {
+            endTime = Math.max(endTime, gaugeValue.getCaptureTime());
+        }
+        try {
+            AgentAlertState agentAlertState = getAgentAlertState(agentId);
+            synchronized (agentAlertState) {
+                checkGaugeAlerts(agentId, endTime, gaugeValues, agentAlertState.gaugeAlertWindows);
             }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
     }
 
-    public void checkGaugeAlerts(long endTime) throws Exception {
+    // called periodically, checks the alerts for all agent rollups and agents (including those
+    // that are no longer sending data)
+    public void checkAlerts(long endTime) throws Exception {
         try {
+            Set<String> agentIds = Sets.newHashSet();
             for (AgentRollup agentRollup : agentRepository.readAgentRollups()) {
-                for (AlertConfig alertConfig : configRepository
-                        .getAlertConfigs(agentRollup.name())) {
-                    if (alertConfig.getKind() != AlertKind.GAUGE) {
-                        continue;
+                String agentRollupName = agentRollup.name();
+                if (agentRollup.leaf()) {
+                    agentIds.add(agentRollupName);
+                    AgentAlertState agentAlertState = getAgentAlertState(agentRollupName);
+                    synchronized (agentAlertState) {
+                        checkTransactionAlerts(agentRollupName, endTime,
+                                ImmutableList.<AggregatesByType>of(),
+                                agentAlertState.transactionAlertWindows);
+                        checkGaugeAlerts(agentRollupName, endTime, ImmutableList.<GaugeValue>of(),
+                                agentAlertState.gaugeAlertWindows);
                     }
-                    checkGaugeAlert(agentRollup.name(), alertConfig, endTime);
+                } else {
+                    // agent rollups do not collect data, so they are always evaluated from storage
+                    checkTransactionAlerts(agentRollupName, endTime,
+                            ImmutableList.<AggregatesByType>of(), null);
+                    checkGaugeAlerts(agentRollupName, endTime, ImmutableList.<GaugeValue>of(),
+                            null);
                 }
             }
+            agentAlertStates.keySet().retainAll(agentIds);
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
     }
 
-    private void checkTransactionAlert(String agentRollup, AlertConfig alertConfig, long endTime)
+    private AgentAlertState getAgentAlertState(String agentId) {
+        AgentAlertState agentAlertState = agentAlertStates.get(agentId);
+        if (agentAlertState == null) {
+            agentAlertState = new AgentAlertState();
+            AgentAlertState existing = agentAlertStates.putIfAbsent(agentId, agentAlertState);
+            if (existing != null) {
+                agentAlertState = existing;
+            }
+        }
+        return agentAlertState;
+    }
+
+    // transactionAlertWindows is null when the windows should not be retained
+    private void checkTransactionAlerts(String agentRollup, long endTime,
+            List<AggregatesByType> aggregatesByType,
+            @Nullable Map<String, TransactionAlertWindow> transactionAlertWindows)
+            throws Exception {
+        Set<String> versions = Sets.newHashSet();
+        for (AlertConfig alertConfig : configRepository.getAlertConfigs(agentRollup)) {
+            if (alertConfig.getKind() != AlertKind.TRANSACTION) {
+                continue;
+            }
+            String version = Versions.getVersion(alertConfig);
+            versions.add(version);
+            checkTransactionAlert(agentRollup, alertConfig, version, endTime, aggregatesByType,
+                    transactionAlertWindows);
+        }
+        if (transactionAlertWindows != null) {
+            // remove windows for alert configs that have since been changed or deleted
+            transactionAlertWindows.keySet().retainAll(versions);
+        }
+    }
+
+    // gaugeAlertWindows is null when the windows should not be retained
+    private void checkGaugeAlerts(String agentRollup, long endTime, List<GaugeValue> gaugeValues,
+            @Nullable Map<String, GaugeAlertWindow> gaugeAlertWindows) throws Exception {
+        Set<String> versions = Sets.newHashSet();
+        for (AlertConfig alertConfig : configRepository.getAlertConfigs(agentRollup)) {
+            if (alertConfig.getKind() != AlertKind.GAUGE) {
+                continue;
+            }
+            String version = Versions.getVersion(alertConfig);
+            versions.add(version);
+            checkGaugeAlert(agentRollup, alertConfig, version, endTime, gaugeValues,
+                    gaugeAlertWindows);
+        }
+        if (gaugeAlertWindows != null) {
+            // remove windows for alert configs that have since been changed or deleted
+            gaugeAlertWindows.keySet().retainAll(versions);
+        }
+    }
+
+    private void checkTransactionAlert(String agentRollup, AlertConfig alertConfig,
+            String version, long endTime, List<AggregatesByType> aggregatesByType,
+            @Nullable Map<String, TransactionAlertWindow> transactionAlertWindows)
             throws Exception {
         // validate config
         if (!alertConfig.hasTransactionPercentile()) {
@@ -133,7 +245,48 @@ public class AlertingService {
         }
         int minTransactionCount = alertConfig.getMinTransactionCount().getValue();
 
-        long startTime = endTime - SECONDS.toMillis(alertConfig.getTimePeriodSeconds());
+        TransactionAlertWindow window =
+                transactionAlertWindows == null ? null : transactionAlertWindows.get(version);
+        if (window == null) {
+            // the aggregates that were just stored are included in the initial read
+            window = readTransactionAlertWindow(agentRollup, alertConfig, version, endTime);
+            if (transactionAlertWindows != null && window.rollupLevel == 0) {
+                transactionAlertWindows.put(version, window);
+            }
+        } else {
+            for (AggregatesByType aggregates : aggregatesByType) {
+                if (aggregates.getTransactionType().equals(alertConfig.getTransactionType())) {
+                    Aggregate overallAggregate = aggregates.getOverallAggregate();
+                    window.add(endTime, overallAggregate.getTransactionCount(),
+                            overallAggregate.getDurationNanosHistogram());
+                }
+            }
+            window.moveEndTime(endTime);
+        }
+        long transactionCount = window.getTransactionCount();
+        if (transactionCount < minTransactionCount) {
+            // don't clear existing triggered alert
+            return;
+        }
+        long valueAtPercentile = window.getMergedHistogram().getValueAtPercentile(percentile);
+        boolean currentlyTriggered = valueAtPercentile >= MILLISECONDS.toNanos(thresholdMillis);
+        if (window.triggered && !currentlyTriggered) {
+            triggeredAlertRepository.delete(agentRollup, version);
+            window.triggered = false;
+            sendTransactionAlert(agentRollup, alertConfig, percentile, valueAtPercentile,
+                    transactionCount, true);
+        } else if (!window.triggered && currentlyTriggered) {
+            triggeredAlertRepository.insert(agentRollup, version);
+            window.triggered = true;
+            sendTransactionAlert(agentRollup, alertConfig, percentile, valueAtPercentile,
+                    transactionCount, false);
+        }
+    }
+
+    private TransactionAlertWindow readTransactionAlertWindow(String agentRollup,
+            AlertConfig alertConfig, String version, long endTime) throws Exception {
+        long timePeriodMillis = SECONDS.toMillis(alertConfig.getTimePeriodSeconds());
+        long startTime = endTime - timePeriodMillis;
         // don't want to include the aggregate at startTime, so add 1
         startTime++;
         int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
@@ -146,64 +299,69 @@ public class AlertingService {
                                 .to(endTime)
                                 .rollupLevel(rollupLevel)
                                 .build());
-        long transactionCount = 0;
-        LazyHistogram durationNanosHistogram = new LazyHistogram();
+        TransactionAlertWindow window = new TransactionAlertWindow(timePeriodMillis, endTime,
+                rollupLevel, triggeredAlertRepository.exists(agentRollup, version));
         for (PercentileAggregate aggregate : percentileAggregates) {
-            transactionCount += aggregate.transactionCount();
-            durationNanosHistogram.merge(aggregate.durationNanosHistogram());
-        }
-        if (transactionCount < minTransactionCount) {
-            // don't clear existing triggered alert
-            return;
-        }
-        String version = Versions.getVersion(alertConfig);
-        boolean previouslyTriggered = triggeredAlertRepository.exists(agentRollup, version);
-        long valueAtPercentile = durationNanosHistogram.getValueAtPercentile(percentile);
-        boolean currentlyTriggered = valueAtPercentile >= MILLISECONDS.toNanos(thresholdMillis);
-        if (previouslyTriggered && !currentlyTriggered) {
-            triggeredAlertRepository.delete(agentRollup, version);
-            sendTransactionAlert(agentRollup, alertConfig, percentile, valueAtPercentile,
-                    transactionCount, true);
-        } else if (!previouslyTriggered && currentlyTriggered) {
-            triggeredAlertRepository.insert(agentRollup, version);
-            sendTransactionAlert(agentRollup, alertConfig, percentile, valueAtPercentile,
-                    transactionCount, false);
+            window.add(aggregate.captureTime(), aggregate.transactionCount(),
+                    aggregate.durationNanosHistogram());
         }
+        return window;
     }
 
-    private void checkGaugeAlert(String agentRollup, AlertConfig alertConfig, long endTime)
-            throws Exception {
+    private void checkGaugeAlert(String agentRollup, AlertConfig alertConfig, String version,
+            long endTime, List<GaugeValue> gaugeValues,
+            @Nullable Map<String, GaugeAlertWindow> gaugeAlertWindows) throws Exception {
         if (!alertConfig.hasGaugeThreshold()) {
             // AlertConfig has nice toString() from immutables
             logger.warn("alert config missing gaugeThreshold: {}", alertConfig);
             return;
         }
         double threshold = alertConfig.getGaugeThreshold().getValue();
-        long startTime = endTime - SECONDS.toMillis(alertConfig.getTimePeriodSeconds());
-        // don't want to include the aggregate at startTime, so add 1
-        startTime++;
-        int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
-        List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollup,
-                alertConfig.getGaugeName(), startTime, endTime, rollupLevel);
-        double totalWeightedValue = 0;
-        long totalWeight = 0;
-        for (GaugeValue gaugeValue : gaugeValues) {
-            totalWeightedValue += gaugeValue.getValue() * gaugeValue.getWeight();
-            totalWeight += gaugeValue.getWeight();
+        GaugeAlertWindow window = gaugeAlertWindows == null ? null : gaugeAlertWindows.get(version);
+        if (window == null) {
+            // the gauge values that were just stored are included in the initial read
+            window = readGaugeAlertWindow(agentRollup, alertConfig, version, endTime);
+            if (gaugeAlertWindows != null && window.rollupLevel == 0) {
+                gaugeAlertWindows.put(version, window);
+            }
+        } else {
+            for (GaugeValue gaugeValue : gaugeValues) {
+                if (gaugeValue.getGaugeName().equals(alertConfig.getGaugeName())) {
+                    window.add(gaugeValue);
+                }
+            }
+            window.moveEndTime(endTime);
         }
-        double average = totalWeightedValue / totalWeight;
-        String version = Versions.getVersion(alertConfig);
-        boolean previouslyTriggered = triggeredAlertRepository.exists(agentRollup, version);
+        double average = window.getAverage();
         boolean currentlyTriggered = average >= threshold;
-        if (previouslyTriggered && !currentlyTriggered) {
+        if (window.triggered && !currentlyTriggered) {
             triggeredAlertRepository.delete(agentRollup, version);
+            window.triggered = false;
             sendGaugeAlert(agentRollup, alertConfig, average, true);
-        } else if (!previouslyTriggered && currentlyTriggered) {
+        } else if (!window.triggered && currentlyTriggered) {
             triggeredAlertRepository.insert(agentRollup, version);
+            window.triggered = true;
             sendGaugeAlert(agentRollup, alertConfig, average, false);
         }
     }
 
+    private GaugeAlertWindow readGaugeAlertWindow(String agentRollup, AlertConfig alertConfig,
+            String version, long endTime) throws Exception {
+        long timePeriodMillis = SECONDS.toMillis(alertConfig.getTimePeriodSeconds());
+        long startTime = endTime - timePeriodMillis;
+        // don't want to include the gauge value at startTime, so add 1
+        startTime++;
+        int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
+        List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollup,
+                alertConfig.getGaugeName(), startTime, endTime, rollupLevel);
+        GaugeAlertWindow window = new GaugeAlertWindow(timePeriodMillis, endTime, rollupLevel,
+                triggeredAlertRepository.exists(agentRollup, version));
+        for (GaugeValue gaugeValue : gaugeValues) {
+            window.add(gaugeValue);
+        }
+        return window;
+    }
+
     private void sendTransactionAlert(String agentRollup, AlertConfig alertConfig,
             double percentile, long valueAtPercentile, long transactionCount, boolean ok)
             throws Exception {
@@ -330,4 +488,151 @@ public class AlertingService {
         }
         return Session.getInstance(props, authenticator);
     }
+
+    private static class AgentAlertState {
+        // keyed by alert config version
+        private final Map<String, TransactionAlertWindow> transactionAlertWindows =
+                Maps.newHashMap();
+        private final Map<String, GaugeAlertWindow> gaugeAlertWindows = Maps.newHashMap();
+    }
+
+    // the window is (endTime - timePeriodMillis, endTime]
+    private static class TransactionAlertWindow {
+
+        private final long timePeriodMillis;
+        private final int rollupLevel;
+        // keyed by capture time, so that aggregates that are collected out of order (or collected
+        // again after a retry) are placed (or replaced) correctly
+        private final NavigableMap<Long, TransactionAlertWindowEntry> entries =
+                new TreeMap<Long, TransactionAlertWindowEntry>();
+        private long endTime;
+        private long transactionCount;
+
+        // cached so that the triggered alert repository only needs to be read when seeding
+        private boolean triggered;
+
+        private TransactionAlertWindow(long timePeriodMillis, long endTime, int rollupLevel,
+                boolean triggered) {
+            this.timePeriodMillis = timePeriodMillis;
+            this.endTime = endTime;
+            this.rollupLevel = rollupLevel;
+            this.triggered = triggered;
+        }
+
+        private void add(long captureTime, long transactionCount,
+                Aggregate.Histogram durationNanosHistogram) {
+            if (captureTime <= endTime - timePeriodMillis) {
+                // already outside of the window
+                return;
+            }
+            TransactionAlertWindowEntry existing = entries.put(captureTime,
+                    new TransactionAlertWindowEntry(transactionCount,
+                            new LazyHistogram(durationNanosHistogram)));
+            if (existing != null) {
+                this.transactionCount -= existing.transactionCount;
+            }
+            this.transactionCount += transactionCount;
+        }
+
+        private void moveEndTime(long endTime) {
+            if (endTime <= this.endTime) {
+                return;
+            }
+            this.endTime = endTime;
+            Map<Long, TransactionAlertWindowEntry> expired =
+                    entries.headMap(endTime - timePeriodMillis, true);
+            for (TransactionAlertWindowEntry entry : expired.values()) {
+                transactionCount -= entry.transactionCount;
+            }
+            expired.clear();
+        }
+
+        private long getTransactionCount() {
+            return transactionCount;
+        }
+
+        // histograms cannot be subtracted without losing precision, so they are merged on
+        // demand, but from memory, and only once the min transaction count has been reached
+        private LazyHistogram getMergedHistogram() {
+            LazyHistogram mergedHistogram = new LazyHistogram();
+            for (TransactionAlertWindowEntry entry : entries.values()) {
+                mergedHistogram.merge(entry.durationNanosHistogram);
+            }
+            return mergedHistogram;
+        }
+    }
+
+    private static class TransactionAlertWindowEntry {
+
+        private final long transactionCount;
+        private final LazyHistogram durationNanosHistogram;
+
+        private TransactionAlertWindowEntry(long transactionCount,
+                LazyHistogram durationNanosHistogram) {
+            this.transactionCount = transactionCount;
+            this.durationNanosHistogram = durationNanosHistogram;
+        }
+    }
+
+    // the window is (endTime - timePeriodMillis, endTime]
+    private static class GaugeAlertWindow {
+
+        private final long timePeriodMillis;
+        private final int rollupLevel;
+        // keyed by capture time, see TransactionAlertWindow
+        private final NavigableMap<Long, GaugeValue> gaugeValues = new TreeMap<Long, GaugeValue>();
+        private long endTime;
+        private double totalWeightedValue;
+        private long totalWeight;
+
+        // cached so that the triggered alert repository only needs to be read when seeding
+        private boolean triggered;
+
+        private GaugeAlertWindow(long timePeriodMillis, long endTime, int rollupLevel,
+                boolean triggered) {
+            this.timePeriodMillis = timePeriodMillis;
+            this.endTime = endTime;
+            this.rollupLevel = rollupLevel;
+            this.triggered = triggered;
+        }
+
+        private void add(GaugeValue gaugeValue) {
+            if (gaugeValue.getCaptureTime() <= endTime - timePeriodMillis) {
+                // already outside of the window
+                return;
+            }
+            GaugeValue existing = gaugeValues.put(gaugeValue.getCaptureTime(), gaugeValue);
+            if (existing != null) {
+                subtract(existing);
+            }
+            totalWeightedValue += gaugeValue.getValue() * gaugeValue.getWeight();
+            totalWeight += gaugeValue.getWeight();
+        }
+
+        private void moveEndTime(long endTime) {
+            if (endTime <= this.endTime) {
+                return;
+            }
+            this.endTime = endTime;
+            Map<Long, GaugeValue> expired = gaugeValues.headMap(endTime - timePeriodMillis, true);
+            for (GaugeValue gaugeValue : expired.values()) {
+                subtract(gaugeValue);
+            }
+            expired.clear();
+            if (gaugeValues.isEmpty()) {
+                // reset accumulated floating point error
+                totalWeightedValue = 0;
+            }
+        }
+
+        private void subtract(GaugeValue gaugeValue) {
+            totalWeightedValue -= gaugeValue.getValue() * gaugeValue.getWeight();
+            totalWeight -= gaugeValue.getWeight();
+        }
+
+        // NaN if there are no gauge values in the window
+        private double getAverage() {
+            return totalWeightedValue / totalWeight;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.storage.repo;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.common.model.ErrorMessageCollector;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageCount;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageFilter;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ErrorMessageResultCollectorTest {
+
+    @Test
+    public void shouldIncludeGroupRegardlessOfFirstMessage() {
+        // given
+        ErrorMessageResultCollector collector =
+                new ErrorMessageResultCollector(filter("user 1234", null), 60000);
+        // when
+        collector.mergeErrorMessages(60000, buildErrorMessages());
+        // then
+        List<ErrorMessageCount> counts = collector.getResult(10).counts().records();
+        assertThat(counts).hasSize(1);
+        assertThat(counts.get(0).message()).isEqualTo("no such user 5678");
+        assertThat(counts.get(0).count()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldExcludeGroupRegardlessOfFirstMessage() {
+        // given
+        ErrorMessageResultCollector collector =
+                new ErrorMessageResultCollector(filter(null, "user 1234"), 60000);
+        // when
+        collector.mergeErrorMessages(60000, buildErrorMessages());
+        // then
+        List<ErrorMessageCount> counts = collector.getResult(10).counts().records();
+        assertThat(counts).hasSize(1);
+        assertThat(counts.get(0).message()).isEqualTo("timeout");
+        assertThat(counts.get(0).count()).isEqualTo(2);
+    }
+
+    private static ErrorMessageFilter filter(String include, String exclude) {
+        ImmutableErrorMessageFilter.Builder builder = ImmutableErrorMessageFilter.builder();
+        if (include != null) {
+            builder.addIncludes(include);
+        }
+        if (exclude != null) {
+            builder.addExcludes(exclude);
+        }
+        return builder.build();
+    }
+
+    private static List<Aggregate.ErrorMessage> buildErrorMessages() {
+        ErrorMessageCollector collector = new ErrorMessageCollector(10, 1);
+        collector.mergeErrorMessage("no such user 5678");
+        collector.mergeErrorMessage("no such user 1234");
+        collector.mergeErrorMessage("no such user 42");
+        collector.mergeErrorMessage("timeout");
+        collector.mergeErrorMessage("timeout");
+        return ImmutableList.copyOf(collector.toProto());
+    }
+}
@@ -24,12 +24,14 @@ import org.junit.Test;
 
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.common.util.Versions;
 import org.glowroot.storage.config.ImmutableSmtpConfig;
 import org.glowroot.storage.config.SmtpConfig;
 import org.glowroot.storage.repo.AgentRepository;
 import org.glowroot.storage.repo.AgentRepository.AgentRollup;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.AggregateRepository.PercentileAggregate;
+import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
 import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.GaugeValueRepository;
 import org.glowroot.storage.repo.ImmutableAgentRollup;
@@ -41,17 +43,24 @@ import org.glowroot.storage.util.Encryption;
 import org.glowroot.storage.util.MailService;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertKind;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.Proto.OptionalDouble;
 import org.glowroot.wire.api.model.Proto.OptionalInt32;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AlertingServiceTest {
 
     private static final String AGENT_ID = "";
+    private static final String GAUGE_NAME =
+            "java.lang:type=GarbageCollector,name=ConcurrentMarkSweep:CollectionTime[counter]";
 
     private ConfigRepository configRepository;
     private AgentRepository agentRepository;
@@ -65,8 +74,6 @@ public class AlertingServiceTest {
     public void beforeEachTest() throws Exception {
         configRepository = mock(ConfigRepository.class);
         agentRepository = mock(AgentRepository.class);
-        when(agentRepository.readAgentRollups())
-                .thenReturn(ImmutableList.<AgentRollup>of(ImmutableAgentRollup.of("", true)));
         triggeredAlertRepository = mock(TriggeredAlertRepository.class);
         aggregateRepository = mock(AggregateRepository.class);
         gaugeValueRepository = mock(GaugeValueRepository.class);
@@ -89,11 +96,12 @@ public class AlertingServiceTest {
     public void shouldSendMailForTransactionAlert() throws Exception {
         // given
         setupForTransaction(1000000);
-        AlertingService alertingService = new AlertingService(configRepository, agentRepository,
-                triggeredAlertRepository, aggregateRepository, gaugeValueRepository,
-                rollupLevelService, mailService);
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
         // when
-        alertingService.checkTransactionAlerts(120000);
+        alertingService.checkTransactionAlerts(AGENT_ID, 120000,
+                ImmutableList.<AggregatesByType>of());
         // then
         assertThat(mailService.getMessage()).isNotNull();
     }
@@ -102,11 +110,12 @@ public class AlertingServiceTest {
     public void shouldNotSendMailForTransactionAlert() throws Exception {
         // given
         setupForTransaction(999000);
-        AlertingService alertingService = new AlertingService(configRepository, agentRepository,
-                triggeredAlertRepository, aggregateRepository, gaugeValueRepository,
-                rollupLevelService, mailService);
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
         // when
-        alertingService.checkTransactionAlerts(120000);
+        alertingService.checkTransactionAlerts(AGENT_ID, 120000,
+                ImmutableList.<AggregatesByType>of());
         // then
         assertThat(mailService.getMessage()).isNull();
     }
@@ -115,11 +124,14 @@ public class AlertingServiceTest {
     public void shouldSendMailForGaugeAlert() throws Exception {
         // given
         setupForGauge(500);
-        AlertingService alertingService = new AlertingService(configRepository, agentRepository,
-                triggeredAlertRepository, aggregateRepository, gaugeValueRepository,
-                rollupLevelService, mailService);
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
         // when
-        alertingService.checkGaugeAlerts(120000);
+        alertingService.checkGaugeAlerts(AGENT_ID, ImmutableList.of(GaugeValue.newBuilder()
+                .setGaugeName(GAUGE_NAME)
+                .setCaptureTime(120000)
+                .build()));
         // then
         assertThat(mailService.getMessage()).isNotNull();
         assertThat(((String) mailService.getMessage().getContent()).trim())
@@ -130,15 +142,118 @@ public class AlertingServiceTest {
     public void shouldNotSendMailForGaugeAlert() throws Exception {
         // given
         setupForGauge(499);
-        AlertingService alertingService = new AlertingService(configRepository, agentRepository,
-                triggeredAlertRepository, aggregateRepository, gaugeValueRepository,
-                rollupLevelService, mailService);
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
         // when
-        alertingService.checkTransactionAlerts(120000);
+        alertingService.checkTransactionAlerts(AGENT_ID, 120000,
+                ImmutableList.<AggregatesByType>of());
         // then
         assertThat(mailService.getMessage()).isNull();
     }
 
+    @Test
+    public void shouldEvaluateSubsequentTransactionAlertsFromCollectedAggregates()
+            throws Exception {
+        // given
+        setupForTransaction(1000000);
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
+        alertingService.checkTransactionAlerts(AGENT_ID, 120000,
+                ImmutableList.<AggregatesByType>of());
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        lazyHistogram.add(999000);
+        AggregatesByType aggregatesByType = AggregatesByType.newBuilder()
+                .setTransactionType("tt")
+                .setOverallAggregate(Aggregate.newBuilder()
+                        .setTotalDurationNanos(999000)
+                        .setTransactionCount(1)
+                        .setDurationNanosHistogram(lazyHistogram.toProto(new ScratchBuffer())))
+                .build();
+        // when
+        alertingService.checkTransactionAlerts(AGENT_ID, 180000,
+                ImmutableList.of(aggregatesByType));
+        // then
+        verify(aggregateRepository).readPercentileAggregates(any(TransactionQuery.class));
+        verify(triggeredAlertRepository).insert(AGENT_ID, Versions.getVersion(
+                configRepository.getAlertConfigs(AGENT_ID).get(0)));
+        verify(triggeredAlertRepository).delete(AGENT_ID, Versions.getVersion(
+                configRepository.getAlertConfigs(AGENT_ID).get(0)));
+        assertThat(mailService.getMessage().getSubject()).endsWith("OK");
+    }
+
+    @Test
+    public void shouldIgnoreGaugeValueCollectedOutOfOrderBeforeWindow() throws Exception {
+        // given
+        setupForGauge(500);
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
+        alertingService.checkGaugeAlerts(AGENT_ID, ImmutableList.of(GaugeValue.newBuilder()
+                .setGaugeName(GAUGE_NAME)
+                .setCaptureTime(120000)
+                .build()));
+        alertingService.checkGaugeAlerts(AGENT_ID, ImmutableList.of(GaugeValue.newBuilder()
+                .setGaugeName(GAUGE_NAME)
+                .setCaptureTime(200000)
+                .setValue(0)
+                .setWeight(1)
+                .build()));
+        // when
+        alertingService.checkGaugeAlerts(AGENT_ID, ImmutableList.of(GaugeValue.newBuilder()
+                .setGaugeName(GAUGE_NAME)
+                .setCaptureTime(130000)
+                .setValue(1000)
+                .setWeight(1)
+                .build()));
+        // then
+        String version = Versions.getVersion(configRepository.getAlertConfigs(AGENT_ID).get(0));
+        verify(triggeredAlertRepository, times(1)).insert(AGENT_ID, version);
+        verify(triggeredAlertRepository, times(1)).delete(AGENT_ID, version);
+        assertThat(mailService.getMessage().getSubject()).endsWith("OK");
+    }
+
+    @Test
+    public void shouldClearGaugeAlertForAgentThatStoppedSendingData() throws Exception {
+        // given
+        setupForGauge(500);
+        when(agentRepository.readAgentRollups())
+                .thenReturn(ImmutableList.<AgentRollup>of(ImmutableAgentRollup.of(AGENT_ID, true)));
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
+        alertingService.checkGaugeAlerts(AGENT_ID, ImmutableList.of(GaugeValue.newBuilder()
+                .setGaugeName(GAUGE_NAME)
+                .setCaptureTime(120000)
+                .build()));
+        // when
+        alertingService.checkAlerts(240000);
+        // then
+        String version = Versions.getVersion(configRepository.getAlertConfigs(AGENT_ID).get(0));
+        verify(triggeredAlertRepository).insert(AGENT_ID, version);
+        verify(triggeredAlertRepository).delete(AGENT_ID, version);
+        assertThat(mailService.getMessage().getSubject()).endsWith("OK");
+    }
+
+    @Test
+    public void shouldCheckAgentRollupAlertsFromStorage() throws Exception {
+        // given
+        setupForTransaction(1000000);
+        when(agentRepository.readAgentRollups()).thenReturn(
+                ImmutableList.<AgentRollup>of(ImmutableAgentRollup.of(AGENT_ID, false)));
+        AlertingService alertingService = new AlertingService(configRepository,
+                agentRepository, triggeredAlertRepository, aggregateRepository,
+                gaugeValueRepository, rollupLevelService, mailService);
+        // when
+        alertingService.checkAlerts(120000);
+        alertingService.checkAlerts(120000);
+        // then
+        verify(aggregateRepository, times(2))
+                .readPercentileAggregates(any(TransactionQuery.class));
+        assertThat(mailService.getMessage()).isNotNull();
+    }
+
     @Test
     public void shouldReturnCorrectPercentileName() {
         assertThat(Utils.getPercentileWithSuffix(0)).isEqualTo("0th");
@@ -215,8 +330,7 @@ public class AlertingServiceTest {
     private void setupForGauge(double value) throws Exception {
         AlertConfig alertConfig = AlertConfig.newBuilder()
                 .setKind(AlertKind.GAUGE)
-                .setGaugeName("java.lang:type=GarbageCollector,name=ConcurrentMarkSweep"
-                        + ":CollectionTime[counter]")
+                .setGaugeName(GAUGE_NAME)
                 .setGaugeThreshold(OptionalDouble.newBuilder()
                         .setValue(500.0))
                 .setTimePeriodSeconds(60)
@@ -233,9 +347,7 @@ public class AlertingServiceTest {
                 .build();
         when(configRepository.getAlertConfigs(AGENT_ID))
                 .thenReturn(ImmutableList.of(alertConfig));
-        when(gaugeValueRepository.readGaugeValues(AGENT_ID,
-                "java.lang:type=GarbageCollector,name=ConcurrentMarkSweep:CollectionTime[counter]",
-                60001, 120000, 0)).thenReturn(ImmutableList.of(gaugeValue));
+        when(gaugeValueRepository.readGaugeValues(AGENT_ID, GAUGE_NAME, 60001, 120000, 0)).thenReturn(ImmutableList.of(gaugeValue));
     }
 
     static class MockMailService extends MailService {
@@ -195,7 +195,7 @@ glowroot.controller('ConfigInstrumentationListCtrl', [
           .success(function (data) {
             $scope.dirty = false;
             if (data.classes) {
-              var msg = 're-transformed ' + data.classes + ' class' + (data.classes > 1 ? 'es' : '');
+              var msg = 're-transforming ' + data.classes + ' class' + (data.classes > 1 ? 'es' : '');
               deferred.resolve('Success (' + msg + ')');
             } else {
               deferred.resolve('Success (no classes needed re-transforming)');
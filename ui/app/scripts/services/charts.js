@@ -241,7 +241,9 @@ glowroot.factory('charts', [
         transactionType: $scope.transactionType,
         transactionName: $scope.transactionName,
         from: chartFrom,
-        to: chartTo
+        to: chartTo,
+        // chart data is downsampled on the server to roughly one data point per pixel
+        maxDataPoints: Math.round(chartState.plot.width())
       };
       if (addToQuery) {
         addToQuery(query);
@@ -39,17 +39,19 @@ class AdminJsonService {
     private final TraceRepository traceRepository;
     private final TransactionTypeRepository transactionTypeRepository;
     private final GaugeValueRepository gaugeValueRepository;
+    private final AggregateResultCache aggregateResultCache;
     private final @Nullable LiveWeavingService liveWeavingService;
     private final RepoAdmin repoAdmin;
 
     AdminJsonService(AggregateRepository aggregateRepository, TraceRepository traceRepository,
             TransactionTypeRepository transactionTypeRepository,
-            GaugeValueRepository gaugeValueRepository,
+            GaugeValueRepository gaugeValueRepository, AggregateResultCache aggregateResultCache,
             @Nullable LiveWeavingService liveWeavingService, RepoAdmin repoAdmin) {
         this.aggregateRepository = aggregateRepository;
         this.traceRepository = traceRepository;
         this.transactionTypeRepository = transactionTypeRepository;
         this.gaugeValueRepository = gaugeValueRepository;
+        this.aggregateResultCache = aggregateResultCache;
         this.liveWeavingService = liveWeavingService;
         this.repoAdmin = repoAdmin;
     }
@@ -61,6 +63,7 @@ class AdminJsonService {
         // TODO optimize by just deleting and re-creating h2 db
         traceRepository.deleteAll(agentRollup);
         aggregateRepository.deleteAll(agentRollup);
+        aggregateResultCache.invalidateAll(agentRollup);
         transactionTypeRepository.deleteAll(agentRollup);
         gaugeValueRepository.deleteAll(agentRollup);
         repoAdmin.defrag();
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.immutables.value.Value;
+
+import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.Styles;
+import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
+import org.glowroot.storage.repo.ConfigRepository;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+// caches the stored (already aggregated) transaction query results of settled, rollup-aligned
+// buckets of time, so that repeated requests for overlapping time ranges (e.g. a chart of the
+// last few hours that is refreshed every minute, or multiple users watching the same dashboard)
+// only need to read the unaligned edges of the time range, see TransactionCommonService
+//
+// this is only enabled for the embedded (fat) repository, where stored aggregates are never
+// updated once their interval has settled, so cached results only need to be invalidated when
+// the underlying data is deleted, either by retention expiry or by deleting all data
+//
+// on the central server, aggregates for an interval can still arrive (and be rolled up) late from
+// any of the agents in an agent rollup, so cached results could go stale
+class AggregateResultCache {
+
+    // weight is approximate number of bytes
+    private static final long MAX_WEIGHT =
+            Long.getLong("glowroot.internal.ui.aggregateResultCacheMaxWeight", 32 * 1024 * 1024);
+
+    // number of rollup intervals in each cached bucket
+    private static final int BUCKET_INTERVALS = 60;
+
+    private final ConfigRepository configRepository;
+    private final Clock clock;
+    private final boolean enabled;
+
+    private final Cache<CacheKey, CachedResult<?>> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT)
+            .weigher(new Weigher<CacheKey, CachedResult<?>>() {
+                @Override
+                public int weigh(CacheKey key, CachedResult<?> value) {
+                    return value.weight();
+                }
+            })
+            .build();
+
+    AggregateResultCache(ConfigRepository configRepository, Clock clock, boolean enabled) {
+        this.configRepository = configRepository;
+        this.clock = clock;
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    long getBucketMillis(int rollupLevel) {
+        return configRepository.getRollupConfigs().get(rollupLevel).intervalMillis()
+                * BUCKET_INTERVALS;
+    }
+
+    // bucketQuery.from() and bucketQuery.to() must be aligned to getBucketMillis()
+    @Nullable
+    <T> T get(TransactionQuery bucketQuery, Kind kind) throws Exception {
+        if (!enabled) {
+            return null;
+        }
+        CacheKey key = ImmutableCacheKey.of(bucketQuery, kind);
+        if (isExpiring(bucketQuery)) {
+            cache.invalidate(key);
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        CachedResult<T> cachedResult = (CachedResult<T>) cache.getIfPresent(key);
+        return cachedResult == null ? null : cachedResult.value();
+    }
+
+    // bucketQuery.from() and bucketQuery.to() must be aligned to getBucketMillis(), and the bucket
+    // must be settled
+    <T> void put(TransactionQuery bucketQuery, Kind kind, T value, int weight) throws Exception {
+        if (!enabled || isExpiring(bucketQuery)) {
+            return;
+        }
+        cache.put(ImmutableCacheKey.of(bucketQuery, kind), new CachedResult<T>(value, weight));
+    }
+
+    void invalidateAll(String agentRollup) {
+        for (CacheKey key : cache.asMap().keySet()) {
+            if (key.query().agentRollup().equals(agentRollup)) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    // the start of the time range may already be (or soon be) removed by retention expiry
+    private boolean isExpiring(TransactionQuery query) throws Exception {
+        List<Integer> rollupExpirationHours =
+                configRepository.getStorageConfig().rollupExpirationHours();
+        if (query.rollupLevel() >= rollupExpirationHours.size()) {
+            return true;
+        }
+        long expirationMillis = HOURS.toMillis(rollupExpirationHours.get(query.rollupLevel()));
+        // leave an hour of slack since retention expiry is performed periodically
+        return query.from() < clock.currentTimeMillis() - expirationMillis + HOURS.toMillis(1);
+    }
+
+    enum Kind {
+        OVERVIEW_AGGREGATES, PERCENTILE_AGGREGATES, THROUGHPUT_AGGREGATES, QUERIES,
+        SERVICE_CALLS, MAIN_THREAD_PROFILE, AUX_THREAD_PROFILE
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface CacheKey {
+        TransactionQuery query();
+        Kind kind();
+    }
+
+    private static class CachedResult<T> {
+
+        private final T value;
+        private final int weight;
+
+        private CachedResult(T value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+
+        private T value() {
+            return value;
+        }
+
+        private int weight() {
+            return weight;
+        }
+    }
+}
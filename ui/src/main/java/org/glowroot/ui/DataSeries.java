@@ -46,4 +46,18 @@ class DataSeries {
     void addNull() {
         data.add(null);
     }
+
+    List<Number /*@Nullable*/[]> getData() {
+        return data;
+    }
+
+    // indexes must be in ascending order
+    void retainAll(List<Integer> indexes) {
+        List<Number /*@Nullable*/[]> retained = Lists.newArrayListWithCapacity(indexes.size());
+        for (int index : indexes) {
+            retained.add(data.get(index));
+        }
+        data.clear();
+        data.addAll(retained);
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// streams a chart json response {"dataSeries":[...], ...} one data series per chunk, so that the
+// json response is written directly to the outbound buffer instead of first being built up as a
+// string
+class DataSeriesChunkSource extends ChunkSource {
+
+    private final ObjectMapper mapper;
+    private final List<DataSeries> dataSeriesList;
+
+    DataSeriesChunkSource(ObjectMapper mapper, List<DataSeries> dataSeriesList) {
+        this.mapper = mapper;
+        this.dataSeriesList = dataSeriesList;
+    }
+
+    @Override
+    public ChunkCopier getCopier(Writer writer) throws IOException {
+        JsonGenerator jg = mapper.getFactory().createGenerator(writer);
+        // the writer is owned (and closed) by the caller
+        jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return new DataSeriesChunkCopier(jg);
+    }
+
+    // subclasses can override to write additional fields after the data series
+    void writeOtherFields(JsonGenerator jg) throws IOException {}
+
+    private class DataSeriesChunkCopier implements ChunkCopier {
+
+        private final JsonGenerator jg;
+
+        private int index = -1;
+        private boolean done;
+
+        private DataSeriesChunkCopier(JsonGenerator jg) {
+            this.jg = jg;
+        }
+
+        @Override
+        public boolean copyNext() throws IOException {
+            if (done) {
+                return false;
+            }
+            if (index == -1) {
+                jg.writeStartObject();
+                jg.writeArrayFieldStart("dataSeries");
+            } else if (index < dataSeriesList.size()) {
+                jg.writeObject(dataSeriesList.get(index));
+            } else {
+                jg.writeEndArray();
+                writeOtherFields(jg);
+                jg.writeEndObject();
+                done = true;
+            }
+            index++;
+            jg.flush();
+            return true;
+        }
+    }
+}
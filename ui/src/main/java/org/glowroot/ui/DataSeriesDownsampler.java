@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+// downsamples chart data series to (roughly) the number of pixels available in the chart, using
+// the largest-triangle-three-buckets algorithm, which keeps the points that contribute most to the
+// visual shape of the line (e.g. spikes), unlike simple averaging or decimation
+//
+// the data series of a chart are stacked (or at least share a tooltip), so the same points are
+// retained across all of the data series, selected based on the sum of the data series values
+//
+// null data points (gaps) are always retained, and each segment between gaps is downsampled
+// separately (proportionally to its size) so that the end points of each segment are retained
+class DataSeriesDownsampler {
+
+    private DataSeriesDownsampler() {}
+
+    static void downsample(List<DataSeries> dataSeriesList, int maxDataPoints) {
+        if (dataSeriesList.isEmpty() || maxDataPoints <= 0) {
+            return;
+        }
+        int size = dataSeriesList.get(0).getData().size();
+        if (size <= maxDataPoints) {
+            return;
+        }
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        boolean[] gaps = new boolean[size];
+        int nonNullCount = 0;
+        for (int i = 0; i < size; i++) {
+            for (DataSeries dataSeries : dataSeriesList) {
+                Number[] point = dataSeries.getData().get(i);
+                if (point == null) {
+                    gaps[i] = true;
+                } else {
+                    xs[i] = point[0].doubleValue();
+                    ys[i] += point[1].doubleValue();
+                }
+            }
+            if (!gaps[i]) {
+                nonNullCount++;
+            }
+        }
+        List<Integer> indexes = Lists.newArrayList();
+        int segmentStart = 0;
+        for (int i = 0; i <= size; i++) {
+            if (i < size && !gaps[i]) {
+                continue;
+            }
+            int segmentSize = i - segmentStart;
+            if (segmentSize > 0) {
+                int threshold =
+                        (int) Math.round((double) maxDataPoints * segmentSize / nonNullCount);
+                addLargestTriangleThreeBuckets(xs, ys, segmentStart, segmentSize, threshold,
+                        indexes);
+            }
+            if (i < size) {
+                indexes.add(i);
+            }
+            segmentStart = i + 1;
+        }
+        for (DataSeries dataSeries : dataSeriesList) {
+            dataSeries.retainAll(indexes);
+        }
+    }
+
+    private static void addLargestTriangleThreeBuckets(double[] xs, double[] ys, int start,
+            int size, int threshold, List<Integer> indexes) {
+        if (size <= threshold || size <= 2) {
+            for (int i = start; i < start + size; i++) {
+                indexes.add(i);
+            }
+            return;
+        }
+        int end = start + size;
+        indexes.add(start);
+        if (threshold > 2) {
+            // first and last points are always retained, remaining points are split into buckets
+            double bucketSize = (double) (size - 2) / (threshold - 2);
+            int selected = start;
+            for (int bucket = 0; bucket < threshold - 2; bucket++) {
+                int bucketStart = start + (int) Math.floor(bucket * bucketSize) + 1;
+                int bucketEnd = start + (int) Math.floor((bucket + 1) * bucketSize) + 1;
+                // the third point of the triangle is the average of the next bucket
+                int nextBucketEnd =
+                        Math.min(start + (int) Math.floor((bucket + 2) * bucketSize) + 1, end);
+                double avgX = 0;
+                double avgY = 0;
+                for (int i = bucketEnd; i < nextBucketEnd; i++) {
+                    avgX += xs[i];
+                    avgY += ys[i];
+                }
+                int nextBucketSize = nextBucketEnd - bucketEnd;
+                avgX /= nextBucketSize;
+                avgY /= nextBucketSize;
+                double maxArea = -1;
+                int maxAreaIndex = bucketStart;
+                for (int i = bucketStart; i < bucketEnd; i++) {
+                    // (double) triangle area, no need to divide by 2 since only comparing
+                    double area = Math.abs((xs[selected] - avgX) * (ys[i] - ys[selected])
+                            - (xs[selected] - xs[i]) * (avgY - ys[selected]));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        maxAreaIndex = i;
+                    }
+                }
+                indexes.add(maxAreaIndex);
+                selected = maxAreaIndex;
+            }
+        }
+        indexes.add(end - 1);
+    }
+}
@@ -16,12 +16,17 @@
 package org.glowroot.ui;
 
 import org.glowroot.storage.repo.AggregateRepository;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageFilter;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageResult;
 import org.glowroot.storage.repo.AggregateRepository.ErrorSummarySortOrder;
 import org.glowroot.storage.repo.AggregateRepository.OverallErrorSummary;
 import org.glowroot.storage.repo.AggregateRepository.OverallQuery;
 import org.glowroot.storage.repo.AggregateRepository.TransactionErrorSummary;
+import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
+import org.glowroot.storage.repo.ErrorMessageResultCollector;
 import org.glowroot.storage.repo.ImmutableOverallErrorSummary;
 import org.glowroot.storage.repo.ImmutableOverallQuery;
+import org.glowroot.storage.repo.ImmutableTransactionQuery;
 import org.glowroot.storage.repo.Result;
 import org.glowroot.storage.repo.TransactionErrorSummaryCollector;
 
@@ -86,4 +91,27 @@ class ErrorCommonService {
         }
         return collector.getResult(sortOrder, limit);
     }
+
+    // query.from() is non-inclusive
+    ErrorMessageResult readErrorMessages(TransactionQuery query, ErrorMessageFilter filter,
+            long resolutionMillis, int limit) throws Exception {
+        long revisedFrom = query.from();
+        ErrorMessageResultCollector collector =
+                new ErrorMessageResultCollector(filter, resolutionMillis);
+        for (int rollupLevel = query.rollupLevel(); rollupLevel >= 0; rollupLevel--) {
+            TransactionQuery revisedQuery = ImmutableTransactionQuery.builder()
+                    .copyFrom(query)
+                    .from(revisedFrom)
+                    .to(query.to())
+                    .rollupLevel(rollupLevel)
+                    .build();
+            aggregateRepository.mergeInErrorMessages(collector, revisedQuery);
+            long lastRolledUpTime = collector.getLastCaptureTime();
+            revisedFrom = Math.max(revisedFrom, lastRolledUpTime + 1);
+            if (revisedFrom > query.to()) {
+                break;
+            }
+        }
+        return collector.getResult(limit);
+    }
 }
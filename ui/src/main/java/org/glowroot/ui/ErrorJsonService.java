@@ -33,6 +33,10 @@ import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.common.util.Styles;
 import org.glowroot.storage.repo.AggregateRepository;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageCount;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageFilter;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessagePoint;
+import org.glowroot.storage.repo.AggregateRepository.ErrorMessageResult;
 import org.glowroot.storage.repo.AggregateRepository.OverallErrorSummary;
 import org.glowroot.storage.repo.AggregateRepository.OverallQuery;
 import org.glowroot.storage.repo.AggregateRepository.ThroughputAggregate;
@@ -40,14 +44,9 @@ import org.glowroot.storage.repo.AggregateRepository.TransactionErrorSummary;
 import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
 import org.glowroot.storage.repo.ImmutableErrorMessageFilter;
 import org.glowroot.storage.repo.ImmutableOverallQuery;
-import org.glowroot.storage.repo.ImmutableTraceQuery;
 import org.glowroot.storage.repo.ImmutableTransactionQuery;
 import org.glowroot.storage.repo.Result;
 import org.glowroot.storage.repo.TraceRepository;
-import org.glowroot.storage.repo.TraceRepository.ErrorMessageCount;
-import org.glowroot.storage.repo.TraceRepository.ErrorMessageFilter;
-import org.glowroot.storage.repo.TraceRepository.ErrorMessagePoint;
-import org.glowroot.storage.repo.TraceRepository.ErrorMessageResult;
 import org.glowroot.storage.repo.TraceRepository.TraceQuery;
 import org.glowroot.storage.repo.helper.RollupLevelService;
 
@@ -80,14 +79,7 @@ class ErrorJsonService {
     @GET("/backend/error/messages")
     String getData(String queryString) throws Exception {
         ErrorMessageRequest request = QueryStrings.decode(queryString, ErrorMessageRequest.class);
-        TraceQuery query = ImmutableTraceQuery.builder()
-                .agentRollup(request.agentRollup())
-                .transactionType(request.transactionType())
-                .transactionName(request.transactionName())
-                .from(request.from())
-                .to(request.to())
-                .build();
-        TransactionQuery transactionQuery = ImmutableTransactionQuery.builder()
+        TransactionQuery query = ImmutableTransactionQuery.builder()
                 .agentRollup(request.agentRollup())
                 .transactionType(request.transactionType())
                 .transactionName(request.transactionName())
@@ -102,7 +94,7 @@ class ErrorJsonService {
                 .build();
         long liveCaptureTime = clock.currentTimeMillis();
         List<ThroughputAggregate> throughputAggregates =
-                transactionCommonService.getThroughputAggregates(transactionQuery);
+                transactionCommonService.getThroughputAggregates(query);
         DataSeries dataSeries = new DataSeries(null);
         Map<Long, Long[]> dataSeriesExtra = Maps.newHashMap();
         Map<Long, Long> transactionCountMap = Maps.newHashMap();
@@ -117,14 +109,17 @@ class ErrorJsonService {
                     throughputAggregates.get(throughputAggregates.size() - 1).captureTime();
             long resolutionMillis =
                     rollupLevelService.getDataPointIntervalMillis(query.from(), query.to());
-            ErrorMessageResult result = traceRepository.readErrorMessages(
-                    ImmutableTraceQuery.builder().copyFrom(query).to(maxCaptureTime).build(),
+            ErrorMessageResult result = errorCommonService.readErrorMessages(
+                    ImmutableTransactionQuery.builder()
+                            .copyFrom(query)
+                            .to(maxCaptureTime)
+                            .build(),
                     filter, resolutionMillis, request.errorMessageLimit());
             List<ErrorPoint> errorPoints = Lists.newArrayList();
             for (ErrorMessagePoint traceErrorPoint : result.points()) {
                 long captureTime = traceErrorPoint.captureTime();
                 if (captureTime > maxCaptureTime) {
-                    // traceRepository.readErrorMessages() returns capture time on resolutionMillis,
+                    // readErrorMessages() returns capture time on resolutionMillis,
                     // while throughputAggregates may return last capture time at a finer rollup
                     // level
                     captureTime = maxCaptureTime;
@@ -189,7 +184,7 @@ class ErrorJsonService {
         return sb.toString();
     }
 
-    private void populateDataSeries(TraceQuery query, List<ErrorPoint> errorPoints,
+    private void populateDataSeries(TransactionQuery query, List<ErrorPoint> errorPoints,
             DataSeries dataSeries, Map<Long, Long[]> dataSeriesExtra, long liveCaptureTime)
                     throws Exception {
         DataSeriesHelper dataSeriesHelper = new DataSeriesHelper(liveCaptureTime,
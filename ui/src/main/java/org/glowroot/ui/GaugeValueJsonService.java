@@ -17,14 +17,15 @@ package org.glowroot.ui;
 
 import java.util.List;
 
-import com.fasterxml.jackson.core.JsonGenerator;
+import javax.annotation.Nullable;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
-import com.google.common.io.CharStreams;
 import org.immutables.value.Value;
 
+import org.glowroot.common.live.LiveJvmService;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.GaugeValueRepository;
@@ -41,16 +42,19 @@ class GaugeValueJsonService {
     private final GaugeValueRepository gaugeValueRepository;
     private final RollupLevelService rollupLevelService;
     private final ConfigRepository configRepository;
+    private final @Nullable LiveJvmService liveJvmService;
 
     GaugeValueJsonService(GaugeValueRepository gaugeValueRepository,
-            RollupLevelService rollupLevelService, ConfigRepository configRepository) {
+            RollupLevelService rollupLevelService, ConfigRepository configRepository,
+            @Nullable LiveJvmService liveJvmService) {
         this.gaugeValueRepository = gaugeValueRepository;
         this.rollupLevelService = rollupLevelService;
         this.configRepository = configRepository;
+        this.liveJvmService = liveJvmService;
     }
 
     @GET("/backend/jvm/gauge-values")
-    String getGaugeValues(String queryString) throws Exception {
+    ChunkSource getGaugeValues(String queryString) throws Exception {
         GaugeValueRequest request = QueryStrings.decode(queryString, GaugeValueRequest.class);
         int rollupLevel =
                 rollupLevelService.getGaugeRollupLevelForView(request.from(), request.to());
@@ -69,15 +73,17 @@ class GaugeValueJsonService {
         for (String gaugeName : request.gaugeNames()) {
             List<GaugeValue> gaugeValues = getGaugeValues(request.agentRollup(), revisedFrom,
                     revisedTo, gaugeName, rollupLevel);
-            dataSeriesList.add(convertToDataSeriesWithGaps(gaugeName, gaugeValues, gapMillis));
+            DataSeries dataSeries =
+                    convertToDataSeriesWithGaps(gaugeName, gaugeValues, gapMillis);
+            Integer maxDataPoints = request.maxDataPoints();
+            if (maxDataPoints != null) {
+                // gauge data series are not stacked and do not share capture times, so each is
+                // downsampled independently
+                DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), maxDataPoints);
+            }
+            dataSeriesList.add(dataSeries);
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        jg.writeStartObject();
-        jg.writeObjectField("dataSeries", dataSeriesList);
-        jg.writeEndObject();
-        jg.close();
-        return sb.toString();
+        return new DataSeriesChunkSource(mapper, dataSeriesList);
     }
 
     @GET("/backend/jvm/all-gauges")
@@ -94,7 +100,7 @@ class GaugeValueJsonService {
         List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollup, gaugeName,
                 from, to, rollupLevel);
         if (rollupLevel == 0) {
-            return gaugeValues;
+            return mergeInGaugeSamples(agentRollup, gaugeName, gaugeValues, from, to);
         }
         long nonRolledUpFrom = from;
         if (!gaugeValues.isEmpty()) {
@@ -110,6 +116,30 @@ class GaugeValueJsonService {
         return gaugeValues;
     }
 
+    // high resolution gauge samples (if enabled) are only held in memory on the agent for the last
+    // few minutes, and replace the stored summary values for the time range that they cover
+    private List<GaugeValue> mergeInGaugeSamples(String agentRollup, String gaugeName,
+            List<GaugeValue> gaugeValues, long from, long to) throws Exception {
+        if (liveJvmService == null) {
+            return gaugeValues;
+        }
+        List<GaugeValue> gaugeSamples =
+                liveJvmService.getGaugeSamples(agentRollup, gaugeName, from, to);
+        if (gaugeSamples.isEmpty()) {
+            return gaugeValues;
+        }
+        long firstSampleTime = gaugeSamples.get(0).getCaptureTime();
+        List<GaugeValue> mergedGaugeValues = Lists.newArrayList();
+        for (GaugeValue gaugeValue : gaugeValues) {
+            if (gaugeValue.getCaptureTime() >= firstSampleTime) {
+                break;
+            }
+            mergedGaugeValues.add(gaugeValue);
+        }
+        mergedGaugeValues.addAll(gaugeSamples);
+        return mergedGaugeValues;
+    }
+
     private List<GaugeValue> rollUpGaugeValues(List<GaugeValue> orderedNonRolledUpGaugeValues,
             String gaugeName, int rollupLevel) {
         long fixedIntervalMillis =
@@ -184,6 +214,9 @@ class GaugeValueJsonService {
         long from();
         long to();
         ImmutableList<String> gaugeNames();
+        // chart width in pixels, chart data series are downsampled to this number of points
+        @Nullable
+        Integer maxDataPoints();
     }
 
     private static class GaugeOrdering extends Ordering<Gauge> {
@@ -70,10 +70,14 @@ class HttpServer {
         ThreadFactory workerThreadFactory = new ThreadFactoryBuilder().setDaemon(true)
                 .setNameFormat("Glowroot-Http-Worker-%d").build();
         bossGroup = new NioEventLoopGroup(1, bossThreadFactory);
-        workerGroup = new NioEventLoopGroup(numWorkerThreads, workerThreadFactory);
+        // json service requests are executed by the json service executor, so the event loop
+        // threads are only needed for i/o (and for the lighter weight non-json http services)
+        int numEventLoopThreads =
+                Math.min(numWorkerThreads, Runtime.getRuntime().availableProcessors());
+        workerGroup = new NioEventLoopGroup(numEventLoopThreads, workerThreadFactory);
 
         final HttpServerHandler handler = new HttpServerHandler(layoutService, httpServices,
-                httpSessionManager, jsonServices);
+                httpSessionManager, jsonServices, new JsonServiceExecutor(numWorkerThreads));
 
         bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
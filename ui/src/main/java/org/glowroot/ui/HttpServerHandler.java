@@ -26,6 +26,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,7 +39,9 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
 import com.google.common.net.MediaType;
@@ -53,11 +56,14 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.QueryStringDecoder;
@@ -77,9 +83,11 @@ import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_MODIFIED;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_TIMEOUT;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 @Sharable
@@ -108,6 +116,10 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
                     .put("map", MediaType.JSON_UTF_8)
                     .build();
 
+    // these are already compressed
+    private static final ImmutableSet<String> uncompressibleExtensions =
+            ImmutableSet.of("woff", "woff2", "swf");
+
     static {
         URL resourceBaseUrl = getUrlForPath(RESOURCE_BASE);
         if (resourceBaseUrl == null) {
@@ -123,15 +135,22 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
     private final ImmutableMap<Pattern, HttpService> httpServices;
     private final ImmutableList<JsonServiceMapping> jsonServiceMappings;
     private final HttpSessionManager httpSessionManager;
+    private final JsonServiceExecutor jsonServiceExecutor;
+
+    // keyed by path, static resources under RESOURCE_BASE are bounded by the contents of the jar
+    private final ConcurrentMap<String, StaticResource> staticResources =
+            Maps.newConcurrentMap();
 
     private final ThreadLocal</*@Nullable*/ Channel> currentChannel =
             new ThreadLocal</*@Nullable*/ Channel>();
 
     HttpServerHandler(LayoutService layoutService, Map<Pattern, HttpService> httpServices,
-            HttpSessionManager httpSessionManager, List<Object> jsonServices) {
+            HttpSessionManager httpSessionManager, List<Object> jsonServices,
+            JsonServiceExecutor jsonServiceExecutor) {
         this.layoutService = layoutService;
         this.httpServices = ImmutableMap.copyOf(httpServices);
         this.httpSessionManager = httpSessionManager;
+        this.jsonServiceExecutor = jsonServiceExecutor;
         List<JsonServiceMapping> jsonServiceMappings = Lists.newArrayList();
         for (Object jsonService : jsonServices) {
             for (Method method : jsonService.getClass().getDeclaredMethods()) {
@@ -167,6 +186,7 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
 
     void close() {
         allChannels.close().awaitUninterruptibly();
+        jsonServiceExecutor.close();
     }
 
     void closeAllButCurrent() {
@@ -206,7 +226,7 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
     }
 
     @SuppressWarnings("argument.type.incompatible")
-    private void sendFullResponse(ChannelHandlerContext ctx, FullHttpRequest request,
+    private void sendFullResponse(ChannelHandlerContext ctx, HttpRequest request,
             FullHttpResponse response) throws Exception {
         boolean keepAlive = HttpUtil.isKeepAlive(request);
         if (httpSessionManager.getSessionId(request) != null
@@ -258,8 +278,8 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         }
         JsonServiceMatcher jsonServiceMatcher = getJsonServiceMatcher(request, path);
         if (jsonServiceMatcher != null) {
-            return handleJsonServiceMappings(request, jsonServiceMatcher.jsonServiceMapping(),
-                    jsonServiceMatcher.matcher());
+            return handleJsonServiceMappings(ctx, request,
+                    jsonServiceMatcher.jsonServiceMapping(), jsonServiceMatcher.matcher());
         }
         return handleStaticResource(path, request);
     }
@@ -329,8 +349,11 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         return null;
     }
 
-    private FullHttpResponse handleJsonServiceMappings(FullHttpRequest request,
-            JsonServiceMapping jsonServiceMapping, Matcher matcher) throws Exception {
+    // returns null if the request was handed off to the json service executor, in which case the
+    // response is sent asynchronously
+    private @Nullable FullHttpResponse handleJsonServiceMappings(final ChannelHandlerContext ctx,
+            FullHttpRequest request, final JsonServiceMapping jsonServiceMapping,
+            Matcher matcher) throws Exception {
         if (!httpSessionManager.hasReadAccess(request)) {
             return handleNotAuthenticated(request);
         }
@@ -338,8 +361,8 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         if (!isGetRequest && !httpSessionManager.hasAdminAccess(request)) {
             return handleNotAuthorized();
         }
-        String requestText = getRequestText(request);
-        String[] args = new String[matcher.groupCount()];
+        final String requestText = getRequestText(request);
+        final String[] args = new String[matcher.groupCount()];
         for (int i = 0; i < args.length; i++) {
             String group = matcher.group(i + 1);
             checkNotNull(group);
@@ -347,14 +370,76 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         }
         logger.debug("handleJsonRequest(): serviceMethodName={}, args={}, requestText={}",
                 jsonServiceMapping.methodName(), args, requestText);
-        Object responseObject;
+        // request content is released once channelRead() returns, so only retaining the request
+        // line and headers, which are needed to send the response
+        final HttpRequest requestHeaders =
+                new DefaultHttpRequest(request.protocolVersion(), request.method(), request.uri());
+        requestHeaders.headers().set(request.headers());
+        boolean accepted = jsonServiceExecutor.execute(jsonServiceMapping, ctx.channel(),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        handleJsonRequest(ctx, requestHeaders, jsonServiceMapping, args,
+                                requestText);
+                    }
+                });
+        if (!accepted) {
+            return newHttpResponseWithMessage(SERVICE_UNAVAILABLE,
+                    "Too many requests are already pending, please try again later");
+        }
+        return null;
+    }
+
+    // called from json service executor thread
+    private void handleJsonRequest(ChannelHandlerContext ctx, HttpRequest request,
+            JsonServiceMapping jsonServiceMapping, String[] args, String requestText) {
+        currentChannel.set(ctx.channel());
         try {
-            responseObject = callMethod(jsonServiceMapping.service(),
-                    jsonServiceMapping.methodName(), args, requestText);
+            FullHttpResponse response;
+            try {
+                Object responseObject = callMethod(jsonServiceMapping.service(),
+                        jsonServiceMapping.methodName(), args, requestText);
+                if (responseObject instanceof ChunkSource) {
+                    sendChunkedJsonResponse(ctx, request, (ChunkSource) responseObject);
+                    ctx.flush();
+                    return;
+                }
+                response = buildJsonResponse(responseObject);
+            } catch (Exception e) {
+                response = newHttpResponseFromException(e);
+            }
+            sendFullResponse(ctx, request, response);
+            ctx.flush();
         } catch (Exception e) {
-            return newHttpResponseFromException(e);
+            logger.error(e.getMessage(), e);
+        } finally {
+            currentChannel.remove();
+        }
+    }
+
+    // streams the json response using chunked transfer encoding, so that large responses (e.g. chart
+    // data) are serialized directly into the outbound buffer instead of into an intermediate string
+    private void sendChunkedJsonResponse(ChannelHandlerContext ctx, HttpRequest request,
+            ChunkSource chunkSource) throws Exception {
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, MediaType.JSON_UTF_8);
+        HttpServices.preventCaching(response);
+        if (httpSessionManager.getSessionId(request) != null
+                && httpSessionManager.getAuthenticatedUser(request) == null) {
+            httpSessionManager.deleteSessionCookie(response);
+        }
+        response.headers().add("Glowroot-Layout-Version", layoutService.getLayoutVersion());
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (keepAlive && !request.protocolVersion().isKeepAliveDefault()) {
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+        ctx.write(response);
+        ChannelFuture future = ctx.write(ChunkedInputs.from(chunkSource));
+        HttpServices.addErrorListener(future);
+        if (!keepAlive) {
+            HttpServices.addCloseListener(future);
         }
-        return buildJsonResponse(responseObject);
     }
 
     private FullHttpResponse buildJsonResponse(@Nullable Object responseObject) {
@@ -390,26 +475,54 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
 
     private FullHttpResponse handleStaticResource(String path, HttpRequest request)
             throws IOException {
-        URL url = getSecureUrlForPath(RESOURCE_BASE + path);
-        if (url == null) {
+        StaticResource staticResource = getStaticResource(path);
+        if (staticResource == null) {
             // log at debug only since this is typically just exploit bot spam
             logger.debug("unexpected path: {}", path);
             return new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND);
         }
         Date expires = getExpiresForPath(path);
-        if (request.headers().contains(HttpHeaderNames.IF_MODIFIED_SINCE) && expires == null) {
+        boolean gzipped = staticResource.isGzipped(request);
+        FullHttpResponse response;
+        if (staticResource.matchesIfNoneMatch(request)
+                || request.headers().contains(HttpHeaderNames.IF_MODIFIED_SINCE)
+                        && expires == null) {
             // all static resources without explicit expires are versioned and can be safely
             // cached forever
-            return new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED);
+            response = new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED);
+        } else {
+            // wrapped (not copied) since the content is never modified
+            ByteBuf content = Unpooled.wrappedBuffer(staticResource.getContent(gzipped));
+            response = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+            response.headers().add(HttpHeaderNames.CONTENT_TYPE, staticResource.getMediaType());
+            if (gzipped) {
+                // ConditionalHttpContentCompressor passes through content that already has a
+                // content encoding
+                response.headers().add(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+            }
         }
-        ByteBuf content = Unpooled.copiedBuffer(Resources.toByteArray(url));
-        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+        response.headers().add(HttpHeaderNames.ETAG, staticResource.getEtag(gzipped));
+        response.headers().add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
         if (expires != null) {
             response.headers().add(HttpHeaderNames.EXPIRES, expires);
         } else {
             response.headers().add(HttpHeaderNames.LAST_MODIFIED, new Date(0));
             response.headers().add(HttpHeaderNames.EXPIRES,
                     new Date(System.currentTimeMillis() + TEN_YEARS));
+            response.headers().add(HttpHeaderNames.CACHE_CONTROL,
+                    "public, max-age=" + MILLISECONDS.toSeconds(TEN_YEARS) + ", immutable");
+        }
+        return response;
+    }
+
+    private @Nullable StaticResource getStaticResource(String path) throws IOException {
+        StaticResource staticResource = staticResources.get(path);
+        if (staticResource != null) {
+            return staticResource;
+        }
+        URL url = getSecureUrlForPath(RESOURCE_BASE + path);
+        if (url == null) {
+            return null;
         }
         int extensionStartIndex = path.lastIndexOf('.');
         checkState(extensionStartIndex != -1, "found path under %s with no extension: %s",
@@ -418,9 +531,11 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         MediaType mediaType = mediaTypes.get(extension);
         checkNotNull(mediaType, "found extension under %s with no media type: %s", RESOURCE_BASE,
                 extension);
-        response.headers().add(HttpHeaderNames.CONTENT_TYPE, mediaType);
-        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, Resources.toByteArray(url).length);
-        return response;
+        staticResource = StaticResource.create(Resources.toByteArray(url), mediaType,
+                !uncompressibleExtensions.contains(extension));
+        // ok if multiple threads race to create the same static resource, they are identical
+        staticResources.put(path, staticResource);
+        return staticResource;
     }
 
     private static @Nullable URL getSecureUrlForPath(String path) {
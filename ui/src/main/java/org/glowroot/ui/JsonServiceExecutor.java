@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// executes json service requests outside of the netty event loop, so that slow requests (e.g.
+// large profile merges) cannot block other ui traffic
+//
+// each endpoint is limited to a number of concurrently executing requests, additional requests
+// to the same endpoint wait (without holding a thread) until a prior request to that endpoint
+// completes, and the shared queue favors requests to endpoints that have fewer requests in flight
+class JsonServiceExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonServiceExecutor.class);
+
+    private static final int MAX_CONCURRENT_REQUESTS_PER_ENDPOINT =
+            Integer.getInteger("glowroot.internal.ui.maxConcurrentRequestsPerEndpoint", 2);
+
+    private static final int MAX_PENDING_REQUESTS =
+            Integer.getInteger("glowroot.internal.ui.maxPendingRequests", 100);
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<Object, Endpoint> endpoints =
+            new ConcurrentHashMap<Object, Endpoint>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    JsonServiceExecutor(int numThreads) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("Glowroot-Http-Request-%d").build();
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 0, MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), threadFactory);
+    }
+
+    // returns false if the request was rejected because too many requests are already pending
+    //
+    // the task is skipped if the client disconnects before the task gets to execute, so the task
+    // must not rely on being run for cleanup
+    boolean execute(Object endpointKey, Channel channel, Runnable task) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING_REQUESTS) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        Endpoint endpoint = endpoints.get(endpointKey);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            Endpoint existing = endpoints.putIfAbsent(endpointKey, endpoint);
+            if (existing != null) {
+                endpoint = existing;
+            }
+        }
+        endpoint.execute(new RequestTask(endpoint, channel, task, sequence.getAndIncrement()));
+        return true;
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private class Endpoint {
+
+        @GuardedBy("this")
+        private int inFlightCount;
+        @GuardedBy("this")
+        private final Queue<RequestTask> waiting = Queues.newArrayDeque();
+
+        private void execute(RequestTask task) {
+            synchronized (this) {
+                if (inFlightCount >= MAX_CONCURRENT_REQUESTS_PER_ENDPOINT) {
+                    waiting.add(task);
+                    return;
+                }
+                task.priority = inFlightCount++;
+            }
+            executor.execute(task);
+        }
+
+        private void onComplete() {
+            RequestTask next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    inFlightCount--;
+                    return;
+                }
+                // the completed request's slot is handed directly to the next waiting request
+                next.priority = inFlightCount - 1;
+            }
+            executor.execute(next);
+        }
+    }
+
+    private class RequestTask implements Runnable, Comparable<RequestTask> {
+
+        private final Endpoint endpoint;
+        private final Channel channel;
+        private final Runnable task;
+        private final long sequence;
+
+        // lower values run first
+        private volatile int priority;
+
+        private RequestTask(Endpoint endpoint, Channel channel, Runnable task, long sequence) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+            this.task = task;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            pendingCount.decrementAndGet();
+            try {
+                if (channel.isActive()) {
+                    task.run();
+                } else {
+                    logger.debug("run(): skipping request since client has disconnected");
+                }
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            } finally {
+                endpoint.onComplete();
+            }
+        }
+
+        @Override
+        public int compareTo(RequestTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import com.google.common.net.MediaType;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+
+// static resources are read (and gzipped) once and then served from memory, so that the same
+// javascript bundle isn't re-read from the jar and re-compressed for every page load
+//
+// the gzipped and identity representations have different strong etags, since they have different
+// bytes
+class StaticResource {
+
+    private static final Splitter commaSplitter = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final byte[] content;
+    private final @Nullable byte[] gzippedContent;
+    private final MediaType mediaType;
+    private final String etag;
+    private final String gzippedEtag;
+
+    private StaticResource(byte[] content, @Nullable byte[] gzippedContent, MediaType mediaType,
+            String etag, String gzippedEtag) {
+        this.content = content;
+        this.gzippedContent = gzippedContent;
+        this.mediaType = mediaType;
+        this.etag = etag;
+        this.gzippedEtag = gzippedEtag;
+    }
+
+    static StaticResource create(byte[] content, MediaType mediaType, boolean compressible)
+            throws IOException {
+        byte[] gzippedContent = null;
+        if (compressible) {
+            gzippedContent = gzip(content);
+            if (gzippedContent.length >= content.length) {
+                // e.g. very small files
+                gzippedContent = null;
+            }
+        }
+        String hash = Hashing.sha1().hashBytes(content).toString();
+        return new StaticResource(content, gzippedContent, mediaType, "\"" + hash + "\"",
+                "\"" + hash + "-gzip\"");
+    }
+
+    byte[] getContent(boolean gzipped) {
+        if (gzipped && gzippedContent != null) {
+            return gzippedContent;
+        }
+        return content;
+    }
+
+    MediaType getMediaType() {
+        return mediaType;
+    }
+
+    String getEtag(boolean gzipped) {
+        return gzipped && gzippedContent != null ? gzippedEtag : etag;
+    }
+
+    boolean isGzipped(HttpRequest request) {
+        return gzippedContent != null && acceptsGzip(request);
+    }
+
+    // either representation matches, since a client that has cached one representation can't
+    // be holding an outdated version of the other
+    boolean matchesIfNoneMatch(HttpRequest request) {
+        String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String value : commaSplitter.split(ifNoneMatch)) {
+            if (value.startsWith("W/")) {
+                // weak comparison is allowed for If-None-Match
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag) || value.equals(gzippedEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(HttpRequest request) {
+        String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String value : commaSplitter.split(acceptEncoding)) {
+            int index = value.indexOf(';');
+            String coding = index == -1 ? value : value.substring(0, index).trim();
+            if (coding.equalsIgnoreCase("gzip") || coding.equals("*")) {
+                return index == -1 || !isZeroQuality(value.substring(index + 1));
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String params) {
+        String param = params.trim();
+        if (!param.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(param.substring(2).trim()) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(baos);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return baos.toByteArray();
+    }
+}
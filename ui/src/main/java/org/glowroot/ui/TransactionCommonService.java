@@ -18,11 +18,14 @@ package org.glowroot.ui;
 import java.io.IOException;
 import java.util.List;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.protobuf.AbstractMessage;
 
 import org.glowroot.common.model.MutableProfile;
 import org.glowroot.common.model.QueryCollector;
 import org.glowroot.common.model.ServiceCallCollector;
+import org.glowroot.common.util.Clock;
 import org.glowroot.storage.config.ConfigDefaults;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.AggregateRepository.OverallQuery;
@@ -34,6 +37,7 @@ import org.glowroot.storage.repo.AggregateRepository.ThroughputAggregate;
 import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
 import org.glowroot.storage.repo.AggregateRepository.TransactionSummary;
 import org.glowroot.storage.repo.ConfigRepository;
+import org.glowroot.storage.repo.ConfigRepository.RollupConfig;
 import org.glowroot.storage.repo.ImmutableOverallQuery;
 import org.glowroot.storage.repo.ImmutableOverallSummary;
 import org.glowroot.storage.repo.ImmutableThroughputAggregate;
@@ -43,18 +47,25 @@ import org.glowroot.storage.repo.ProfileCollector;
 import org.glowroot.storage.repo.Result;
 import org.glowroot.storage.repo.TransactionSummaryCollector;
 import org.glowroot.storage.repo.Utils;
+import org.glowroot.storage.repo.helper.RollupLevelService;
+import org.glowroot.ui.AggregateResultCache.Kind;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 
 class TransactionCommonService {
 
     private final AggregateRepository aggregateRepository;
     private final ConfigRepository configRepository;
+    private final AggregateResultCache resultCache;
+    private final Clock clock;
 
     TransactionCommonService(AggregateRepository aggregateRepository,
-            ConfigRepository configRepository) {
+            ConfigRepository configRepository, AggregateResultCache resultCache, Clock clock) {
         this.aggregateRepository = aggregateRepository;
         this.configRepository = configRepository;
+        this.resultCache = resultCache;
+        this.clock = clock;
     }
 
     // query.from() is non-inclusive
@@ -70,7 +81,8 @@ class TransactionCommonService {
 
     // query.from() is INCLUSIVE
     List<OverviewAggregate> getOverviewAggregates(TransactionQuery query) throws Exception {
-        List<OverviewAggregate> aggregates = aggregateRepository.readOverviewAggregates(query);
+        List<OverviewAggregate> aggregates = readStoredAggregates(query,
+                Kind.OVERVIEW_AGGREGATES, new OverviewAggregateReader());
         if (query.rollupLevel() == 0) {
             return aggregates;
         }
@@ -94,7 +106,8 @@ class TransactionCommonService {
 
     // query.from() is INCLUSIVE
     List<PercentileAggregate> getPercentileAggregates(TransactionQuery query) throws Exception {
-        List<PercentileAggregate> aggregates = aggregateRepository.readPercentileAggregates(query);
+        List<PercentileAggregate> aggregates = readStoredAggregates(query,
+                Kind.PERCENTILE_AGGREGATES, new PercentileAggregateReader());
         if (query.rollupLevel() == 0) {
             return aggregates;
         }
@@ -118,7 +131,8 @@ class TransactionCommonService {
 
     // query.from() is INCLUSIVE
     List<ThroughputAggregate> getThroughputAggregates(TransactionQuery query) throws Exception {
-        List<ThroughputAggregate> aggregates = aggregateRepository.readThroughputAggregates(query);
+        List<ThroughputAggregate> aggregates = readStoredAggregates(query,
+                Kind.THROUGHPUT_AGGREGATES, new ThroughputAggregateReader());
         if (query.rollupLevel() == 0) {
             return aggregates;
         }
@@ -334,10 +348,32 @@ class TransactionCommonService {
     }
 
     private List<Aggregate.QueriesByType> getMergedQueries(TransactionQuery query,
-            int maxAggregateQueriesPerType) throws Exception {
-        long revisedFrom = query.from();
-        QueryCollector queryCollector = new QueryCollector(maxAggregateQueriesPerType, 0);
+            final int maxAggregateQueriesPerType) throws Exception {
+        final QueryCollector queryCollector = new QueryCollector(maxAggregateQueriesPerType, 0);
+        long revisedFrom = mergeInSettledBuckets(query, Kind.QUERIES,
+                new BucketReader<List<Aggregate.QueriesByType>>() {
+                    @Override
+                    public List<Aggregate.QueriesByType> read(TransactionQuery bucketQuery)
+                            throws Exception {
+                        QueryCollector bucketCollector =
+                                new QueryCollector(maxAggregateQueriesPerType, 0);
+                        aggregateRepository.mergeInQueries(bucketCollector, bucketQuery);
+                        return bucketCollector.toProto();
+                    }
+                    @Override
+                    public void merge(List<Aggregate.QueriesByType> queries)
+                            throws Exception {
+                        queryCollector.mergeQueries(queries);
+                    }
+                    @Override
+                    public int weigh(List<Aggregate.QueriesByType> queries) {
+                        return getSerializedSize(queries);
+                    }
+                });
         for (int rollupLevel = query.rollupLevel(); rollupLevel >= 0; rollupLevel--) {
+            if (revisedFrom > query.to()) {
+                break;
+            }
             TransactionQuery revisedQuery = ImmutableTransactionQuery.builder()
                     .copyFrom(query)
                     .from(revisedFrom)
@@ -346,19 +382,38 @@ class TransactionCommonService {
             aggregateRepository.mergeInQueries(queryCollector, revisedQuery);
             long lastRolledUpTime = queryCollector.getLastCaptureTime();
             revisedFrom = Math.max(revisedFrom, lastRolledUpTime + 1);
-            if (revisedFrom > query.to()) {
-                break;
-            }
         }
         return queryCollector.toProto();
     }
 
     private List<Aggregate.ServiceCallsByType> getMergedServiceCalls(TransactionQuery query,
-            int maxAggregateServiceCallsPerType) throws Exception {
-        long revisedFrom = query.from();
-        ServiceCallCollector serviceCallCollector =
+            final int maxAggregateServiceCallsPerType) throws Exception {
+        final ServiceCallCollector serviceCallCollector =
                 new ServiceCallCollector(maxAggregateServiceCallsPerType, 0);
+        long revisedFrom = mergeInSettledBuckets(query, Kind.SERVICE_CALLS,
+                new BucketReader<List<Aggregate.ServiceCallsByType>>() {
+                    @Override
+                    public List<Aggregate.ServiceCallsByType> read(TransactionQuery bucketQuery)
+                            throws Exception {
+                        ServiceCallCollector bucketCollector =
+                                new ServiceCallCollector(maxAggregateServiceCallsPerType, 0);
+                        aggregateRepository.mergeInServiceCalls(bucketCollector, bucketQuery);
+                        return bucketCollector.toProto();
+                    }
+                    @Override
+                    public void merge(List<Aggregate.ServiceCallsByType> serviceCalls)
+                            throws Exception {
+                        serviceCallCollector.mergeServiceCalls(serviceCalls);
+                    }
+                    @Override
+                    public int weigh(List<Aggregate.ServiceCallsByType> serviceCalls) {
+                        return getSerializedSize(serviceCalls);
+                    }
+                });
         for (int rollupLevel = query.rollupLevel(); rollupLevel >= 0; rollupLevel--) {
+            if (revisedFrom > query.to()) {
+                break;
+            }
             TransactionQuery revisedQuery = ImmutableTransactionQuery.builder()
                     .copyFrom(query)
                     .from(revisedFrom)
@@ -367,33 +422,46 @@ class TransactionCommonService {
             aggregateRepository.mergeInServiceCalls(serviceCallCollector, revisedQuery);
             long lastRolledUpTime = serviceCallCollector.getLastCaptureTime();
             revisedFrom = Math.max(revisedFrom, lastRolledUpTime + 1);
-            if (revisedFrom > query.to()) {
-                break;
-            }
         }
         return serviceCallCollector.toProto();
     }
 
-    private MutableProfile getMergedProfile(TransactionQuery query, boolean auxiliary)
+    private MutableProfile getMergedProfile(TransactionQuery query, final boolean auxiliary)
             throws Exception {
-        long revisedFrom = query.from();
-        ProfileCollector collector = new ProfileCollector();
+        final ProfileCollector collector = new ProfileCollector();
+        Kind kind = auxiliary ? Kind.AUX_THREAD_PROFILE : Kind.MAIN_THREAD_PROFILE;
+        long revisedFrom = mergeInSettledBuckets(query, kind, new BucketReader<Profile>() {
+            @Override
+            public Profile read(TransactionQuery bucketQuery) throws Exception {
+                ProfileCollector bucketCollector = new ProfileCollector();
+                mergeInStoredProfiles(bucketCollector, bucketQuery, auxiliary);
+                return bucketCollector.getProfile().toProto();
+            }
+            @Override
+            public void merge(Profile profile) {
+                collector.mergeProfile(profile);
+            }
+            @Override
+            public int weigh(Profile profile) {
+                return profile.getSerializedSize();
+            }
+        });
         for (int rollupLevel = query.rollupLevel(); rollupLevel >= 0; rollupLevel--) {
+            if (revisedFrom > query.to()) {
+                break;
+            }
             TransactionQuery revisedQuery = ImmutableTransactionQuery.builder()
                     .copyFrom(query)
                     .from(revisedFrom)
                     .rollupLevel(rollupLevel)
                     .build();
-            if (auxiliary) {
-                aggregateRepository.mergeInAuxThreadProfiles(collector, revisedQuery);
+            if (rollupLevel == query.rollupLevel()) {
+                mergeInStoredProfiles(collector, revisedQuery, auxiliary);
             } else {
-                aggregateRepository.mergeInMainThreadProfiles(collector, revisedQuery);
+                mergeInProfiles(collector, revisedQuery, auxiliary);
             }
             long lastRolledUpTime = collector.getLastCaptureTime();
             revisedFrom = Math.max(revisedFrom, lastRolledUpTime + 1);
-            if (revisedFrom > query.to()) {
-                break;
-            }
         }
         return collector.getProfile();
     }
@@ -415,4 +483,235 @@ class TransactionCommonService {
             return ConfigDefaults.MAX_AGGREGATE_SERVICE_CALLS_PER_TYPE;
         }
     }
+
+    // merges the profiles stored at query.rollupLevel(), except that the settled portion of the
+    // time range that is aligned to the intervals of a coarser rollup level is merged using the
+    // (already merged) profiles stored at that coarser rollup level, similar to a segment tree,
+    // so that the number of stored profiles that need to be merged grows logarithmically instead
+    // of linearly with the size of the time range
+    //
+    // query.from() is non-inclusive
+    private void mergeInStoredProfiles(ProfileCollector collector, TransactionQuery query,
+            boolean auxiliary) throws Exception {
+        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        mergeInStoredProfiles(collector, query, auxiliary, rollupConfigs.size() - 1,
+                rollupConfigs, clock.currentTimeMillis());
+    }
+
+    private void mergeInStoredProfiles(ProfileCollector collector, TransactionQuery query,
+            boolean auxiliary, int rollupLevel, List<RollupConfig> rollupConfigs,
+            long currentTimeMillis) throws Exception {
+        if (query.from() >= query.to()) {
+            return;
+        }
+        if (rollupLevel <= query.rollupLevel()) {
+            mergeInProfiles(collector, query, auxiliary);
+            return;
+        }
+        long intervalMillis = rollupConfigs.get(rollupLevel).intervalMillis();
+        long alignedFrom = Utils.getNextRollupTime(query.from(), intervalMillis);
+        // the rollup of an interval is only relied on once another full interval has passed, to
+        // be sure that it is not still in progress (or that it is not waiting on late data)
+        long settledTo = RollupLevelService.getSafeRollupTime(
+                currentTimeMillis - intervalMillis, intervalMillis);
+        long alignedTo = Math.min(
+                RollupLevelService.getSafeRollupTime(query.to(), intervalMillis), settledTo);
+        if (alignedFrom >= alignedTo) {
+            mergeInStoredProfiles(collector, query, auxiliary, rollupLevel - 1, rollupConfigs,
+                    currentTimeMillis);
+            return;
+        }
+        mergeInStoredProfiles(collector, ImmutableTransactionQuery.builder()
+                .copyFrom(query)
+                .to(alignedFrom)
+                .build(), auxiliary, rollupLevel - 1, rollupConfigs, currentTimeMillis);
+        mergeInProfiles(collector, ImmutableTransactionQuery.builder()
+                .copyFrom(query)
+                .from(alignedFrom)
+                .to(alignedTo)
+                .rollupLevel(rollupLevel)
+                .build(), auxiliary);
+        // the aligned portion is settled, so nothing before alignedTo needs to be read again
+        // (even if the last stored profile in the aligned portion is before alignedTo)
+        collector.updateLastCaptureTime(alignedTo);
+        mergeInStoredProfiles(collector, ImmutableTransactionQuery.builder()
+                .copyFrom(query)
+                .from(alignedTo)
+                .build(), auxiliary, rollupLevel - 1, rollupConfigs, currentTimeMillis);
+    }
+
+    // query.from() is non-inclusive
+    private void mergeInProfiles(ProfileCollector collector, TransactionQuery query,
+            boolean auxiliary) throws Exception {
+        if (auxiliary) {
+            aggregateRepository.mergeInAuxThreadProfiles(collector, query);
+        } else {
+            aggregateRepository.mergeInMainThreadProfiles(collector, query);
+        }
+    }
+
+    // reads aggregates that are already stored at query.rollupLevel(), using cached results for
+    // the settled, rollup-aligned buckets within the time range
+    //
+    // query.from() is INCLUSIVE
+    private <T> List<T> readStoredAggregates(TransactionQuery query, Kind kind,
+            final StoredAggregateReader<T> reader) throws Exception {
+        final List<T> aggregates = Lists.newArrayList();
+        long bucketedTo = mergeInSettledBuckets(ImmutableTransactionQuery.builder()
+                .copyFrom(query)
+                .from(query.from() - 1)
+                .build(), kind, new BucketReader<List<T>>() {
+                    @Override
+                    public List<T> read(TransactionQuery bucketQuery) throws Exception {
+                        return ImmutableList.copyOf(reader.read(ImmutableTransactionQuery.builder()
+                                .copyFrom(bucketQuery)
+                                .from(bucketQuery.from() + 1)
+                                .build()));
+                    }
+                    @Override
+                    public void merge(List<T> bucketAggregates) {
+                        aggregates.addAll(bucketAggregates);
+                    }
+                    @Override
+                    public int weigh(List<T> bucketAggregates) {
+                        int weight = 0;
+                        for (T aggregate : bucketAggregates) {
+                            weight += reader.weigh(aggregate);
+                        }
+                        return weight;
+                    }
+                });
+        long revisedFrom = Math.max(query.from(), bucketedTo + 1);
+        if (revisedFrom <= query.to()) {
+            aggregates.addAll(reader.read(ImmutableTransactionQuery.builder()
+                    .copyFrom(query)
+                    .from(revisedFrom)
+                    .build()));
+        }
+        return aggregates;
+    }
+
+    // merges the results stored at query.rollupLevel() for the portion of the time range up to the
+    // end of the last settled, rollup-aligned bucket, using cached results for the buckets (but
+    // not for the unaligned portion before the first bucket)
+    //
+    // returns the end of the last bucket, or query.from() if the time range does not contain any
+    // settled bucket (in which case nothing is merged)
+    //
+    // query.from() is non-inclusive
+    private <T> long mergeInSettledBuckets(TransactionQuery query, Kind kind,
+            BucketReader<T> reader) throws Exception {
+        if (!resultCache.isEnabled()) {
+            return query.from();
+        }
+        long intervalMillis =
+                configRepository.getRollupConfigs().get(query.rollupLevel()).intervalMillis();
+        long bucketMillis = resultCache.getBucketMillis(query.rollupLevel());
+        // see mergeInStoredProfiles() for why the last interval is not considered settled
+        long settledTo = RollupLevelService.getSafeRollupTime(
+                clock.currentTimeMillis() - intervalMillis, intervalMillis);
+        long firstBucketFrom = Utils.getNextRollupTime(query.from(), bucketMillis);
+        long lastBucketTo = RollupLevelService
+                .getSafeRollupTime(Math.min(query.to(), settledTo), bucketMillis);
+        if (firstBucketFrom >= lastBucketTo) {
+            return query.from();
+        }
+        if (query.from() < firstBucketFrom) {
+            reader.merge(reader.read(ImmutableTransactionQuery.builder()
+                    .copyFrom(query)
+                    .to(firstBucketFrom)
+                    .build()));
+        }
+        for (long bucketFrom = firstBucketFrom; bucketFrom < lastBucketTo;
+                bucketFrom += bucketMillis) {
+            TransactionQuery bucketQuery = ImmutableTransactionQuery.builder()
+                    .copyFrom(query)
+                    .from(bucketFrom)
+                    .to(bucketFrom + bucketMillis)
+                    .build();
+            T result = resultCache.get(bucketQuery, kind);
+            if (result == null) {
+                result = reader.read(bucketQuery);
+                resultCache.put(bucketQuery, kind, result, reader.weigh(result));
+            }
+            reader.merge(result);
+        }
+        return lastBucketTo;
+    }
+
+    private static int getSerializedSize(List<? extends AbstractMessage> messages) {
+        int size = 0;
+        for (AbstractMessage message : messages) {
+            size += message.getSerializedSize();
+        }
+        return size;
+    }
+
+    private class OverviewAggregateReader
+            implements StoredAggregateReader<OverviewAggregate> {
+
+        @Override
+        public List<OverviewAggregate> read(TransactionQuery query) throws Exception {
+            return aggregateRepository.readOverviewAggregates(query);
+        }
+
+        @Override
+        public int weigh(OverviewAggregate aggregate) {
+            int weight = 64 + getSerializedSize(aggregate.mainThreadRootTimers())
+                    + getSerializedSize(aggregate.auxThreadRootTimers())
+                    + getSerializedSize(aggregate.asyncRootTimers());
+            Aggregate.ThreadStats mainThreadStats = aggregate.mainThreadStats();
+            if (mainThreadStats != null) {
+                weight += mainThreadStats.getSerializedSize();
+            }
+            Aggregate.ThreadStats auxThreadStats = aggregate.auxThreadStats();
+            if (auxThreadStats != null) {
+                weight += auxThreadStats.getSerializedSize();
+            }
+            return weight;
+        }
+    }
+
+    private class PercentileAggregateReader
+            implements StoredAggregateReader<PercentileAggregate> {
+
+        @Override
+        public List<PercentileAggregate> read(TransactionQuery query) throws Exception {
+            return aggregateRepository.readPercentileAggregates(query);
+        }
+
+        @Override
+        public int weigh(PercentileAggregate aggregate) {
+            return 64 + aggregate.durationNanosHistogram().getSerializedSize();
+        }
+    }
+
+    private class ThroughputAggregateReader
+            implements StoredAggregateReader<ThroughputAggregate> {
+
+        @Override
+        public List<ThroughputAggregate> read(TransactionQuery query) throws Exception {
+            return aggregateRepository.readThroughputAggregates(query);
+        }
+
+        @Override
+        public int weigh(ThroughputAggregate aggregate) {
+            return 32;
+        }
+    }
+
+    private interface StoredAggregateReader<T> {
+        // query.from() is INCLUSIVE
+        List<T> read(TransactionQuery query) throws Exception;
+        int weigh(T aggregate);
+    }
+
+    private interface BucketReader<T> {
+        // reads the results stored at query.rollupLevel()
+        //
+        // query.from() is non-inclusive
+        T read(TransactionQuery query) throws Exception;
+        void merge(T result) throws Exception;
+        int weigh(T result);
+    }
 }
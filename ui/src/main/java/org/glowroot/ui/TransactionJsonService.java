@@ -89,7 +89,7 @@ class TransactionJsonService {
     }
 
     @GET("/backend/transaction/average")
-    String getOverview(String queryString) throws Exception {
+    ChunkSource getOverview(String queryString) throws Exception {
         TransactionDataRequest request =
                 QueryStrings.decode(queryString, TransactionDataRequest.class);
         TransactionQuery query = toQuery(request);
@@ -98,51 +98,48 @@ class TransactionJsonService {
                 transactionCommonService.getOverviewAggregates(query);
         List<DataSeries> dataSeriesList =
                 getDataSeriesForTimerChart(request, overviewAggregates, liveCaptureTime);
-        Map<Long, Long> transactionCounts = getTransactionCounts(overviewAggregates);
+        final Map<Long, Long> transactionCounts = getTransactionCounts(overviewAggregates);
         if (!overviewAggregates.isEmpty()
                 && overviewAggregates.get(0).captureTime() == request.from()) {
             // the left most aggregate is not really in the requested interval since it is for
             // prior capture times
             overviewAggregates = overviewAggregates.subList(1, overviewAggregates.size());
         }
-        MergedAggregate mergedAggregate = AggregateMerging.getMergedAggregate(overviewAggregates);
-
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        jg.writeStartObject();
-        jg.writeObjectField("dataSeries", dataSeriesList);
-        jg.writeObjectField("transactionCounts", transactionCounts);
-        jg.writeObjectField("mergedAggregate", mergedAggregate);
-        jg.writeEndObject();
-        jg.close();
-        return sb.toString();
+        final MergedAggregate mergedAggregate =
+                AggregateMerging.getMergedAggregate(overviewAggregates);
+        downsample(dataSeriesList, request);
+        return new DataSeriesChunkSource(mapper, dataSeriesList) {
+            @Override
+            void writeOtherFields(JsonGenerator jg) throws IOException {
+                jg.writeObjectField("transactionCounts", transactionCounts);
+                jg.writeObjectField("mergedAggregate", mergedAggregate);
+            }
+        };
     }
 
     @GET("/backend/transaction/percentiles")
-    String getPercentiles(String queryString) throws Exception {
+    ChunkSource getPercentiles(String queryString) throws Exception {
         TransactionDataRequest request =
                 QueryStrings.decode(queryString, TransactionDataRequest.class);
         TransactionQuery query = toQuery(request);
         long liveCaptureTime = clock.currentTimeMillis();
         List<PercentileAggregate> percentileAggregates =
                 transactionCommonService.getPercentileAggregates(query);
-        PercentileData percentileData = getDataSeriesForPercentileChart(request,
+        final PercentileData percentileData = getDataSeriesForPercentileChart(request,
                 percentileAggregates, request.percentile(), liveCaptureTime);
-        Map<Long, Long> transactionCounts = getTransactionCounts2(percentileAggregates);
-
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        jg.writeStartObject();
-        jg.writeObjectField("dataSeries", percentileData.dataSeriesList());
-        jg.writeObjectField("transactionCounts", transactionCounts);
-        jg.writeObjectField("mergedAggregate", percentileData.mergedAggregate());
-        jg.writeEndObject();
-        jg.close();
-        return sb.toString();
+        final Map<Long, Long> transactionCounts = getTransactionCounts2(percentileAggregates);
+        downsample(percentileData.dataSeriesList(), request);
+        return new DataSeriesChunkSource(mapper, percentileData.dataSeriesList()) {
+            @Override
+            void writeOtherFields(JsonGenerator jg) throws IOException {
+                jg.writeObjectField("transactionCounts", transactionCounts);
+                jg.writeObjectField("mergedAggregate", percentileData.mergedAggregate());
+            }
+        };
     }
 
     @GET("/backend/transaction/throughput")
-    String getThroughput(String queryString) throws Exception {
+    ChunkSource getThroughput(String queryString) throws Exception {
         TransactionDataRequest request =
                 QueryStrings.decode(queryString, TransactionDataRequest.class);
         TransactionQuery query = toQuery(request);
@@ -151,12 +148,12 @@ class TransactionJsonService {
                 transactionCommonService.getThroughputAggregates(query);
         List<DataSeries> dataSeriesList =
                 getDataSeriesForThroughputChart(request, throughputAggregates, liveCaptureTime);
-        long transactionCount = 0;
+        long totalTransactionCount = 0;
         for (ThroughputAggregate throughputAggregate : throughputAggregates) {
             // not including transaction count where captureTime == request.from() since that
             // will be transaction count for interval outside of chart
             if (throughputAggregate.captureTime() > request.from()) {
-                transactionCount += throughputAggregate.transactionCount();
+                totalTransactionCount += throughputAggregate.transactionCount();
             }
         }
         if (!throughputAggregates.isEmpty()
@@ -165,17 +162,17 @@ class TransactionJsonService {
             // prior capture times
             throughputAggregates = throughputAggregates.subList(1, throughputAggregates.size());
         }
-
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        jg.writeStartObject();
-        jg.writeObjectField("dataSeries", dataSeriesList);
-        jg.writeNumberField("transactionCount", transactionCount);
-        jg.writeNumberField("transactionsPerMin",
-                60000.0 * transactionCount / (request.to() - request.from()));
-        jg.writeEndObject();
-        jg.close();
-        return sb.toString();
+        final long transactionCount = totalTransactionCount;
+        final double transactionsPerMin =
+                60000.0 * transactionCount / (request.to() - request.from());
+        downsample(dataSeriesList, request);
+        return new DataSeriesChunkSource(mapper, dataSeriesList) {
+            @Override
+            void writeOtherFields(JsonGenerator jg) throws IOException {
+                jg.writeNumberField("transactionCount", transactionCount);
+                jg.writeNumberField("transactionsPerMin", transactionsPerMin);
+            }
+        };
     }
 
     @GET("/backend/transaction/queries")
@@ -356,6 +353,14 @@ class TransactionJsonService {
                 .build();
     }
 
+    private static void downsample(List<DataSeries> dataSeriesList,
+            TransactionDataRequest request) {
+        Integer maxDataPoints = request.maxDataPoints();
+        if (maxDataPoints != null) {
+            DataSeriesDownsampler.downsample(dataSeriesList, maxDataPoints);
+        }
+    }
+
     private Map<Long, Long> getTransactionCounts(List<OverviewAggregate> overviewAggregates) {
         Map<Long, Long> transactionCounts = Maps.newHashMap();
         for (OverviewAggregate overviewAggregate : overviewAggregates) {
@@ -420,15 +425,16 @@ class TransactionJsonService {
                         percentileAggregate.captureTime(), dataSeriesList, null);
             }
             lastPercentileAggregate = percentileAggregate;
-            LazyHistogram durationNanosHistogram =
-                    new LazyHistogram(percentileAggregate.durationNanosHistogram());
+            Aggregate.Histogram durationNanosHistogram =
+                    percentileAggregate.durationNanosHistogram();
+            // rolled up histograms have precomputed values at the default displayed percentiles
+            long[] valuesAtPercentiles =
+                    LazyHistogram.getValuesAtPercentiles(durationNanosHistogram, percentiles);
             for (int i = 0; i < percentiles.size(); i++) {
                 DataSeries dataSeries = dataSeriesList.get(i);
-                double percentile = percentiles.get(i);
                 // convert to milliseconds
                 dataSeries.add(percentileAggregate.captureTime(),
-                        durationNanosHistogram.getValueAtPercentile(percentile)
-                                / NANOSECONDS_PER_MILLISECOND);
+                        valuesAtPercentiles[i] / NANOSECONDS_PER_MILLISECOND);
             }
             if (percentileAggregate.captureTime() > request.from()) {
                 // filtering out the left most aggregate since it is not really in the requested
@@ -675,6 +681,9 @@ class TransactionJsonService {
     interface TransactionDataRequest extends RequestBase {
         // singular because this is used in query string
         ImmutableList<Double> percentile();
+        // chart width in pixels, chart data series are downsampled to this number of points
+        @Nullable
+        Integer maxDataPoints();
     }
 
     @Value.Immutable
@@ -72,8 +72,10 @@ public class UiModule {
                 new IndexHtmlHttpService(httpSessionManager, layoutService);
         LayoutHttpService layoutHttpService =
                 new LayoutHttpService(httpSessionManager, layoutService);
-        TransactionCommonService transactionCommonService =
-                new TransactionCommonService(aggregateRepository, configRepository);
+        AggregateResultCache aggregateResultCache =
+                new AggregateResultCache(configRepository, clock, fat);
+        TransactionCommonService transactionCommonService = new TransactionCommonService(
+                aggregateRepository, configRepository, aggregateResultCache, clock);
         TraceCommonService traceCommonService =
                 new TraceCommonService(traceRepository, liveTraceRepository);
         TransactionJsonService transactionJsonService =
@@ -93,11 +95,11 @@ public class UiModule {
         ConfigJsonService configJsonService = new ConfigJsonService(fat, configRepository,
                 repoAdmin, httpSessionManager, new MailService());
         GaugeValueJsonService gaugeValueJsonService = new GaugeValueJsonService(
-                gaugeValueRepository, rollupLevelService, configRepository);
+                gaugeValueRepository, rollupLevelService, configRepository, liveJvmService);
         AlertConfigJsonService alertJsonService = new AlertConfigJsonService(configRepository);
         AdminJsonService adminJsonService = new AdminJsonService(aggregateRepository,
                 traceRepository, transactionTypeRepository, gaugeValueRepository,
-                liveWeavingService, repoAdmin);
+                aggregateResultCache, liveWeavingService, repoAdmin);
 
         List<Object> jsonServices = Lists.newArrayList();
         jsonServices.add(transactionJsonService);
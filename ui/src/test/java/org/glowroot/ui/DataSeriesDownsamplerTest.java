@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataSeriesDownsamplerTest {
+
+    @Test
+    public void shouldNotDownsampleWhenUnderMaxDataPoints() {
+        // given
+        DataSeries dataSeries = new DataSeries("test");
+        for (int i = 0; i < 10; i++) {
+            dataSeries.add(i, i);
+        }
+
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), 10);
+
+        // then
+        assertThat(dataSeries.getData()).hasSize(10);
+    }
+
+    @Test
+    public void shouldRetainEndPointsAndSpike() {
+        // given
+        DataSeries dataSeries = new DataSeries("test");
+        for (int i = 0; i < 1000; i++) {
+            dataSeries.add(i, i == 500 ? 100 : 1);
+        }
+
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), 50);
+
+        // then
+        List<Number[]> data = dataSeries.getData();
+        assertThat(data).hasSize(50);
+        assertThat(data.get(0)[0]).isEqualTo(0L);
+        assertThat(data.get(49)[0]).isEqualTo(999L);
+        assertThat(getCaptureTimes(data)).contains(500L);
+    }
+
+    @Test
+    public void shouldRetainGapsAndSegmentEndPoints() {
+        // given
+        DataSeries dataSeries = new DataSeries("test");
+        for (int i = 0; i < 500; i++) {
+            dataSeries.add(i, i % 7);
+        }
+        dataSeries.addNull();
+        for (int i = 600; i < 1100; i++) {
+            dataSeries.add(i, i % 7);
+        }
+
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), 100);
+
+        // then
+        List<Number[]> data = dataSeries.getData();
+        assertThat(data).hasSize(101);
+        assertThat(data.get(50)).isNull();
+        assertThat(data.get(49)[0]).isEqualTo(499L);
+        assertThat(data.get(51)[0]).isEqualTo(600L);
+    }
+
+    @Test
+    public void shouldRetainSamePointsAcrossDataSeries() {
+        // given
+        DataSeries dataSeries1 = new DataSeries("one");
+        DataSeries dataSeries2 = new DataSeries("two");
+        for (int i = 0; i < 1000; i++) {
+            dataSeries1.add(i, i % 13);
+            dataSeries2.add(i, i % 17);
+        }
+
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries1, dataSeries2), 100);
+
+        // then
+        assertThat(getCaptureTimes(dataSeries1.getData()))
+                .isEqualTo(getCaptureTimes(dataSeries2.getData()));
+    }
+
+    private static List<Long> getCaptureTimes(List<Number[]> data) {
+        List<Long> captureTimes = Lists.newArrayList();
+        for (Number[] point : data) {
+            captureTimes.add((Long) point[0]);
+        }
+        return captureTimes;
+    }
+}
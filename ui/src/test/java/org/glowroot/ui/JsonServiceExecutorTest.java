@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JsonServiceExecutorTest {
+
+    private JsonServiceExecutor executor;
+    private Channel channel;
+
+    @Before
+    public void beforeEach() {
+        executor = new JsonServiceExecutor(4);
+        channel = mock(Channel.class);
+        when(channel.isActive()).thenReturn(true);
+    }
+
+    @After
+    public void afterEach() {
+        executor.close();
+    }
+
+    @Test
+    public void shouldLimitConcurrentRequestsPerEndpoint() throws Exception {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            executor.execute("slow", channel,
+                    new BlockingTask(release, done, running, maxRunning));
+        }
+        // a different endpoint is not blocked by the slow endpoint
+        CountDownLatch otherDone = new CountDownLatch(1);
+        executor.execute("fast", channel, new CountDownTask(otherDone));
+
+        // then
+        assertThat(otherDone.await(10, SECONDS)).isTrue();
+        release.countDown();
+        assertThat(done.await(10, SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldSkipRequestWhenClientHasDisconnected() throws Exception {
+        // given
+        Channel disconnectedChannel = mock(Channel.class);
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // when
+        executor.execute("endpoint", disconnectedChannel, new IncrementTask(count));
+        executor.execute("endpoint", channel, new CountDownTask(done));
+
+        // then
+        assertThat(done.await(10, SECONDS)).isTrue();
+        assertThat(count.get()).isZero();
+    }
+
+    private static class BlockingTask implements Runnable {
+
+        private final CountDownLatch release;
+        private final CountDownLatch done;
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+
+        private BlockingTask(CountDownLatch release, CountDownLatch done, AtomicInteger running,
+                AtomicInteger maxRunning) {
+            this.release = release;
+            this.done = done;
+            this.running = running;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        public void run() {
+            int curr = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), curr));
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            done.countDown();
+        }
+    }
+
+    private static class CountDownTask implements Runnable {
+
+        private final CountDownLatch latch;
+
+        private CountDownTask(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+
+    private static class IncrementTask implements Runnable {
+
+        private final AtomicInteger count;
+
+        private IncrementTask(AtomicInteger count) {
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.MediaType;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StaticResourceTest {
+
+    private static final byte[] CONTENT = Strings.repeat("var x = 1;\n", 100).getBytes(UTF_8);
+
+    @Test
+    public void shouldServeGzippedContent() throws Exception {
+        // given
+        StaticResource staticResource =
+                StaticResource.create(CONTENT, MediaType.JAVASCRIPT_UTF_8, true);
+        HttpRequest request = newRequest();
+        request.headers().add(HttpHeaderNames.ACCEPT_ENCODING, "gzip, deflate");
+        // when
+        boolean gzipped = staticResource.isGzipped(request);
+        // then
+        assertThat(gzipped).isTrue();
+        byte[] content = staticResource.getContent(true);
+        assertThat(content.length).isLessThan(CONTENT.length);
+        assertThat(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(content))))
+                .isEqualTo(CONTENT);
+        assertThat(staticResource.getEtag(true)).isNotEqualTo(staticResource.getEtag(false));
+    }
+
+    @Test
+    public void shouldNotServeGzippedContent() throws Exception {
+        // given
+        StaticResource staticResource =
+                StaticResource.create(CONTENT, MediaType.JAVASCRIPT_UTF_8, true);
+        HttpRequest request = newRequest();
+        request.headers().add(HttpHeaderNames.ACCEPT_ENCODING, "deflate, gzip;q=0");
+        // when
+        boolean gzipped = staticResource.isGzipped(request);
+        // then
+        assertThat(gzipped).isFalse();
+    }
+
+    @Test
+    public void shouldNotGzipUncompressibleContent() throws Exception {
+        // given
+        StaticResource staticResource = StaticResource.create(CONTENT, MediaType.WOFF, false);
+        HttpRequest request = newRequest();
+        request.headers().add(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        // when
+        boolean gzipped = staticResource.isGzipped(request);
+        // then
+        assertThat(gzipped).isFalse();
+        assertThat(staticResource.getContent(true)).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void shouldMatchEitherEtag() throws Exception {
+        // given
+        StaticResource staticResource =
+                StaticResource.create(CONTENT, MediaType.JAVASCRIPT_UTF_8, true);
+        HttpRequest request1 = newRequest();
+        request1.headers().add(HttpHeaderNames.IF_NONE_MATCH, staticResource.getEtag(false));
+        HttpRequest request2 = newRequest();
+        request2.headers().add(HttpHeaderNames.IF_NONE_MATCH,
+                "\"abc\", W/" + staticResource.getEtag(true));
+        HttpRequest request3 = newRequest();
+        request3.headers().add(HttpHeaderNames.IF_NONE_MATCH, "\"abc\"");
+        // when then
+        assertThat(staticResource.matchesIfNoneMatch(request1)).isTrue();
+        assertThat(staticResource.matchesIfNoneMatch(request2)).isTrue();
+        assertThat(staticResource.matchesIfNoneMatch(request3)).isFalse();
+        assertThat(staticResource.matchesIfNoneMatch(newRequest())).isFalse();
+    }
+
+    private static HttpRequest newRequest() {
+        return new DefaultHttpRequest(HTTP_1_1, HttpMethod.GET, "/app-dist/scripts/app.js");
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.model.QueryCollector;
+import org.glowroot.common.util.Clock;
+import org.glowroot.storage.config.StorageConfig;
+import org.glowroot.storage.repo.AggregateRepository;
+import org.glowroot.storage.repo.AggregateRepository.ThroughputAggregate;
+import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
+import org.glowroot.storage.repo.ConfigRepository;
+import org.glowroot.storage.repo.ConfigRepository.RollupConfig;
+import org.glowroot.storage.repo.ImmutableRollupConfig;
+import org.glowroot.storage.repo.ImmutableThroughputAggregate;
+import org.glowroot.storage.repo.ImmutableTransactionQuery;
+import org.glowroot.storage.repo.ProfileCollector;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class TransactionCommonServiceTest {
+
+    private static final long NOW = HOURS.toMillis(1000);
+
+    private AggregateRepository aggregateRepository;
+    private TransactionCommonService transactionCommonService;
+
+    private ConfigRepository configRepository;
+    private Clock clock;
+
+    @Before
+    public void beforeEach() throws Exception {
+        aggregateRepository = mock(AggregateRepository.class);
+        StorageConfig storageConfig = mock(StorageConfig.class);
+        when(storageConfig.rollupExpirationHours()).thenReturn(ImmutableList.of(48));
+        configRepository = mock(ConfigRepository.class);
+        when(configRepository.getStorageConfig()).thenReturn(storageConfig);
+        when(configRepository.getRollupConfigs()).thenReturn(ImmutableList.<RollupConfig>of(
+                ImmutableRollupConfig.of(MINUTES.toMillis(1), MINUTES.toMillis(15)),
+                ImmutableRollupConfig.of(MINUTES.toMillis(5), HOURS.toMillis(1))));
+        clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(NOW);
+        transactionCommonService = new TransactionCommonService(aggregateRepository,
+                configRepository, new AggregateResultCache(configRepository, clock, true), clock);
+    }
+
+    @Test
+    public void shouldOnlyReadSettledBucketOnce() throws Exception {
+        // given
+        TransactionQuery query = buildQuery(NOW - MINUTES.toMillis(150), NOW - 1000);
+        TransactionQuery headQuery =
+                buildQuery(NOW - MINUTES.toMillis(150), NOW - MINUTES.toMillis(120));
+        TransactionQuery bucketQuery =
+                buildQuery(NOW - MINUTES.toMillis(120) + 1, NOW - MINUTES.toMillis(60));
+        TransactionQuery tailQuery = buildQuery(NOW - MINUTES.toMillis(60) + 1, NOW - 1000);
+        when(aggregateRepository.readThroughputAggregates(headQuery)).thenReturn(
+                ImmutableList.<ThroughputAggregate>of(
+                        ImmutableThroughputAggregate.of(NOW - MINUTES.toMillis(130), 1)));
+        when(aggregateRepository.readThroughputAggregates(bucketQuery)).thenReturn(
+                ImmutableList.<ThroughputAggregate>of(
+                        ImmutableThroughputAggregate.of(NOW - MINUTES.toMillis(90), 2)));
+        when(aggregateRepository.readThroughputAggregates(tailQuery)).thenReturn(
+                ImmutableList.<ThroughputAggregate>of(
+                        ImmutableThroughputAggregate.of(NOW - MINUTES.toMillis(30), 3)));
+
+        // when
+        transactionCommonService.getThroughputAggregates(query);
+        List<ThroughputAggregate> aggregates =
+                transactionCommonService.getThroughputAggregates(query);
+
+        // then
+        assertThat(aggregates).extracting("transactionCount").containsExactly(1L, 2L, 3L);
+        verify(aggregateRepository, times(2)).readThroughputAggregates(headQuery);
+        verify(aggregateRepository, times(1)).readThroughputAggregates(bucketQuery);
+        verify(aggregateRepository, times(2)).readThroughputAggregates(tailQuery);
+        verifyNoMoreInteractions(aggregateRepository);
+    }
+
+    @Test
+    public void shouldReuseSettledBucketForSlidingTimeRange() throws Exception {
+        // given
+        TransactionQuery bucketQuery =
+                buildQuery(NOW - MINUTES.toMillis(120) + 1, NOW - MINUTES.toMillis(60));
+        when(aggregateRepository.readThroughputAggregates(bucketQuery)).thenReturn(
+                ImmutableList.<ThroughputAggregate>of(
+                        ImmutableThroughputAggregate.of(NOW - MINUTES.toMillis(90), 2)));
+
+        // when
+        transactionCommonService.getThroughputAggregates(
+                buildQuery(NOW - MINUTES.toMillis(150), NOW - MINUTES.toMillis(30)));
+        List<ThroughputAggregate> aggregates = transactionCommonService.getThroughputAggregates(
+                buildQuery(NOW - MINUTES.toMillis(149), NOW - MINUTES.toMillis(29)));
+
+        // then
+        assertThat(aggregates).extracting("transactionCount").containsExactly(2L);
+        verify(aggregateRepository, times(1)).readThroughputAggregates(bucketQuery);
+    }
+
+    @Test
+    public void shouldNotCacheUnsettledBucket() throws Exception {
+        // given
+        TransactionQuery query = buildQuery(NOW - MINUTES.toMillis(60), NOW);
+
+        // when
+        transactionCommonService.getThroughputAggregates(query);
+        transactionCommonService.getThroughputAggregates(query);
+
+        // then
+        verify(aggregateRepository, times(2)).readThroughputAggregates(query);
+        verifyNoMoreInteractions(aggregateRepository);
+    }
+
+    @Test
+    public void shouldNotCacheWhenNearRetentionExpiry() throws Exception {
+        // given
+        TransactionQuery query = buildQuery(NOW - HOURS.toMillis(48), NOW - HOURS.toMillis(46));
+        TransactionQuery bucketQuery =
+                buildQuery(NOW - HOURS.toMillis(48) + 1, NOW - HOURS.toMillis(47));
+
+        // when
+        transactionCommonService.getThroughputAggregates(query);
+        transactionCommonService.getThroughputAggregates(query);
+
+        // then
+        verify(aggregateRepository, times(2)).readThroughputAggregates(bucketQuery);
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() throws Exception {
+        // given
+        transactionCommonService = new TransactionCommonService(aggregateRepository,
+                configRepository, new AggregateResultCache(configRepository, clock, false), clock);
+        TransactionQuery query = buildQuery(NOW - MINUTES.toMillis(150), NOW - 1000);
+
+        // when
+        transactionCommonService.getThroughputAggregates(query);
+        transactionCommonService.getThroughputAggregates(query);
+
+        // then
+        verify(aggregateRepository, times(2)).readThroughputAggregates(query);
+        verifyNoMoreInteractions(aggregateRepository);
+    }
+
+    @Test
+    public void shouldOnlyMergeSettledBucketQueriesOnce() throws Exception {
+        // given
+        TransactionQuery query = buildQuery(NOW - MINUTES.toMillis(150), NOW - 1000);
+
+        // when
+        transactionCommonService.getMergedQueries(query);
+        transactionCommonService.getMergedQueries(query);
+
+        // then
+        verify(aggregateRepository, times(2)).mergeInQueries(any(QueryCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(150), NOW - MINUTES.toMillis(120))));
+        verify(aggregateRepository, times(1)).mergeInQueries(any(QueryCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(120), NOW - MINUTES.toMillis(60))));
+        verify(aggregateRepository, times(2)).mergeInQueries(any(QueryCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(60), NOW - 1000)));
+    }
+
+    @Test
+    public void shouldMergeProfilesFromCoarserRollupLevel() throws Exception {
+        // given
+        TransactionQuery query =
+                buildQuery(NOW - MINUTES.toMillis(61), NOW - MINUTES.toMillis(30));
+
+        // when
+        transactionCommonService.getMergedProfile(query, false, ImmutableList.<String>of(),
+                ImmutableList.<String>of(), 0);
+
+        // then
+        verify(aggregateRepository).mergeInMainThreadProfiles(any(ProfileCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(61), NOW - MINUTES.toMillis(60))));
+        verify(aggregateRepository).mergeInMainThreadProfiles(any(ProfileCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(60), NOW - MINUTES.toMillis(30), 1)));
+        verifyNoMoreInteractions(aggregateRepository);
+    }
+
+    @Test
+    public void shouldOnlyMergeSettledProfilesFromCoarserRollupLevel() throws Exception {
+        // given
+        TransactionQuery query = buildQuery(NOW - MINUTES.toMillis(10), NOW);
+
+        // when
+        transactionCommonService.getMergedProfile(query, false, ImmutableList.<String>of(),
+                ImmutableList.<String>of(), 0);
+
+        // then
+        verify(aggregateRepository).mergeInMainThreadProfiles(any(ProfileCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(10), NOW - MINUTES.toMillis(5), 1)));
+        verify(aggregateRepository).mergeInMainThreadProfiles(any(ProfileCollector.class),
+                eq(buildQuery(NOW - MINUTES.toMillis(5), NOW)));
+        verifyNoMoreInteractions(aggregateRepository);
+    }
+
+    private static TransactionQuery buildQuery(long from, long to) {
+        return buildQuery(from, to, 0);
+    }
+
+    private static TransactionQuery buildQuery(long from, long to, int rollupLevel) {
+        return ImmutableTransactionQuery.builder()
+                .agentRollup("")
+                .transactionType("Web")
+                .from(from)
+                .to(to)
+                .rollupLevel(rollupLevel)
+                .build();
+    }
+}
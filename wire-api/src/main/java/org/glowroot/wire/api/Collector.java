@@ -24,6 +24,7 @@ import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.SystemInfo;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 public interface Collector {
@@ -36,10 +37,31 @@ public interface Collector {
 
     void collectGaugeValues(List<GaugeValue> gaugeValues) throws Exception;
 
-    void collectTrace(Trace trace) throws Exception;
+    void collectTrace(TraceReader traceReader) throws Exception;
 
     void log(LogEvent logEvent) throws Exception;
 
+    interface TraceReader {
+
+        String traceId();
+
+        // entries are passed to the visitor one at a time (so they never need to all be held in
+        // memory at the same time), followed by the profiles, and finally the header (since the
+        // header includes the entry count)
+        void accept(TraceVisitor traceVisitor) throws Exception;
+    }
+
+    interface TraceVisitor {
+
+        void visitEntry(Trace.Entry entry) throws Exception;
+
+        void visitMainThreadProfile(Profile profile) throws Exception;
+
+        void visitAuxThreadProfile(Profile profile) throws Exception;
+
+        void visitHeader(Trace.Header header) throws Exception;
+    }
+
     interface AgentConfigUpdater {
         void update(AgentConfig agentConfig) throws IOException;
     }